@@ -1,5 +1,6 @@
 package org.bj.examples.trivia;
 
+import org.bj.examples.trivia.service.slack.impl.DelayedSlackConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.client.RestTemplateBuilder;
@@ -13,7 +14,10 @@ public class TriviaApplication {
 	}
 
 	@Bean
-    public RestTemplate restTemplate(RestTemplateBuilder builder) {
-        return builder.build();
+    public RestTemplate restTemplate(RestTemplateBuilder builder, DelayedSlackConfig delayedSlackConfig) {
+        return builder
+                .setConnectTimeout(delayedSlackConfig.getHttp().getConnectTimeoutMillis())
+                .setReadTimeout(delayedSlackConfig.getHttp().getReadTimeoutMillis())
+                .build();
     }
 }
@@ -0,0 +1,51 @@
+package org.bj.examples.trivia.controller;
+
+import java.io.IOException;
+
+import org.bj.examples.trivia.dto.PreSerializedSlackResponseDoc;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes pre-serialized responses straight to the response body, ahead of
+ * the Jackson converter
+ */
+@Component
+public class PreSerializedResponseConverter extends AbstractHttpMessageConverter<PreSerializedSlackResponseDoc> {
+    public PreSerializedResponseConverter() {
+        super(MediaType.APPLICATION_JSON_UTF8, MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(final Class<?> clazz) {
+        return PreSerializedSlackResponseDoc.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(final Class<?> clazz, final MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected PreSerializedSlackResponseDoc readInternal(
+            final Class<? extends PreSerializedSlackResponseDoc> clazz,
+            final HttpInputMessage inputMessage
+    ) {
+        throw new HttpMessageNotReadableException("Pre-serialized responses are write-only");
+    }
+
+    @Override
+    protected Long getContentLength(final PreSerializedSlackResponseDoc responseDoc, final MediaType contentType) {
+        return (long) responseDoc.getJson().length;
+    }
+
+    @Override
+    protected void writeInternal(final PreSerializedSlackResponseDoc responseDoc, final HttpOutputMessage outputMessage)
+            throws IOException {
+        outputMessage.getBody().write(responseDoc.getJson());
+    }
+}
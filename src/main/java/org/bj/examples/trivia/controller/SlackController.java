@@ -1,9 +1,12 @@
 package org.bj.examples.trivia.controller;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.bj.examples.trivia.dto.SlackRequestDoc;
 import org.bj.examples.trivia.dto.SlackResponseDoc;
-import org.bj.examples.trivia.service.slack.SlackSlashCommandService;
+import org.bj.examples.trivia.service.slack.AsyncSlashCommandService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
@@ -11,15 +14,21 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping(value = "/slack")
 public class SlackController {
-    private final SlackSlashCommandService slackSlashCommandService;
+    private final AsyncSlashCommandService asyncSlashCommandService;
 
     @Autowired
-    public SlackController(final SlackSlashCommandService slackSlashCommandService) {
-        this.slackSlashCommandService = slackSlashCommandService;
+    public SlackController(final AsyncSlashCommandService asyncSlashCommandService) {
+        this.asyncSlashCommandService = asyncSlashCommandService;
     }
 
+    //Slack gives up on a command after 3 seconds, so the servlet thread is
+    //released right away and the response written when the future completes
     @RequestMapping(value = "/slash", method = RequestMethod.POST)
-    public SlackResponseDoc slackSlashCommand(final SlackRequestDoc requestDoc) {
-        return slackSlashCommandService.processSlashCommand(requestDoc);
+    public CompletableFuture<SlackResponseDoc> slackSlashCommand(
+            final SlackRequestDoc requestDoc,
+            @RequestHeader(value = "X-Slack-Retry-Num", required = false) final Integer retryNum
+    ) {
+        requestDoc.setRetryNum(retryNum);
+        return asyncSlashCommandService.processSlashCommand(requestDoc);
     }
 }
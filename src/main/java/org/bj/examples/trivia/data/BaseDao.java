@@ -4,9 +4,15 @@ import java.util.Iterator;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.springframework.dao.OptimisticLockingFailureException;
+
 import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreException;
 import com.google.cloud.datastore.DatastoreOptions;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
 import com.google.cloud.datastore.KeyFactory;
+import com.google.cloud.datastore.Transaction;
 
 public abstract class BaseDao {
     protected final Datastore datastore;
@@ -19,6 +25,61 @@ public abstract class BaseDao {
         keyFactory = datastore.newKeyFactory().setKind(kind);
     }
 
+    /**
+     * Replaces the stored entity in a transaction, provided it still has the
+     * version it was read with, and stores it with the next version. An
+     * entity without a version counts as version 0.
+     *
+     * @return the new version
+     * @throws OptimisticLockingFailureException if the entity was changed or
+     * deleted since it was read, or the transaction lost to a concurrent one
+     */
+    protected long updateVersioned(final Entity entity, final String versionKey, final Long expectedVersion) {
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final long storedVersion = checkVersion(entity.getKey(), transaction.get(entity.getKey()), versionKey, expectedVersion);
+
+            final long nextVersion = storedVersion + 1;
+            transaction.put(Entity.newBuilder(entity).set(versionKey, nextVersion).build());
+            transaction.commit();
+
+            return nextVersion;
+        } catch (DatastoreException e) {
+            if ("ABORTED".equals(e.getReason())) {
+                throw new OptimisticLockingFailureException(kind + " " + entity.getKey().getNameOrId() + " was changed concurrently.", e);
+            }
+
+            throw e;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    /**
+     * The stored entity's version, provided it is still the version it was
+     * read with. An entity without a version counts as version 0.
+     *
+     * @throws OptimisticLockingFailureException if the entity was changed or
+     * deleted since it was read
+     */
+    protected long checkVersion(final Key key, final Entity storedEntity, final String versionKey, final Long expectedVersion) {
+        if (storedEntity == null) {
+            throw new OptimisticLockingFailureException(key.getKind() + " " + key.getNameOrId() + " was deleted.");
+        }
+
+        final long storedVersion = storedEntity.contains(versionKey) ? storedEntity.getLong(versionKey) : 0L;
+
+        if (storedVersion != (expectedVersion == null ? 0L : expectedVersion)) {
+            throw new OptimisticLockingFailureException(key.getKind() + " " + key.getNameOrId() + " is at version "
+                    + storedVersion + ", not " + expectedVersion + ".");
+        }
+
+        return storedVersion;
+    }
+
     protected <T> Stream<T> asStream(Iterator<T> iterator) {
         Iterable<T> iterable = () -> iterator;
         return StreamSupport.stream(iterable.spliterator(), false);
@@ -0,0 +1,53 @@
+package org.bj.examples.trivia.data;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.data.score.ScoreInfo;
+import org.bj.examples.trivia.data.workflow.Workflow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives documents saved before workflows and scores were versioned version
+ * 0 before anything is served. Spring Data treats a document without a
+ * version as new, so saving one read without it would insert a duplicate
+ * instead of updating it.
+ */
+@Profile("mongo")
+@Component
+public class MongoVersionBackfill {
+    private static final Log log = LogFactory.getLog(MongoVersionBackfill.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public MongoVersionBackfill(final MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @PostConstruct
+    public void backfill() {
+        final long workflowCount = backfill(Workflow.class, Workflow.VERSION_KEY);
+        final long scoreInfoCount = backfill(ScoreInfo.class, ScoreInfo.VERSION_KEY);
+
+        if (workflowCount > 0 || scoreInfoCount > 0) {
+            log.info("Set version 0 on " + workflowCount + " workflow(s) and " + scoreInfoCount + " score(s).");
+        }
+    }
+
+    private long backfill(final Class<?> entityClass, final String versionKey) {
+        return mongoTemplate.updateMulti(
+                query(where(versionKey).exists(false)),
+                new Update().set(versionKey, 0L),
+                entityClass
+        ).getModifiedCount();
+    }
+}
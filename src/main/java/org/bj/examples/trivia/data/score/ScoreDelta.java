@@ -0,0 +1,33 @@
+package org.bj.examples.trivia.data.score;
+
+/**
+ * Points to add to a user's score in a channel
+ */
+public class ScoreDelta {
+    private final String channelId;
+    private final String userId;
+    private final long points;
+
+    public ScoreDelta(final String channelId, final String userId, final long points) {
+        this.channelId = channelId;
+        this.userId = userId;
+        this.points = points;
+    }
+
+    public String getChannelId() {
+        return channelId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public long getPoints() {
+        return points;
+    }
+
+    @Override
+    public String toString() {
+        return "ScoreDelta [channelId=" + channelId + ", userId=" + userId + ", points=" + points + "]";
+    }
+}
@@ -2,6 +2,7 @@ package org.bj.examples.trivia.data.score;
 
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -15,6 +16,7 @@ public class ScoreInfo {
     public static final String USER_ID_KEY = "userId";
     public static final String USERNAME_KEY = "username";
     public static final String SCORE_KEY = "score";
+    public static final String VERSION_KEY = "version";
 
     @Id
     private ObjectId id;
@@ -23,6 +25,9 @@ public class ScoreInfo {
     private String username;
     private Long score;
 
+    @Version
+    private Long version;
+
     public ObjectId getId() {
         return id;
     }
@@ -62,4 +67,12 @@ public class ScoreInfo {
     public void setScore(Long score) {
         this.score = score;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
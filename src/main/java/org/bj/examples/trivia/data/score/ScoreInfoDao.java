@@ -1,22 +1,34 @@
 package org.bj.examples.trivia.data.score;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.bj.examples.trivia.data.BaseDao;
 import org.bson.types.ObjectId;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import com.google.cloud.datastore.DatastoreException;
 import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.FullEntity;
-import com.google.cloud.datastore.IncompleteKey;
 import com.google.cloud.datastore.Key;
 import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.QueryResults;
 import com.google.cloud.datastore.StructuredQuery.CompositeFilter;
 import com.google.cloud.datastore.StructuredQuery.OrderBy;
 import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.Transaction;
 
+/**
+ * Scores are keyed by channel and user, so a point is added in a
+ * transaction on that one key and concurrent points, from this instance or
+ * another, are all kept. Scores saved before that were keyed by a random
+ * ObjectId; such a score is moved to its channel and user's key the first
+ * time it gets a point.
+ */
+@Profile("production")
 @Service
 public class ScoreInfoDao extends BaseDao {
     public ScoreInfoDao() {
@@ -36,39 +48,180 @@ public class ScoreInfoDao extends BaseDao {
     }
 
     public ScoreInfo findByChannelIdAndUserId(final String channelId, final String userId) {
-        final Query<Entity> query = Query.newEntityQueryBuilder()
-                .setKind(kind)
-                .setFilter(CompositeFilter.and(
-                        PropertyFilter.eq(ScoreInfo.CHANNEL_ID_KEY, channelId),
-                        PropertyFilter.eq(ScoreInfo.USER_ID_KEY, userId)
-                ))
-                .build();
+        final Entity entity = datastore.get(newKey(channelId, userId));
 
-        final QueryResults<Entity> results = datastore.run(query);
+        return entityToScoreInfo(entity != null ? entity : findLegacyEntity(channelId, userId));
+    }
+
+    /**
+     * Stores a new score at version 0 under its channel and user's key,
+     * unless the user already has one under that key or a legacy one, in
+     * which case nothing is written. It needs no read beforehand.
+     *
+     * @return the existing score, or null if this one was stored
+     */
+    public ScoreInfo putIfAbsent(final ScoreInfo scoreInfo) {
+        final Key key = newKey(scoreInfo.getChannelId(), scoreInfo.getUserId());
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final Entity existingEntity = transaction.get(key);
+
+            if (existingEntity != null) {
+                return entityToScoreInfo(existingEntity);
+            }
+
+            final Entity legacyEntity = findLegacyEntity(scoreInfo.getChannelId(), scoreInfo.getUserId());
+
+            if (legacyEntity != null) {
+                return entityToScoreInfo(legacyEntity);
+            }
+
+            scoreInfo.setVersion(0L);
+            transaction.add(scoreInfoToEntity(key, scoreInfo));
+            transaction.commit();
 
-        if (results.hasNext()) {
-            return entityToScoreInfo(results.next());
-        } else {
             return null;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
         }
     }
 
-    public ScoreInfo save(final ScoreInfo scoreInfo) {
-        if (scoreInfo == null) {
-            return null;
+    /**
+     * Adds a point to the stored score in a transaction on its channel and
+     * user's key, so concurrent points from any instance are all kept
+     *
+     * @return the score after the point, or null if the user has no score
+     * in the channel
+     * @throws OptimisticLockingFailureException if the transaction lost to
+     * a concurrent one
+     */
+    public ScoreInfo incrementScore(final String channelId, final String userId) {
+        final Key key = newKey(channelId, userId);
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final ScoreInfo scoreInfo = addPoint(transaction, channelId, userId, transaction.get(key));
+
+            if (scoreInfo == null) {
+                return null;
+            }
+
+            transaction.commit();
+
+            return scoreInfo;
+        } catch (DatastoreException e) {
+            if ("ABORTED".equals(e.getReason())) {
+                throw new OptimisticLockingFailureException(kind + " " + key.getName() + " was changed concurrently.", e);
+            }
+
+            throw e;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    /**
+     * Adds each delta's points to its score in one transaction, reading
+     * every score with one lookup. Deltas for users with no score, e.g.
+     * after the channel's scores were reset, are dropped.
+     *
+     * @return the number of scores updated
+     * @throws OptimisticLockingFailureException if the transaction lost to
+     * a concurrent one
+     */
+    public int addPoints(final List<ScoreDelta> deltas) {
+        final Key[] keys = deltas.stream()
+                .map(delta -> newKey(delta.getChannelId(), delta.getUserId()))
+                .toArray(Key[]::new);
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final Map<Key, Entity> storedEntities = new HashMap<>();
+            transaction.get(keys).forEachRemaining(entity -> storedEntities.put(entity.getKey(), entity));
+
+            int updatedCount = 0;
+
+            for (int i = 0; i < keys.length; i++) {
+                final ScoreDelta delta = deltas.get(i);
+
+                if (addPoints(transaction, delta.getChannelId(), delta.getUserId(), storedEntities.get(keys[i]), delta.getPoints()) != null) {
+                    updatedCount++;
+                }
+            }
+
+            transaction.commit();
+
+            return updatedCount;
+        } catch (DatastoreException e) {
+            if ("ABORTED".equals(e.getReason())) {
+                throw new OptimisticLockingFailureException(kind + " batch of " + keys.length + " was changed concurrently.", e);
+            }
+
+            throw e;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
         }
+    }
+
+    /**
+     * Puts the score with one more point in the transaction. A score saved
+     * before scores were keyed by channel and user is moved to that key in
+     * the same transaction.
+     *
+     * @param storedEntity the score as read in the transaction from its
+     * channel and user's key, or null if there was none
+     * @return the score after the point, or null if the user has no score
+     * in the channel
+     * @throws OptimisticLockingFailureException if the legacy score was
+     * moved or deleted while this was running
+     */
+    public ScoreInfo addPoint(final Transaction transaction, final String channelId, final String userId, final Entity storedEntity) {
+        return entityToScoreInfo(addPoints(transaction, channelId, userId, storedEntity, 1L));
+    }
+
+    private Entity addPoints(final Transaction transaction, final String channelId, final String userId, final Entity storedEntity, final long points) {
+        Entity entity = storedEntity;
+
+        if (entity == null) {
+            final Entity legacyEntity = findLegacyEntity(channelId, userId);
+
+            if (legacyEntity == null) {
+                return null;
+            }
+
+            //Read again so the transaction fails if it changes before the commit
+            entity = transaction.get(legacyEntity.getKey());
 
-        Entity scoreInfoEntity = null;
+            if (entity == null) {
+                throw new OptimisticLockingFailureException(kind + " " + legacyEntity.getKey().getName() + " was moved.");
+            }
 
-        if (scoreInfo.getId() == null) {
-            final IncompleteKey key = keyFactory.newKey(new ObjectId().toHexString());
-            scoreInfoEntity = datastore.add(scoreInfoToEntity(key, scoreInfo));
-        } else {
-            final Key key = keyFactory.newKey(scoreInfo.getId().toHexString());
-            datastore.update(scoreInfoToEntity(key, scoreInfo));
+            transaction.delete(entity.getKey());
         }
 
-        return entityToScoreInfo(scoreInfoEntity);
+        final long storedVersion = entity.contains(ScoreInfo.VERSION_KEY) ? entity.getLong(ScoreInfo.VERSION_KEY) : 0L;
+        final Entity scoreEntity = Entity.newBuilder(newKey(channelId, userId), entity)
+                .set(ScoreInfo.SCORE_KEY, entity.getLong(ScoreInfo.SCORE_KEY) + points)
+                .set(ScoreInfo.VERSION_KEY, storedVersion + 1)
+                .build();
+        transaction.put(scoreEntity);
+
+        return scoreEntity;
+    }
+
+    /**
+     * Scores are keyed by channel and user, so adding a point is a lookup
+     * and a write on one key rather than a query
+     */
+    public Key newKey(final String channelId, final String userId) {
+        return keyFactory.newKey(channelId + ":" + userId);
     }
 
     public void deleteAllByChannelId(final String channelId) {
@@ -84,22 +237,40 @@ public class ScoreInfoDao extends BaseDao {
         datastore.delete(keys.toArray(new Key[0]));
     }
 
-    private FullEntity<IncompleteKey> scoreInfoToEntity(final IncompleteKey key, final ScoreInfo scoreInfo) {
+    private Entity scoreInfoToEntity(final Key key, final ScoreInfo scoreInfo) {
         return Entity.newBuilder(key)
                 .set(ScoreInfo.CHANNEL_ID_KEY, scoreInfo.getChannelId())
                 .set(ScoreInfo.USER_ID_KEY, scoreInfo.getUserId())
                 .set(ScoreInfo.USERNAME_KEY, scoreInfo.getUsername())
                 .set(ScoreInfo.SCORE_KEY, scoreInfo.getScore())
+                .set(ScoreInfo.VERSION_KEY, scoreInfo.getVersion())
                 .build();
     }
 
-    private Entity scoreInfoToEntity(final Key key, final ScoreInfo scoreInfo) {
-        return Entity.newBuilder(key)
-                .set(ScoreInfo.CHANNEL_ID_KEY, scoreInfo.getChannelId())
-                .set(ScoreInfo.USER_ID_KEY, scoreInfo.getUserId())
-                .set(ScoreInfo.USERNAME_KEY, scoreInfo.getUsername())
-                .set(ScoreInfo.SCORE_KEY, scoreInfo.getScore())
+    /**
+     * The score as saved under an ObjectId key, before scores were keyed by
+     * channel and user
+     */
+    private Entity findLegacyEntity(final String channelId, final String userId) {
+        final Query<Entity> query = Query.newEntityQueryBuilder()
+                .setKind(kind)
+                .setFilter(CompositeFilter.and(
+                        PropertyFilter.eq(ScoreInfo.CHANNEL_ID_KEY, channelId),
+                        PropertyFilter.eq(ScoreInfo.USER_ID_KEY, userId)
+                ))
                 .build();
+
+        final QueryResults<Entity> results = datastore.run(query);
+
+        while (results.hasNext()) {
+            final Entity entity = results.next();
+
+            if (ObjectId.isValid(entity.getKey().getName())) {
+                return entity;
+            }
+        }
+
+        return null;
     }
 
     private ScoreInfo entityToScoreInfo(final Entity entity) {
@@ -108,11 +279,14 @@ public class ScoreInfoDao extends BaseDao {
         }
 
         final ScoreInfo scoreInfo = new ScoreInfo();
-        scoreInfo.setId(new ObjectId(entity.getKey().getName()));
+        //Only scores saved before they were keyed by channel and user have an id
+        scoreInfo.setId(ObjectId.isValid(entity.getKey().getName()) ? new ObjectId(entity.getKey().getName()) : null);
         scoreInfo.setChannelId(entity.getString(ScoreInfo.CHANNEL_ID_KEY));
         scoreInfo.setUserId(entity.getString(ScoreInfo.USER_ID_KEY));
         scoreInfo.setUsername(entity.getString(ScoreInfo.USERNAME_KEY));
         scoreInfo.setScore(entity.getLong(ScoreInfo.SCORE_KEY));
+        //Saved before scores were versioned
+        scoreInfo.setVersion(entity.contains(ScoreInfo.VERSION_KEY) ? entity.getLong(ScoreInfo.VERSION_KEY) : 0L);
 
         return scoreInfo;
     }
@@ -0,0 +1,31 @@
+package org.bj.examples.trivia.data.score;
+
+import java.util.List;
+
+/**
+ * Score changes applied on the server in a single update, so concurrent
+ * changes from other instances are never lost.
+ */
+public interface ScoreInfoRepoCustom {
+    /**
+     * Adds a point to the user's score, returning the score as updated or
+     * null when the user has no score in the channel
+     */
+    ScoreInfo incrementScore(final String channelId, final String userId);
+
+    /**
+     * Adds each delta's points to its score with one unordered bulk write.
+     * Deltas for users with no score are dropped.
+     *
+     * @return the number of scores updated
+     */
+    int addPoints(final List<ScoreDelta> deltas);
+
+    /**
+     * Inserts the score at 0 points with one upsert, unless the user
+     * already has a score in the channel
+     *
+     * @return true if the score was inserted
+     */
+    boolean insertIfAbsent(final ScoreInfo scoreInfo);
+}
@@ -0,0 +1,70 @@
+package org.bj.examples.trivia.data.score;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+
+public class ScoreInfoRepoCustomImpl implements ScoreInfoRepoCustom {
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public ScoreInfoRepoCustomImpl(final MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public ScoreInfo incrementScore(final String channelId, final String userId) {
+        return mongoTemplate.findAndModify(
+                query(where(ScoreInfo.CHANNEL_ID_KEY).is(channelId)
+                        .and(ScoreInfo.USER_ID_KEY).is(userId)),
+                new Update()
+                        .inc(ScoreInfo.SCORE_KEY, 1)
+                        .inc(ScoreInfo.VERSION_KEY, 1),
+                FindAndModifyOptions.options().returnNew(true),
+                ScoreInfo.class
+        );
+    }
+
+    @Override
+    public int addPoints(final List<ScoreDelta> deltas) {
+        final BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ScoreInfo.class);
+
+        for (final ScoreDelta delta : deltas) {
+            operations.updateOne(
+                    query(where(ScoreInfo.CHANNEL_ID_KEY).is(delta.getChannelId())
+                            .and(ScoreInfo.USER_ID_KEY).is(delta.getUserId())),
+                    new Update()
+                            .inc(ScoreInfo.SCORE_KEY, delta.getPoints())
+                            .inc(ScoreInfo.VERSION_KEY, 1)
+            );
+        }
+
+        return operations.execute().getModifiedCount();
+    }
+
+    @Override
+    public boolean insertIfAbsent(final ScoreInfo scoreInfo) {
+        try {
+            return mongoTemplate.upsert(
+                    query(where(ScoreInfo.CHANNEL_ID_KEY).is(scoreInfo.getChannelId())
+                            .and(ScoreInfo.USER_ID_KEY).is(scoreInfo.getUserId())),
+                    new Update()
+                            .setOnInsert(ScoreInfo.USERNAME_KEY, scoreInfo.getUsername())
+                            .setOnInsert(ScoreInfo.SCORE_KEY, 0L)
+                            .setOnInsert(ScoreInfo.VERSION_KEY, 0L),
+                    ScoreInfo.class
+            ).getUpsertedId() != null;
+        } catch (DuplicateKeyException e) {
+            //Inserted by a concurrent upsert
+            return false;
+        }
+    }
+}
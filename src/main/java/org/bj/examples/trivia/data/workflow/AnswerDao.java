@@ -2,31 +2,61 @@ package org.bj.examples.trivia.data.workflow;
 
 import java.sql.Date;
 import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.bj.examples.trivia.data.BaseDao;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
 import com.google.cloud.Timestamp;
 import com.google.cloud.datastore.Entity;
 import com.google.cloud.datastore.FullEntity;
 import com.google.cloud.datastore.IncompleteKey;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.Transaction;
 
-//TODO Move these methods into the WorkflowDao
+/**
+ * Answers are stored as their own entities under the question they answer,
+ * so adding one is a single small write however many came before it, and
+ * a question's answers are read with one ancestor query.
+ */
+@Profile("production")
 @Service
 public class AnswerDao extends BaseDao {
     public AnswerDao() {
         super("Answer");
     }
 
-    public FullEntity<?> answerToEntity(final Answer answer) {
-        final IncompleteKey key = keyFactory.newKey();
+    public void add(final Key questionKey, final Answer answer) {
+        datastore.add(answerToEntity(IncompleteKey.newBuilder(questionKey, kind).build(), answer));
+    }
 
-        return Entity.newBuilder(key)
-                .set(Answer.USER_ID_KEY, answer.getUserId())
-                .set(Answer.USERNAME_KEY, answer.getUsername())
-                .set(Answer.TEXT_KEY, answer.getText())
-                .set(Answer.CREATED_DATE_KEY, Timestamp.of(Date.from(answer.getCreatedDate().atZone(ZoneId.systemDefault()).toInstant())))
+    /**
+     * Adds the answer as part of the transaction, which must be on the
+     * question's entity group
+     */
+    public void add(final Transaction transaction, final Key questionKey, final Answer answer) {
+        transaction.addWithDeferredIdAllocation(answerToEntity(IncompleteKey.newBuilder(questionKey, kind).build(), answer));
+    }
+
+    /**
+     * The question's answers, oldest first
+     */
+    public List<Answer> findAllByQuestion(final Key questionKey) {
+        final Query<Entity> query = Query.newEntityQueryBuilder()
+                .setKind(kind)
+                .setFilter(PropertyFilter.hasAncestor(questionKey))
                 .build();
+
+        //Allocated ids are not in insertion order
+        return asStream(datastore.run(query))
+                .map(this::entityToAnswer)
+                .sorted(Comparator.comparing(Answer::getCreatedDate))
+                .collect(Collectors.toList());
     }
 
     public Answer entityToAnswer(final FullEntity<?> entity) {
@@ -42,4 +72,13 @@ public class AnswerDao extends BaseDao {
 
         return answer;
     }
+
+    FullEntity<IncompleteKey> answerToEntity(final IncompleteKey key, final Answer answer) {
+        return Entity.newBuilder(key)
+                .set(Answer.USER_ID_KEY, answer.getUserId())
+                .set(Answer.USERNAME_KEY, answer.getUsername())
+                .set(Answer.TEXT_KEY, answer.getText())
+                .set(Answer.CREATED_DATE_KEY, Timestamp.of(Date.from(answer.getCreatedDate().atZone(ZoneId.systemDefault()).toInstant())))
+                .build();
+    }
 }
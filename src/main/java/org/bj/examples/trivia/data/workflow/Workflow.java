@@ -1,10 +1,12 @@
 package org.bj.examples.trivia.data.workflow;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -15,6 +17,9 @@ public class Workflow {
     public static final String QUESTION_KEY = "question";
     public static final String ANSWERS_KEY = "answers";
     public static final String STAGE_KEY = "stage";
+    public static final String QUESTION_NUMBER_KEY = "questionNumber";
+    public static final String VERSION_KEY = "version";
+    public static final String LAST_ACTIVITY_DATE_KEY = "lastActivityDate";
 
     @Id
     private ObjectId id;
@@ -27,6 +32,11 @@ public class Workflow {
     private String question;
     private List<Answer> answers = new ArrayList<>();
     private WorkflowStage stage;
+    private long questionNumber;
+    private LocalDateTime lastActivityDate;
+
+    @Version
+    private Long version;
 
     public ObjectId getId() {
         return id;
@@ -83,4 +93,28 @@ public class Workflow {
     public void setStage(WorkflowStage stage) {
         this.stage = stage;
     }
+
+    public long getQuestionNumber() {
+        return questionNumber;
+    }
+
+    public void setQuestionNumber(long questionNumber) {
+        this.questionNumber = questionNumber;
+    }
+
+    public LocalDateTime getLastActivityDate() {
+        return lastActivityDate;
+    }
+
+    public void setLastActivityDate(LocalDateTime lastActivityDate) {
+        this.lastActivityDate = lastActivityDate;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
@@ -1,102 +1,581 @@
 package org.bj.examples.trivia.data.workflow;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.bj.examples.trivia.data.BaseDao;
 import org.bj.examples.trivia.data.score.ScoreInfo;
-import org.bson.types.ObjectId;
+import org.bj.examples.trivia.data.score.ScoreInfoDao;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.Cursor;
+import com.google.cloud.datastore.DatastoreException;
 import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.EntityValue;
+import com.google.cloud.datastore.EntityQuery;
 import com.google.cloud.datastore.FullEntity;
-import com.google.cloud.datastore.IncompleteKey;
 import com.google.cloud.datastore.Key;
-import com.google.cloud.datastore.ListValue;
 import com.google.cloud.datastore.NullValue;
 import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.QueryResults;
 import com.google.cloud.datastore.StringValue;
 import com.google.cloud.datastore.StructuredQuery.PropertyFilter;
+import com.google.cloud.datastore.Transaction;
+import com.google.cloud.datastore.Value;
+import com.google.common.collect.Lists;
 
+/**
+ * Workflows are keyed by their channel id, so they are read with a
+ * strongly consistent lookup and created with a transactional
+ * insert-if-absent. Workflows saved before that were keyed by a random
+ * ObjectId; while {@link WorkflowStoreConfig#isLegacyReads()} is on, a
+ * channel without a keyed workflow is also looked up the old way and the
+ * workflow found is re-keyed on the spot. {@link #migrateLegacyKeys()}
+ * re-keys the rest in batches.
+ * <p>
+ * Answers are not part of the workflow entity; they are appended under
+ * the current question with {@link #addAnswer(Workflow, Answer)} and read
+ * back when the workflow is found. Once the next question is asked, the
+ * last one's answers are removed with {@link #deleteAnswers(String, long)}.
+ * Answers embedded in a workflow saved before that are moved under its
+ * question when the workflow is found, before it can be saved without
+ * them.
+ * <p>
+ * Each save records the workflow's last activity, so workflows left idle
+ * can be found with {@link #findIdleChannelIds(LocalDateTime, int)} and
+ * removed with {@link #deleteIfIdle(String, LocalDateTime)}.
+ */
+@Profile("production")
 @Service
 public class WorkflowDao extends BaseDao {
+    private static final Log log = LogFactory.getLog(WorkflowDao.class);
+
+    private static final String QUESTION_KIND = "Question";
+    private static final int MAX_BATCH_SIZE = 500;
+
     private final AnswerDao answerDao;
+    private final ScoreInfoDao scoreInfoDao;
+    private final WorkflowStoreConfig config;
 
     @Autowired
-    public WorkflowDao(final AnswerDao answerDao) {
+    public WorkflowDao(final AnswerDao answerDao, final ScoreInfoDao scoreInfoDao, final WorkflowStoreConfig config) {
         super("Workflow");
 
         this.answerDao = answerDao;
+        this.scoreInfoDao = scoreInfoDao;
+        this.config = config;
     }
 
     public Workflow findByChannelId(final String channelId) {
-        final Query<Entity> query = Query.newEntityQueryBuilder()
-                .setKind(kind)
-                .setFilter(PropertyFilter.eq(ScoreInfo.CHANNEL_ID_KEY, channelId))
-                .build();
+        final Entity entity = datastore.get(keyFactory.newKey(channelId));
 
-        final QueryResults<Entity> results = datastore.run(query);
-
-        if (results.hasNext()) {
-            return entityToWorkflow(results.next());
+        if (entity != null) {
+            return withAnswers(entityToWorkflow(migrateAnswers(entity)));
+        } else if (config.isLegacyReads()) {
+            return withAnswers(findLegacyByChannelId(channelId));
         } else {
             return null;
         }
     }
 
+    /**
+     * Stores the workflow unless its channel already has one, in which case
+     * nothing is written
+     *
+     * @return the channel's existing workflow, or null if this one was stored
+     */
+    public Workflow putIfAbsent(final Workflow workflow) {
+        final Key key = keyFactory.newKey(workflow.getChannelId());
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final Entity existingEntity = transaction.get(key);
+
+            if (existingEntity != null) {
+                return entityToWorkflow(existingEntity);
+            }
+
+            workflow.setVersion(0L);
+            transaction.add(workflowToEntity(key, workflow));
+            transaction.commit();
+
+            return null;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    /**
+     * Saves everything but the answers, which are added one at a time with
+     * {@link #addAnswer(Workflow, Answer)}, if the stored workflow is still at
+     * the workflow's version, and moves the workflow to the next version
+     *
+     * @throws org.springframework.dao.OptimisticLockingFailureException if
+     * the workflow was changed or deleted since it was read
+     */
     public Workflow save(final Workflow workflow) {
         if (workflow == null) {
             return null;
         }
 
-        Entity workflowEntity = null;
+        final Key key = keyFactory.newKey(workflow.getChannelId());
+        workflow.setVersion(updateVersioned(workflowToEntity(key, workflow), Workflow.VERSION_KEY, workflow.getVersion()));
 
-        if (workflow.getId() == null) {
-            final IncompleteKey key = keyFactory.newKey(new ObjectId().toHexString());
-            workflowEntity = datastore.add(workflowToEntity(key, workflow));
-        } else {
-            final Key key = keyFactory.newKey(workflow.getId().toHexString());
-            datastore.update(workflowToEntity(key, workflow));
+        return workflow;
+    }
+
+    /**
+     * Saves the workflow as {@link #save(Workflow)} does and gives the
+     * winner, if there is one, a point, in one transaction: the workflow and
+     * the score are read with one lookup and written with the commit
+     *
+     * @return the winner's score after the point, or null without a winner
+     * @throws org.springframework.dao.OptimisticLockingFailureException if
+     * the workflow was changed or deleted since it was read, the score was
+     * deleted, or the transaction lost to a concurrent one
+     */
+    public ScoreInfo saveWithPoint(final Workflow workflow, final String winnerUserId) {
+        final Key key = keyFactory.newKey(workflow.getChannelId());
+        final Key scoreKey = winnerUserId == null ? null : scoreInfoDao.newKey(workflow.getChannelId(), winnerUserId);
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final Key[] keys = scoreKey == null ? new Key[] {key} : new Key[] {key, scoreKey};
+            final Map<Key, Entity> storedEntities = new HashMap<>();
+            transaction.get(keys).forEachRemaining(entity -> storedEntities.put(entity.getKey(), entity));
+
+            final long nextVersion = checkVersion(key, storedEntities.get(key), Workflow.VERSION_KEY, workflow.getVersion()) + 1;
+            transaction.put(Entity.newBuilder(workflowToEntity(key, workflow)).set(Workflow.VERSION_KEY, nextVersion).build());
+
+            ScoreInfo winnerScore = null;
+
+            if (scoreKey != null) {
+                winnerScore = scoreInfoDao.addPoint(transaction, workflow.getChannelId(), winnerUserId, storedEntities.get(scoreKey));
+
+                if (winnerScore == null) {
+                    throw new OptimisticLockingFailureException("ScoreInfo " + scoreKey.getName() + " was deleted.");
+                }
+            }
+
+            transaction.commit();
+            workflow.setVersion(nextVersion);
+
+            return winnerScore;
+        } catch (DatastoreException e) {
+            if ("ABORTED".equals(e.getReason())) {
+                throw new OptimisticLockingFailureException(kind + " " + workflow.getChannelId() + " was changed concurrently.", e);
+            }
+
+            throw e;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
         }
+    }
 
-        return entityToWorkflow(workflowEntity);
+    /**
+     * Adds an answer to the workflow's current question without rewriting
+     * the workflow, in a transaction that first checks the stored workflow
+     * is still asking that question
+     *
+     * @throws org.springframework.dao.OptimisticLockingFailureException if
+     * the question was resolved or replaced since the workflow was read, or
+     * the transaction lost to a concurrent one
+     */
+    public void addAnswer(final Workflow workflow, final Answer answer) {
+        final Key key = keyFactory.newKey(workflow.getChannelId());
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final Workflow storedWorkflow = entityToWorkflow(transaction.get(key));
+
+            if (storedWorkflow == null
+                    || storedWorkflow.getStage() != WorkflowStage.QUESTION_ASKED
+                    || storedWorkflow.getQuestionNumber() != workflow.getQuestionNumber()) {
+                throw new OptimisticLockingFailureException(kind + " " + workflow.getChannelId() + " is no longer asking question "
+                        + workflow.getQuestionNumber() + ".");
+            }
+
+            answerDao.add(transaction, getQuestionKey(workflow), answer);
+            transaction.commit();
+        } catch (DatastoreException e) {
+            if ("ABORTED".equals(e.getReason())) {
+                throw new OptimisticLockingFailureException(kind + " " + workflow.getChannelId() + " was changed concurrently.", e);
+            }
+
+            throw e;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
     }
 
-    public void delete(final String keyName) {
-        datastore.delete(keyFactory.newKey(keyName));
+    /**
+     * Deletes the answers stored under one of the workflow's questions, for
+     * a question that has been replaced by the next one
+     */
+    public void deleteAnswers(final String channelId, final long questionNumber) {
+        final Query<Key> query = Query.newKeyQueryBuilder()
+                .setFilter(PropertyFilter.hasAncestor(getQuestionKey(channelId, questionNumber)))
+                .build();
+
+        final List<Key> keys = new ArrayList<>();
+        datastore.run(query).forEachRemaining(keys::add);
+
+        for (final List<Key> batch : Lists.partition(keys, MAX_BATCH_SIZE)) {
+            datastore.delete(batch.toArray(new Key[0]));
+        }
     }
 
-    private FullEntity<IncompleteKey> workflowToEntity(final IncompleteKey key, final Workflow workflow) {
-        final List<EntityValue> answerValues = workflow.getAnswers().stream()
-                .map(answerDao::answerToEntity)
-                .map(EntityValue::of)
-                .collect(Collectors.toList());
+    /**
+     * Deletes the workflow along with the answers stored under it
+     */
+    public void delete(final String channelId) {
+        final Key key = keyFactory.newKey(channelId);
+        final Query<Key> query = Query.newKeyQueryBuilder()
+                .setFilter(PropertyFilter.hasAncestor(key))
+                .build();
 
-        return Entity.newBuilder(key)
-                .set(Workflow.CHANNEL_ID_KEY, workflow.getChannelId())
-                .set(Workflow.CONTROLLING_USER_ID_KEY, workflow.getControllingUserId())
-                .set(Workflow.QUESTION_KEY, workflow.getQuestion() == null ? NullValue.of() : StringValue.of(workflow.getQuestion()))
-                .set(Workflow.ANSWERS_KEY, ListValue.of(answerValues))
-                .set(Workflow.STAGE_KEY, workflow.getStage().toString())
+        final List<Key> keys = new ArrayList<>();
+        keys.add(key);
+        datastore.run(query).forEachRemaining(keys::add);
+
+        for (final List<Key> batch : Lists.partition(keys, MAX_BATCH_SIZE)) {
+            datastore.delete(batch.toArray(new Key[0]));
+        }
+    }
+
+    /**
+     * The channels of up to limit workflows last active before the cutoff,
+     * found with a keys-only query
+     */
+    public List<String> findIdleChannelIds(final LocalDateTime cutoff, final int limit) {
+        final Query<Key> query = Query.newKeyQueryBuilder()
+                .setKind(kind)
+                .setFilter(PropertyFilter.lt(Workflow.LAST_ACTIVITY_DATE_KEY, toTimestamp(cutoff)))
+                .setLimit(limit)
                 .build();
+
+        final List<String> channelIds = new ArrayList<>();
+        datastore.run(query).forEachRemaining(key -> channelIds.add(key.getName()));
+
+        return channelIds;
+    }
+
+    /**
+     * Deletes the workflow and the answers under it if it has still not been
+     * active since the cutoff. The workflow and its answers are one entity
+     * group, so each transaction re-checks the workflow and deletes up to a
+     * batch of keys, the workflow itself going last.
+     *
+     * @return whether the workflow was deleted
+     */
+    public boolean deleteIfIdle(final String channelId, final LocalDateTime cutoff) {
+        final Key key = keyFactory.newKey(channelId);
+        final Query<Key> query = Query.newKeyQueryBuilder()
+                .setFilter(PropertyFilter.hasAncestor(key))
+                .setLimit(MAX_BATCH_SIZE)
+                .build();
+
+        while (true) {
+            final Transaction transaction = datastore.newTransaction();
+
+            try {
+                final Entity entity = transaction.get(key);
+
+                if (entity == null || !isIdle(entity, cutoff)) {
+                    return false;
+                }
+
+                final List<Key> keys = new ArrayList<>();
+                transaction.run(query).forEachRemaining(keys::add);
+                final boolean isLastBatch = keys.size() < MAX_BATCH_SIZE;
+
+                if (!isLastBatch) {
+                    keys.remove(key);
+                } else if (!keys.contains(key)) {
+                    keys.add(key);
+                }
+
+                transaction.delete(keys.toArray(new Key[0]));
+                transaction.commit();
+
+                if (isLastBatch) {
+                    return true;
+                }
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives up to batchSize workflows saved before activity was recorded a
+     * last activity of now, so they can expire, one transaction each
+     *
+     * @return where to continue from, or null once every workflow has been
+     * looked at
+     */
+    public Cursor stampUndated(final Cursor cursor, final int batchSize, final LocalDateTime now) {
+        final EntityQuery.Builder queryBuilder = Query.newEntityQueryBuilder()
+                .setKind(kind)
+                .setLimit(batchSize);
+
+        if (cursor != null) {
+            queryBuilder.setStartCursor(cursor);
+        }
+
+        final QueryResults<Entity> results = datastore.run(queryBuilder.build());
+        int readCount = 0;
+
+        while (results.hasNext()) {
+            final Entity entity = results.next();
+            readCount++;
+
+            if (!entity.contains(Workflow.LAST_ACTIVITY_DATE_KEY)) {
+                stamp(entity.getKey(), now);
+            }
+        }
+
+        return readCount == 0 ? null : results.getCursorAfter();
     }
 
-    private Entity workflowToEntity(final Key key, final Workflow workflow) {
-        final List<EntityValue> answerValues = workflow.getAnswers().stream()
-                .map(answerDao::answerToEntity)
-                .map(EntityValue::of)
-                .collect(Collectors.toList());
+    /**
+     * Re-keys every workflow still stored under an ObjectId key, a batch per
+     * transaction, streaming through the kind with a cursor
+     *
+     * @return the number of workflows re-keyed
+     */
+    public int migrateLegacyKeys() {
+        int migratedCount = 0;
+        Cursor cursor = null;
+
+        while (true) {
+            final EntityQuery.Builder queryBuilder = Query.newEntityQueryBuilder()
+                    .setKind(kind)
+                    .setLimit(config.getMigrationBatchSize());
+
+            if (cursor != null) {
+                queryBuilder.setStartCursor(cursor);
+            }
+
+            final QueryResults<Entity> results = datastore.run(queryBuilder.build());
+            final List<Entity> legacyEntities = new ArrayList<>();
+            int readCount = 0;
+
+            while (results.hasNext()) {
+                final Entity entity = results.next();
+                readCount++;
 
-        return Entity.newBuilder(key)
+                if (isLegacy(entity)) {
+                    legacyEntities.add(entity);
+                }
+            }
+
+            if (readCount == 0) {
+                break;
+            }
+
+            migratedCount += rekey(legacyEntities).size();
+            cursor = results.getCursorAfter();
+        }
+
+        return migratedCount;
+    }
+
+    private Workflow findLegacyByChannelId(final String channelId) {
+        final Query<Entity> query = Query.newEntityQueryBuilder()
+                .setKind(kind)
+                .setFilter(PropertyFilter.eq(Workflow.CHANNEL_ID_KEY, channelId))
+                .build();
+
+        final QueryResults<Entity> results = datastore.run(query);
+
+        while (results.hasNext()) {
+            final Entity entity = results.next();
+
+            if (isLegacy(entity)) {
+                final List<Entity> rekeyedEntities = rekey(Collections.singletonList(entity));
+                return entityToWorkflow(migrateAnswers(rekeyedEntities.get(0)));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Moves each entity to its channel's key, unless the channel already has
+     * a keyed workflow, and deletes the old entity, all in one transaction
+     *
+     * @return the entities now stored under the channel keys
+     */
+    private List<Entity> rekey(final List<Entity> legacyEntities) {
+        if (legacyEntities.isEmpty()) {
+            return legacyEntities;
+        }
+
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final List<Entity> rekeyedEntities = new ArrayList<>();
+
+            for (final Entity legacyEntity : legacyEntities) {
+                final Key key = keyFactory.newKey(legacyEntity.getString(Workflow.CHANNEL_ID_KEY));
+                Entity entity = transaction.get(key);
+
+                if (entity == null) {
+                    entity = Entity.newBuilder(key, legacyEntity).build();
+                    transaction.put(entity);
+                }
+
+                transaction.delete(legacyEntity.getKey());
+                rekeyedEntities.add(entity);
+            }
+
+            transaction.commit();
+            log.info("Re-keyed " + rekeyedEntities.size() + " workflow(s) by channel id.");
+
+            return rekeyedEntities;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    /**
+     * Moves the answers embedded in a workflow saved before answers were
+     * stored separately under its current question, and removes them from
+     * the workflow, in one transaction
+     *
+     * @return the workflow entity without embedded answers
+     * @throws org.springframework.dao.OptimisticLockingFailureException if
+     * the workflow was changed while the answers were moved
+     */
+    private Entity migrateAnswers(final Entity entity) {
+        if (entity == null || !entity.contains(Workflow.ANSWERS_KEY)) {
+            return entity;
+        }
+
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final Entity storedEntity = transaction.get(entity.getKey());
+
+            //Moved by another reader meanwhile
+            if (storedEntity == null || !storedEntity.contains(Workflow.ANSWERS_KEY)) {
+                return storedEntity;
+            }
+
+            final Key questionKey = getQuestionKey(entityToWorkflow(storedEntity));
+
+            for (final Value<?> value : storedEntity.getList(Workflow.ANSWERS_KEY)) {
+                answerDao.add(transaction, questionKey, answerDao.entityToAnswer((FullEntity<?>)value.get()));
+            }
+
+            final Entity migratedEntity = Entity.newBuilder(storedEntity).remove(Workflow.ANSWERS_KEY).build();
+            transaction.put(migratedEntity);
+            transaction.commit();
+
+            return migratedEntity;
+        } catch (DatastoreException e) {
+            if ("ABORTED".equals(e.getReason())) {
+                throw new OptimisticLockingFailureException(kind + " " + entity.getKey().getName() + " was changed while its answers were moved.", e);
+            }
+
+            throw e;
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    private void stamp(final Key key, final LocalDateTime now) {
+        final Transaction transaction = datastore.newTransaction();
+
+        try {
+            final Entity entity = transaction.get(key);
+
+            if (entity != null && !entity.contains(Workflow.LAST_ACTIVITY_DATE_KEY)) {
+                transaction.put(Entity.newBuilder(entity).set(Workflow.LAST_ACTIVITY_DATE_KEY, toTimestamp(now)).build());
+                transaction.commit();
+            }
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+
+    private Workflow withAnswers(final Workflow workflow) {
+        if (workflow != null && workflow.getStage() == WorkflowStage.QUESTION_ASKED) {
+            workflow.getAnswers().addAll(answerDao.findAllByQuestion(getQuestionKey(workflow)));
+        }
+
+        return workflow;
+    }
+
+    private Key getQuestionKey(final Workflow workflow) {
+        return getQuestionKey(workflow.getChannelId(), workflow.getQuestionNumber());
+    }
+
+    private Key getQuestionKey(final String channelId, final long questionNumber) {
+        return Key.newBuilder(keyFactory.newKey(channelId), QUESTION_KIND, String.valueOf(questionNumber)).build();
+    }
+
+    private static boolean isIdle(final Entity entity, final LocalDateTime cutoff) {
+        return entity.contains(Workflow.LAST_ACTIVITY_DATE_KEY)
+                && toLocalDateTime(entity.getTimestamp(Workflow.LAST_ACTIVITY_DATE_KEY)).isBefore(cutoff);
+    }
+
+    private static Timestamp toTimestamp(final LocalDateTime date) {
+        return Timestamp.of(Date.from(date.atZone(ZoneId.systemDefault()).toInstant()));
+    }
+
+    private static LocalDateTime toLocalDateTime(final Timestamp timestamp) {
+        return timestamp.toDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
+    }
+
+    //A key with a numeric id rather than a name is not a channel's key either
+    private static boolean isLegacy(final Entity entity) {
+        return !entity.getKey().hasName() || !entity.getKey().getName().equals(entity.getString(Workflow.CHANNEL_ID_KEY));
+    }
+
+    Entity workflowToEntity(final Key key, final Workflow workflow) {
+        final Entity.Builder builder = Entity.newBuilder(key)
                 .set(Workflow.CHANNEL_ID_KEY, workflow.getChannelId())
                 .set(Workflow.CONTROLLING_USER_ID_KEY, workflow.getControllingUserId())
                 .set(Workflow.QUESTION_KEY, workflow.getQuestion() == null ? NullValue.of() : StringValue.of(workflow.getQuestion()))
-                .set(Workflow.ANSWERS_KEY, ListValue.of(answerValues))
-                .set(Workflow.STAGE_KEY, workflow.getStage().toString())
-                .build();
+                .set(Workflow.QUESTION_NUMBER_KEY, workflow.getQuestionNumber())
+                .set(Workflow.STAGE_KEY, workflow.getStage().toString());
+
+        if (workflow.getVersion() != null) {
+            builder.set(Workflow.VERSION_KEY, workflow.getVersion());
+        }
+
+        if (workflow.getLastActivityDate() != null) {
+            builder.set(Workflow.LAST_ACTIVITY_DATE_KEY, toTimestamp(workflow.getLastActivityDate()));
+        }
+
+        return builder.build();
     }
 
     private Workflow entityToWorkflow(final Entity entity) {
@@ -105,16 +584,20 @@ public class WorkflowDao extends BaseDao {
         }
 
         final Workflow workflow = new Workflow();
-        workflow.setId(new ObjectId(entity.getKey().getName()));
         workflow.setChannelId(entity.getString(Workflow.CHANNEL_ID_KEY));
         workflow.setControllingUserId(entity.getString(Workflow.CONTROLLING_USER_ID_KEY));
         workflow.setQuestion(entity.getString(Workflow.QUESTION_KEY));
 
-        final List<Answer> answers = entity.getList(Workflow.ANSWERS_KEY).stream()
-                .map(value -> (FullEntity<?>)value.get())
-                .map(answerDao::entityToAnswer)
-                .collect(Collectors.toList());
-        workflow.setAnswers(answers);
+        if (entity.contains(Workflow.QUESTION_NUMBER_KEY)) {
+            workflow.setQuestionNumber(entity.getLong(Workflow.QUESTION_NUMBER_KEY));
+        }
+
+        if (entity.contains(Workflow.LAST_ACTIVITY_DATE_KEY)) {
+            workflow.setLastActivityDate(toLocalDateTime(entity.getTimestamp(Workflow.LAST_ACTIVITY_DATE_KEY)));
+        }
+
+        //Saved before workflows were versioned
+        workflow.setVersion(entity.contains(Workflow.VERSION_KEY) ? entity.getLong(Workflow.VERSION_KEY) : 0L);
 
         workflow.setStage(WorkflowStage.valueOf(entity.getString(Workflow.STAGE_KEY)));
 
@@ -0,0 +1,54 @@
+package org.bj.examples.trivia.data.workflow;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("workflow-expiry")
+public class WorkflowExpiryConfig {
+    private boolean enabled = false;
+    private long idleTtlMillis = 86400000L;
+    private long sweepIntervalMillis = 900000L;
+    private int sweepBatchSize = 50;
+    private double maxDeletesPerSecond = 5.0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getIdleTtlMillis() {
+        return idleTtlMillis;
+    }
+
+    public void setIdleTtlMillis(long idleTtlMillis) {
+        this.idleTtlMillis = idleTtlMillis;
+    }
+
+    public long getSweepIntervalMillis() {
+        return sweepIntervalMillis;
+    }
+
+    public void setSweepIntervalMillis(long sweepIntervalMillis) {
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    public int getSweepBatchSize() {
+        return sweepBatchSize;
+    }
+
+    public void setSweepBatchSize(int sweepBatchSize) {
+        this.sweepBatchSize = sweepBatchSize;
+    }
+
+    public double getMaxDeletesPerSecond() {
+        return maxDeletesPerSecond;
+    }
+
+    public void setMaxDeletesPerSecond(double maxDeletesPerSecond) {
+        this.maxDeletesPerSecond = maxDeletesPerSecond;
+    }
+}
@@ -0,0 +1,74 @@
+package org.bj.examples.trivia.data.workflow;
+
+import java.time.LocalDateTime;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.datastore.Cursor;
+
+/**
+ * Re-keys workflows saved under ObjectId keys once the application is up,
+ * in the background so startup is not held up, then gives workflows saved
+ * before activity was recorded a last activity of now, so the sweeper can
+ * expire them one TTL later. Legacy reads should stay on until it has
+ * finished on every instance; after that it can be turned off.
+ */
+@Profile("production")
+@Component
+public class WorkflowKeyMigration {
+    private static final Log log = LogFactory.getLog(WorkflowKeyMigration.class);
+
+    private final WorkflowDao workflowDao;
+    private final WorkflowStoreConfig config;
+
+    @Autowired
+    public WorkflowKeyMigration(final WorkflowDao workflowDao, final WorkflowStoreConfig config) {
+        this.workflowDao = workflowDao;
+        this.config = config;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!config.isMigrateOnStartup()) {
+            return;
+        }
+
+        final Thread thread = new Thread(this::migrate, "workflow-key-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void migrate() {
+        try {
+            final long start = System.currentTimeMillis();
+            final int migratedCount = workflowDao.migrateLegacyKeys();
+
+            log.info("Workflow key migration re-keyed " + migratedCount + " workflow(s) in "
+                    + (System.currentTimeMillis() - start) + "ms.");
+        } catch (RuntimeException e) {
+            log.error("Workflow key migration failed; legacy reads will keep re-keying workflows as they are used.", e);
+            return;
+        }
+
+        try {
+            stampUndated();
+        } catch (RuntimeException e) {
+            log.error("Dating undated workflows failed; they will not expire until they are next used.", e);
+        }
+    }
+
+    private void stampUndated() {
+        final LocalDateTime now = LocalDateTime.now();
+        Cursor cursor = null;
+
+        do {
+            cursor = workflowDao.stampUndated(cursor, config.getMigrationBatchSize(), now);
+        } while (cursor != null && !Thread.currentThread().isInterrupted());
+    }
+}
@@ -3,6 +3,6 @@ package org.bj.examples.trivia.data.workflow;
 import org.bson.types.ObjectId;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-public interface WorkflowRepo extends MongoRepository<Workflow, ObjectId> {
+public interface WorkflowRepo extends MongoRepository<Workflow, ObjectId>, WorkflowRepoCustom {
     Workflow findByChannelId(final String channelId);
 }
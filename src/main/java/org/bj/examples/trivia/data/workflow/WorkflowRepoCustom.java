@@ -0,0 +1,45 @@
+package org.bj.examples.trivia.data.workflow;
+
+/**
+ * Workflow transitions applied in a single conditional update. Each
+ * returns false, changing nothing, when the workflow is missing or not in
+ * a state that allows the transition.
+ */
+public interface WorkflowRepoCustom {
+    /**
+     * Asks the question, provided the user is hosting and no question is
+     * open
+     */
+    boolean submitQuestion(final String channelId, final String userId, final String question);
+
+    /**
+     * Appends the answer in place, provided a question is open and the
+     * answer is not from the host
+     */
+    boolean pushAnswer(final String channelId, final Answer answer);
+
+    /**
+     * Hands the turn to another user and clears the question, provided the
+     * user is hosting
+     */
+    boolean changeTurn(final String channelId, final String userId, final String newControllingUserId);
+
+    /**
+     * Hands the turn to another user and clears the question, provided the
+     * user is hosting and a question is open; scores are left alone
+     *
+     * @return the workflow as it was before, or null if nothing matched
+     */
+    Workflow closeQuestion(final String channelId, final String userId, final String newControllingUserId);
+
+    /**
+     * Puts back a question closed by {@link #closeQuestion}, provided the
+     * workflow has not changed since
+     */
+    boolean reopenQuestion(final Workflow workflow);
+
+    /**
+     * Removes the workflow, provided the user is hosting
+     */
+    boolean removeGame(final String channelId, final String userId);
+}
@@ -0,0 +1,110 @@
+package org.bj.examples.trivia.data.workflow;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+
+public class WorkflowRepoCustomImpl implements WorkflowRepoCustom {
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public WorkflowRepoCustomImpl(final MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public boolean submitQuestion(final String channelId, final String userId, final String question) {
+        return mongoTemplate.updateFirst(
+                query(where(Workflow.CHANNEL_ID_KEY).is(channelId)
+                        .and(Workflow.CONTROLLING_USER_ID_KEY).is(userId)
+                        .and(Workflow.STAGE_KEY).is(WorkflowStage.STARTED)),
+                new Update()
+                        .set(Workflow.QUESTION_KEY, question)
+                        .set(Workflow.STAGE_KEY, WorkflowStage.QUESTION_ASKED)
+                        .inc(Workflow.QUESTION_NUMBER_KEY, 1)
+                        .set(Workflow.LAST_ACTIVITY_DATE_KEY, LocalDateTime.now())
+                        .inc(Workflow.VERSION_KEY, 1),
+                Workflow.class
+        ).getMatchedCount() > 0;
+    }
+
+    @Override
+    public boolean pushAnswer(final String channelId, final Answer answer) {
+        return mongoTemplate.updateFirst(
+                query(where(Workflow.CHANNEL_ID_KEY).is(channelId)
+                        .and(Workflow.CONTROLLING_USER_ID_KEY).ne(answer.getUserId())
+                        .and(Workflow.STAGE_KEY).is(WorkflowStage.QUESTION_ASKED)),
+                new Update()
+                        .push(Workflow.ANSWERS_KEY, answer)
+                        .set(Workflow.LAST_ACTIVITY_DATE_KEY, LocalDateTime.now())
+                        .inc(Workflow.VERSION_KEY, 1),
+                Workflow.class
+        ).getMatchedCount() > 0;
+    }
+
+    @Override
+    public boolean changeTurn(final String channelId, final String userId, final String newControllingUserId) {
+        return mongoTemplate.updateFirst(
+                query(where(Workflow.CHANNEL_ID_KEY).is(channelId)
+                        .and(Workflow.CONTROLLING_USER_ID_KEY).is(userId)),
+                new Update()
+                        .set(Workflow.CONTROLLING_USER_ID_KEY, newControllingUserId)
+                        .set(Workflow.QUESTION_KEY, null)
+                        .set(Workflow.ANSWERS_KEY, new ArrayList<Answer>())
+                        .set(Workflow.STAGE_KEY, WorkflowStage.STARTED)
+                        .set(Workflow.LAST_ACTIVITY_DATE_KEY, LocalDateTime.now())
+                        .inc(Workflow.VERSION_KEY, 1),
+                Workflow.class
+        ).getMatchedCount() > 0;
+    }
+
+    @Override
+    public Workflow closeQuestion(final String channelId, final String userId, final String newControllingUserId) {
+        return mongoTemplate.findAndModify(
+                query(where(Workflow.CHANNEL_ID_KEY).is(channelId)
+                        .and(Workflow.CONTROLLING_USER_ID_KEY).is(userId)
+                        .and(Workflow.STAGE_KEY).is(WorkflowStage.QUESTION_ASKED)),
+                new Update()
+                        .set(Workflow.CONTROLLING_USER_ID_KEY, newControllingUserId)
+                        .set(Workflow.QUESTION_KEY, null)
+                        .set(Workflow.ANSWERS_KEY, new ArrayList<Answer>())
+                        .set(Workflow.STAGE_KEY, WorkflowStage.STARTED)
+                        .set(Workflow.LAST_ACTIVITY_DATE_KEY, LocalDateTime.now())
+                        .inc(Workflow.VERSION_KEY, 1),
+                Workflow.class
+        );
+    }
+
+    @Override
+    public boolean reopenQuestion(final Workflow workflow) {
+        //Closing incremented the version, creating it if missing
+        final long closedVersion = workflow.getVersion() == null ? 1L : workflow.getVersion() + 1;
+
+        return mongoTemplate.updateFirst(
+                query(where(Workflow.CHANNEL_ID_KEY).is(workflow.getChannelId())
+                        .and(Workflow.VERSION_KEY).is(closedVersion)),
+                new Update()
+                        .set(Workflow.CONTROLLING_USER_ID_KEY, workflow.getControllingUserId())
+                        .set(Workflow.QUESTION_KEY, workflow.getQuestion())
+                        .set(Workflow.ANSWERS_KEY, workflow.getAnswers())
+                        .set(Workflow.STAGE_KEY, WorkflowStage.QUESTION_ASKED)
+                        .inc(Workflow.VERSION_KEY, 1),
+                Workflow.class
+        ).getMatchedCount() > 0;
+    }
+
+    @Override
+    public boolean removeGame(final String channelId, final String userId) {
+        return mongoTemplate.remove(
+                query(where(Workflow.CHANNEL_ID_KEY).is(channelId)
+                        .and(Workflow.CONTROLLING_USER_ID_KEY).is(userId)),
+                Workflow.class
+        ).getDeletedCount() > 0;
+    }
+}
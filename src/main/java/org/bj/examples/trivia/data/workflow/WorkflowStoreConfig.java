@@ -0,0 +1,36 @@
+package org.bj.examples.trivia.data.workflow;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("workflow-store")
+public class WorkflowStoreConfig {
+    private boolean legacyReads = false;
+    private boolean migrateOnStartup = false;
+    private int migrationBatchSize = 10;
+
+    public boolean isLegacyReads() {
+        return legacyReads;
+    }
+
+    public void setLegacyReads(boolean legacyReads) {
+        this.legacyReads = legacyReads;
+    }
+
+    public boolean isMigrateOnStartup() {
+        return migrateOnStartup;
+    }
+
+    public void setMigrateOnStartup(boolean migrateOnStartup) {
+        this.migrateOnStartup = migrateOnStartup;
+    }
+
+    public int getMigrationBatchSize() {
+        return migrationBatchSize;
+    }
+
+    public void setMigrationBatchSize(int migrationBatchSize) {
+        this.migrationBatchSize = migrationBatchSize;
+    }
+}
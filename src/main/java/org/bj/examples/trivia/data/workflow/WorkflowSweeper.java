@@ -0,0 +1,136 @@
+package org.bj.examples.trivia.data.workflow;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Deletes workflows, with their answers, that have been idle for longer
+ * than the TTL. Runs every sweep interval on a single low-priority thread,
+ * finding idle workflows a batch at a time with keys-only queries and
+ * deleting at most {@link WorkflowExpiryConfig#getMaxDeletesPerSecond()}
+ * of them a second, so it never competes with live traffic for long.
+ * Workflows saved before activity was recorded are only found once
+ * {@link WorkflowKeyMigration} has dated them. Answers are added without
+ * touching the workflow, so only starting a game, asking a question and
+ * changing turns count as activity.
+ * <p>
+ * A cached copy of a swept workflow can outlive it until the cache entry
+ * expires; saving it then fails as a conflict and the next read finds no
+ * game.
+ */
+@Profile("production")
+@Component
+public class WorkflowSweeper {
+    private static final Log log = LogFactory.getLog(WorkflowSweeper.class);
+
+    private final WorkflowDao workflowDao;
+    private final WorkflowExpiryConfig config;
+    private final RateLimiter rateLimiter;
+    private final ScheduledExecutorService timer;
+    private final AtomicLong sweptCount = new AtomicLong();
+
+    @Autowired
+    public WorkflowSweeper(final WorkflowDao workflowDao, final WorkflowExpiryConfig config) {
+        this.workflowDao = workflowDao;
+        this.config = config;
+        this.rateLimiter = RateLimiter.create(config.getMaxDeletesPerSecond());
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("workflow-sweeper")
+                        .setDaemon(true)
+                        .setPriority(Thread.MIN_PRIORITY)
+                        .build()
+        );
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        timer.scheduleWithFixedDelay(this::sweepSafely, config.getSweepIntervalMillis(), config.getSweepIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Deletes every workflow idle since before the TTL
+     *
+     * @return the number of workflows deleted
+     */
+    int sweep() {
+        final LocalDateTime cutoff = LocalDateTime.now().minus(config.getIdleTtlMillis(), ChronoUnit.MILLIS);
+        int deletedCount = 0;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            final List<String> channelIds = workflowDao.findIdleChannelIds(cutoff, config.getSweepBatchSize());
+
+            if (channelIds.isEmpty()) {
+                break;
+            }
+
+            int batchDeletedCount = 0;
+
+            for (final String channelId : channelIds) {
+                rateLimiter.acquire();
+
+                if (workflowDao.deleteIfIdle(channelId, cutoff)) {
+                    batchDeletedCount++;
+                }
+            }
+
+            deletedCount += batchDeletedCount;
+
+            //Everything found became active again; the rest will be found next sweep
+            if (batchDeletedCount == 0) {
+                break;
+            }
+        }
+
+        sweptCount.addAndGet(deletedCount);
+
+        return deletedCount;
+    }
+
+    /**
+     * The number of idle workflows deleted since startup
+     */
+    public long getSweptCount() {
+        return sweptCount.get();
+    }
+
+    private void sweepSafely() {
+        try {
+            final long start = System.currentTimeMillis();
+            final int deletedCount = sweep();
+
+            if (deletedCount > 0) {
+                log.info("Deleted " + deletedCount + " idle workflow(s) in " + (System.currentTimeMillis() - start) + "ms.");
+            }
+        } catch (RuntimeException e) {
+            log.error("Workflow sweep failed; it will be retried next interval.", e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.bj.examples.trivia.data.workflow;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lets Mongo expire idle workflows itself with a TTL index on their last
+ * activity. Workflows saved before activity was recorded are dated now so
+ * they expire one TTL later. When the TTL changes the existing index is
+ * updated in place.
+ */
+@Profile("mongo")
+@Component
+public class WorkflowTtlIndex {
+    private static final Log log = LogFactory.getLog(WorkflowTtlIndex.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final WorkflowExpiryConfig config;
+
+    @Autowired
+    public WorkflowTtlIndex(final MongoTemplate mongoTemplate, final WorkflowExpiryConfig config) {
+        this.mongoTemplate = mongoTemplate;
+        this.config = config;
+    }
+
+    @PostConstruct
+    public void ensureIndex() {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        final long ttlSeconds = TimeUnit.MILLISECONDS.toSeconds(config.getIdleTtlMillis());
+
+        final long datedCount = mongoTemplate.updateMulti(
+                query(where(Workflow.LAST_ACTIVITY_DATE_KEY).exists(false)),
+                new Update().set(Workflow.LAST_ACTIVITY_DATE_KEY, LocalDateTime.now()),
+                Workflow.class
+        ).getModifiedCount();
+
+        if (datedCount > 0) {
+            log.info("Set the last activity of " + datedCount + " undated workflow(s) to now.");
+        }
+
+        try {
+            mongoTemplate.indexOps(Workflow.class).ensureIndex(
+                    new Index().on(Workflow.LAST_ACTIVITY_DATE_KEY, Sort.Direction.ASC).expire(ttlSeconds)
+            );
+        } catch (DataAccessException e) {
+            //The index exists with another TTL
+            mongoTemplate.executeCommand(new Document("collMod", mongoTemplate.getCollectionName(Workflow.class))
+                    .append("index", new Document("keyPattern", new Document(Workflow.LAST_ACTIVITY_DATE_KEY, 1))
+                            .append("expireAfterSeconds", ttlSeconds)));
+            log.info("Changed the workflow TTL to " + ttlSeconds + "s.");
+        }
+    }
+}
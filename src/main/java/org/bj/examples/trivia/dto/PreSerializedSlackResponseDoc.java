@@ -0,0 +1,47 @@
+package org.bj.examples.trivia.dto;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A response that never changes, serialized once up front so it can be
+ * written out as is. Instances are shared, so they cannot be modified.
+ */
+public final class PreSerializedSlackResponseDoc extends SlackResponseDoc {
+    private final byte[] json;
+
+    public PreSerializedSlackResponseDoc(final SlackResponseDoc responseDoc, final ObjectMapper objectMapper)
+            throws JsonProcessingException {
+        super.setResponseType(responseDoc.getResponseType());
+        super.setText(responseDoc.getText());
+        super.setAttachments(responseDoc.getAttachments() == null ? null : Collections.unmodifiableList(responseDoc.getAttachments()));
+        this.json = objectMapper.writeValueAsBytes(responseDoc);
+    }
+
+    /**
+     * The serialized response; callers must not modify it
+     */
+    @JsonIgnore
+    public byte[] getJson() {
+        return json;
+    }
+
+    @Override
+    public void setResponseType(SlackResponseType responseType) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setText(String text) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAttachments(List<SlackAttachment> attachments) {
+        throw new UnsupportedOperationException();
+    }
+}
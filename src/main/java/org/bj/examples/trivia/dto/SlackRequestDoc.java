@@ -21,6 +21,7 @@ public class SlackRequestDoc {
     private String text;
     private String responseUrl;
     private String triggerId;
+    private Integer retryNum;
 
     private LocalDateTime requestTime;
 
@@ -168,6 +169,17 @@ public class SlackRequestDoc {
         this.triggerId = triggerId;
     }
 
+    /**
+     * Slack's X-Slack-Retry-Num header; null on the first delivery
+     */
+    public Integer getRetryNum() {
+        return retryNum;
+    }
+
+    public void setRetryNum(Integer retryNum) {
+        this.retryNum = retryNum;
+    }
+
     public LocalDateTime getRequestTime() {
         return requestTime;
     }
@@ -4,8 +4,11 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.bj.examples.trivia.dto.GameState;
@@ -20,10 +23,14 @@ import org.bj.examples.trivia.exception.WorkflowException;
 import org.bj.examples.trivia.message.MessageManager;
 import org.bj.examples.trivia.message.MessageType;
 import org.bj.examples.trivia.service.game.TriviaGameService;
+import org.bj.examples.trivia.service.score.Leaderboard;
+import org.bj.examples.trivia.service.score.LeaderboardService;
 import org.bj.examples.trivia.service.score.ScoreService;
+import org.bj.examples.trivia.service.score.impl.LeaderboardConfig;
 import org.bj.examples.trivia.service.slack.DelayedSlackService;
 import org.bj.examples.trivia.service.workflow.WorkflowService;
 import org.bj.examples.trivia.util.SlackUtils;
+import org.bj.examples.trivia.util.SlashCommand;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -37,6 +44,7 @@ public class TriviaGameServiceImpl implements TriviaGameService {
 
     private static final String NO_CORRECT_ANSWER_TARGET = "none";
     private static final String SCORES_FORMAT = "```Scores:\n\n%s```";
+    private static final String USER_RANK_FORMAT = "\n...\n#%d ";
 
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("MM/dd/yyyy hh:mm:ss a").withZone(ZoneId.of("US/Central"));
 
@@ -44,18 +52,24 @@ public class TriviaGameServiceImpl implements TriviaGameService {
     private final WorkflowService workflowService;
     private final DelayedSlackService delayedSlackService;
     private final MessageManager messageManager;
+    private final LeaderboardService leaderboardService;
+    private final int displayedScores;
 
     @Autowired
     public TriviaGameServiceImpl(
             final ScoreService scoreService,
             final WorkflowService workflowService,
             final DelayedSlackService delayedSlackService,
-            final MessageManager messageManager
+            final MessageManager messageManager,
+            final LeaderboardService leaderboardService,
+            final LeaderboardConfig leaderboardConfig
     ) {
         this.scoreService = scoreService;
         this.workflowService = workflowService;
         this.delayedSlackService = delayedSlackService;
         this.messageManager = messageManager;
+        this.leaderboardService = leaderboardService;
+        this.displayedScores = leaderboardConfig.getDisplayedScores();
     }
 
     public SlackResponseDoc start(final SlackRequestDoc requestDoc, final String topic) {
@@ -95,18 +109,19 @@ public class TriviaGameServiceImpl implements TriviaGameService {
 
     public SlackResponseDoc join(final SlackRequestDoc requestDoc) {
         final SlackUser user = new SlackUser(requestDoc.getUserId(), requestDoc.getUsername());
-        final boolean userCreated = scoreService.createUserIfNotExists(requestDoc.getChannelId(), user);
+        final boolean userCreated = scoreService.createUserIfNotExists(requestDoc.getChannelId(), user, SlashCommand.Operator.JOIN.name());
 
         final SlackResponseDoc responseDoc = new SlackResponseDoc();
         responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
 
         if (userCreated) {
+            leaderboardService.onUserJoined(requestDoc.getChannelId(), user);
             responseDoc.setText("Joining game.");
 
             final SlackResponseDoc delayedResponseDoc = new SlackResponseDoc();
             delayedResponseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
             delayedResponseDoc.setText(messageManager.getMessage(MessageType.PLAYER_ADDED, requestDoc.getUserId()));
-            delayedSlackService.sendResponse(requestDoc.getResponseUrl(), delayedResponseDoc);
+            delayedSlackService.sendResponse(requestDoc.getChannelId(), requestDoc.getResponseUrl(), delayedResponseDoc);
         } else {
             responseDoc.setText("You're already in the game.");
         }
@@ -118,7 +133,7 @@ public class TriviaGameServiceImpl implements TriviaGameService {
         final String userId = SlackUtils.normalizeId(target);
 
         try {
-            final boolean userExists = scoreService.doesUserExist(requestDoc.getChannelId(), userId);
+            final boolean userExists = scoreService.doesUserExist(requestDoc.getChannelId(), userId, SlashCommand.Operator.PASS.name());
 
             if (!userExists) {
                 final SlackResponseDoc responseDoc = SlackResponseDoc.failure("User " + target + " does not exist. Please choose a valid user.");
@@ -136,7 +151,7 @@ public class TriviaGameServiceImpl implements TriviaGameService {
         final SlackResponseDoc delayedResponseDoc = new SlackResponseDoc();
         delayedResponseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
         delayedResponseDoc.setText(messageManager.getMessage(MessageType.TURN_PASSED, requestDoc.getUserId(), userId));
-        delayedSlackService.sendResponse(requestDoc.getResponseUrl(), delayedResponseDoc);
+        delayedSlackService.sendResponse(requestDoc.getChannelId(), requestDoc.getResponseUrl(), delayedResponseDoc);
 
         final SlackResponseDoc responseDoc = new SlackResponseDoc();
         responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
@@ -156,7 +171,7 @@ public class TriviaGameServiceImpl implements TriviaGameService {
         final SlackResponseDoc delayedResponseDoc = new SlackResponseDoc();
         delayedResponseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
         delayedResponseDoc.setText(messageManager.getMessage(MessageType.QUESTION_SUBMITTED, requestDoc.getUserId(), question));
-        delayedSlackService.sendResponse(requestDoc.getResponseUrl(), delayedResponseDoc);
+        delayedSlackService.sendResponse(requestDoc.getChannelId(), requestDoc.getResponseUrl(), delayedResponseDoc);
 
         final SlackResponseDoc responseDoc = new SlackResponseDoc();
         responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
@@ -181,13 +196,16 @@ public class TriviaGameServiceImpl implements TriviaGameService {
         }
 
         final SlackUser user = new SlackUser(requestDoc.getUserId(), requestDoc.getUsername());
-        scoreService.createUserIfNotExists(requestDoc.getChannelId(), user);
+
+        if (scoreService.createUserIfNotExists(requestDoc.getChannelId(), user, SlashCommand.Operator.ANSWER.name())) {
+            leaderboardService.onUserJoined(requestDoc.getChannelId(), user);
+        }
 
         final SlackResponseDoc delayedResponseDoc = new SlackResponseDoc();
         delayedResponseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
         delayedResponseDoc.setText(messageManager.getMessage(MessageType.ANSWER_SUBMITTED, requestDoc.getUserId()));
         delayedResponseDoc.setAttachments(Arrays.asList(new SlackAttachment(answer, false)));
-        delayedSlackService.sendResponse(requestDoc.getResponseUrl(), delayedResponseDoc);
+        delayedSlackService.sendCoalescibleResponse(requestDoc.getChannelId(), requestDoc.getResponseUrl(), delayedResponseDoc);
 
         final SlackResponseDoc responseDoc = new SlackResponseDoc();
         responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
@@ -200,20 +218,18 @@ public class TriviaGameServiceImpl implements TriviaGameService {
         String text;
 
         try {
-            workflowService.onCorrectAnswerSelected(requestDoc.getChannelId(), requestDoc.getUserId());
-
             if (target.equalsIgnoreCase(NO_CORRECT_ANSWER_TARGET)) {
                 //"Change" back to the original host to reset the workflow state
-                workflowService.onTurnChanged(requestDoc.getChannelId(), requestDoc.getUserId(), requestDoc.getUserId());
+                final Map<SlackUser, Long> scoresByUser = workflowService.resolveQuestion(requestDoc.getChannelId(), requestDoc.getUserId(), null);
+                final Leaderboard leaderboard = leaderboardService.onQuestionResolved(requestDoc.getChannelId(), scoresByUser);
 
-                text = messageManager.getAnswerMessage(MessageType.NO_CORRECT_ANSWER, answer, generateScoreText(requestDoc), requestDoc.getUserId());
+                text = messageManager.getAnswerMessage(MessageType.NO_CORRECT_ANSWER, answer, generateScoreText(leaderboard, requestDoc.getUserId()), requestDoc.getUserId());
             } else {
                 final String userId = SlackUtils.normalizeId(target);
+                final Map<SlackUser, Long> scoresByUser = workflowService.resolveQuestion(requestDoc.getChannelId(), requestDoc.getUserId(), userId);
+                final Leaderboard leaderboard = leaderboardService.onQuestionResolved(requestDoc.getChannelId(), scoresByUser);
 
-                scoreService.incrementScore(requestDoc.getChannelId(), userId);
-                workflowService.onTurnChanged(requestDoc.getChannelId(), requestDoc.getUserId(), userId);
-
-                text = messageManager.getAnswerMessage(MessageType.CORRECT_ANSWER, answer, generateScoreText(requestDoc), userId);
+                text = messageManager.getAnswerMessage(MessageType.CORRECT_ANSWER, answer, generateScoreText(leaderboard, userId), userId);
             }
         } catch (GameNotStartedException e) {
             return SlackResponseDoc.failure(String.format(GAME_NOT_STARTED_FORMAT, requestDoc.getCommand()));
@@ -228,7 +244,7 @@ public class TriviaGameServiceImpl implements TriviaGameService {
         final SlackResponseDoc delayedResponseDoc = new SlackResponseDoc();
         delayedResponseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
         delayedResponseDoc.setText(text);
-        delayedSlackService.sendResponse(requestDoc.getResponseUrl(), delayedResponseDoc);
+        delayedSlackService.sendResponse(requestDoc.getChannelId(), requestDoc.getResponseUrl(), delayedResponseDoc);
 
         final SlackResponseDoc responseDoc = new SlackResponseDoc();
         responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
@@ -256,6 +272,7 @@ public class TriviaGameServiceImpl implements TriviaGameService {
 
     public SlackResponseDoc resetScores(final SlackRequestDoc requestDoc) {
         scoreService.resetScores(requestDoc.getChannelId());
+        leaderboardService.onScoresReset(requestDoc.getChannelId());
 
         final SlackResponseDoc responseDoc = new SlackResponseDoc();
         responseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
@@ -310,27 +327,39 @@ public class TriviaGameServiceImpl implements TriviaGameService {
     }
 
     private String generateScoreText(final SlackRequestDoc requestDoc) {
-        final Map<SlackUser, Long> scoresByUser = scoreService.getAllScoresByUser(requestDoc.getChannelId());
+        return generateScoreText(leaderboardService.getLeaderboard(requestDoc.getChannelId()), requestDoc.getUserId());
+    }
 
+    /**
+     * Lists the top scores in order, or all of them when no limit is
+     * configured. A user who is not listed is shown with their rank after
+     * the listed scores.
+     */
+    private String generateScoreText(final Leaderboard leaderboard, final String userId) {
         final String scoreText;
+        final List<Leaderboard.Entry> entries = leaderboard.getTop(displayedScores);
 
-        if (scoresByUser.isEmpty()) {
+        if (entries.isEmpty()) {
             scoreText = "No scores yet...";
         } else {
-            int maxUsernameLength = 1 + scoresByUser.keySet().stream()
-                    .map(SlackUser::getUsername)
+            final boolean userListed = entries.size() == leaderboard.size() || entries.stream().anyMatch(entry -> entry.getUser().getUserId().equals(userId));
+            final Leaderboard.Entry userEntry = userId == null || userListed ? null : leaderboard.find(userId);
+
+            int maxUsernameLength = 1 + Stream.concat(entries.stream(), Stream.of(userEntry).filter(Objects::nonNull))
+                    .map(entry -> entry.getUser().getUsername())
                     .map(String::length)
                     .max(Comparator.comparing(Integer::valueOf))
                     .orElse(0);
-            scoreText = scoresByUser.entrySet().stream()
-                    //order by score desc, username
-                    .sorted(
-                            Map.Entry.<SlackUser, Long>comparingByValue()
-                                    .reversed()
-                                    .thenComparing(Map.Entry.<SlackUser, Long>comparingByKey(Comparator.comparing(SlackUser::getUsername)))
-                    )
-                    .map(entry -> String.format("@%-" + maxUsernameLength + "s %3d", entry.getKey().getUsername() + ":", entry.getValue()))
+            final String singleScoreFormat = "@%-" + maxUsernameLength + "s %3d";
+
+            //already ordered by score desc, username
+            final String listedText = entries.stream()
+                    .map(entry -> String.format(singleScoreFormat, entry.getUser().getUsername() + ":", entry.getScore()))
                     .collect(Collectors.joining("\n"));
+
+            scoreText = userEntry == null ?
+                    listedText :
+                    listedText + String.format(USER_RANK_FORMAT + singleScoreFormat, userEntry.getRank(), userEntry.getUser().getUsername() + ":", userEntry.getScore());
         }
 
         return String.format(SCORES_FORMAT, scoreText);
@@ -0,0 +1,300 @@
+package org.bj.examples.trivia.service.score;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.bj.examples.trivia.dto.SlackUser;
+
+/**
+ * A channel's scores ordered by score desc, then username, kept in a treap
+ * where each node also counts the nodes below it. Changing a score, the
+ * top entries and a user's rank all take O(log n), plus the entries read,
+ * so a scoreboard never needs the whole channel sorted.
+ * <p>
+ * Users with the same score share a rank, the next score down being ranked
+ * after all of them. All methods lock the leaderboard, which is fine for
+ * the rate at which a channel's scores change.
+ */
+public class Leaderboard {
+    private final Map<String, Node> nodesByUserId = new HashMap<>();
+    private Node root;
+
+    /**
+     * A leaderboard of the given scores, built in O(n log n)
+     */
+    public static Leaderboard of(final Map<SlackUser, Long> scoresByUser) {
+        final Leaderboard leaderboard = new Leaderboard();
+        scoresByUser.forEach(leaderboard::update);
+
+        return leaderboard;
+    }
+
+    /**
+     * Sets the user's score, adding the user if needed. A user without a
+     * username keeps the one they were added with.
+     */
+    public synchronized void update(final SlackUser user, final long score) {
+        final Node existingNode = nodesByUserId.get(user.getUserId());
+        final String username = user.getUsername() == null && existingNode != null ? existingNode.username : user.getUsername();
+
+        if (existingNode != null) {
+            if (existingNode.score == score && equal(existingNode.username, username)) {
+                return;
+            }
+
+            root = remove(root, existingNode);
+        }
+
+        final Node node = new Node(user.getUserId(), username, score);
+        nodesByUserId.put(node.userId, node);
+        root = insert(root, node);
+    }
+
+    /**
+     * Adds the user with the score, unless the user is already on the
+     * leaderboard
+     *
+     * @return true if the user was added
+     */
+    public synchronized boolean addIfAbsent(final SlackUser user, final long score) {
+        if (nodesByUserId.containsKey(user.getUserId())) {
+            return false;
+        }
+
+        update(user, score);
+
+        return true;
+    }
+
+    public synchronized boolean contains(final String userId) {
+        return nodesByUserId.containsKey(userId);
+    }
+
+    public synchronized int size() {
+        return nodesByUserId.size();
+    }
+
+    /**
+     * The first entries in order, or all of them if count is not positive
+     */
+    public synchronized List<Entry> getTop(final int count) {
+        final int limit = count <= 0 ? nodesByUserId.size() : Math.min(count, nodesByUserId.size());
+        final List<Entry> entries = new ArrayList<>(limit);
+        final Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+
+        while (entries.size() < limit && (node != null || !path.isEmpty())) {
+            while (node != null) {
+                path.push(node);
+                node = node.left;
+            }
+
+            node = path.pop();
+
+            final Entry previous = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+            final int rank = previous != null && previous.score == node.score ? previous.rank : entries.size() + 1;
+            entries.add(node.toEntry(rank));
+
+            node = node.right;
+        }
+
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * The user's entry with their rank, or null if they are not on the
+     * leaderboard
+     */
+    public synchronized Entry find(final String userId) {
+        final Node node = nodesByUserId.get(userId);
+
+        return node == null ? null : node.toEntry(1 + countHigherThan(node.score));
+    }
+
+    private int countHigherThan(final long score) {
+        int count = 0;
+        Node node = root;
+
+        while (node != null) {
+            if (node.score > score) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+
+        return count;
+    }
+
+    private static Node insert(final Node parent, final Node node) {
+        if (parent == null) {
+            return node;
+        }
+
+        if (node.compareTo(parent) < 0) {
+            parent.left = insert(parent.left, node);
+
+            if (parent.left.priority > parent.priority) {
+                return rotateRight(parent);
+            }
+        } else {
+            parent.right = insert(parent.right, node);
+
+            if (parent.right.priority > parent.priority) {
+                return rotateLeft(parent);
+            }
+        }
+
+        parent.updateSize();
+
+        return parent;
+    }
+
+    private Node remove(final Node parent, final Node node) {
+        if (parent == null) {
+            return null;
+        }
+
+        if (parent == node) {
+            nodesByUserId.remove(node.userId);
+
+            return merge(parent.left, parent.right);
+        }
+
+        if (node.compareTo(parent) < 0) {
+            parent.left = remove(parent.left, node);
+        } else {
+            parent.right = remove(parent.right, node);
+        }
+
+        parent.updateSize();
+
+        return parent;
+    }
+
+    //Every node in left is ordered before every node in right
+    private static Node merge(final Node left, final Node right) {
+        if (left == null) {
+            return right;
+        }
+
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.updateSize();
+
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        right.updateSize();
+
+        return right;
+    }
+
+    private static Node rotateRight(final Node node) {
+        final Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.updateSize();
+        left.updateSize();
+
+        return left;
+    }
+
+    private static Node rotateLeft(final Node node) {
+        final Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.updateSize();
+        right.updateSize();
+
+        return right;
+    }
+
+    private static int size(final Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static final class Node implements Comparable<Node> {
+        private final String userId;
+        private final String username;
+        private final long score;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        private Node(final String userId, final String username, final long score) {
+            this.userId = userId;
+            this.username = username;
+            this.score = score;
+        }
+
+        private void updateSize() {
+            size = 1 + size(left) + size(right);
+        }
+
+        private Entry toEntry(final int rank) {
+            return new Entry(new SlackUser(userId, username), score, rank);
+        }
+
+        //Score desc, then username, then user id so every user has one place
+        @Override
+        public int compareTo(final Node other) {
+            if (score != other.score) {
+                return score > other.score ? -1 : 1;
+            }
+
+            final int usernameComparison = compareNullsFirst(username, other.username);
+
+            return usernameComparison != 0 ? usernameComparison : compareNullsFirst(userId, other.userId);
+        }
+
+        private static int compareNullsFirst(final String a, final String b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+
+            return a.compareTo(b);
+        }
+    }
+
+    public static final class Entry {
+        private final SlackUser user;
+        private final long score;
+        private final int rank;
+
+        private Entry(final SlackUser user, final long score, final int rank) {
+            this.user = user;
+            this.score = score;
+            this.rank = rank;
+        }
+
+        public SlackUser getUser() {
+            return user;
+        }
+
+        public long getScore() {
+            return score;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+    }
+}
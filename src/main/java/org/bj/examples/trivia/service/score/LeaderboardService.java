@@ -0,0 +1,12 @@
+package org.bj.examples.trivia.service.score;
+
+import java.util.Map;
+
+import org.bj.examples.trivia.dto.SlackUser;
+
+public interface LeaderboardService {
+    Leaderboard getLeaderboard(final String channelId);
+    void onUserJoined(final String channelId, final SlackUser user);
+    Leaderboard onQuestionResolved(final String channelId, final Map<SlackUser, Long> scoresByUser);
+    void onScoresReset(final String channelId);
+}
@@ -6,9 +6,73 @@ import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.ScoreException;
 
 public interface ScoreService {
+    /**
+     * What member checks made to give a point are counted under
+     */
+    String POINT_METRIC_TAG = "incrementScore";
+
     Map<SlackUser, Long> getAllScoresByUser(final String channelId);
-    boolean createUserIfNotExists(final String channelId, final SlackUser user);
-    boolean doesUserExist(final String channelId, final String userId);
+
+    /**
+     * @param metricTag what the call is counted under when membership
+     *                  saves it a trip to the store
+     */
+    boolean createUserIfNotExists(final String channelId, final SlackUser user, final String metricTag);
+
+    /**
+     * @param metricTag what the call is counted under when membership
+     *                  saves it a trip to the store
+     */
+    boolean doesUserExist(final String channelId, final String userId, final String metricTag);
     void incrementScore(final String channelId, final String userId) throws ScoreException;
+
+    /**
+     * Gives the winner of a question their point as the closer hands the
+     * turn on, so the question is scored once at most. By default the
+     * point is given once the closer returns; a store that can write both
+     * at once passes the closer the winner, whose point it then saves in the
+     * same transaction.
+     *
+     * @param winnerUserId null if nobody won
+     * @return every score in the channel afterwards, or null if the winner
+     *         has no score, in which case the closer is not run
+     */
+    default Map<SlackUser, Long> scoreQuestion(final String channelId, final String winnerUserId, final QuestionCloser closer) {
+        if (winnerUserId != null && !doesUserExist(channelId, winnerUserId, POINT_METRIC_TAG)) {
+            return null;
+        }
+
+        closer.close(null);
+
+        if (winnerUserId != null) {
+            try {
+                incrementScore(channelId, winnerUserId);
+            } catch (ScoreException e) {
+                //Only if the channel was reset since the check, which would have taken the point anyway
+            }
+        }
+
+        return getAllScoresByUser(channelId);
+    }
+
+    /**
+     * Recreates the score of a user this instance still holds as a member
+     * of the channel, after the channel's scores were reset elsewhere
+     *
+     * @return true if the user now has a score
+     */
+    boolean restoreUser(final String channelId, final String userId);
+
     void resetScores(final String channelId);
+
+    @FunctionalInterface
+    interface QuestionCloser {
+        /**
+         * Saves the question as closed, along with a point for the given
+         * user if not null
+         *
+         * @return the user's score after the point, or null if not given one
+         */
+        Long close(final String pointUserId);
+    }
 }
@@ -1,8 +1,9 @@
 package org.bj.examples.trivia.service.score.impl;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.ScoreException;
@@ -10,20 +11,41 @@ import org.bj.examples.trivia.service.score.ScoreService;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Keeps each channel's scores in their own map from user to a
+ * {@link LongAdder}, so increments are atomic and threads scoring in the
+ * same channel do not contend on one counter. Users are looked up by id,
+ * as {@link SlackUser} compares by id alone, and keep the username they
+ * joined with.
+ * <p>
+ * A channel's scores are handed out as an immutable snapshot that is only
+ * rebuilt once a score has changed since it was taken, so repeated reads
+ * of an unchanged leaderboard copy nothing.
+ */
 @Profile("memory")
 @Service
 public class InMemoryScoreServiceImpl implements ScoreService {
-    private Map<SlackUser, Long> scoresByUser = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ChannelScores> scoresByChannel = new ConcurrentHashMap<>();
 
     @Override
     public Map<SlackUser, Long> getAllScoresByUser(final String channelId) {
-        return new HashMap<SlackUser, Long>(scoresByUser);
+        final ChannelScores channelScores = findChannelScores(channelId);
+
+        return channelScores == null ? ImmutableMap.of() : channelScores.snapshot();
     }
 
     @Override
-    public boolean createUserIfNotExists(final String channelId, final SlackUser user) {
-        if (user != null && !scoresByUser.containsKey(user)) {
-            scoresByUser.put(user, 0L);
+    public boolean createUserIfNotExists(final String channelId, final SlackUser user, final String metricTag) {
+        if (channelId == null || user == null || user.getUserId() == null) {
+            return false;
+        }
+
+        final ChannelScores channelScores = scoresByChannel.computeIfAbsent(channelId, key -> new ChannelScores());
+
+        if (channelScores.scoresByUser.putIfAbsent(user, new LongAdder()) == null) {
+            channelScores.changeCount.increment();
 
             return true;
         }
@@ -32,23 +54,82 @@ public class InMemoryScoreServiceImpl implements ScoreService {
     }
 
     @Override
-    public boolean doesUserExist(final String channelId, final String userId) {
-        return userId != null && scoresByUser.containsKey(new SlackUser(userId, null));
+    public boolean doesUserExist(final String channelId, final String userId, final String metricTag) {
+        final ChannelScores channelScores = findChannelScores(channelId);
+
+        return channelScores != null && channelScores.find(userId) != null;
     }
 
     @Override
     public void incrementScore(final String channelId, final String userId) throws ScoreException {
-        final SlackUser key = new SlackUser(userId, null);
+        final ChannelScores channelScores = findChannelScores(channelId);
+        final LongAdder score = channelScores == null ? null : channelScores.find(userId);
 
-        if (userId == null || !scoresByUser.containsKey(key)) {
+        if (score == null) {
             throw new ScoreException();
         }
 
-        scoresByUser.put(key, scoresByUser.get(key) + 1);
+        score.increment();
+        channelScores.changeCount.increment();
+    }
+
+    /**
+     * Scores are only reset here, so there is nothing to restore
+     */
+    @Override
+    public boolean restoreUser(final String channelId, final String userId) {
+        return false;
     }
 
     @Override
     public void resetScores(final String channelId) {
-        scoresByUser.clear();
+        if (channelId != null) {
+            scoresByChannel.remove(channelId);
+        }
+    }
+
+    private ChannelScores findChannelScores(final String channelId) {
+        return channelId == null ? null : scoresByChannel.get(channelId);
+    }
+
+    private static final class ChannelScores {
+        private final ConcurrentMap<SlackUser, LongAdder> scoresByUser = new ConcurrentHashMap<>();
+
+        //Bumped after every change, so a snapshot taken at an older count is stale
+        private final LongAdder changeCount = new LongAdder();
+
+        private volatile Snapshot snapshot = new Snapshot(0L, ImmutableMap.of());
+
+        private LongAdder find(final String userId) {
+            return userId == null ? null : scoresByUser.get(new SlackUser(userId, null));
+        }
+
+        private Map<SlackUser, Long> snapshot() {
+            //Read before the scores, so any change it counts is in the scores read
+            final long currentChangeCount = changeCount.sum();
+            final Snapshot currentSnapshot = snapshot;
+
+            if (currentSnapshot.changeCount == currentChangeCount) {
+                return currentSnapshot.scoresByUser;
+            }
+
+            final ImmutableMap.Builder<SlackUser, Long> builder = ImmutableMap.builder();
+            scoresByUser.forEach((user, score) -> builder.put(user, score.sum()));
+
+            final Snapshot nextSnapshot = new Snapshot(currentChangeCount, builder.build());
+            snapshot = nextSnapshot;
+
+            return nextSnapshot.scoresByUser;
+        }
+    }
+
+    private static final class Snapshot {
+        private final long changeCount;
+        private final Map<SlackUser, Long> scoresByUser;
+
+        private Snapshot(final long changeCount, final Map<SlackUser, Long> scoresByUser) {
+            this.changeCount = changeCount;
+            this.scoresByUser = scoresByUser;
+        }
     }
 }
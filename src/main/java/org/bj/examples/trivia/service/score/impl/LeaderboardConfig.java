@@ -0,0 +1,45 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("leaderboard")
+public class LeaderboardConfig {
+    private boolean enabled = false;
+    private int maximumSize = 10000;
+    private long expireAfterWriteMillis = 300000L;
+    private int displayedScores = 0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public long getExpireAfterWriteMillis() {
+        return expireAfterWriteMillis;
+    }
+
+    public void setExpireAfterWriteMillis(long expireAfterWriteMillis) {
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+    }
+
+    public int getDisplayedScores() {
+        return displayedScores;
+    }
+
+    public void setDisplayedScores(int displayedScores) {
+        this.displayedScores = displayedScores;
+    }
+}
@@ -0,0 +1,113 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.service.score.Leaderboard;
+import org.bj.examples.trivia.service.score.LeaderboardService;
+import org.bj.examples.trivia.service.score.ScoreService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * When enabled, each channel's leaderboard is kept in memory and changed
+ * one score at a time as users join and questions are resolved; it is
+ * rebuilt from the score service on a miss. Entries expire after a fixed
+ * time so points given by other instances are picked up eventually.
+ * <p>
+ * When disabled, every read builds the leaderboard from the score service.
+ */
+@Service
+public class LeaderboardServiceImpl implements LeaderboardService {
+    private final ScoreService scoreService;
+    private final LoadingCache<String, Leaderboard> leaderboardsByChannel;
+
+    @Autowired
+    public LeaderboardServiceImpl(final ScoreService scoreService, final LeaderboardConfig config) {
+        this.scoreService = scoreService;
+        this.leaderboardsByChannel = config.isEnabled() ?
+                CacheBuilder.newBuilder()
+                        .maximumSize(config.getMaximumSize())
+                        .expireAfterWrite(config.getExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+                        .recordStats()
+                        .build(CacheLoader.from(this::load)) :
+                null;
+    }
+
+    @Override
+    public Leaderboard getLeaderboard(final String channelId) {
+        return leaderboardsByChannel == null ? load(channelId) : leaderboardsByChannel.getUnchecked(channelId);
+    }
+
+    @Override
+    public void onUserJoined(final String channelId, final SlackUser user) {
+        final Leaderboard leaderboard = findCached(channelId);
+
+        if (leaderboard != null) {
+            leaderboard.addIfAbsent(user, 0L);
+        }
+    }
+
+    /**
+     * Brings the leaderboard in line with the scores the question was
+     * resolved with. Those are every score in the channel, so each one that
+     * differs is applied, which also picks up points given and users added
+     * by other instances; only changed entries are moved. A channel that is
+     * not cached, or that lost users to a reset elsewhere, is built from
+     * them rather than read again.
+     */
+    @Override
+    public Leaderboard onQuestionResolved(final String channelId, final Map<SlackUser, Long> scoresByUser) {
+        final Leaderboard cachedLeaderboard = findCached(channelId);
+
+        if (cachedLeaderboard != null) {
+            scoresByUser.forEach(cachedLeaderboard::update);
+
+            //Anyone else on it was reset elsewhere
+            if (cachedLeaderboard.size() == scoresByUser.size()) {
+                return cachedLeaderboard;
+            }
+        }
+
+        final Leaderboard leaderboard = Leaderboard.of(scoresByUser);
+
+        if (leaderboardsByChannel != null) {
+            leaderboardsByChannel.put(channelId, leaderboard);
+        }
+
+        return leaderboard;
+    }
+
+    @Override
+    public void onScoresReset(final String channelId) {
+        if (leaderboardsByChannel != null) {
+            leaderboardsByChannel.put(channelId, new Leaderboard());
+        }
+    }
+
+    /**
+     * Hits, misses and evictions of the leaderboard cache; all zero when it
+     * is disabled
+     */
+    public CacheStats getCacheStats() {
+        return leaderboardsByChannel == null ? new CacheStats(0, 0, 0, 0, 0, 0) : leaderboardsByChannel.stats();
+    }
+
+    public long getCachedLeaderboardCount() {
+        return leaderboardsByChannel == null ? 0L : leaderboardsByChannel.size();
+    }
+
+    private Leaderboard findCached(final String channelId) {
+        return leaderboardsByChannel == null ? null : leaderboardsByChannel.getIfPresent(channelId);
+    }
+
+    private Leaderboard load(final String channelId) {
+        return Leaderboard.of(scoreService.getAllScoresByUser(channelId));
+    }
+}
@@ -1,9 +1,13 @@
 package org.bj.examples.trivia.service.score.impl;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import javax.annotation.PreDestroy;
+
+import org.bj.examples.trivia.data.score.ScoreDelta;
 import org.bj.examples.trivia.data.score.ScoreInfo;
 import org.bj.examples.trivia.data.score.ScoreInfoRepo;
 import org.bj.examples.trivia.dto.SlackUser;
@@ -12,65 +16,234 @@ import org.bj.examples.trivia.service.score.ScoreService;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+/**
+ * With write-behind enabled, points are buffered and written with one bulk
+ * write a flush interval later; reads add the buffered points to the
+ * stored scores. A user is looked up before each buffered point, unless
+ * membership knows them, so points for users without a score are still
+ * refused.
+ * <p>
+ * With membership enabled, users known to have a score skip the store when
+ * they answer or are passed to, and users never seen are inserted without
+ * being read first; see {@link ScoreMembership}.
+ */
 @Profile("mongo")
 @Service
 public class MongoScoreServiceImpl implements ScoreService {
     private final ScoreInfoRepo scoreInfoRepo;
+    private final ScoreWriteBuffer buffer;
+    private final ScoreMembership membership;
 
-    public MongoScoreServiceImpl(final ScoreInfoRepo scoreInfoRepo) {
+    public MongoScoreServiceImpl(
+            final ScoreInfoRepo scoreInfoRepo,
+            final ScoreWriteBehindConfig writeBehindConfig,
+            final ScoreMembershipConfig membershipConfig
+    ) {
         this.scoreInfoRepo = scoreInfoRepo;
+        this.membership = membershipConfig.isEnabled() ? new ScoreMembership(membershipConfig) : null;
+        this.buffer = writeBehindConfig.isEnabled() ? new ScoreWriteBuffer(writeBehindConfig, this::writePoints) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (buffer != null) {
+            buffer.close();
+        }
     }
 
     @Override
     public Map<SlackUser, Long> getAllScoresByUser(final String channelId) {
         final List<ScoreInfo> scores = scoreInfoRepo.findByChannelId(channelId);
+        final Map<String, Long> bufferedPoints = buffer == null ? Collections.emptyMap() : buffer.getPoints(channelId);
 
         return scores.stream().collect(
                 Collectors.toMap(
                         scoreInfo -> new SlackUser(scoreInfo.getUserId(), scoreInfo.getUsername()),
-                        ScoreInfo::getScore
+                        scoreInfo -> scoreInfo.getScore() + bufferedPoints.getOrDefault(scoreInfo.getUserId(), 0L)
                 )
         );
     }
 
     @Override
-    public boolean createUserIfNotExists(final String channelId, final SlackUser user) {
-        ScoreInfo scoreInfo = scoreInfoRepo.findByChannelIdAndUserId(channelId, user.getUserId());
-
-        if (scoreInfo == null) {
-            scoreInfo = new ScoreInfo();
-            scoreInfo.setChannelId(channelId);
-            scoreInfo.setUserId(user.getUserId());
-            scoreInfo.setUsername(user.getUsername());
-            scoreInfo.setScore(0L);
-            scoreInfoRepo.save(scoreInfo);
+    public boolean createUserIfNotExists(final String channelId, final SlackUser user, final String metricTag) {
+        if (membership != null && membership.isMember(channelId, user.getUserId())) {
+            membership.recordAvoidedCall(metricTag);
+            return false;
+        }
 
-            return true;
+        if (membership != null && !membership.mightBeMember(channelId, user.getUserId())) {
+            //Never seen here, so most likely new; the upsert finds them if not
+            membership.recordAvoidedCall(metricTag);
+        } else if (scoreInfoRepo.findByChannelIdAndUserId(channelId, user.getUserId()) != null) {
+            addMember(channelId, user.getUserId(), user.getUsername());
+            return false;
         }
 
-        return false;
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setChannelId(channelId);
+        scoreInfo.setUserId(user.getUserId());
+        scoreInfo.setUsername(user.getUsername());
+
+        //Joined on another instance since the read, if there was one
+        final boolean created = scoreInfoRepo.insertIfAbsent(scoreInfo);
+        addMember(channelId, user.getUserId(), user.getUsername());
+
+        return created;
     }
 
     @Override
-    public boolean doesUserExist(final String channelId, final String userId) {
-        final ScoreInfo scoreInfo = scoreInfoRepo.findByChannelIdAndUserId(channelId, userId);
-        return scoreInfo != null;
+    public boolean doesUserExist(final String channelId, final String userId, final String metricTag) {
+        return isMember(channelId, userId, metricTag);
     }
 
+    /**
+     * Without write-behind the point is added by the server in one update,
+     * so there is nothing to conflict with and no need to retry
+     */
     @Override
     public void incrementScore(final String channelId, final String userId) throws ScoreException {
-        ScoreInfo scoreInfo = scoreInfoRepo.findByChannelIdAndUserId(channelId, userId);
+        if (buffer != null) {
+            if (!isMember(channelId, userId, POINT_METRIC_TAG)) {
+                throw new ScoreException();
+            }
 
-        if (scoreInfo == null) {
+            if (buffer.add(channelId, userId)) {
+                return;
+            }
+
+            //Full because flushes keep failing; a direct write fails here instead of losing the point
+        }
+
+        //A member whose score was reset on another instance gets a new one
+        if (scoreInfoRepo.incrementScore(channelId, userId) == null
+                && (!restoreUser(channelId, userId) || scoreInfoRepo.incrementScore(channelId, userId) == null)) {
             throw new ScoreException();
         }
+    }
 
-        scoreInfo.setScore(scoreInfo.getScore() + 1);
-        scoreInfoRepo.save(scoreInfo);
+    /**
+     * The number of points buffered but not yet written; 0 when write-behind
+     * is disabled
+     */
+    public long getPendingPoints() {
+        return buffer == null ? 0L : buffer.getPendingPoints();
+    }
+
+    public long getFlushCount() {
+        return buffer == null ? 0L : buffer.getFlushCount();
+    }
+
+    /**
+     * The number of flushes in which at least one batch failed to write
+     */
+    public long getFailedFlushCount() {
+        return buffer == null ? 0L : buffer.getFailedFlushCount();
+    }
+
+    public long getAverageFlushMillis() {
+        return buffer == null ? 0L : buffer.getAverageFlushMillis();
+    }
+
+    public long getMaxFlushMillis() {
+        return buffer == null ? 0L : buffer.getMaxFlushMillis();
+    }
+
+    /**
+     * The number of points written directly because the buffer was full
+     */
+    public long getRefusedPointCount() {
+        return buffer == null ? 0L : buffer.getRefusedPointCount();
+    }
+
+    /**
+     * The number of store calls skipped thanks to membership, by the metric
+     * tag of the call they were made for. Empty when membership is disabled.
+     */
+    public Map<String, Long> getAvoidedCallCounts() {
+        return membership == null ? Collections.emptyMap() : membership.getAvoidedCallCounts();
+    }
+
+    /**
+     * The number of channels whose members are held exactly
+     */
+    public long getHotChannelCount() {
+        return membership == null ? 0L : membership.getHotChannelCount();
+    }
+
+    @Override
+    public boolean restoreUser(final String channelId, final String userId) {
+        final String username = membership == null ? null : membership.getUsername(channelId, userId);
+
+        if (username == null) {
+            return false;
+        }
+
+        //The rest of the channel's members were reset too
+        membership.forget(channelId);
+
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setChannelId(channelId);
+        scoreInfo.setUserId(userId);
+        scoreInfo.setUsername(username);
+
+        scoreInfoRepo.insertIfAbsent(scoreInfo);
+        addMember(channelId, userId, username);
+
+        return true;
     }
 
     @Override
     public void resetScores(final String channelId) {
+        if (buffer != null) {
+            buffer.discard(channelId);
+        }
+
+        if (membership != null) {
+            membership.forget(channelId);
+        }
+
         scoreInfoRepo.deleteByChannelId(channelId);
     }
+
+    private boolean isMember(final String channelId, final String userId, final String metricTag) {
+        if (membership != null && membership.isMember(channelId, userId)) {
+            membership.recordAvoidedCall(metricTag);
+            return true;
+        }
+
+        final ScoreInfo scoreInfo = scoreInfoRepo.findByChannelIdAndUserId(channelId, userId);
+
+        if (scoreInfo == null) {
+            return false;
+        }
+
+        addMember(channelId, userId, scoreInfo.getUsername());
+
+        return true;
+    }
+
+    private void addMember(final String channelId, final String userId, final String username) {
+        if (membership != null) {
+            membership.add(channelId, userId, username);
+        }
+    }
+
+    /**
+     * Writes a batch of buffered points, restoring members whose scores
+     * were reset on another instance since their points were buffered
+     */
+    private int writePoints(final List<ScoreDelta> deltas) {
+        final int writtenCount = scoreInfoRepo.addPoints(deltas);
+
+        if (writtenCount == deltas.size() || membership == null) {
+            return writtenCount;
+        }
+
+        final List<ScoreDelta> restoredDeltas = deltas.stream()
+                .filter(delta -> scoreInfoRepo.findByChannelIdAndUserId(delta.getChannelId(), delta.getUserId()) == null)
+                .filter(delta -> restoreUser(delta.getChannelId(), delta.getUserId()))
+                .collect(Collectors.toList());
+
+        return restoredDeltas.isEmpty() ? writtenCount : writtenCount + scoreInfoRepo.addPoints(restoredDeltas);
+    }
 }
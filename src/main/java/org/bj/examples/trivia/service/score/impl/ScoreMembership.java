@@ -0,0 +1,107 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+/**
+ * The users known to have a score, kept so the score services can skip the
+ * store for them. Hot channels keep an exact set of their members, which
+ * is trusted; it expires a fixed time after the channel was first seen.
+ * Scores reset by another instance in the meantime are found missing by
+ * the next point written for a member, which the score services then
+ * recreate from the username kept here.
+ * <p>
+ * Every member ever seen is also added to a Bloom filter, which outlives
+ * the exact sets. It can only be trusted when it says a user has never been
+ * seen: such a user is most likely new, so they can be inserted without
+ * being read first. Past the expected number of members it just answers
+ * "maybe" more often.
+ */
+final class ScoreMembership {
+    //Usernames by user id
+    private final Cache<String, ConcurrentMap<String, String>> membersByHotChannel;
+    private final BloomFilter<CharSequence> seenMembers;
+    private final ConcurrentMap<String, LongAdder> avoidedCallCounts = new ConcurrentHashMap<>();
+
+    ScoreMembership(final ScoreMembershipConfig config) {
+        this.membersByHotChannel = CacheBuilder.newBuilder()
+                .maximumSize(config.getMaximumHotChannels())
+                .expireAfterWrite(config.getExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+                .build();
+        this.seenMembers = BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8),
+                config.getExpectedMembers(),
+                config.getFalsePositiveProbability()
+        );
+    }
+
+    boolean isMember(final String channelId, final String userId) {
+        return getUsername(channelId, userId) != null;
+    }
+
+    /**
+     * The username of an exact member, or null if the user is not one
+     */
+    String getUsername(final String channelId, final String userId) {
+        final Map<String, String> usernamesByUserId = membersByHotChannel.getIfPresent(channelId);
+
+        return usernamesByUserId == null ? null : usernamesByUserId.get(userId);
+    }
+
+    /**
+     * False only if the user has never been seen in the channel by this
+     * instance
+     */
+    boolean mightBeMember(final String channelId, final String userId) {
+        return isMember(channelId, userId) || seenMembers.mightContain(toKey(channelId, userId));
+    }
+
+    void add(final String channelId, final String userId, final String username) {
+        try {
+            //Stored scores may predate usernames
+            membersByHotChannel.get(channelId, ConcurrentHashMap::new).put(userId, username == null ? userId : username);
+        } catch (ExecutionException e) {
+            //Never thrown by the map constructor
+            throw new IllegalStateException(e);
+        }
+
+        seenMembers.put(toKey(channelId, userId));
+    }
+
+    /**
+     * Drops the channel's exact members, ahead of its scores being deleted.
+     * They stay in the Bloom filter, which is only trusted for users it has
+     * never seen.
+     */
+    void forget(final String channelId) {
+        membersByHotChannel.invalidate(channelId);
+    }
+
+    void recordAvoidedCall(final String metricTag) {
+        avoidedCallCounts.computeIfAbsent(metricTag, key -> new LongAdder()).increment();
+    }
+
+    Map<String, Long> getAvoidedCallCounts() {
+        return avoidedCallCounts.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum()));
+    }
+
+    long getHotChannelCount() {
+        return membersByHotChannel.size();
+    }
+
+    private static String toKey(final String channelId, final String userId) {
+        return channelId + ":" + userId;
+    }
+}
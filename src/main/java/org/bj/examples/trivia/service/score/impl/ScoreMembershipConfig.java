@@ -0,0 +1,54 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("score-membership")
+public class ScoreMembershipConfig {
+    private boolean enabled = false;
+    private int maximumHotChannels = 1000;
+    private long expireAfterWriteMillis = 600000L;
+    private long expectedMembers = 1000000L;
+    private double falsePositiveProbability = 0.01;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaximumHotChannels() {
+        return maximumHotChannels;
+    }
+
+    public void setMaximumHotChannels(int maximumHotChannels) {
+        this.maximumHotChannels = maximumHotChannels;
+    }
+
+    public long getExpireAfterWriteMillis() {
+        return expireAfterWriteMillis;
+    }
+
+    public void setExpireAfterWriteMillis(long expireAfterWriteMillis) {
+        this.expireAfterWriteMillis = expireAfterWriteMillis;
+    }
+
+    public long getExpectedMembers() {
+        return expectedMembers;
+    }
+
+    public void setExpectedMembers(long expectedMembers) {
+        this.expectedMembers = expectedMembers;
+    }
+
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    public void setFalsePositiveProbability(double falsePositiveProbability) {
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+}
@@ -1,76 +1,317 @@
 package org.bj.examples.trivia.service.score.impl;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import javax.annotation.PreDestroy;
+
+import org.bj.examples.trivia.data.score.ScoreDelta;
 import org.bj.examples.trivia.data.score.ScoreInfo;
 import org.bj.examples.trivia.data.score.ScoreInfoDao;
 import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.service.score.ScoreService;
+import org.bj.examples.trivia.util.OptimisticRetry;
+import org.bj.examples.trivia.util.OptimisticRetryConfig;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+/**
+ * With write-behind enabled, points are buffered and written in batched
+ * transactions a flush interval later; reads add the buffered points to
+ * the stored scores. A user is looked up before each buffered point,
+ * unless membership knows them, so points for users without a score are
+ * still refused.
+ * <p>
+ * With membership enabled, users known to have a score skip the store when
+ * they answer or are passed to, and users never seen are inserted without
+ * being read first; see {@link ScoreMembership}.
+ */
 @Profile("production")
 @Service
 public class ScoreServiceImpl implements ScoreService {
     private final ScoreInfoDao scoreInfoDao;
+    private final OptimisticRetry retry;
+    private final ScoreWriteBuffer buffer;
+    private final ScoreMembership membership;
 
-    public ScoreServiceImpl(final ScoreInfoDao scoreInfoDao) {
+    public ScoreServiceImpl(
+            final ScoreInfoDao scoreInfoDao,
+            final OptimisticRetryConfig retryConfig,
+            final ScoreWriteBehindConfig writeBehindConfig,
+            final ScoreMembershipConfig membershipConfig
+    ) {
         this.scoreInfoDao = scoreInfoDao;
+        this.retry = new OptimisticRetry(retryConfig.getMaxAttempts(), retryConfig.getBaseBackoffMillis());
+        this.membership = membershipConfig.isEnabled() ? new ScoreMembership(membershipConfig) : null;
+        this.buffer = writeBehindConfig.isEnabled() ? new ScoreWriteBuffer(writeBehindConfig, this::writePoints) : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (buffer != null) {
+            buffer.close();
+        }
     }
 
     @Override
     public Map<SlackUser, Long> getAllScoresByUser(final String channelId) {
         final List<ScoreInfo> scores = scoreInfoDao.findAllByChannelId(channelId);
+        final Map<String, Long> bufferedPoints = buffer == null ? Collections.emptyMap() : buffer.getPoints(channelId);
 
         return scores.stream().collect(
                 Collectors.toMap(
                         scoreInfo -> new SlackUser(scoreInfo.getUserId(), scoreInfo.getUsername()),
-                        ScoreInfo::getScore
+                        scoreInfo -> scoreInfo.getScore() + bufferedPoints.getOrDefault(scoreInfo.getUserId(), 0L)
                 )
         );
     }
 
     @Override
-    public boolean createUserIfNotExists(final String channelId, final SlackUser user) {
-        ScoreInfo scoreInfo = scoreInfoDao.findByChannelIdAndUserId(channelId, user.getUserId());
-
-        if (scoreInfo == null) {
-            scoreInfo = new ScoreInfo();
-            scoreInfo.setChannelId(channelId);
-            scoreInfo.setUserId(user.getUserId());
-            scoreInfo.setUsername(user.getUsername());
-            scoreInfo.setScore(0L);
-            scoreInfoDao.save(scoreInfo);
+    public boolean createUserIfNotExists(final String channelId, final SlackUser user, final String metricTag) {
+        if (membership != null && membership.isMember(channelId, user.getUserId())) {
+            membership.recordAvoidedCall(metricTag);
+            return false;
+        }
 
-            return true;
+        if (membership != null && !membership.mightBeMember(channelId, user.getUserId())) {
+            //Never seen here, so most likely new; the insert finds them if not
+            membership.recordAvoidedCall(metricTag);
+        } else if (scoreInfoDao.findByChannelIdAndUserId(channelId, user.getUserId()) != null) {
+            addMember(channelId, user.getUserId(), user.getUsername());
+            return false;
         }
 
-        return false;
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setChannelId(channelId);
+        scoreInfo.setUserId(user.getUserId());
+        scoreInfo.setUsername(user.getUsername());
+        scoreInfo.setScore(0L);
+
+        //Joined on another instance since the read, if there was one
+        final boolean created = scoreInfoDao.putIfAbsent(scoreInfo) == null;
+        addMember(channelId, user.getUserId(), user.getUsername());
+
+        return created;
     }
 
     @Override
-    public boolean doesUserExist(final String channelId, final String userId) {
-        final ScoreInfo scoreInfo = scoreInfoDao.findByChannelIdAndUserId(channelId, userId);
-        return scoreInfo != null;
+    public boolean doesUserExist(final String channelId, final String userId, final String metricTag) {
+        return isMember(channelId, userId, metricTag);
     }
 
     @Override
     public void incrementScore(final String channelId, final String userId) throws ScoreException {
-        final ScoreInfo scoreInfo = scoreInfoDao.findByChannelIdAndUserId(channelId, userId);
+        if (buffer != null) {
+            if (!isMember(channelId, userId, POINT_METRIC_TAG)) {
+                throw new ScoreException();
+            }
 
-        if (scoreInfo == null) {
-            throw new ScoreException();
+            if (buffer.add(channelId, userId)) {
+                return;
+            }
+
+            //Full because flushes keep failing; a direct write fails here instead of losing the point
         }
 
-        scoreInfo.setScore(scoreInfo.getScore() + 1);
-        scoreInfoDao.save(scoreInfo);
+        retry.run(channelId, () -> {
+            //A member whose score was reset on another instance gets a new one
+            if (scoreInfoDao.incrementScore(channelId, userId) == null
+                    && (!restoreUser(channelId, userId) || scoreInfoDao.incrementScore(channelId, userId) == null)) {
+                throw new ScoreException();
+            }
+        });
+    }
+
+    /**
+     * Without write-behind, reads the channel's scores with one query, which
+     * also finds the winner's, and has the closer save the winner's point in
+     * its transaction. With write-behind the point is buffered once the
+     * closer has returned.
+     */
+    @Override
+    public Map<SlackUser, Long> scoreQuestion(final String channelId, final String winnerUserId, final QuestionCloser closer) {
+        if (buffer != null) {
+            return ScoreService.super.scoreQuestion(channelId, winnerUserId, closer);
+        }
+
+        final List<ScoreInfo> scores = findScores(channelId, winnerUserId);
+        final ScoreInfo winnerScore = findScore(scores, winnerUserId);
+
+        if (winnerUserId != null && winnerScore == null) {
+            return null;
+        }
+
+        final Long savedWinnerScore = closer.close(winnerUserId);
+
+        return scores.stream().collect(
+                Collectors.toMap(
+                        scoreInfo -> new SlackUser(scoreInfo.getUserId(), scoreInfo.getUsername()),
+                        scoreInfo -> scoreInfo == winnerScore ? savedWinnerScore : scoreInfo.getScore()
+                )
+        );
+    }
+
+    /**
+     * The number of score transactions per channel that lost to a
+     * concurrent one
+     */
+    public Map<String, Long> getConflictCounts() {
+        return retry.getConflictCounts();
+    }
+
+    /**
+     * The number of score transactions per channel that were re-run after a
+     * conflict
+     */
+    public Map<String, Long> getRetryCounts() {
+        return retry.getRetryCounts();
+    }
+
+    /**
+     * The number of points buffered but not yet written; 0 when write-behind
+     * is disabled
+     */
+    public long getPendingPoints() {
+        return buffer == null ? 0L : buffer.getPendingPoints();
+    }
+
+    public long getFlushCount() {
+        return buffer == null ? 0L : buffer.getFlushCount();
+    }
+
+    /**
+     * The number of flushes in which at least one batch failed to write
+     */
+    public long getFailedFlushCount() {
+        return buffer == null ? 0L : buffer.getFailedFlushCount();
+    }
+
+    public long getAverageFlushMillis() {
+        return buffer == null ? 0L : buffer.getAverageFlushMillis();
+    }
+
+    public long getMaxFlushMillis() {
+        return buffer == null ? 0L : buffer.getMaxFlushMillis();
+    }
+
+    /**
+     * The number of points written directly because the buffer was full
+     */
+    public long getRefusedPointCount() {
+        return buffer == null ? 0L : buffer.getRefusedPointCount();
+    }
+
+    /**
+     * The number of store calls skipped thanks to membership, by the metric
+     * tag of the call they were made for. Empty when membership is disabled.
+     */
+    public Map<String, Long> getAvoidedCallCounts() {
+        return membership == null ? Collections.emptyMap() : membership.getAvoidedCallCounts();
+    }
+
+    /**
+     * The number of channels whose members are held exactly
+     */
+    public long getHotChannelCount() {
+        return membership == null ? 0L : membership.getHotChannelCount();
+    }
+
+    @Override
+    public boolean restoreUser(final String channelId, final String userId) {
+        final String username = membership == null ? null : membership.getUsername(channelId, userId);
+
+        if (username == null) {
+            return false;
+        }
+
+        //The rest of the channel's members were reset too
+        membership.forget(channelId);
+
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setChannelId(channelId);
+        scoreInfo.setUserId(userId);
+        scoreInfo.setUsername(username);
+        scoreInfo.setScore(0L);
+
+        scoreInfoDao.putIfAbsent(scoreInfo);
+        addMember(channelId, userId, username);
+
+        return true;
     }
 
     @Override
     public void resetScores(final String channelId) {
+        if (buffer != null) {
+            buffer.discard(channelId);
+        }
+
+        if (membership != null) {
+            membership.forget(channelId);
+        }
+
         scoreInfoDao.deleteAllByChannelId(channelId);
     }
+
+    private boolean isMember(final String channelId, final String userId, final String metricTag) {
+        if (membership != null && membership.isMember(channelId, userId)) {
+            membership.recordAvoidedCall(metricTag);
+            return true;
+        }
+
+        final ScoreInfo scoreInfo = scoreInfoDao.findByChannelIdAndUserId(channelId, userId);
+
+        if (scoreInfo == null) {
+            return false;
+        }
+
+        addMember(channelId, userId, scoreInfo.getUsername());
+
+        return true;
+    }
+
+    //Restores a winner whose score was reset on another instance since they joined here
+    private List<ScoreInfo> findScores(final String channelId, final String winnerUserId) {
+        final List<ScoreInfo> scores = scoreInfoDao.findAllByChannelId(channelId);
+
+        if (winnerUserId != null && findScore(scores, winnerUserId) == null && restoreUser(channelId, winnerUserId)) {
+            return scoreInfoDao.findAllByChannelId(channelId);
+        }
+
+        return scores;
+    }
+
+    private static ScoreInfo findScore(final List<ScoreInfo> scores, final String userId) {
+        return userId == null ? null : scores.stream()
+                .filter(scoreInfo -> userId.equals(scoreInfo.getUserId()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    private void addMember(final String channelId, final String userId, final String username) {
+        if (membership != null) {
+            membership.add(channelId, userId, username);
+        }
+    }
+
+    /**
+     * Writes a batch of buffered points, restoring members whose scores
+     * were reset on another instance since their points were buffered
+     */
+    private int writePoints(final List<ScoreDelta> deltas) {
+        final int writtenCount = scoreInfoDao.addPoints(deltas);
+
+        if (writtenCount == deltas.size() || membership == null) {
+            return writtenCount;
+        }
+
+        final List<ScoreDelta> restoredDeltas = deltas.stream()
+                .filter(delta -> scoreInfoDao.findByChannelIdAndUserId(delta.getChannelId(), delta.getUserId()) == null)
+                .filter(delta -> restoreUser(delta.getChannelId(), delta.getUserId()))
+                .collect(Collectors.toList());
+
+        return restoredDeltas.isEmpty() ? writtenCount : writtenCount + scoreInfoDao.addPoints(restoredDeltas);
+    }
 }
@@ -0,0 +1,54 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("score-write-behind")
+public class ScoreWriteBehindConfig {
+    private boolean enabled = false;
+    private long flushIntervalMillis = 1000L;
+    private int maxPendingPoints = 100;
+    private int maxBufferedPoints = 10000;
+    private int batchSize = 25;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getMaxPendingPoints() {
+        return maxPendingPoints;
+    }
+
+    public void setMaxPendingPoints(int maxPendingPoints) {
+        this.maxPendingPoints = maxPendingPoints;
+    }
+
+    public int getMaxBufferedPoints() {
+        return maxBufferedPoints;
+    }
+
+    public void setMaxBufferedPoints(int maxBufferedPoints) {
+        this.maxBufferedPoints = maxBufferedPoints;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
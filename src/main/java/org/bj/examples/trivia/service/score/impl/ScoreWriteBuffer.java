@@ -0,0 +1,262 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.data.score.ScoreDelta;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Holds points given since the last flush per channel and user, and writes
+ * them in batches every flush interval, or as soon as the maximum pending
+ * points are reached, from a single background thread. Points stay
+ * buffered until the batch holding them is written, so a failed write is
+ * retried with the next flush; a crash loses at most the points given
+ * since the last successful flush. While flushes keep failing, the buffer
+ * holds at most the maximum buffered points and then refuses new ones, so
+ * the caller can write them directly instead.
+ */
+final class ScoreWriteBuffer {
+    private static final Log log = LogFactory.getLog(ScoreWriteBuffer.class);
+
+    interface Writer {
+        int write(final List<ScoreDelta> deltas);
+    }
+
+    private final Writer writer;
+    private final int maxPendingPoints;
+    private final int maxBufferedPoints;
+    private final int batchSize;
+    private final ScheduledExecutorService flusher;
+
+    //Changed only inside compute calls on the outer map, so a channel is never dropped while a point is added to it
+    private final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> pointsByChannel = new ConcurrentHashMap<>();
+    private final AtomicLong pendingPoints = new AtomicLong();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong failedFlushCount = new AtomicLong();
+    private final AtomicLong totalFlushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+    private final AtomicLong refusedPointCount = new AtomicLong();
+
+    ScoreWriteBuffer(final ScoreWriteBehindConfig config, final Writer writer) {
+        this.writer = writer;
+        this.maxPendingPoints = config.getMaxPendingPoints();
+        this.maxBufferedPoints = config.getMaxBufferedPoints();
+        this.batchSize = config.getBatchSize();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("score-write-behind").setDaemon(true).build()
+        );
+
+        flusher.scheduleWithFixedDelay(this::flushSafely, config.getFlushIntervalMillis(), config.getFlushIntervalMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return false if the buffer is full, in which case the point is not
+     * added
+     */
+    boolean add(final String channelId, final String userId) {
+        if (pendingPoints.get() >= maxBufferedPoints) {
+            if (refusedPointCount.getAndIncrement() == 0) {
+                log.warn("Score buffer is full; points are written directly until flushes succeed again.");
+            }
+
+            return false;
+        }
+
+        pointsByChannel.compute(channelId, (key, pointsByUserId) -> {
+            final ConcurrentMap<String, AtomicLong> channelPoints = pointsByUserId == null ? new ConcurrentHashMap<>() : pointsByUserId;
+            channelPoints.computeIfAbsent(userId, id -> new AtomicLong()).incrementAndGet();
+
+            return channelPoints;
+        });
+
+        if (pendingPoints.incrementAndGet() >= maxPendingPoints && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushSafely);
+            } catch (RejectedExecutionException e) {
+                //Closing; the final flush writes it
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The points given in the channel that are not yet written, by user id
+     */
+    Map<String, Long> getPoints(final String channelId) {
+        final Map<String, AtomicLong> pointsByUserId = pointsByChannel.get(channelId);
+
+        if (pointsByUserId == null) {
+            return Collections.emptyMap();
+        }
+
+        return pointsByUserId.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().get()));
+    }
+
+    /**
+     * Drops the channel's unwritten points, ahead of its scores being
+     * deleted. Waits for a flush in progress, so points it has taken are
+     * written before the scores are deleted rather than after, which would
+     * bring the reset users back.
+     */
+    void discard(final String channelId) {
+        synchronized (flushLock) {
+            final Map<String, AtomicLong> pointsByUserId = pointsByChannel.remove(channelId);
+
+            if (pointsByUserId != null) {
+                pendingPoints.addAndGet(-pointsByUserId.values().stream().mapToLong(AtomicLong::get).sum());
+            }
+        }
+    }
+
+    /**
+     * Writes every buffered point, a batch at a time; a batch that fails
+     * stays buffered for the next flush
+     *
+     * @return the number of points written
+     */
+    long flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+
+            final List<ScoreDelta> deltas = new ArrayList<>();
+            pointsByChannel.forEach((channelId, pointsByUserId) -> pointsByUserId.forEach((userId, points) -> {
+                final long currentPoints = points.get();
+
+                if (currentPoints > 0) {
+                    deltas.add(new ScoreDelta(channelId, userId, currentPoints));
+                }
+            }));
+
+            if (deltas.isEmpty()) {
+                return 0L;
+            }
+
+            final long start = System.currentTimeMillis();
+            long writtenPoints = 0L;
+            RuntimeException failure = null;
+
+            for (final List<ScoreDelta> batch : Lists.partition(deltas, batchSize)) {
+                try {
+                    writer.write(batch);
+                } catch (RuntimeException e) {
+                    failure = e;
+                    continue;
+                }
+
+                for (final ScoreDelta delta : batch) {
+                    writtenPoints += remove(delta);
+                }
+            }
+
+            final long flushMillis = System.currentTimeMillis() - start;
+            flushCount.incrementAndGet();
+            totalFlushMillis.addAndGet(flushMillis);
+            maxFlushMillis.accumulateAndGet(flushMillis, Math::max);
+
+            if (failure != null) {
+                failedFlushCount.incrementAndGet();
+                log.warn("Failed to write some buffered scores; they will be retried next flush.", failure);
+            }
+
+            return writtenPoints;
+        }
+    }
+
+    /**
+     * Stops the timer and writes whatever is still buffered
+     */
+    void close() {
+        flusher.shutdown();
+
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+
+        if (pendingPoints.get() > 0) {
+            log.error(pendingPoints.get() + " buffered point(s) could not be written before shutdown.");
+        }
+    }
+
+    /**
+     * The number of points given but not yet written
+     */
+    long getPendingPoints() {
+        return pendingPoints.get();
+    }
+
+    long getFlushCount() {
+        return flushCount.get();
+    }
+
+    long getFailedFlushCount() {
+        return failedFlushCount.get();
+    }
+
+    long getAverageFlushMillis() {
+        final long count = flushCount.get();
+        return count == 0 ? 0L : totalFlushMillis.get() / count;
+    }
+
+    long getMaxFlushMillis() {
+        return maxFlushMillis.get();
+    }
+
+    long getRefusedPointCount() {
+        return refusedPointCount.get();
+    }
+
+    //Points given while the batch was written stay buffered
+    private long remove(final ScoreDelta delta) {
+        final AtomicBoolean removed = new AtomicBoolean();
+
+        pointsByChannel.computeIfPresent(delta.getChannelId(), (key, pointsByUserId) -> {
+            pointsByUserId.computeIfPresent(delta.getUserId(), (userId, points) -> {
+                removed.set(true);
+                return points.addAndGet(-delta.getPoints()) == 0 ? null : points;
+            });
+
+            return pointsByUserId.isEmpty() ? null : pointsByUserId;
+        });
+
+        //Already subtracted if the channel was discarded meanwhile
+        if (!removed.get()) {
+            return 0L;
+        }
+
+        pendingPoints.addAndGet(-delta.getPoints());
+
+        return delta.getPoints();
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Score flush failed; it will be retried next interval.", e);
+        }
+    }
+}
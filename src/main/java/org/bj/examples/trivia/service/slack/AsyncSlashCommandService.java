@@ -0,0 +1,16 @@
+package org.bj.examples.trivia.service.slack;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.bj.examples.trivia.dto.SlackRequestDoc;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+
+public interface AsyncSlashCommandService {
+    /**
+     * Processes the command off the request thread. The returned future
+     * completes with the command's response if it finishes within the time
+     * budget, otherwise with an acknowledgement, in which case the response
+     * is posted to the request's response URL once it is ready
+     */
+    CompletableFuture<SlackResponseDoc> processSlashCommand(final SlackRequestDoc requestDoc);
+}
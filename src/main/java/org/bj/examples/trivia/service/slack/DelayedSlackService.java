@@ -3,5 +3,22 @@ package org.bj.examples.trivia.service.slack;
 import org.bj.examples.trivia.dto.SlackResponseDoc;
 
 public interface DelayedSlackService {
-    void sendResponse(final String url, final SlackResponseDoc responseDoc);
+    /**
+     * Posts the response to the given response URL in the background.
+     * Responses for the same channel are delivered in the order they
+     * were sent
+     */
+    void sendResponse(final String channelId, final String url, final SlackResponseDoc responseDoc);
+
+    /**
+     * Same as {@link #sendResponse}, but the response may be merged with
+     * other coalescible responses for the channel into a single post
+     */
+    void sendCoalescibleResponse(final String channelId, final String url, final SlackResponseDoc responseDoc);
+
+    /**
+     * Posts a command's own reply that missed the time budget. It is not
+     * merged with other responses or held back by the channel's rate limit
+     */
+    void sendLateResponse(final String channelId, final String url, final SlackResponseDoc responseDoc);
 }
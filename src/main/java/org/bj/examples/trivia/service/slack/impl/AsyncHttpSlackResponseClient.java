@@ -0,0 +1,122 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Posts over a pool of kept-alive connections without holding a thread
+ * while waiting for Slack to reply
+ */
+@Component
+@ConditionalOnProperty(prefix = "delayed-slack.http", name = "async", havingValue = "true", matchIfMissing = true)
+public class AsyncHttpSlackResponseClient implements SlackResponseClient {
+    private final ObjectMapper objectMapper;
+    private final CloseableHttpAsyncClient httpClient;
+
+    @Autowired
+    public AsyncHttpSlackResponseClient(final ObjectMapper objectMapper, final DelayedSlackConfig config) {
+        final DelayedSlackConfig.Http http = config.getHttp();
+
+        this.objectMapper = objectMapper;
+        this.httpClient = HttpAsyncClients.custom()
+                .setMaxConnTotal(http.getMaxConnections())
+                //Every response URL is on hooks.slack.com
+                .setMaxConnPerRoute(http.getMaxConnections())
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setConnectTimeout(http.getConnectTimeoutMillis())
+                        .setSoTimeout(http.getReadTimeoutMillis())
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(http.getConnectTimeoutMillis())
+                        .setConnectionRequestTimeout(http.getReadTimeoutMillis())
+                        .setSocketTimeout(http.getReadTimeoutMillis())
+                        .build())
+                .build();
+        this.httpClient.start();
+    }
+
+    @Override
+    public CompletableFuture<SlackDeliveryResult> post(final String url, final SlackResponseDoc responseDoc) {
+        final CompletableFuture<SlackDeliveryResult> future = new CompletableFuture<>();
+        final long start = System.currentTimeMillis();
+
+        final HttpPost request;
+
+        try {
+            request = new HttpPost(url);
+            request.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(responseDoc), ContentType.APPLICATION_JSON));
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            future.complete(SlackDeliveryResult.failed(e, 0L));
+            return future;
+        }
+
+        try {
+            httpClient.execute(request, new Callback(future, start));
+        } catch (IllegalStateException e) {
+            //The client has been closed
+            future.complete(SlackDeliveryResult.failed(e, 0L));
+        }
+
+        return future;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private static final class Callback implements FutureCallback<HttpResponse> {
+        private final CompletableFuture<SlackDeliveryResult> future;
+        private final long start;
+
+        private Callback(final CompletableFuture<SlackDeliveryResult> future, final long start) {
+            this.future = future;
+            this.start = start;
+        }
+
+        @Override
+        public void completed(final HttpResponse response) {
+            final Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+
+            future.complete(SlackDeliveryResult.of(
+                    response.getStatusLine().getStatusCode(),
+                    retryAfter == null ? null : SlackDeliveryResult.parseRetryAfter(retryAfter.getValue()),
+                    System.currentTimeMillis() - start
+            ));
+        }
+
+        @Override
+        public void failed(final Exception e) {
+            future.complete(SlackDeliveryResult.failed(e, System.currentTimeMillis() - start));
+        }
+
+        @Override
+        public void cancelled() {
+            future.complete(SlackDeliveryResult.failed(
+                    new IllegalStateException("Request was cancelled"),
+                    System.currentTimeMillis() - start
+            ));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.dto.SlackRequestDoc;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
+import org.bj.examples.trivia.service.slack.AsyncSlashCommandService;
+import org.bj.examples.trivia.service.slack.DelayedSlackService;
+import org.bj.examples.trivia.service.slack.SlackSlashCommandService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+@Service
+public class AsyncSlashCommandServiceImpl implements AsyncSlashCommandService {
+    private static final Log log = LogFactory.getLog(AsyncSlashCommandServiceImpl.class);
+
+    private final SlackSlashCommandService slackSlashCommandService;
+    private final DelayedSlackService delayedSlackService;
+    private final SlashCommandConfig config;
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor deadlineTimer;
+
+    //Keyed by trigger_id; holds the in-flight future too so a retry that
+    //arrives while the command is still running waits on the same result
+    private final Cache<String, CompletableFuture<SlackResponseDoc>> recentResults;
+    private final AtomicLong duplicateCount = new AtomicLong();
+
+    @Autowired
+    public AsyncSlashCommandServiceImpl(
+            final SlackSlashCommandService slackSlashCommandService,
+            final DelayedSlackService delayedSlackService,
+            final SlashCommandConfig config
+    ) {
+        this.slackSlashCommandService = slackSlashCommandService;
+        this.delayedSlackService = delayedSlackService;
+        this.config = config;
+        this.executor = new ThreadPoolExecutor(
+                config.getWorkerThreads(),
+                config.getWorkerThreads(),
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(config.getQueueCapacity()),
+                new ThreadFactoryBuilder().setNameFormat("slash-command-%d").setDaemon(true).build()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+        this.deadlineTimer = new ScheduledThreadPoolExecutor(
+                1,
+                new ThreadFactoryBuilder().setNameFormat("slash-command-deadline").setDaemon(true).build()
+        );
+        //Most commands finish well within the budget; don't keep their deadlines queued
+        this.deadlineTimer.setRemoveOnCancelPolicy(true);
+        this.recentResults = CacheBuilder.newBuilder()
+                .maximumSize(config.getRecentCommandCapacity())
+                .expireAfterWrite(config.getRecentCommandTtlMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<SlackResponseDoc> processSlashCommand(final SlackRequestDoc requestDoc) {
+        final String triggerId = requestDoc.getTriggerId();
+
+        if (triggerId == null) {
+            return respond(requestDoc, start(requestDoc), true);
+        }
+
+        final boolean[] isOriginal = new boolean[1];
+        final CompletableFuture<SlackResponseDoc> result;
+
+        try {
+            result = recentResults.get(triggerId, () -> {
+                isOriginal[0] = true;
+                return start(requestDoc);
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (isOriginal[0]) {
+            //Only successful results are worth replaying
+            result.whenComplete((responseDoc, e) -> {
+                if (e != null) {
+                    recentResults.asMap().remove(triggerId, result);
+                }
+            });
+        } else {
+            duplicateCount.incrementAndGet();
+            log.info("Replaying result of command " + triggerId
+                    + (requestDoc.getRetryNum() == null ? "" : " for Slack retry #" + requestDoc.getRetryNum()) + ".");
+        }
+
+        //A duplicate never posts to the response URL; the original already does
+        return respond(requestDoc, result, isOriginal[0]);
+    }
+
+    public CacheStats getRecentResultStats() {
+        return recentResults.stats();
+    }
+
+    public long getRecentResultCount() {
+        return recentResults.size();
+    }
+
+    /**
+     * The number of commands answered from a previous run of the same
+     * trigger_id
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * The number of commands still running within their time budget
+     */
+    public long getPendingDeadlineCount() {
+        return deadlineTimer.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        deadlineTimer.shutdownNow();
+        executor.shutdown();
+        executor.awaitTermination(config.getTimeBudgetMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private CompletableFuture<SlackResponseDoc> start(final SlackRequestDoc requestDoc) {
+        if (!config.isAsync()) {
+            final CompletableFuture<SlackResponseDoc> result = new CompletableFuture<>();
+
+            try {
+                result.complete(slackSlashCommandService.processSlashCommand(requestDoc));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+
+            return result;
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> slackSlashCommandService.processSlashCommand(requestDoc), executor);
+        } catch (RejectedExecutionException e) {
+            final CompletableFuture<SlackResponseDoc> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    private CompletableFuture<SlackResponseDoc> respond(
+            final SlackRequestDoc requestDoc,
+            final CompletableFuture<SlackResponseDoc> result,
+            final boolean deliverLateResponse
+    ) {
+        final CompletableFuture<SlackResponseDoc> response = new CompletableFuture<>();
+
+        result.whenComplete((responseDoc, e) -> {
+            if (e != null) {
+                final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+                if (cause instanceof RejectedExecutionException) {
+                    log.warn("Slash command queue is full; turning away command from channel \"" + requestDoc.getChannelId() + "\".");
+                    response.complete(SlackResponseDoc.failure("Trivia is a little busy right now. Please try again in a moment."));
+                } else if (!response.completeExceptionally(cause)) {
+                    log.error("Slash command failed after it was acknowledged.", cause);
+                }
+
+                return;
+            }
+
+            //Already acknowledged, so the response has to go through the response URL
+            if (!response.complete(responseDoc) && deliverLateResponse) {
+                delayedSlackService.sendLateResponse(requestDoc.getChannelId(), requestDoc.getResponseUrl(), responseDoc);
+            }
+        });
+
+        if (!response.isDone()) {
+            final ScheduledFuture<?> deadline = deadlineTimer.schedule(
+                    () -> response.complete(getAcknowledgement()),
+                    config.getTimeBudgetMillis(),
+                    TimeUnit.MILLISECONDS
+            );
+            response.whenComplete((responseDoc, e) -> deadline.cancel(false));
+        }
+
+        return response;
+    }
+
+    private SlackResponseDoc getAcknowledgement() {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
+        responseDoc.setText("Working on it...");
+
+        return responseDoc;
+    }
+}
@@ -0,0 +1,111 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Passes what a delivery stage releases for a channel on to the next stage
+ * in the order it was released, but without the channel lock held, since
+ * the next stage may wait for room in the delivery queue. Releases are
+ * added under the lock and drained after it is let go, by one thread per
+ * channel at a time, so a channel's order holds whichever thread drains.
+ * Timers drain through a worker instead, so a full queue never holds up
+ * their other channels.
+ */
+class ChannelHandoff {
+    private static final Log log = LogFactory.getLog(ChannelHandoff.class);
+
+    private final ConcurrentMap<String, Pending> pendingByChannel = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    ChannelHandoff(final String threadNameFormat) {
+        this.executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat(threadNameFormat).setDaemon(true).build()
+        );
+    }
+
+    //Must hold the channel lock, so releases are added in order
+    void add(final String channelId, final Runnable release) {
+        pendingByChannel.compute(channelId, (key, existing) -> {
+            final Pending pending = existing == null ? new Pending() : existing;
+            pending.releases.addLast(release);
+            return pending;
+        });
+    }
+
+    /**
+     * Hands on the channel's releases on the calling thread, unless another
+     * thread already is, in which case it hands these on too
+     */
+    void drain(final String channelId) {
+        if (!claim(channelId)) {
+            return;
+        }
+
+        while (true) {
+            final Runnable[] next = new Runnable[1];
+
+            pendingByChannel.computeIfPresent(channelId, (key, pending) -> {
+                next[0] = pending.releases.pollFirst();
+                return next[0] == null ? null : pending;
+            });
+
+            if (next[0] == null) {
+                return;
+            }
+
+            try {
+                next[0].run();
+            } catch (RuntimeException e) {
+                log.error("Unable to hand on messages for channel \"" + channelId + "\".", e);
+            }
+        }
+    }
+
+    /**
+     * Hands on the channel's releases on a worker, for callers that must not
+     * wait, such as timers
+     */
+    void drainLater(final String channelId) {
+        try {
+            executor.execute(() -> drain(channelId));
+        } catch (RejectedExecutionException e) {
+            drain(channelId);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private boolean claim(final String channelId) {
+        final boolean[] claimed = new boolean[1];
+
+        pendingByChannel.computeIfPresent(channelId, (key, pending) -> {
+            if (!pending.draining) {
+                pending.draining = true;
+                claimed[0] = true;
+            }
+
+            return pending;
+        });
+
+        return claimed[0];
+    }
+
+    //Guarded by the map entry for its channel
+    private static final class Pending {
+        private final Deque<Runnable> releases = new ArrayDeque<>();
+        private boolean draining;
+    }
+}
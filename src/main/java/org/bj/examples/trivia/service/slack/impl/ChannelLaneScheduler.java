@@ -0,0 +1,343 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs tasks in FIFO order per lane (one lane per channel) while different
+ * lanes share a fixed pool of workers. A lane only ever occupies one worker
+ * and gives it back after each task, so a slow channel cannot starve the
+ * others. Lanes are created on the first task and dropped as soon as they
+ * are drained.
+ * <p>
+ * A task returns a future and the lane only moves on to its next task once
+ * that future completes, so ordering holds for asynchronous posts while the
+ * worker itself is free to serve other lanes in the meantime.
+ * <p>
+ * Once the queue is full, BLOCK waits up to the maximum overflow wait for
+ * room and then drops the task, DROP_OLDEST replaces the lane's oldest
+ * queued task and SYNCHRONOUS queues the task past capacity in its lane,
+ * then waits up to the maximum overflow wait for the lane to start it; the
+ * caller never runs the task itself, so it cannot overtake the lane's
+ * earlier tasks. SYNCHRONOUS queues at most as many tasks again past
+ * capacity and drops any more. A task dropped by the policy has its drop
+ * callback run; tasks left queued when the workers are shut down do not.
+ */
+class ChannelLaneScheduler {
+    private static final Log log = LogFactory.getLog(ChannelLaneScheduler.class);
+
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final DelayedSlackConfig.OverflowPolicy overflowPolicy;
+    private final int capacity;
+    private final long maxOverflowWaitMillis;
+
+    //One permit per queued (not yet started) task across all lanes, and
+    //one per task queued past capacity by SYNCHRONOUS or a resubmit
+    private final Semaphore queuePermits;
+    private final Semaphore overflowPermits;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    ChannelLaneScheduler(final DelayedSlackConfig config) {
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.capacity = config.getQueueCapacity();
+        this.maxOverflowWaitMillis = config.getMaxOverflowWaitMillis();
+        this.queuePermits = new Semaphore(capacity);
+        this.overflowPermits = new Semaphore(capacity);
+
+        //Each lane is in the executor queue at most once and only while it
+        //holds queued tasks, so the permits above also bound this queue
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                config.getWorkerThreads(),
+                config.getWorkerThreads(),
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("delayed-slack-%d").setDaemon(true).build()
+        );
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.executor = threadPoolExecutor;
+    }
+
+    /**
+     * Queues the task in its lane, applying the overflow policy if the
+     * queue is full. Callers must not hold a lock that other lanes need,
+     * since BLOCK and SYNCHRONOUS may wait up to the maximum overflow wait.
+     */
+    void submit(final String laneKey, final Supplier<CompletableFuture<?>> task, final Runnable onDrop) {
+        if (queuePermits.tryAcquire()) {
+            enqueue(laneKey, new QueuedTask(task, onDrop, queuePermits));
+            return;
+        }
+
+        rejectedCount.incrementAndGet();
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                if (awaitPermit()) {
+                    enqueue(laneKey, new QueuedTask(task, onDrop, queuePermits));
+                } else {
+                    drop(laneKey, onDrop);
+                }
+                return;
+            case DROP_OLDEST:
+                if (!replaceOldest(laneKey, task, onDrop)) {
+                    drop(laneKey, onDrop);
+                }
+                return;
+            case SYNCHRONOUS:
+            default:
+                if (!overflowPermits.tryAcquire()) {
+                    drop(laneKey, onDrop);
+                    return;
+                }
+
+                final QueuedTask overflowTask = new QueuedTask(task, onDrop, overflowPermits);
+                enqueue(laneKey, overflowTask);
+                awaitStart(overflowTask);
+        }
+    }
+
+    /**
+     * Queues the task again without waiting, for timers; past capacity it
+     * takes the room SYNCHRONOUS would, and is dropped once that is full
+     */
+    void resubmit(final String laneKey, final Supplier<CompletableFuture<?>> task, final Runnable onDrop) {
+        if (queuePermits.tryAcquire()) {
+            enqueue(laneKey, new QueuedTask(task, onDrop, queuePermits));
+        } else if (overflowPermits.tryAcquire()) {
+            enqueue(laneKey, new QueuedTask(task, onDrop, overflowPermits));
+        } else {
+            rejectedCount.incrementAndGet();
+            drop(laneKey, onDrop);
+        }
+    }
+
+    int getQueueDepth() {
+        return 2 * capacity - queuePermits.availablePermits() - overflowPermits.availablePermits();
+    }
+
+    int getLaneCount() {
+        return lanes.size();
+    }
+
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Waits for every lane to drain, including tasks still completing, then
+     * stops the workers
+     */
+    boolean shutdown(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (!lanes.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        final boolean drained = lanes.isEmpty();
+        executor.shutdown();
+
+        return executor.awaitTermination(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS) && drained;
+    }
+
+    private void enqueue(final String laneKey, final QueuedTask task) {
+        final boolean[] needsScheduling = new boolean[1];
+
+        final Lane lane = lanes.compute(laneKey, (key, existing) -> {
+            final Lane result = existing == null ? new Lane(key) : existing;
+            result.tasks.addLast(task);
+
+            if (!result.scheduled) {
+                result.scheduled = true;
+                needsScheduling[0] = true;
+            }
+
+            return result;
+        });
+
+        if (needsScheduling[0]) {
+            schedule(lane);
+        }
+    }
+
+    private boolean awaitPermit() {
+        try {
+            return queuePermits.tryAcquire(maxOverflowWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void drop(final String laneKey, final Runnable onDrop) {
+        log.warn("Delivery queue is full; dropping message for lane \"" + laneKey + "\".");
+        onDrop.run();
+    }
+
+    //Past the wait the task stays queued; the caller is not held through earlier retries
+    private void awaitStart(final QueuedTask task) {
+        try {
+            task.started.get(maxOverflowWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            //Still queued in its lane
+        }
+    }
+
+    private boolean replaceOldest(final String laneKey, final Supplier<CompletableFuture<?>> task, final Runnable onDrop) {
+        final QueuedTask[] droppedTasks = new QueuedTask[1];
+
+        lanes.computeIfPresent(laneKey, (key, lane) -> {
+            final QueuedTask droppedTask = lane.tasks.pollFirst();
+
+            //The permit of the dropped task is handed to the new one
+            if (droppedTask != null) {
+                lane.tasks.addLast(new QueuedTask(task, onDrop, droppedTask.permit));
+                droppedTasks[0] = droppedTask;
+            }
+
+            return lane;
+        });
+
+        if (droppedTasks[0] == null) {
+            return false;
+        }
+
+        log.warn("Delivery queue is full; dropping oldest message for lane \"" + laneKey + "\".");
+        droppedTasks[0].started.complete(null);
+        droppedTasks[0].onDrop.run();
+
+        return true;
+    }
+
+    private void schedule(final Lane lane) {
+        try {
+            executor.execute(lane);
+        } catch (RejectedExecutionException e) {
+            log.warn("Delivery workers are shut down; dropping messages for lane \"" + lane.key + "\".");
+
+            final List<QueuedTask> droppedTasks = new ArrayList<>();
+            lanes.computeIfPresent(lane.key, (key, existing) -> {
+                if (existing != lane) {
+                    return existing;
+                }
+
+                droppedTasks.addAll(existing.tasks);
+                return null;
+            });
+
+            for (final QueuedTask droppedTask : droppedTasks) {
+                droppedTask.permit.release();
+                droppedTask.started.complete(null);
+            }
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final String key;
+
+        //Guarded by the lanes map entry for this key
+        private final Deque<QueuedTask> tasks = new ArrayDeque<>();
+        private boolean scheduled;
+
+        private Lane(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            final List<QueuedTask> next = new ArrayList<>(1);
+            lanes.computeIfPresent(key, (k, lane) -> {
+                final QueuedTask task = lane.tasks.pollFirst();
+
+                if (task != null) {
+                    next.add(task);
+                }
+
+                return lane;
+            });
+
+            if (next.isEmpty()) {
+                finish();
+                return;
+            }
+
+            final QueuedTask task = next.get(0);
+            task.permit.release();
+            task.started.complete(null);
+
+            CompletableFuture<?> future;
+
+            try {
+                future = task.task.get();
+            } catch (RuntimeException e) {
+                log.error("Delivery task failed for lane \"" + key + "\".", e);
+                future = CompletableFuture.completedFuture(null);
+            }
+
+            future.whenComplete((result, e) -> {
+                if (e != null) {
+                    log.error("Delivery task failed for lane \"" + key + "\".", e);
+                }
+
+                finish();
+            });
+        }
+
+        private void finish() {
+            final boolean[] hasMore = new boolean[1];
+            lanes.computeIfPresent(key, (k, lane) -> {
+                if (lane.tasks.isEmpty()) {
+                    lane.scheduled = false;
+                    return null;
+                }
+
+                hasMore[0] = true;
+                return lane;
+            });
+
+            //Go to the back of the line so other channels get a turn
+            if (hasMore[0]) {
+                schedule(this);
+            }
+        }
+    }
+
+    private static final class QueuedTask {
+        private final Supplier<CompletableFuture<?>> task;
+        private final Runnable onDrop;
+
+        //Released when the task starts
+        private final Semaphore permit;
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+
+        private QueuedTask(final Supplier<CompletableFuture<?>> task, final Runnable onDrop, final Semaphore permit) {
+            this.task = task;
+            this.onDrop = onDrop;
+            this.permit = permit;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("delayed-slack")
+public class DelayedSlackConfig {
+    private int workerThreads = 4;
+    private int queueCapacity = 500;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long shutdownTimeoutMillis = 5000L;
+    private long maxOverflowWaitMillis = 1000L;
+    private Coalescing coalescing = new Coalescing();
+    private Http http = new Http();
+    private Outbox outbox = new Outbox();
+    private RateLimit rateLimit = new RateLimit();
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    public long getMaxOverflowWaitMillis() {
+        return maxOverflowWaitMillis;
+    }
+
+    public void setMaxOverflowWaitMillis(long maxOverflowWaitMillis) {
+        this.maxOverflowWaitMillis = maxOverflowWaitMillis;
+    }
+
+    public Coalescing getCoalescing() {
+        return coalescing;
+    }
+
+    public void setCoalescing(Coalescing coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public Http getHttp() {
+        return http;
+    }
+
+    public void setHttp(Http http) {
+        this.http = http;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    public void setOutbox(Outbox outbox) {
+        this.outbox = outbox;
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * What to do with a delayed response when the delivery queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room in the queue, holding the request thread for at most
+         * the maximum overflow wait, then discard the response
+         */
+        BLOCK,
+
+        /**
+         * Discard the oldest queued response to make room
+         */
+        DROP_OLDEST,
+
+        /**
+         * Queue the response past capacity in its channel's lane and hold
+         * the request thread until the lane starts delivering it, for at
+         * most the maximum overflow wait; once as many responses again as
+         * the queue holds are past capacity, further ones are discarded
+         */
+        SYNCHRONOUS
+    }
+
+    public static class Coalescing {
+        private boolean enabled = false;
+        private long windowMillis = 500L;
+        private int maxBatchSize = 10;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        public void setWindowMillis(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+    }
+
+    public static class Http {
+        private boolean async = true;
+        private int connectTimeoutMillis = 2000;
+        private int readTimeoutMillis = 5000;
+        private int maxConnections = 20;
+
+        public boolean isAsync() {
+            return async;
+        }
+
+        public void setAsync(boolean async) {
+            this.async = async;
+        }
+
+        public int getConnectTimeoutMillis() {
+            return connectTimeoutMillis;
+        }
+
+        public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+        }
+
+        public int getReadTimeoutMillis() {
+            return readTimeoutMillis;
+        }
+
+        public void setReadTimeoutMillis(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+    }
+
+    public static class Outbox {
+        private boolean enabled = false;
+        private String journalFile;
+        private long syncIntervalMillis = 100L;
+        private long compactionIntervalMillis = 60000L;
+        private int maxAttempts = 6;
+        private long initialBackoffMillis = 500L;
+        private long maxBackoffMillis = 30000L;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getJournalFile() {
+            return journalFile;
+        }
+
+        public void setJournalFile(String journalFile) {
+            this.journalFile = journalFile;
+        }
+
+        public long getSyncIntervalMillis() {
+            return syncIntervalMillis;
+        }
+
+        public void setSyncIntervalMillis(long syncIntervalMillis) {
+            this.syncIntervalMillis = syncIntervalMillis;
+        }
+
+        public long getCompactionIntervalMillis() {
+            return compactionIntervalMillis;
+        }
+
+        public void setCompactionIntervalMillis(long compactionIntervalMillis) {
+            this.compactionIntervalMillis = compactionIntervalMillis;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getInitialBackoffMillis() {
+            return initialBackoffMillis;
+        }
+
+        public void setInitialBackoffMillis(long initialBackoffMillis) {
+            this.initialBackoffMillis = initialBackoffMillis;
+        }
+
+        public long getMaxBackoffMillis() {
+            return maxBackoffMillis;
+        }
+
+        public void setMaxBackoffMillis(long maxBackoffMillis) {
+            this.maxBackoffMillis = maxBackoffMillis;
+        }
+    }
+
+    public static class RateLimit {
+        private boolean enabled = false;
+        private double channelPostsPerSecond = 1.0;
+        private int channelBurst = 1;
+        private int responseUrlMaxUses = 5;
+        private long responseUrlWindowMillis = 1800000L;
+        private long summaryWindowMillis = 2000L;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getChannelPostsPerSecond() {
+            return channelPostsPerSecond;
+        }
+
+        public void setChannelPostsPerSecond(double channelPostsPerSecond) {
+            this.channelPostsPerSecond = channelPostsPerSecond;
+        }
+
+        public int getChannelBurst() {
+            return channelBurst;
+        }
+
+        public void setChannelBurst(int channelBurst) {
+            this.channelBurst = channelBurst;
+        }
+
+        public int getResponseUrlMaxUses() {
+            return responseUrlMaxUses;
+        }
+
+        public void setResponseUrlMaxUses(int responseUrlMaxUses) {
+            this.responseUrlMaxUses = responseUrlMaxUses;
+        }
+
+        public long getResponseUrlWindowMillis() {
+            return responseUrlWindowMillis;
+        }
+
+        public void setResponseUrlWindowMillis(long responseUrlWindowMillis) {
+            this.responseUrlWindowMillis = responseUrlWindowMillis;
+        }
+
+        public long getSummaryWindowMillis() {
+            return summaryWindowMillis;
+        }
+
+        public void setSummaryWindowMillis(long summaryWindowMillis) {
+            this.summaryWindowMillis = summaryWindowMillis;
+        }
+    }
+}
@@ -1,27 +1,262 @@
 package org.bj.examples.trivia.service.slack.impl;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bj.examples.trivia.dto.SlackResponseDoc;
 import org.bj.examples.trivia.service.slack.DelayedSlackService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @Service
 public class DelayedSlackServiceImpl implements DelayedSlackService {
     private static final Log log = LogFactory.getLog(DelayedSlackServiceImpl.class);
 
-    private final RestTemplate restTemplate;
+    private final SlackResponseClient responseClient;
+    private final DelayedSlackConfig config;
+    private final ChannelLaneScheduler scheduler;
+    private final ResponseCoalescer coalescer;
+    private final ResponseRateLimiter rateLimiter;
+    private final OutboxJournal journal;
+    private final ScheduledExecutorService retryTimer;
+
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
 
     @Autowired
-    public DelayedSlackServiceImpl(final RestTemplate restTemplate) {
-        this.restTemplate = restTemplate;
+    public DelayedSlackServiceImpl(
+            final SlackResponseClient responseClient,
+            final DelayedSlackConfig config,
+            final ObjectMapper objectMapper
+    ) {
+        this.responseClient = responseClient;
+        this.config = config;
+        this.scheduler = new ChannelLaneScheduler(config);
+        this.rateLimiter = new ResponseRateLimiter(config.getRateLimit(), this::dispatch, this::markDone);
+        this.coalescer = new ResponseCoalescer(config.getCoalescing(), rateLimiter::dispatch);
+        this.journal = new OutboxJournal(config.getOutbox(), objectMapper);
+        this.retryTimer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("delayed-slack-retry").setDaemon(true).build()
+        );
+
+        redeliverPending();
+    }
+
+    @Override
+    public void sendResponse(final String channelId, final String url, final SlackResponseDoc responseDoc) {
+        final String laneKey = getLaneKey(channelId, url);
+        coalescer.send(laneKey, accept(laneKey, url, responseDoc));
+    }
+
+    @Override
+    public void sendCoalescibleResponse(final String channelId, final String url, final SlackResponseDoc responseDoc) {
+        final String laneKey = getLaneKey(channelId, url);
+        coalescer.sendCoalescible(laneKey, accept(laneKey, url, responseDoc));
+    }
+
+    @Override
+    public void sendLateResponse(final String channelId, final String url, final SlackResponseDoc responseDoc) {
+        final String laneKey = getLaneKey(channelId, url);
+        rateLimiter.dispatchUnthrottled(laneKey, accept(laneKey, url, responseDoc));
+    }
+
+    public int getQueueDepth() {
+        return scheduler.getQueueDepth();
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    public long getRejectedCount() {
+        return scheduler.getRejectedCount();
+    }
+
+    public int getActiveChannelCount() {
+        return scheduler.getLaneCount();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getAverageLatencyMillis() {
+        final long postCount = deliveredCount.get() + failedCount.get();
+        return postCount == 0 ? 0L : totalLatencyMillis.get() / postCount;
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * The number of responses journaled but not yet delivered
+     */
+    public int getPendingCount() {
+        return journal.getPendingCount();
+    }
+
+    /**
+     * The number of responses held back per channel by the rate limits
+     */
+    public Map<String, Long> getThrottledCounts() {
+        return rateLimiter.getThrottledCounts();
+    }
+
+    /**
+     * The number of responses dropped because every response URL for their
+     * channel was used up
+     */
+    public long getDroppedCount() {
+        return rateLimiter.getDroppedCount();
+    }
+
+    /**
+     * The number of posts avoided by merging coalescible responses
+     */
+    public long getCoalescedPostCount() {
+        return coalescer.getSavedPostCount();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        coalescer.shutdown();
+        rateLimiter.shutdown();
+
+        if (!scheduler.shutdown(config.getShutdownTimeoutMillis())) {
+            log.warn(getQueueDepth() + " delayed message(s) were not sent before shutdown.");
+        }
+
+        retryTimer.shutdownNow();
+        journal.close();
+    }
+
+    //Messages without a channel still get a lane of their own (keyed by URL)
+    private String getLaneKey(final String channelId, final String url) {
+        return channelId == null ? url : channelId;
+    }
+
+    //Journaled before coalescing or rate limiting can hold it back
+    private PendingResponse accept(final String laneKey, final String url, final SlackResponseDoc responseDoc) {
+        return PendingResponse.of(journal.append(laneKey, url, responseDoc));
+    }
+
+    private void dispatch(final String laneKey, final PendingResponse response) {
+        log.info("Sending message to URL \"" + response.getUrl() + "\".");
+
+        scheduler.submit(laneKey, () -> deliver(laneKey, response, 1), () -> markDone(response));
+    }
+
+    private void markDone(final PendingResponse response) {
+        response.getEntries().forEach(journal::markDone);
+    }
+
+    private void redeliverPending() {
+        final List<OutboxJournal.Entry> pendingEntries;
+
+        try {
+            pendingEntries = journal.open();
+        } catch (IOException e) {
+            log.error("Unable to open outbox journal; delayed messages will not survive a restart.", e);
+            return;
+        }
+
+        if (!pendingEntries.isEmpty()) {
+            log.info("Redelivering " + pendingEntries.size() + " delayed message(s) from the outbox journal.");
+        }
+
+        for (final OutboxJournal.Entry entry : pendingEntries) {
+            final PendingResponse response = PendingResponse.of(entry);
+            scheduler.submit(entry.getLaneKey(), () -> deliver(entry.getLaneKey(), response, 1), () -> markDone(response));
+        }
     }
 
-    public void sendResponse(final String url, final SlackResponseDoc responseDoc) {
-        log.info("Sending message to URL \"" + url + "\".");
+    //Completes once this attempt is finished. A retry goes back into the
+    //lane after its backoff instead of holding it, so the channel's later
+    //messages are not stuck behind a failing one
+    private CompletableFuture<Void> deliver(final String laneKey, final PendingResponse response, final int attempt) {
+        return post(response.getUrl(), response.getResponseDoc()).thenAccept(result -> {
+            if (result.isSuccess() || !isRetryable(result) || attempt >= config.getOutbox().getMaxAttempts()) {
+                markDone(response);
+                return;
+            }
+
+            final long backoffMillis = getBackoffMillis(result, attempt);
+            retryCount.incrementAndGet();
+            log.info("Retrying message to URL \"" + response.getUrl() + "\" in " + backoffMillis + "ms.");
+
+            try {
+                //Dropped retries stay in the journal for the next start
+                retryTimer.schedule(
+                        () -> scheduler.resubmit(laneKey, () -> deliver(laneKey, response, attempt + 1), () -> { }),
+                        backoffMillis,
+                        TimeUnit.MILLISECONDS
+                );
+            } catch (RejectedExecutionException e) {
+                //Shutting down; the entry stays in the journal for the next start
+            }
+        });
+    }
+
+    private boolean isRetryable(final SlackDeliveryResult result) {
+        return result.getError() != null || result.getStatusCode() == 429 || result.getStatusCode() >= 500;
+    }
+
+    private long getBackoffMillis(final SlackDeliveryResult result, final int attempt) {
+        final DelayedSlackConfig.Outbox outbox = config.getOutbox();
+
+        if (result.getRetryAfterSeconds() != null) {
+            return Math.min(outbox.getMaxBackoffMillis(), TimeUnit.SECONDS.toMillis(result.getRetryAfterSeconds()));
+        }
+
+        return Math.min(outbox.getMaxBackoffMillis(), outbox.getInitialBackoffMillis() << Math.min(attempt - 1, 20));
+    }
+
+    private CompletableFuture<SlackDeliveryResult> post(final String url, final SlackResponseDoc responseDoc) {
+        inFlightCount.incrementAndGet();
+
+        return responseClient.post(url, responseDoc).whenComplete((result, e) -> {
+            inFlightCount.decrementAndGet();
+            recordOutcome(url, result);
+        });
+    }
+
+    private void recordOutcome(final String url, final SlackDeliveryResult result) {
+        totalLatencyMillis.addAndGet(result.getLatencyMillis());
+
+        if (result.isSuccess()) {
+            deliveredCount.incrementAndGet();
+            return;
+        }
+
+        failedCount.incrementAndGet();
 
-        new Thread(() -> restTemplate.postForObject(url, responseDoc, String.class)).start();
+        if (result.getError() != null) {
+            log.error("Unable to send message to URL \"" + url + "\".", result.getError());
+        } else {
+            log.error("Unable to send message to URL \"" + url + "\" (HTTP " + result.getStatusCode() + ").");
+        }
     }
 }
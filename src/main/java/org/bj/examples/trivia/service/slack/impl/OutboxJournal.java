@@ -0,0 +1,304 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Append-only journal of responses waiting to be delivered. Each response
+ * is written as an "add" record as soon as it is accepted, before
+ * coalescing or rate limiting can hold it back, and a "done" record once it
+ * has been delivered, on its own or merged with others, or given up on, one
+ * JSON record per line. Writes reach the file immediately but are only
+ * forced to disk every sync interval, so a crash can lose at most that
+ * window.
+ * <p>
+ * Opening the journal replays it and returns the responses that were never
+ * finished, in the order they were added. Responses the overflow policy
+ * drops are marked done, so they are not sent late after a restart, while
+ * responses still held or queued when the service was shut down were never
+ * tried and are delivered on the next start, each on its own. Compaction
+ * rewrites the file with just the pending responses so it does not grow
+ * without limit.
+ */
+class OutboxJournal {
+    private static final Log log = LogFactory.getLog(OutboxJournal.class);
+
+    private static final String ADD = "add";
+    private static final String DONE = "done";
+
+    private final DelayedSlackConfig.Outbox config;
+    private final ObjectMapper objectMapper;
+    private final Path path;
+    private final ScheduledExecutorService timer;
+
+    //Guarded by this
+    private final Map<Long, Entry> pendingEntries = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long nextId = 1L;
+    private boolean dirty;
+    private int doneSinceCompaction;
+
+    OutboxJournal(final DelayedSlackConfig.Outbox config, final ObjectMapper objectMapper) {
+        if (config.isEnabled() && (config.getJournalFile() == null || config.getJournalFile().trim().isEmpty())) {
+            throw new IllegalArgumentException("delayed-slack.outbox.journalFile must be set to a durable path.");
+        }
+
+        this.config = config;
+        this.objectMapper = objectMapper;
+        this.path = config.isEnabled() ? Paths.get(config.getJournalFile()) : null;
+        this.timer = config.isEnabled() ?
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("delayed-slack-outbox").setDaemon(true).build()
+                ) :
+                null;
+    }
+
+    /**
+     * Replays the journal and returns the responses that were not finished,
+     * in the order they were added
+     */
+    synchronized List<Entry> open() throws IOException {
+        if (path == null) {
+            return new ArrayList<>();
+        }
+
+        if (Files.exists(path)) {
+            replay();
+        } else if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+
+        rewrite();
+
+        timer.scheduleWithFixedDelay(this::sync, config.getSyncIntervalMillis(), config.getSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(this::compact, config.getCompactionIntervalMillis(), config.getCompactionIntervalMillis(), TimeUnit.MILLISECONDS);
+
+        return new ArrayList<>(pendingEntries.values());
+    }
+
+    synchronized Entry append(final String laneKey, final String url, final SlackResponseDoc responseDoc) {
+        final Entry entry = new Entry(nextId++, laneKey, url, responseDoc);
+
+        if (path != null) {
+            pendingEntries.put(entry.id, entry);
+            write(Record.add(entry));
+        }
+
+        return entry;
+    }
+
+    synchronized void markDone(final Entry entry) {
+        if (path != null && pendingEntries.remove(entry.id) != null) {
+            doneSinceCompaction++;
+            write(Record.done(entry.id));
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return pendingEntries.size();
+    }
+
+    synchronized void sync() {
+        if (channel == null || !dirty) {
+            return;
+        }
+
+        try {
+            channel.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            log.error("Unable to sync outbox journal \"" + path + "\".", e);
+        }
+    }
+
+    synchronized void compact() {
+        if (channel == null || doneSinceCompaction == 0) {
+            return;
+        }
+
+        try {
+            rewrite();
+        } catch (IOException e) {
+            log.error("Unable to compact outbox journal \"" + path + "\".", e);
+        }
+    }
+
+    void close() {
+        if (timer == null) {
+            return;
+        }
+
+        timer.shutdownNow();
+
+        synchronized (this) {
+            sync();
+
+            try {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            } catch (IOException e) {
+                log.error("Unable to close outbox journal \"" + path + "\".", e);
+            }
+        }
+    }
+
+    //Must hold the lock
+    private void replay() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                final Record record;
+
+                try {
+                    record = objectMapper.readValue(line, Record.class);
+                } catch (IOException e) {
+                    //Most likely the tail of a write cut short by a crash
+                    log.warn("Skipping unreadable outbox journal record: " + line);
+                    continue;
+                }
+
+                nextId = Math.max(nextId, record.id + 1);
+
+                if (ADD.equals(record.op)) {
+                    pendingEntries.put(record.id, new Entry(record.id, record.laneKey, record.url, record.responseDoc));
+                } else if (DONE.equals(record.op)) {
+                    pendingEntries.remove(record.id);
+                }
+            }
+        }
+    }
+
+    //Must hold the lock
+    private void rewrite() throws IOException {
+        final Path compactedPath = path.resolveSibling(path.getFileName() + ".compact");
+
+        try (FileChannel compacted = FileChannel.open(
+                compactedPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            for (final Entry entry : pendingEntries.values()) {
+                compacted.write(ByteBuffer.wrap(toLine(Record.add(entry))));
+            }
+
+            compacted.force(true);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+
+        Files.move(compactedPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        dirty = false;
+        doneSinceCompaction = 0;
+    }
+
+    //Must hold the lock
+    private void write(final Record record) {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(toLine(record));
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            dirty = true;
+        } catch (IOException e) {
+            log.error("Unable to write to outbox journal \"" + path + "\".", e);
+        }
+    }
+
+    private byte[] toLine(final Record record) throws IOException {
+        return (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    static final class Entry {
+        private final long id;
+        private final String laneKey;
+        private final String url;
+        private final SlackResponseDoc responseDoc;
+
+        private Entry(final long id, final String laneKey, final String url, final SlackResponseDoc responseDoc) {
+            this.id = id;
+            this.laneKey = laneKey;
+            this.url = url;
+            this.responseDoc = responseDoc;
+        }
+
+        String getLaneKey() {
+            return laneKey;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        SlackResponseDoc getResponseDoc() {
+            return responseDoc;
+        }
+    }
+
+    @JsonInclude(Include.NON_NULL)
+    static final class Record {
+        public String op;
+        public long id;
+        public String laneKey;
+        public String url;
+        public SlackResponseDoc responseDoc;
+
+        private static Record add(final Entry entry) {
+            final Record record = new Record();
+            record.op = ADD;
+            record.id = entry.id;
+            record.laneKey = entry.laneKey;
+            record.url = entry.url;
+            record.responseDoc = entry.responseDoc;
+            return record;
+        }
+
+        private static Record done(final long id) {
+            final Record record = new Record();
+            record.op = DONE;
+            record.id = id;
+            return record;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.util.SlackUtils;
+
+/**
+ * A response on its way to Slack, along with the journal entries of the
+ * responses it was merged from; they are all finished together once it has
+ * been delivered or given up on.
+ */
+final class PendingResponse {
+    private final String url;
+    private final SlackResponseDoc responseDoc;
+    private final List<OutboxJournal.Entry> entries;
+
+    private PendingResponse(final String url, final SlackResponseDoc responseDoc, final List<OutboxJournal.Entry> entries) {
+        this.url = url;
+        this.responseDoc = responseDoc;
+        this.entries = entries;
+    }
+
+    static PendingResponse of(final OutboxJournal.Entry entry) {
+        return new PendingResponse(entry.getUrl(), entry.getResponseDoc(), Collections.singletonList(entry));
+    }
+
+    /**
+     * Merges the responses, in order, into one posted to the given URL
+     */
+    static PendingResponse merge(final String url, final List<PendingResponse> responses) {
+        if (responses.size() == 1 && responses.get(0).url.equals(url)) {
+            return responses.get(0);
+        }
+
+        final List<OutboxJournal.Entry> entries = new ArrayList<>();
+        responses.forEach(response -> entries.addAll(response.entries));
+
+        final SlackResponseDoc responseDoc = SlackUtils.mergeResponses(responses.stream()
+                .map(PendingResponse::getResponseDoc)
+                .collect(Collectors.toList()));
+
+        return new PendingResponse(url, responseDoc, entries);
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    SlackResponseDoc getResponseDoc() {
+        return responseDoc;
+    }
+
+    List<OutboxJournal.Entry> getEntries() {
+        return entries;
+    }
+}
@@ -0,0 +1,173 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.dto.SlackResponseType;
+
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Buffers coalescible in-channel responses per channel and hands them on as
+ * a single merged response once the window closes or the batch is full. Anything
+ * else sent to the channel flushes the buffer first so ordering is kept.
+ * Responses are handed on only once the channel lock is let go, and from
+ * the flush timer through a worker.
+ */
+class ResponseCoalescer {
+    private static final Log log = LogFactory.getLog(ResponseCoalescer.class);
+
+    private final DelayedSlackConfig.Coalescing config;
+    private final Dispatcher dispatcher;
+
+    private final ConcurrentMap<String, Batch> batchesByChannel = new ConcurrentHashMap<>();
+    private final Striped<Lock> channelLocks = Striped.lock(64);
+    private final ChannelHandoff handoff = new ChannelHandoff("delayed-slack-coalescer-handoff-%d");
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong savedPostCount = new AtomicLong();
+
+    ResponseCoalescer(final DelayedSlackConfig.Coalescing config, final Dispatcher dispatcher) {
+        this.config = config;
+        this.dispatcher = dispatcher;
+        this.timer = config.isEnabled() ?
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("delayed-slack-coalescer").setDaemon(true).build()
+                ) :
+                null;
+    }
+
+    void sendCoalescible(final String channelId, final PendingResponse response) {
+        if (timer == null) {
+            dispatcher.dispatch(channelId, response);
+            return;
+        }
+
+        //Merged posts go to the whole channel, so ephemeral responses cannot join one
+        if (response.getResponseDoc().getResponseType() != SlackResponseType.IN_CHANNEL) {
+            send(channelId, response);
+            return;
+        }
+
+        final Lock lock = channelLocks.get(channelId);
+        lock.lock();
+
+        try {
+            Batch batch = batchesByChannel.get(channelId);
+
+            if (batch == null) {
+                final Batch newBatch = new Batch();
+                batchesByChannel.put(channelId, newBatch);
+                timer.schedule(() -> flushIfCurrent(channelId, newBatch), config.getWindowMillis(), TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+
+            batch.url = response.getUrl();
+            batch.responses.add(response);
+
+            if (batch.responses.size() >= config.getMaxBatchSize()) {
+                flush(channelId);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        handoff.drain(channelId);
+    }
+
+    void send(final String channelId, final PendingResponse response) {
+        if (timer == null) {
+            dispatcher.dispatch(channelId, response);
+            return;
+        }
+
+        final Lock lock = channelLocks.get(channelId);
+        lock.lock();
+
+        try {
+            flush(channelId);
+            handoff.add(channelId, () -> dispatcher.dispatch(channelId, response));
+        } finally {
+            lock.unlock();
+        }
+
+        handoff.drain(channelId);
+    }
+
+    long getSavedPostCount() {
+        return savedPostCount.get();
+    }
+
+    void shutdown() {
+        if (timer == null) {
+            return;
+        }
+
+        timer.shutdownNow();
+
+        for (final String channelId : batchesByChannel.keySet()) {
+            final Lock lock = channelLocks.get(channelId);
+            lock.lock();
+
+            try {
+                flush(channelId);
+            } finally {
+                lock.unlock();
+            }
+
+            handoff.drain(channelId);
+        }
+
+        handoff.shutdown();
+    }
+
+    private void flushIfCurrent(final String channelId, final Batch batch) {
+        final Lock lock = channelLocks.get(channelId);
+        lock.lock();
+
+        try {
+            //The batch may already have been flushed because it filled up
+            if (batchesByChannel.get(channelId) == batch) {
+                flush(channelId);
+            }
+        } catch (RuntimeException e) {
+            log.error("Unable to flush coalesced messages for channel \"" + channelId + "\".", e);
+        } finally {
+            lock.unlock();
+        }
+
+        handoff.drainLater(channelId);
+    }
+
+    //Must hold the channel lock
+    private void flush(final String channelId) {
+        final Batch batch = batchesByChannel.remove(channelId);
+
+        if (batch == null) {
+            return;
+        }
+
+        savedPostCount.addAndGet(batch.responses.size() - 1);
+        handoff.add(channelId, () -> dispatcher.dispatch(channelId, PendingResponse.merge(batch.url, batch.responses)));
+    }
+
+    interface Dispatcher {
+        void dispatch(final String channelId, final PendingResponse response);
+    }
+
+    private static final class Batch {
+        //The most recent response URL is the one least likely to have expired
+        private String url;
+        private final List<PendingResponse> responses = new ArrayList<>();
+    }
+}
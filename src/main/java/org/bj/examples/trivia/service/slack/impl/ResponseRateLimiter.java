@@ -0,0 +1,348 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.dto.SlackResponseType;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Keeps delayed responses within Slack's posting limits: a token bucket per
+ * channel and a fixed number of uses per response URL. While a channel is
+ * out of tokens its responses are held, and each token posts the run of
+ * held responses at the front that share a response URL and type as one
+ * merged message. When a response URL is down to its last use, responses
+ * for it are held for a short window and posted as a single merged summary.
+ * Ephemeral responses are only seen by the user the command came from, so
+ * they are not held back. Released responses are handed on only once the
+ * channel lock is let go, and from the timer through a worker, since
+ * handing on may wait for room in the delivery queue.
+ */
+class ResponseRateLimiter {
+    private static final Log log = LogFactory.getLog(ResponseRateLimiter.class);
+
+    private final DelayedSlackConfig.RateLimit config;
+    private final ResponseCoalescer.Dispatcher dispatcher;
+    private final Consumer<PendingResponse> onDrop;
+
+    private final Cache<String, TokenBucket> bucketsByChannel;
+    private final Cache<String, AtomicInteger> usesByUrl;
+    private final ConcurrentMap<String, Batch> heldByChannel = new ConcurrentHashMap<>();
+    private final Striped<Lock> channelLocks = Striped.lock(64);
+    private final ChannelHandoff handoff = new ChannelHandoff("delayed-slack-throttle-handoff-%d");
+    private final ScheduledExecutorService timer;
+
+    private final Cache<String, AtomicLong> throttledCountsByChannel;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    ResponseRateLimiter(
+            final DelayedSlackConfig.RateLimit config,
+            final ResponseCoalescer.Dispatcher dispatcher,
+            final Consumer<PendingResponse> onDrop
+    ) {
+        this.config = config;
+        this.dispatcher = dispatcher;
+        this.onDrop = onDrop;
+        this.bucketsByChannel = CacheBuilder.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build();
+        this.usesByUrl = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.getResponseUrlWindowMillis(), TimeUnit.MILLISECONDS)
+                .build();
+        this.throttledCountsByChannel = CacheBuilder.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build();
+        this.timer = config.isEnabled() ?
+                Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("delayed-slack-throttle").setDaemon(true).build()
+                ) :
+                null;
+    }
+
+    void dispatch(final String channelId, final PendingResponse response) {
+        if (timer == null) {
+            dispatcher.dispatch(channelId, response);
+            return;
+        }
+
+        //Only seen by the user the command came from, so not a channel post
+        if (!isInChannel(response)) {
+            dispatchUnthrottled(channelId, response);
+            return;
+        }
+
+        final String url = response.getUrl();
+
+        final Lock lock = channelLocks.get(channelId);
+        lock.lock();
+
+        try {
+            final Batch heldBatch = heldByChannel.get(channelId);
+
+            if (heldBatch != null) {
+                getThrottledCount(channelId).incrementAndGet();
+                heldBatch.responses.addLast(response);
+                return;
+            }
+
+            final TokenBucket bucket = getBucket(channelId);
+
+            if (getRemainingUses(url) > 1 && bucket.tryAcquire()) {
+                post(channelId, response);
+                return;
+            }
+
+            getThrottledCount(channelId).incrementAndGet();
+
+            final Batch batch = new Batch();
+            batch.responses.addLast(response);
+            heldByChannel.put(channelId, batch);
+            scheduleRelease(channelId, batch, bucket);
+        } finally {
+            lock.unlock();
+        }
+
+        handoff.drain(channelId);
+    }
+
+    /**
+     * Hands the response on without holding it back, for replies to the
+     * command itself; the use of its response URL is still counted
+     */
+    void dispatchUnthrottled(final String channelId, final PendingResponse response) {
+        if (timer != null) {
+            getUses(response.getUrl()).incrementAndGet();
+        }
+
+        dispatcher.dispatch(channelId, response);
+    }
+
+    /**
+     * The number of responses held back per channel because a limit was hit,
+     * for channels that have been throttled in the last ten minutes
+     */
+    Map<String, Long> getThrottledCounts() {
+        return ImmutableMap.copyOf(Maps.transformValues(throttledCountsByChannel.asMap(), AtomicLong::get));
+    }
+
+    /**
+     * The number of responses that could not be posted because every known
+     * response URL for the channel was used up
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    void shutdown() {
+        if (timer == null) {
+            return;
+        }
+
+        timer.shutdownNow();
+
+        for (final String channelId : heldByChannel.keySet()) {
+            final Lock lock = channelLocks.get(channelId);
+            lock.lock();
+
+            try {
+                final Batch batch = heldByChannel.get(channelId);
+
+                while (batch != null && heldByChannel.get(channelId) == batch) {
+                    releaseHead(channelId, batch);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            handoff.drain(channelId);
+        }
+
+        handoff.shutdown();
+    }
+
+    private void releaseIfCurrent(final String channelId, final Batch batch) {
+        final Lock lock = channelLocks.get(channelId);
+        lock.lock();
+
+        try {
+            if (heldByChannel.get(channelId) != batch) {
+                return;
+            }
+
+            final TokenBucket bucket = getBucket(channelId);
+
+            //Another post may have been let through by the time we got here
+            if (bucket.tryAcquire()) {
+                releaseHead(channelId, batch);
+            }
+
+            if (heldByChannel.get(channelId) == batch) {
+                scheduleRelease(channelId, batch, bucket);
+            }
+        } catch (RuntimeException e) {
+            log.error("Unable to release throttled messages for channel \"" + channelId + "\".", e);
+        } finally {
+            lock.unlock();
+        }
+
+        handoff.drainLater(channelId);
+    }
+
+    //Must hold the channel lock. Waits for the next token, and for the
+    //summary window if the next post is the last use of its response URL
+    private void scheduleRelease(final String channelId, final Batch batch, final TokenBucket bucket) {
+        final boolean lastUseOfUrl = getRemainingUses(batch.responses.peekFirst().getUrl()) <= 1;
+
+        final long delayMillis = Math.max(
+                bucket.getMillisUntilAvailable(),
+                lastUseOfUrl ? config.getSummaryWindowMillis() : 0L
+        );
+        timer.schedule(() -> releaseIfCurrent(channelId, batch), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Posts the held responses at the front of the batch that share a
+     * response URL and type as one merged message; only those can be merged
+     * without showing them to anyone they were not meant for. Responses
+     * whose URL is used up are dropped. Must hold the channel lock.
+     */
+    private void releaseHead(final String channelId, final Batch batch) {
+        while (!batch.responses.isEmpty()) {
+            final List<PendingResponse> group = batch.takeHeadGroup();
+            final String url = group.get(0).getUrl();
+
+            if (getRemainingUses(url) > 0) {
+                post(channelId, PendingResponse.merge(url, group));
+                break;
+            }
+
+            droppedCount.addAndGet(group.size());
+            log.warn("Response URL \"" + url + "\" is used up; dropping " + group.size() + " message(s).");
+            group.forEach(response -> handoff.add(channelId, () -> onDrop.accept(response)));
+        }
+
+        if (batch.responses.isEmpty()) {
+            heldByChannel.remove(channelId);
+        }
+    }
+
+    //Must hold the channel lock
+    private void post(final String channelId, final PendingResponse response) {
+        getUses(response.getUrl()).incrementAndGet();
+        handoff.add(channelId, () -> dispatcher.dispatch(channelId, response));
+    }
+
+    private int getRemainingUses(final String url) {
+        return config.getResponseUrlMaxUses() - getUses(url).get();
+    }
+
+    private AtomicInteger getUses(final String url) {
+        try {
+            return usesByUrl.get(url, AtomicInteger::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private AtomicLong getThrottledCount(final String channelId) {
+        try {
+            return throttledCountsByChannel.get(channelId, AtomicLong::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private TokenBucket getBucket(final String channelId) {
+        try {
+            return bucketsByChannel.get(channelId, () -> new TokenBucket(config.getChannelBurst(), config.getChannelPostsPerSecond()));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isInChannel(final PendingResponse response) {
+        return response.getResponseDoc().getResponseType() == SlackResponseType.IN_CHANNEL;
+    }
+
+    private static final class Batch {
+        private final Deque<PendingResponse> responses = new ArrayDeque<>();
+
+        private List<PendingResponse> takeHeadGroup() {
+            final PendingResponse head = responses.pollFirst();
+            final List<PendingResponse> group = new ArrayList<>();
+            group.add(head);
+
+            while (!responses.isEmpty()
+                    && responses.peekFirst().getUrl().equals(head.getUrl())
+                    && isInChannel(responses.peekFirst()) == isInChannel(head)) {
+                group.add(responses.pollFirst());
+            }
+
+            return group;
+        }
+    }
+
+    //Guarded by the channel lock
+    private final class TokenBucket {
+        private final double capacity;
+        private final double tokensPerNano;
+
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(final int capacity, final double tokensPerSecond) {
+            this.capacity = capacity;
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        private boolean tryAcquire() {
+            refill();
+
+            if (tokens < 1.0) {
+                return false;
+            }
+
+            tokens -= 1.0;
+            return true;
+        }
+
+        private long getMillisUntilAvailable() {
+            refill();
+
+            if (tokens >= 1.0) {
+                return 0L;
+            }
+
+            return (long) Math.ceil((1.0 - tokens) / tokensPerNano / TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        private void refill() {
+            final long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Posts on the calling thread, holding it until Slack replies
+ */
+@Component
+@ConditionalOnProperty(prefix = "delayed-slack.http", name = "async", havingValue = "false")
+public class RestTemplateSlackResponseClient implements SlackResponseClient {
+    private final RestTemplate restTemplate;
+
+    @Autowired
+    public RestTemplateSlackResponseClient(final RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
+
+    @Override
+    public CompletableFuture<SlackDeliveryResult> post(final String url, final SlackResponseDoc responseDoc) {
+        final long start = System.currentTimeMillis();
+        SlackDeliveryResult result;
+
+        try {
+            restTemplate.postForObject(url, responseDoc, String.class);
+            result = SlackDeliveryResult.of(HttpStatus.OK.value(), null, System.currentTimeMillis() - start);
+        } catch (HttpStatusCodeException e) {
+            final HttpHeaders headers = e.getResponseHeaders();
+            result = SlackDeliveryResult.of(
+                    e.getRawStatusCode(),
+                    headers == null ? null : SlackDeliveryResult.parseRetryAfter(headers.getFirst(HttpHeaders.RETRY_AFTER)),
+                    System.currentTimeMillis() - start
+            );
+        } catch (RestClientException e) {
+            result = SlackDeliveryResult.failed(e, System.currentTimeMillis() - start);
+        }
+
+        return CompletableFuture.completedFuture(result);
+    }
+}
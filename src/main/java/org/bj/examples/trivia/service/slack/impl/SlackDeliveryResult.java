@@ -0,0 +1,64 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+/**
+ * The outcome of a single post to a response URL
+ */
+public class SlackDeliveryResult {
+    private final int statusCode;
+    private final Integer retryAfterSeconds;
+    private final long latencyMillis;
+    private final Exception error;
+
+    private SlackDeliveryResult(final int statusCode, final Integer retryAfterSeconds, final long latencyMillis, final Exception error) {
+        this.statusCode = statusCode;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.latencyMillis = latencyMillis;
+        this.error = error;
+    }
+
+    public static SlackDeliveryResult of(final int statusCode, final Integer retryAfterSeconds, final long latencyMillis) {
+        return new SlackDeliveryResult(statusCode, retryAfterSeconds, latencyMillis, null);
+    }
+
+    public static SlackDeliveryResult failed(final Exception error, final long latencyMillis) {
+        return new SlackDeliveryResult(0, null, latencyMillis, error);
+    }
+
+    /**
+     * Slack sends Retry-After as a number of seconds; anything else is ignored
+     */
+    static Integer parseRetryAfter(final String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(headerValue.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public boolean isSuccess() {
+        return error == null && statusCode >= 200 && statusCode < 300;
+    }
+
+    /**
+     * 0 when no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Integer getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,13 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+
+public interface SlackResponseClient {
+    /**
+     * Posts the response to the given response URL. The returned future
+     * always completes normally; failures are reported in the result.
+     */
+    CompletableFuture<SlackDeliveryResult> post(final String url, final SlackResponseDoc responseDoc);
+}
@@ -0,0 +1,63 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("slash-command")
+public class SlashCommandConfig {
+    private boolean async = true;
+    private long timeBudgetMillis = 2500L;
+    private int workerThreads = 16;
+    private int queueCapacity = 200;
+    private int recentCommandCapacity = 10000;
+    private long recentCommandTtlMillis = 300000L;
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getRecentCommandCapacity() {
+        return recentCommandCapacity;
+    }
+
+    public void setRecentCommandCapacity(int recentCommandCapacity) {
+        this.recentCommandCapacity = recentCommandCapacity;
+    }
+
+    public long getRecentCommandTtlMillis() {
+        return recentCommandTtlMillis;
+    }
+
+    public void setRecentCommandTtlMillis(long recentCommandTtlMillis) {
+        this.recentCommandTtlMillis = recentCommandTtlMillis;
+    }
+}
@@ -0,0 +1,133 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.bj.examples.trivia.dto.PreSerializedSlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackAttachment;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * The help and usage responses, which depend only on the command name.
+ * Each is built and serialized once per command name and then shared.
+ */
+class StaticResponses {
+    //There is normally a single command name per installation
+    private static final int MAX_COMMANDS = 32;
+
+    private final ObjectMapper objectMapper;
+
+    private final LoadingCache<String, PreSerializedSlackResponseDoc> passFormats;
+    private final LoadingCache<String, PreSerializedSlackResponseDoc> submitQuestionFormats;
+    private final LoadingCache<String, PreSerializedSlackResponseDoc> submitAnswerFormats;
+    private final LoadingCache<String, PreSerializedSlackResponseDoc> markAnswerCorrectFormats;
+    private final LoadingCache<String, PreSerializedSlackResponseDoc> usageFormats;
+
+    StaticResponses(final ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.passFormats = createCache(StaticResponses::buildPassFormat);
+        this.submitQuestionFormats = createCache(StaticResponses::buildSubmitQuestionFormat);
+        this.submitAnswerFormats = createCache(StaticResponses::buildSubmitAnswerFormat);
+        this.markAnswerCorrectFormats = createCache(StaticResponses::buildMarkAnswerCorrectFormat);
+        this.usageFormats = createCache(StaticResponses::buildUsageFormat);
+    }
+
+    //String.valueOf keeps a missing command name rendering as it always has
+    PreSerializedSlackResponseDoc getPassFormat(final String command) {
+        return passFormats.getUnchecked(String.valueOf(command));
+    }
+
+    PreSerializedSlackResponseDoc getSubmitQuestionFormat(final String command) {
+        return submitQuestionFormats.getUnchecked(String.valueOf(command));
+    }
+
+    PreSerializedSlackResponseDoc getSubmitAnswerFormat(final String command) {
+        return submitAnswerFormats.getUnchecked(String.valueOf(command));
+    }
+
+    PreSerializedSlackResponseDoc getMarkAnswerCorrectFormat(final String command) {
+        return markAnswerCorrectFormats.getUnchecked(String.valueOf(command));
+    }
+
+    PreSerializedSlackResponseDoc getUsageFormat(final String command) {
+        return usageFormats.getUnchecked(String.valueOf(command));
+    }
+
+    private LoadingCache<String, PreSerializedSlackResponseDoc> createCache(final Function<String, SlackResponseDoc> builder) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(MAX_COMMANDS)
+                .build(new CacheLoader<String, PreSerializedSlackResponseDoc>() {
+                    @Override
+                    public PreSerializedSlackResponseDoc load(final String command) throws Exception {
+                        return new PreSerializedSlackResponseDoc(builder.apply(command), objectMapper);
+                    }
+                });
+    }
+
+    static SlackResponseDoc buildPassFormat(final String command) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
+        responseDoc.setText("To pass your turn, use `" + command + " pass <USERNAME>`.\n\nFor example, `" + command + " pass @jsmith`");
+
+        return responseDoc;
+    }
+
+    static SlackResponseDoc buildSubmitQuestionFormat(final String command) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
+        responseDoc.setText("To submit a question, use `" + command + " question <QUESTION_TEXT>`.\n\nFor example, `" + command + " question In what year did WWII officially begin?`");
+
+        return responseDoc;
+    }
+
+    static SlackResponseDoc buildSubmitAnswerFormat(final String command) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
+        responseDoc.setText("To submit an answer, use `" + command + " answer <ANSWER_TEXT>`.\n\nFor example, `" + command + " answer Blue skies`");
+
+        return responseDoc;
+    }
+
+    static SlackResponseDoc buildMarkAnswerCorrectFormat(final String command) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
+        responseDoc.setText("To mark an answer correct, use `" + command + " correct <USERNAME>`.\n"
+                + "Optional: To include the correct answer, use `" + command + " correct <USERNAME> <CORRECT_ANSWER>`.\n\n"
+                + "For example, `" + command + " correct @jsmith Chris Farley`");
+
+        return responseDoc;
+    }
+
+    static SlackResponseDoc buildUsageFormat(final String command) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+
+        responseDoc.setResponseType(SlackResponseType.EPHEMERAL);
+        responseDoc.setText("`" + command + "` usage:");
+
+        final List<SlackAttachment> attachments = Arrays.asList(
+                new SlackAttachment("To start a new game as the host, use `" + command + " start`"),
+                new SlackAttachment("To join a game, use `" + command + " join`"),
+                new SlackAttachment("To ask a question, use `" + command + " question <QUESTION>`. This requires you to be the host."),
+                new SlackAttachment("To answer a question, use `" + command + " answer <ANSWER>`. (Note that answering a question will automatically join the game.)"),
+                new SlackAttachment(
+                        "To identify a correct answer, use `" + command + " correct <USERNAME> <ANSWER>`." +
+                                " If no correct answers were given, use `" + command + " correct none <CORRECT_ANSWER>`. This requires you to be the host."
+                ),
+                new SlackAttachment("To pass your turn to someone else, use `" + command + " pass <USERNAME>`"),
+                new SlackAttachment("To view whose turn it is, the current question, and all answers provided so far, use `" + command + " status`"),
+                new SlackAttachment("To view the current scores, use `" + command + " scores`."),
+                new SlackAttachment("To reset all scores, use `" + command + " reset`."),
+                new SlackAttachment("To stop the current game, use `" + command + " stop`. This requires you to be the host.")
+        );
+        responseDoc.setAttachments(attachments);
+
+        return responseDoc;
+    }
+}
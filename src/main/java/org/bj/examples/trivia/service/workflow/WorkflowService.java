@@ -1,9 +1,12 @@
 package org.bj.examples.trivia.service.workflow;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 
 import org.bj.examples.trivia.dto.GameState;
+import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.exception.WorkflowException;
 
 public interface WorkflowService {
@@ -20,5 +23,18 @@ public interface WorkflowService {
     void onCorrectAnswerSelected(final String channelId, final String userId) throws GameNotStartedException, WorkflowException;
     void onTurnChanged(final String channelId, final String userId, final String newControllingUserId)
             throws GameNotStartedException, WorkflowException;
+    /**
+     * Ends the open question in one operation: checks the user is hosting
+     * and a question is open, gives the winner a point, hands the winner the
+     * turn (or, without a winner, gives it back to the host) and clears the
+     * answers
+     *
+     * @param winnerUserId the user who answered correctly, or null if nobody
+     * did
+     * @return the channel's scores after the point
+     * @throws ScoreException if the winner has no score in the channel
+     */
+    Map<SlackUser, Long> resolveQuestion(final String channelId, final String userId, final String winnerUserId)
+            throws GameNotStartedException, WorkflowException, ScoreException;
     GameState getCurrentGameState(final String channelId);
 }
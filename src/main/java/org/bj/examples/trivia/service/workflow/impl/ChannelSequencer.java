@@ -0,0 +1,50 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.bj.examples.trivia.exception.WorkflowException;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Applies the read-modify-write of a channel's workflow one at a time, on
+ * the calling thread, so concurrent commands in a channel cannot overwrite
+ * each other's changes; commands in different channels do not wait for
+ * each other. Locks are created lazily and are only held on to while a
+ * channel is in use. This only orders commands within this instance.
+ */
+class ChannelSequencer {
+    private static final int STRIPES = 1 << 16;
+
+    private final Striped<Lock> channelLocks = Striped.lazyWeakLock(STRIPES);
+    private final AtomicLong contendedCount = new AtomicLong();
+
+    @FunctionalInterface
+    interface Mutation {
+        void apply() throws WorkflowException;
+    }
+
+    void run(final String channelId, final Mutation mutation) throws WorkflowException {
+        final Lock lock = channelLocks.get(channelId);
+
+        if (!lock.tryLock()) {
+            contendedCount.incrementAndGet();
+            lock.lock();
+        }
+
+        try {
+            mutation.apply();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of mutations that had to wait for another one in the same
+     * channel
+     */
+    long getContendedCount() {
+        return contendedCount.get();
+    }
+}
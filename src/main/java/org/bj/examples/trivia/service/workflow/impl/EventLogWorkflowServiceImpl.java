@@ -0,0 +1,269 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.bj.examples.trivia.data.workflow.WorkflowStage;
+import org.bj.examples.trivia.dto.GameState;
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
+import org.bj.examples.trivia.exception.WorkflowException;
+import org.bj.examples.trivia.service.score.ScoreService;
+import org.bj.examples.trivia.service.workflow.WorkflowService;
+import org.bj.examples.trivia.util.SlashCommand;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+/**
+ * Records every workflow transition in a local {@link WorkflowEventLog} and
+ * serves the game state from memory, so a command costs no network round
+ * trip and the log doubles as an audit trail. Commands in a channel are
+ * checked and recorded one at a time so the log holds them in the order
+ * they were applied. The log is only on this instance's disk, so this suits
+ * a single instance.
+ * <p>
+ * Enabled with workflow-event-log.enabled, in place of the active profile's
+ * workflow store; scores stay with the profile's score service.
+ */
+@ConditionalOnProperty(name = "workflow-event-log.enabled", havingValue = "true")
+@Primary
+@Service
+public class EventLogWorkflowServiceImpl implements WorkflowService {
+    private final WorkflowEventLog eventLog;
+    private final ChannelSequencer sequencer = new ChannelSequencer();
+    private final ScoreService scoreService;
+
+    @Autowired
+    public EventLogWorkflowServiceImpl(final WorkflowEventLogConfig config, final ScoreService scoreService) {
+        this.eventLog = new WorkflowEventLog(config);
+        this.scoreService = scoreService;
+
+        try {
+            eventLog.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open the workflow event log \"" + config.getDirectory() + "\".", e);
+        }
+    }
+
+    @Override
+    public void onGameStarted(final String channelId, final String userId, final String topic) throws WorkflowException {
+        if (channelId == null || userId == null) {
+            return;
+        }
+
+        sequencer.run(channelId, () -> {
+            final WorkflowEventLog.ChannelState state = eventLog.getState(channelId);
+
+            if (state != null) {
+                final String message = userId.equals(state.getControllingUserId()) ?
+                        "You are already hosting!" :
+                        "<@" + state.getControllingUserId() + "> is currently hosting.";
+
+                throw new WorkflowException(message);
+            }
+
+            eventLog.append(WorkflowEvent.gameStarted(channelId, userId, topic));
+        });
+    }
+
+    @Override
+    public void onGameStopped(final String channelId, final String userId) throws GameNotStartedException, WorkflowException {
+        if (channelId == null || userId == null) {
+            return;
+        }
+
+        sequencer.run(channelId, () -> {
+            final WorkflowEventLog.ChannelState state = getState(channelId);
+
+            if (!userId.equals(state.getControllingUserId())) {
+                throw new WorkflowException("<@" + state.getControllingUserId() + "> is currently hosting.");
+            }
+
+            eventLog.append(WorkflowEvent.gameStopped(channelId, userId));
+        });
+    }
+
+    @Override
+    public void onQuestionSubmitted(final String channelId, final String userId, final String question) throws GameNotStartedException, WorkflowException {
+        if (channelId == null || userId == null) {
+            return;
+        }
+
+        sequencer.run(channelId, () -> {
+            final WorkflowEventLog.ChannelState state = getState(channelId);
+            final boolean isControllingUser = userId.equals(state.getControllingUserId());
+
+            if (state.getStage() == WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException((isControllingUser ? "You have" : "<@" + state.getControllingUserId() + "> has") + " already asked a question.");
+            } else if (!isControllingUser) {
+                throw new WorkflowException("It's <@" + state.getControllingUserId() + ">'s turn to ask a question.");
+            }
+
+            eventLog.append(WorkflowEvent.questionSubmitted(channelId, userId, question));
+        });
+    }
+
+    @Override
+    public void onAnswerSubmitted(
+            final String channelId,
+            final String userId,
+            final String username,
+            final String answerText,
+            final LocalDateTime createdDate
+    ) throws GameNotStartedException, WorkflowException {
+        if (channelId == null || userId == null) {
+            return;
+        }
+
+        sequencer.run(channelId, () -> {
+            final WorkflowEventLog.ChannelState state = getState(channelId);
+
+            if (userId.equals(state.getControllingUserId())) {
+                throw new WorkflowException("You can't answer your own question!");
+            } else if (state.getStage() != WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException("A question has not yet been submitted. Please wait for <@" + state.getControllingUserId() + "> to ask a question.");
+            }
+
+            eventLog.append(WorkflowEvent.answerSubmitted(channelId, userId, username, answerText, createdDate));
+        });
+    }
+
+    @Override
+    public void onCorrectAnswerSelected(final String channelId, final String userId) throws GameNotStartedException, WorkflowException {
+        if (channelId == null || userId == null) {
+            return;
+        }
+
+        final WorkflowEventLog.ChannelState state = getState(channelId);
+
+        if (!userId.equals(state.getControllingUserId())) {
+            throw new WorkflowException("It's <@" + state.getControllingUserId() + ">'s turn; only he/she can mark an answer correct.");
+        } else if (state.getStage() != WorkflowStage.QUESTION_ASKED) {
+            throw new WorkflowException("A question has not yet been submitted. Please ask a question before marking an answer correct.");
+        }
+    }
+
+    @Override
+    public void onTurnChanged(final String channelId, final String userId, final String newControllingUserId)
+            throws GameNotStartedException, WorkflowException {
+        if (channelId == null || userId == null || newControllingUserId == null) {
+            return;
+        }
+
+        sequencer.run(channelId, () -> {
+            final WorkflowEventLog.ChannelState state = getState(channelId);
+
+            if (!userId.equals(state.getControllingUserId())) {
+                throw new WorkflowException("It's <@" + state.getControllingUserId() + ">'s turn; only he/she can cede his/her turn.");
+            }
+
+            eventLog.append(WorkflowEvent.turnChanged(channelId, userId, newControllingUserId));
+        });
+    }
+
+    /**
+     * Recorded as a turn change; scores are kept by the score service, so
+     * the point is given once the turn change is in the log
+     */
+    @Override
+    public Map<SlackUser, Long> resolveQuestion(final String channelId, final String userId, final String winnerUserId)
+            throws GameNotStartedException, WorkflowException, ScoreException {
+        if (channelId == null || userId == null) {
+            return Collections.emptyMap();
+        }
+
+        final AtomicBoolean resolved = new AtomicBoolean();
+
+        sequencer.run(channelId, () -> {
+            final WorkflowEventLog.ChannelState state = getState(channelId);
+
+            if (!userId.equals(state.getControllingUserId())) {
+                throw new WorkflowException("It's <@" + state.getControllingUserId() + ">'s turn; only he/she can mark an answer correct.");
+            } else if (state.getStage() != WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException("A question has not yet been submitted. Please ask a question before marking an answer correct.");
+            } else if (winnerUserId != null && !scoreService.doesUserExist(channelId, winnerUserId, SlashCommand.Operator.CORRECT.name())) {
+                return;
+            }
+
+            eventLog.append(WorkflowEvent.turnChanged(channelId, userId, winnerUserId == null ? userId : winnerUserId));
+            resolved.set(true);
+        });
+
+        if (!resolved.get()) {
+            throw new ScoreException();
+        }
+
+        if (winnerUserId != null) {
+            scoreService.incrementScore(channelId, winnerUserId);
+        }
+
+        return scoreService.getAllScoresByUser(channelId);
+    }
+
+    @Override
+    public GameState getCurrentGameState(final String channelId) {
+        if (channelId == null) {
+            return null;
+        }
+
+        final GameState gameState = new GameState();
+        final WorkflowEventLog.ChannelState state = eventLog.getState(channelId);
+
+        if (state == null) {
+            return gameState;
+        }
+
+        gameState.setControllingUserId(state.getControllingUserId());
+        gameState.setTopic(state.getTopic());
+
+        if (state.getStage() == WorkflowStage.QUESTION_ASKED) {
+            gameState.setQuestion(state.getQuestion());
+            gameState.setAnswers(new ArrayList<>(state.getAnswers()));
+        }
+
+        return gameState;
+    }
+
+    /**
+     * The sequence number of the last event recorded
+     */
+    public long getLastEventSequence() {
+        return eventLog.getLastSequence();
+    }
+
+    /**
+     * The number of events replayed on top of the snapshot at startup
+     */
+    public long getReplayedEventCount() {
+        return eventLog.getReplayedEventCount();
+    }
+
+    public int getActiveGameCount() {
+        return eventLog.getChannelCount();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        eventLog.close();
+    }
+
+    private WorkflowEventLog.ChannelState getState(final String channelId) throws GameNotStartedException {
+        final WorkflowEventLog.ChannelState state = eventLog.getState(channelId);
+
+        if (state == null) {
+            throw new GameNotStartedException();
+        }
+
+        return state;
+    }
+}
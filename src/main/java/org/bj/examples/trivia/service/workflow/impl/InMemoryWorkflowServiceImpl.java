@@ -1,75 +1,106 @@
 package org.bj.examples.trivia.service.workflow.impl;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.bj.examples.trivia.data.workflow.WorkflowStage;
 import org.bj.examples.trivia.dto.GameState;
 import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.exception.WorkflowException;
+import org.bj.examples.trivia.service.score.ScoreService;
 import org.bj.examples.trivia.service.workflow.WorkflowService;
+import org.bj.examples.trivia.util.SlashCommand;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Keeps each channel's game as an immutable snapshot. A command reads the
+ * channel's snapshot, checks it, builds the next one and swaps it in with a
+ * compare-and-set on the map, starting over from the new snapshot if
+ * another command got there first, so no command ever waits on a lock and
+ * commands in different channels never touch the same state.
+ */
 @Profile("memory")
 @Service
 public class InMemoryWorkflowServiceImpl implements WorkflowService {
-    private SlackUser currentHost = null;
-    private String question = null;
+    private final ConcurrentMap<String, ChannelWorkflow> workflowsByChannel = new ConcurrentHashMap<>();
+    private final ScoreService scoreService;
+
+    @Autowired
+    public InMemoryWorkflowServiceImpl(final ScoreService scoreService) {
+        this.scoreService = scoreService;
+    }
 
     @Override
     public void onGameStarted(final String channelId, final String userId, final String topic) throws WorkflowException {
-        if (userId == null) {
+        if (channelId == null || userId == null) {
             return;
         }
 
-        final SlackUser user = new SlackUser(userId, null);
+        final ChannelWorkflow existingWorkflow = workflowsByChannel.putIfAbsent(channelId,
+                new ChannelWorkflow(userId, topic, null, ImmutableList.of(), WorkflowStage.STARTED));
 
-        if (currentHost != null) {
-            final String message = currentHost.equals(user) ?
+        if (existingWorkflow != null) {
+            final String message = userId.equals(existingWorkflow.controllingUserId) ?
                     "You are already hosting!" :
-                    "<@" + currentHost.getUserId() + "> is currently hosting.";
+                    "<@" + existingWorkflow.controllingUserId + "> is currently hosting.";
 
             throw new WorkflowException(message);
         }
-
-        currentHost = user;
     }
 
     @Override
     public void onGameStopped(final String channelId, final String userId) throws GameNotStartedException, WorkflowException {
-        if (userId == null) {
+        if (channelId == null || userId == null) {
             return;
         }
 
-        if (currentHost == null) {
-            throw new GameNotStartedException();
-        } else if (currentHost.getUserId().equals(userId)) {
-            throw new WorkflowException("<@" + currentHost.getUserId() + "> is currently hosting.");
-        }
+        while (true) {
+            final ChannelWorkflow workflow = getWorkflow(channelId);
+
+            if (!userId.equals(workflow.controllingUserId)) {
+                throw new WorkflowException("<@" + workflow.controllingUserId + "> is currently hosting.");
+            }
 
-        currentHost = null;
-        question = null;
+            if (workflowsByChannel.remove(channelId, workflow)) {
+                return;
+            }
+        }
     }
 
     @Override
     public void onQuestionSubmitted(final String channelId, final String userId, final String question) throws GameNotStartedException, WorkflowException {
-        if (userId == null) {
+        if (channelId == null || userId == null) {
             return;
         }
 
-        if (currentHost == null) {
-            throw new GameNotStartedException();
-        } else {
-            boolean isControllingUser = currentHost.getUserId().equals(userId);
+        while (true) {
+            final ChannelWorkflow workflow = getWorkflow(channelId);
+            final boolean isControllingUser = userId.equals(workflow.controllingUserId);
 
-            if (this.question != null) {
-                throw new WorkflowException((isControllingUser ? "You have" : "<@" + currentHost.getUserId() + "> has") + " already asked a question.");
+            if (workflow.stage == WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException((isControllingUser ? "You have" : "<@" + workflow.controllingUserId + "> has") + " already asked a question.");
             } else if (!isControllingUser) {
-                throw new WorkflowException("It's <@" + currentHost.getUserId() + ">'s turn to ask a question.");
+                throw new WorkflowException("It's <@" + workflow.controllingUserId + ">'s turn to ask a question.");
             }
-        }
 
-        this.question = question;
+            final ChannelWorkflow nextWorkflow = new ChannelWorkflow(
+                    workflow.controllingUserId, workflow.topic, question, ImmutableList.of(), WorkflowStage.QUESTION_ASKED);
+
+            if (workflowsByChannel.replace(channelId, workflow, nextWorkflow)) {
+                return;
+            }
+        }
     }
 
     @Override
@@ -80,30 +111,46 @@ public class InMemoryWorkflowServiceImpl implements WorkflowService {
             final String answerText,
             final LocalDateTime createdDate
     ) throws GameNotStartedException, WorkflowException {
-        if (userId == null) {
+        if (channelId == null || userId == null) {
             return;
         }
 
-        if (currentHost == null) {
-            throw new GameNotStartedException();
-        } else if (currentHost.getUserId().equals(userId)) {
-            throw new WorkflowException("You can't answer your own question!");
-        } else if (question == null) {
-            throw new WorkflowException("A question has not yet been submitted. Please wait for <@" + currentHost.getUserId() + "> to ask a question.");
+        final GameState.Answer answer = new GameState.Answer(userId, username, answerText, createdDate);
+
+        while (true) {
+            final ChannelWorkflow workflow = getWorkflow(channelId);
+
+            if (userId.equals(workflow.controllingUserId)) {
+                throw new WorkflowException("You can't answer your own question!");
+            } else if (workflow.stage != WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException("A question has not yet been submitted. Please wait for <@" + workflow.controllingUserId + "> to ask a question.");
+            }
+
+            final ChannelWorkflow nextWorkflow = new ChannelWorkflow(
+                    workflow.controllingUserId,
+                    workflow.topic,
+                    workflow.question,
+                    ImmutableList.<GameState.Answer>builder().addAll(workflow.answers).add(answer).build(),
+                    workflow.stage
+            );
+
+            if (workflowsByChannel.replace(channelId, workflow, nextWorkflow)) {
+                return;
+            }
         }
     }
 
     @Override
     public void onCorrectAnswerSelected(final String channelId, final String userId) throws GameNotStartedException, WorkflowException {
-        if (userId == null) {
+        if (channelId == null || userId == null) {
             return;
         }
 
-        if (currentHost == null) {
-            throw new GameNotStartedException();
-        } else if (!currentHost.getUserId().equals(userId)) {
-            throw new WorkflowException("It's <@" + currentHost.getUserId() + ">'s question. Only he/she can mark an answer correct.");
-        } else if (question == null) {
+        final ChannelWorkflow workflow = getWorkflow(channelId);
+
+        if (!userId.equals(workflow.controllingUserId)) {
+            throw new WorkflowException("It's <@" + workflow.controllingUserId + ">'s turn; only he/she can mark an answer correct.");
+        } else if (workflow.stage != WorkflowStage.QUESTION_ASKED) {
             throw new WorkflowException("A question has not yet been submitted. Please ask a question before marking an answer correct.");
         }
     }
@@ -111,26 +158,120 @@ public class InMemoryWorkflowServiceImpl implements WorkflowService {
     @Override
     public void onTurnChanged(final String channelId, final String userId, final String newControllingUserId)
             throws GameNotStartedException, WorkflowException {
-        if (userId == null || newControllingUserId == null) {
+        if (channelId == null || userId == null || newControllingUserId == null) {
             return;
         }
 
-        if (currentHost == null) {
-            throw new GameNotStartedException();
-        } else if (!currentHost.getUserId().equals(userId)) {
-            throw new WorkflowException("It's <@" + currentHost.getUserId() + ">'s turn; only he/she can cede his/her turn.");
+        while (true) {
+            final ChannelWorkflow workflow = getWorkflow(channelId);
+
+            if (!userId.equals(workflow.controllingUserId)) {
+                throw new WorkflowException("It's <@" + workflow.controllingUserId + ">'s turn; only he/she can cede his/her turn.");
+            }
+
+            final ChannelWorkflow nextWorkflow = new ChannelWorkflow(
+                    newControllingUserId, workflow.topic, null, ImmutableList.of(), WorkflowStage.STARTED);
+
+            if (workflowsByChannel.replace(channelId, workflow, nextWorkflow)) {
+                return;
+            }
         }
+    }
+
+    /**
+     * Scores are kept by the score service, so the point is given once the
+     * turn change has been swapped in
+     */
+    @Override
+    public Map<SlackUser, Long> resolveQuestion(final String channelId, final String userId, final String winnerUserId)
+            throws GameNotStartedException, WorkflowException, ScoreException {
+        if (channelId == null || userId == null) {
+            return Collections.emptyMap();
+        }
+
+        while (true) {
+            final ChannelWorkflow workflow = getWorkflow(channelId);
+
+            if (!userId.equals(workflow.controllingUserId)) {
+                throw new WorkflowException("It's <@" + workflow.controllingUserId + ">'s turn; only he/she can mark an answer correct.");
+            } else if (workflow.stage != WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException("A question has not yet been submitted. Please ask a question before marking an answer correct.");
+            } else if (winnerUserId != null && !scoreService.doesUserExist(channelId, winnerUserId, SlashCommand.Operator.CORRECT.name())) {
+                throw new ScoreException();
+            }
+
+            final ChannelWorkflow nextWorkflow = new ChannelWorkflow(
+                    winnerUserId == null ? userId : winnerUserId, workflow.topic, null, ImmutableList.of(), WorkflowStage.STARTED);
 
-        currentHost = new SlackUser(newControllingUserId, null);
-        question = null;
+            if (workflowsByChannel.replace(channelId, workflow, nextWorkflow)) {
+                break;
+            }
+        }
+
+        if (winnerUserId != null) {
+            scoreService.incrementScore(channelId, winnerUserId);
+        }
+
+        return scoreService.getAllScoresByUser(channelId);
     }
 
     @Override
     public GameState getCurrentGameState(final String channelId) {
+        if (channelId == null) {
+            return null;
+        }
+
         final GameState gameState = new GameState();
-        gameState.setControllingUserId(currentHost == null ? null : currentHost.getUserId());
-        gameState.setQuestion(question);
+        final ChannelWorkflow workflow = workflowsByChannel.get(channelId);
+
+        if (workflow == null) {
+            return gameState;
+        }
+
+        gameState.setControllingUserId(workflow.controllingUserId);
+        gameState.setTopic(workflow.topic);
+
+        if (workflow.stage == WorkflowStage.QUESTION_ASKED) {
+            gameState.setQuestion(workflow.question);
+            gameState.setAnswers(new ArrayList<>(workflow.answers));
+        }
 
         return gameState;
     }
+
+    private ChannelWorkflow getWorkflow(final String channelId) throws GameNotStartedException {
+        final ChannelWorkflow workflow = workflowsByChannel.get(channelId);
+
+        if (workflow == null) {
+            throw new GameNotStartedException();
+        }
+
+        return workflow;
+    }
+
+    /**
+     * Compared by identity, so a compare-and-set only succeeds against the
+     * exact snapshot the command read
+     */
+    private static final class ChannelWorkflow {
+        private final String controllingUserId;
+        private final String topic;
+        private final String question;
+        private final List<GameState.Answer> answers;
+        private final WorkflowStage stage;
+
+        private ChannelWorkflow(
+                final String controllingUserId,
+                final String topic,
+                final String question,
+                final List<GameState.Answer> answers,
+                final WorkflowStage stage
+        ) {
+            this.controllingUserId = controllingUserId;
+            this.topic = topic;
+            this.question = question;
+            this.answers = answers;
+            this.stage = stage;
+        }
+    }
 }
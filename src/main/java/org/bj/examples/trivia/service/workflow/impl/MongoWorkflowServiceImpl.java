@@ -1,30 +1,54 @@
 package org.bj.examples.trivia.service.workflow.impl;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.bj.examples.trivia.data.workflow.Answer;
 import org.bj.examples.trivia.data.workflow.Workflow;
 import org.bj.examples.trivia.data.workflow.WorkflowRepo;
 import org.bj.examples.trivia.data.workflow.WorkflowStage;
 import org.bj.examples.trivia.dto.GameState;
+import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.exception.WorkflowException;
+import org.bj.examples.trivia.service.score.ScoreService;
 import org.bj.examples.trivia.service.workflow.WorkflowService;
+import org.bj.examples.trivia.util.SlashCommand;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
+/**
+ * Each transition is a single conditional update whose query carries the
+ * transition's preconditions, so it takes one round trip and concurrent
+ * commands, from this instance or another, cannot overwrite each other.
+ * Only when an update matches nothing is the workflow read, to work out
+ * which precondition failed; if they all hold by then, the workflow changed
+ * in between and the update is tried again.
+ */
 @Profile("mongo")
 @Service
 public class MongoWorkflowServiceImpl implements WorkflowService {
+    private static final Log log = LogFactory.getLog(MongoWorkflowServiceImpl.class);
+    private static final int MAX_ATTEMPTS = 3;
+
     private final WorkflowRepo workflowRepo;
+    private final ScoreService scoreService;
 
     @Autowired
-    public MongoWorkflowServiceImpl(final WorkflowRepo workflowRepo) {
+    public MongoWorkflowServiceImpl(
+            final WorkflowRepo workflowRepo,
+            final ScoreService scoreService
+    ) {
         this.workflowRepo = workflowRepo;
+        this.scoreService = scoreService;
     }
 
     @Override
@@ -33,23 +57,23 @@ public class MongoWorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        Workflow workflow = workflowRepo.findByChannelId(channelId);
-
-        if (workflow != null) {
-            final String message = userId.equals(workflow.getControllingUserId()) ?
-                    "You are already hosting!" :
-                    "<@" + workflow.getControllingUserId() + "> is currently hosting.";
+        checkCanStartGame(workflowRepo.findByChannelId(channelId), userId);
 
-            throw new WorkflowException(message);
-        }
-
-        workflow = new Workflow();
+        final Workflow workflow = new Workflow();
         workflow.setChannelId(channelId);
         workflow.setControllingUserId(userId);
         workflow.setTopic(topic);
         workflow.setQuestion(null);
         workflow.setStage(WorkflowStage.STARTED);
-        workflowRepo.save(workflow);
+        workflow.setLastActivityDate(LocalDateTime.now());
+
+        try {
+            workflowRepo.save(workflow);
+        } catch (DuplicateKeyException e) {
+            //Started by someone else since the read; channelId is uniquely indexed
+            checkCanStartGame(workflowRepo.findByChannelId(channelId), userId);
+            throw e;
+        }
     }
 
     @Override
@@ -58,15 +82,21 @@ public class MongoWorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        final Workflow workflow = workflowRepo.findByChannelId(channelId);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (workflowRepo.removeGame(channelId, userId)) {
+                return;
+            }
 
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else if (!userId.equals(workflow.getControllingUserId())) {
-            throw new WorkflowException("<@" + workflow.getControllingUserId() + "> is currently hosting.");
+            final Workflow workflow = workflowRepo.findByChannelId(channelId);
+
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else if (!userId.equals(workflow.getControllingUserId())) {
+                throw new WorkflowException("<@" + workflow.getControllingUserId() + "> is currently hosting.");
+            }
         }
 
-        workflowRepo.deleteById(workflow.getId());
+        throw newConflictException();
     }
 
     @Override
@@ -75,23 +105,27 @@ public class MongoWorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        final Workflow workflow = workflowRepo.findByChannelId(channelId);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (workflowRepo.submitQuestion(channelId, userId, question)) {
+                return;
+            }
 
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else {
-            boolean isControllingUser = userId.equals(workflow.getControllingUserId());
+            final Workflow workflow = workflowRepo.findByChannelId(channelId);
 
-            if (workflow.getStage() == WorkflowStage.QUESTION_ASKED) {
-                throw new WorkflowException((isControllingUser ? "You have" : "<@" + workflow.getControllingUserId() + "> has") + " already asked a question.");
-            } else if (!isControllingUser) {
-                throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn to ask a question.");
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else {
+                boolean isControllingUser = userId.equals(workflow.getControllingUserId());
+
+                if (workflow.getStage() == WorkflowStage.QUESTION_ASKED) {
+                    throw new WorkflowException((isControllingUser ? "You have" : "<@" + workflow.getControllingUserId() + "> has") + " already asked a question.");
+                } else if (!isControllingUser) {
+                    throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn to ask a question.");
+                }
             }
         }
 
-        workflow.setQuestion(question);
-        workflow.setStage(WorkflowStage.QUESTION_ASKED);
-        workflowRepo.save(workflow);
+        throw newConflictException();
     }
 
     @Override
@@ -106,23 +140,29 @@ public class MongoWorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        final Workflow workflow = workflowRepo.findByChannelId(channelId);
-
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else if (userId.equals(workflow.getControllingUserId())) {
-            throw new WorkflowException("You can't answer your own question!");
-        } else if (workflow.getStage() != WorkflowStage.QUESTION_ASKED) {
-            throw new WorkflowException("A question has not yet been submitted. Please wait for <@" + workflow.getControllingUserId() + "> to ask a question.");
-        }
-
         final Answer answer = new Answer();
         answer.setUserId(userId);
         answer.setUsername(username);
         answer.setText(answerText);
         answer.setCreatedDate(createdDate);
-        workflow.getAnswers().add(answer);
-        workflowRepo.save(workflow);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (workflowRepo.pushAnswer(channelId, answer)) {
+                return;
+            }
+
+            final Workflow workflow = workflowRepo.findByChannelId(channelId);
+
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else if (userId.equals(workflow.getControllingUserId())) {
+                throw new WorkflowException("You can't answer your own question!");
+            } else if (workflow.getStage() != WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException("A question has not yet been submitted. Please wait for <@" + workflow.getControllingUserId() + "> to ask a question.");
+            }
+        }
+
+        throw newConflictException();
     }
 
     @Override
@@ -149,19 +189,56 @@ public class MongoWorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        Workflow workflow = workflowRepo.findByChannelId(channelId);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (workflowRepo.changeTurn(channelId, userId, newControllingUserId)) {
+                return;
+            }
 
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else if (!userId.equals(workflow.getControllingUserId())) {
-            throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn; only he/she can cede his/her turn.");
+            final Workflow workflow = workflowRepo.findByChannelId(channelId);
+
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else if (!userId.equals(workflow.getControllingUserId())) {
+                throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn; only he/she can cede his/her turn.");
+            }
         }
 
-        workflow.setControllingUserId(newControllingUserId);
-        workflow.setQuestion(null);
-        workflow.setAnswers(new ArrayList<>());
-        workflow.setStage(WorkflowStage.STARTED);
-        workflowRepo.save(workflow);
+        throw newConflictException();
+    }
+
+    /**
+     * Hands the turn on with a single conditional update and only then has
+     * the score service give the winner a point, so a question is never
+     * scored twice; the scores returned are read after the point is made.
+     * If the point cannot be given, because the channel's scores were reset
+     * in between, the question is put back so it can be marked again.
+     */
+    @Override
+    public Map<SlackUser, Long> resolveQuestion(final String channelId, final String userId, final String winnerUserId)
+            throws GameNotStartedException, WorkflowException, ScoreException {
+        if (channelId == null || userId == null) {
+            return Collections.emptyMap();
+        }
+
+        final boolean hasWinnerScore = winnerUserId == null || scoreService.doesUserExist(channelId, winnerUserId, SlashCommand.Operator.CORRECT.name());
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final Workflow closedWorkflow = hasWinnerScore ?
+                    workflowRepo.closeQuestion(channelId, userId, winnerUserId == null ? userId : winnerUserId) :
+                    null;
+
+            if (closedWorkflow != null) {
+                if (winnerUserId != null) {
+                    givePoint(closedWorkflow, winnerUserId);
+                }
+
+                return scoreService.getAllScoresByUser(channelId);
+            }
+
+            checkCanResolveQuestion(workflowRepo.findByChannelId(channelId), userId, hasWinnerScore);
+        }
+
+        throw newConflictException();
     }
 
     @Override
@@ -191,4 +268,43 @@ public class MongoWorkflowServiceImpl implements WorkflowService {
 
         return gameState;
     }
+
+    private void givePoint(final Workflow closedWorkflow, final String winnerUserId) throws ScoreException {
+        try {
+            scoreService.incrementScore(closedWorkflow.getChannelId(), winnerUserId);
+        } catch (ScoreException e) {
+            if (!workflowRepo.reopenQuestion(closedWorkflow)) {
+                log.warn("Unable to reopen the question in channel \"" + closedWorkflow.getChannelId() + "\"; it changed after being closed.");
+            }
+
+            throw e;
+        }
+    }
+
+    private static void checkCanResolveQuestion(final Workflow workflow, final String userId, final boolean hasWinnerScore)
+            throws GameNotStartedException, WorkflowException, ScoreException {
+        if (workflow == null) {
+            throw new GameNotStartedException();
+        } else if (!userId.equals(workflow.getControllingUserId())) {
+            throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn; only he/she can mark an answer correct.");
+        } else if (workflow.getStage() != WorkflowStage.QUESTION_ASKED) {
+            throw new WorkflowException("A question has not yet been submitted. Please ask a question before marking an answer correct.");
+        } else if (!hasWinnerScore) {
+            throw new ScoreException();
+        }
+    }
+
+    private static void checkCanStartGame(final Workflow workflow, final String userId) throws WorkflowException {
+        if (workflow != null) {
+            final String message = userId.equals(workflow.getControllingUserId()) ?
+                    "You are already hosting!" :
+                    "<@" + workflow.getControllingUserId() + "> is currently hosting.";
+
+            throw new WorkflowException(message);
+        }
+    }
+
+    private static WorkflowException newConflictException() {
+        return new WorkflowException("The game changed while your command was being handled. Please try again.");
+    }
 }
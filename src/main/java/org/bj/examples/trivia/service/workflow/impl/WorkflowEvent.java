@@ -0,0 +1,217 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A single workflow transition as recorded in the event log. Every event
+ * has a channel and the user who caused it; {@link #getText()} is the topic,
+ * question, answer or new host depending on the type, and only answers have
+ * a username and created date.
+ * <p>
+ * Encoded as the type, sequence number, time recorded and then each field,
+ * strings as a length (-1 for null) followed by UTF-8 bytes and dates as
+ * UTC epoch seconds and nanos.
+ */
+final class WorkflowEvent {
+    enum Type {
+        GAME_STARTED,
+        QUESTION_SUBMITTED,
+        ANSWER_SUBMITTED,
+        TURN_CHANGED,
+        GAME_STOPPED
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    static final int DATE_SIZE = 8 + 4;
+
+    private final Type type;
+    private final long sequence;
+    private final long recordedMillis;
+    private final String channelId;
+    private final String userId;
+    private final String text;
+    private final String username;
+    private final LocalDateTime createdDate;
+
+    private WorkflowEvent(
+            final Type type,
+            final long sequence,
+            final long recordedMillis,
+            final String channelId,
+            final String userId,
+            final String text,
+            final String username,
+            final LocalDateTime createdDate
+    ) {
+        this.type = type;
+        this.sequence = sequence;
+        this.recordedMillis = recordedMillis;
+        this.channelId = channelId;
+        this.userId = userId;
+        this.text = text;
+        this.username = username;
+        this.createdDate = createdDate;
+    }
+
+    static WorkflowEvent gameStarted(final String channelId, final String userId, final String topic) {
+        return new WorkflowEvent(Type.GAME_STARTED, 0L, 0L, channelId, userId, topic, null, null);
+    }
+
+    static WorkflowEvent questionSubmitted(final String channelId, final String userId, final String question) {
+        return new WorkflowEvent(Type.QUESTION_SUBMITTED, 0L, 0L, channelId, userId, question, null, null);
+    }
+
+    static WorkflowEvent answerSubmitted(
+            final String channelId,
+            final String userId,
+            final String username,
+            final String answerText,
+            final LocalDateTime createdDate
+    ) {
+        return new WorkflowEvent(Type.ANSWER_SUBMITTED, 0L, 0L, channelId, userId, answerText, username, createdDate);
+    }
+
+    static WorkflowEvent turnChanged(final String channelId, final String userId, final String newControllingUserId) {
+        return new WorkflowEvent(Type.TURN_CHANGED, 0L, 0L, channelId, userId, newControllingUserId, null, null);
+    }
+
+    static WorkflowEvent gameStopped(final String channelId, final String userId) {
+        return new WorkflowEvent(Type.GAME_STOPPED, 0L, 0L, channelId, userId, null, null, null);
+    }
+
+    /**
+     * The same event as numbered and timed by the log
+     */
+    WorkflowEvent recorded(final long sequence, final long recordedMillis) {
+        return new WorkflowEvent(type, sequence, recordedMillis, channelId, userId, text, username, createdDate);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getRecordedMillis() {
+        return recordedMillis;
+    }
+
+    String getChannelId() {
+        return channelId;
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    LocalDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    int getEncodedSize() {
+        return 1 + 8 + 8 + sizeOf(channelId) + sizeOf(userId) + sizeOf(text) + sizeOf(username) + DATE_SIZE;
+    }
+
+    void encode(final ByteBuffer buffer) {
+        buffer.put((byte)type.ordinal());
+        buffer.putLong(sequence);
+        buffer.putLong(recordedMillis);
+        putString(buffer, channelId);
+        putString(buffer, userId);
+        putString(buffer, text);
+        putString(buffer, username);
+        putDate(buffer, createdDate);
+    }
+
+    static WorkflowEvent decode(final ByteBuffer buffer) {
+        final Type type = TYPES[buffer.get()];
+        final long sequence = buffer.getLong();
+        final long recordedMillis = buffer.getLong();
+        final String channelId = getString(buffer);
+        final String userId = getString(buffer);
+        final String text = getString(buffer);
+        final String username = getString(buffer);
+        final LocalDateTime createdDate = getDate(buffer);
+
+        return new WorkflowEvent(type, sequence, recordedMillis, channelId, userId, text, username, createdDate);
+    }
+
+    static int sizeOf(final String value) {
+        return 4 + (value == null ? 0 : utf8Length(value));
+    }
+
+    static void putString(final ByteBuffer buffer, final String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    static String getString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void putDate(final ByteBuffer buffer, final LocalDateTime date) {
+        buffer.putLong(date == null ? NO_DATE : date.toEpochSecond(ZoneOffset.UTC));
+        buffer.putInt(date == null ? 0 : date.getNano());
+    }
+
+    static LocalDateTime getDate(final ByteBuffer buffer) {
+        final long epochSecond = buffer.getLong();
+        final int nano = buffer.getInt();
+
+        return epochSecond == NO_DATE ? null : LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+    }
+
+    //Avoids encoding the string twice just to size the record
+    private static int utf8Length(final String value) {
+        int length = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                //Unpaired; encoded as '?'
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,603 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.data.workflow.WorkflowStage;
+import org.bj.examples.trivia.dto.GameState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Append-only log of workflow events on memory-mapped segment files, with
+ * each channel's current state kept in memory. An append is a copy into the
+ * mapped segment; the segment is forced to disk every sync interval, so a
+ * crash of the machine can lose at most that window, while a crash of the
+ * process loses nothing. Segments are named by the sequence number of their
+ * first event. Once every event in a segment is older than the oldest
+ * retained snapshot it is no longer needed to recover, and only the number
+ * of such segments retained for auditing are kept.
+ * <p>
+ * Each record is its length, a CRC32 of the event and the encoded event.
+ * The length is written last, and a record that is cut short or does not
+ * match its CRC ends the replay of its segment.
+ * <p>
+ * Snapshots of every channel's state are written in the background every
+ * snapshot interval, or sooner after enough events, so opening the log only
+ * loads the newest snapshot and replays the events after it.
+ */
+class WorkflowEventLog {
+    private static final Log log = LogFactory.getLog(WorkflowEventLog.class);
+
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int SNAPSHOT_MAGIC = 0x57464c53;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final WorkflowStage[] STAGES = WorkflowStage.values();
+
+    private final WorkflowEventLogConfig config;
+    private final Path directory;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentMap<String, ChannelState> statesByChannel = new ConcurrentHashMap<>();
+    private final Object snapshotLock = new Object();
+
+    //Guarded by this
+    private final CRC32 crc = new CRC32();
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long nextSequence = 1L;
+    private long eventsSinceSnapshot;
+    private boolean snapshotRequested;
+    private boolean dirty;
+    private long replayedEventCount;
+
+    WorkflowEventLog(final WorkflowEventLogConfig config) {
+        if (config.getDirectory() == null || config.getDirectory().trim().isEmpty()) {
+            throw new IllegalArgumentException("workflow-event-log.directory must be set to a durable path.");
+        }
+
+        this.config = config;
+        this.directory = Paths.get(config.getDirectory());
+        this.timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("workflow-event-log").setDaemon(true).build()
+        );
+    }
+
+    /**
+     * Loads the newest snapshot, replays the events recorded after it and
+     * gets ready to append
+     */
+    synchronized void open() throws IOException {
+        final long start = System.currentTimeMillis();
+        Files.createDirectories(directory);
+
+        final long snapshotSequence = loadSnapshot();
+        final List<Path> segments = list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        long lastSequence = snapshotSequence;
+        int appendPosition = 0;
+
+        for (int i = 0; i < segments.size(); i++) {
+            //Every event in this segment is older than the snapshot
+            if (i + 1 < segments.size() && sequenceOf(segments.get(i + 1), SEGMENT_PREFIX, SEGMENT_SUFFIX) <= snapshotSequence + 1) {
+                continue;
+            }
+
+            final ReplayResult result = replay(segments.get(i), snapshotSequence);
+            lastSequence = Math.max(lastSequence, result.lastSequence);
+            appendPosition = result.endPosition;
+        }
+
+        nextSequence = lastSequence + 1;
+        //So the next snapshot covers what was replayed
+        eventsSinceSnapshot = replayedEventCount;
+
+        if (segments.isEmpty()) {
+            openSegment(nextSequence, 0);
+        } else {
+            openSegment(sequenceOf(segments.get(segments.size() - 1), SEGMENT_PREFIX, SEGMENT_SUFFIX), appendPosition);
+        }
+
+        timer.scheduleWithFixedDelay(this::sync, config.getSyncIntervalMillis(), config.getSyncIntervalMillis(), TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(this::snapshot, config.getSnapshotIntervalMillis(), config.getSnapshotIntervalMillis(), TimeUnit.MILLISECONDS);
+
+        log.info("Opened workflow event log \"" + directory + "\" at event " + (nextSequence - 1) + " with "
+                + statesByChannel.size() + " channel(s), replaying " + replayedEventCount + " event(s) after snapshot "
+                + snapshotSequence + " in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Records the event and applies it to its channel's state
+     *
+     * @return the event as recorded, with its sequence number
+     */
+    synchronized WorkflowEvent append(final WorkflowEvent event) {
+        if (segment == null) {
+            throw new IllegalStateException("The workflow event log is not open.");
+        }
+
+        final WorkflowEvent recordedEvent = event.recorded(nextSequence, System.currentTimeMillis());
+        final int size = recordedEvent.getEncodedSize();
+
+        if (segment.remaining() < RECORD_HEADER_SIZE + size) {
+            if (RECORD_HEADER_SIZE + size > config.getSegmentSizeBytes()) {
+                throw new IllegalArgumentException("A " + size + " byte event does not fit in a segment.");
+            }
+
+            rollSegment(recordedEvent.getSequence());
+        }
+
+        final int position = segment.position();
+        segment.position(position + RECORD_HEADER_SIZE);
+        recordedEvent.encode(segment);
+
+        final ByteBuffer payload = segment.duplicate();
+        payload.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + size);
+        crc.reset();
+        crc.update(payload);
+
+        segment.putInt(position + 4, (int)crc.getValue());
+        segment.putInt(position, size);
+
+        nextSequence++;
+        dirty = true;
+        apply(recordedEvent);
+
+        if (++eventsSinceSnapshot >= config.getSnapshotEveryEvents() && !snapshotRequested) {
+            snapshotRequested = true;
+            timer.execute(this::snapshot);
+        }
+
+        return recordedEvent;
+    }
+
+    ChannelState getState(final String channelId) {
+        return statesByChannel.get(channelId);
+    }
+
+    int getChannelCount() {
+        return statesByChannel.size();
+    }
+
+    synchronized long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * The number of events replayed on top of the snapshot when the log was
+     * opened
+     */
+    synchronized long getReplayedEventCount() {
+        return replayedEventCount;
+    }
+
+    synchronized void sync() {
+        if (segment == null || !dirty) {
+            return;
+        }
+
+        segment.force();
+        dirty = false;
+    }
+
+    /**
+     * Writes every channel's state as of the last event to a new snapshot,
+     * then drops snapshots beyond the number retained and the segments no
+     * longer needed to recover from them
+     */
+    void snapshot() {
+        synchronized (snapshotLock) {
+            final Map<String, ChannelState> states;
+            final long sequence;
+
+            synchronized (this) {
+                snapshotRequested = false;
+
+                if (eventsSinceSnapshot == 0) {
+                    return;
+                }
+
+                states = new HashMap<>(statesByChannel);
+                sequence = nextSequence - 1;
+                eventsSinceSnapshot = 0;
+            }
+
+            try {
+                writeSnapshot(states, sequence);
+                deleteOldSnapshots();
+                deleteOldSegments();
+            } catch (IOException e) {
+                synchronized (this) {
+                    eventsSinceSnapshot++;
+                }
+
+                log.error("Unable to write workflow snapshot " + sequence + " to \"" + directory + "\".", e);
+            }
+        }
+    }
+
+    /**
+     * Syncs the segment and snapshots the state so the next start replays
+     * nothing
+     */
+    void close() {
+        timer.shutdownNow();
+        sync();
+        snapshot();
+
+        synchronized (this) {
+            try {
+                if (segmentChannel != null) {
+                    segmentChannel.close();
+                }
+            } catch (IOException e) {
+                log.error("Unable to close workflow event log \"" + directory + "\".", e);
+            }
+
+            segmentChannel = null;
+            segment = null;
+        }
+    }
+
+    //Must hold the lock
+    private void apply(final WorkflowEvent event) {
+        final ChannelState nextState = ChannelState.apply(statesByChannel.get(event.getChannelId()), event);
+
+        if (nextState == null) {
+            statesByChannel.remove(event.getChannelId());
+        } else {
+            statesByChannel.put(event.getChannelId(), nextState);
+        }
+    }
+
+    //Must hold the lock
+    private ReplayResult replay(final Path path, final long afterSequence) throws IOException {
+        final ReplayResult result = new ReplayResult();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final int position = buffer.position();
+                final int size = buffer.getInt();
+                final int expectedCrc = buffer.getInt();
+
+                if (size <= 0 || size > buffer.remaining()) {
+                    break;
+                }
+
+                final ByteBuffer payload = buffer.slice();
+                payload.limit(size);
+                crc.reset();
+                crc.update(payload.duplicate());
+
+                if ((int)crc.getValue() != expectedCrc) {
+                    log.warn("Workflow event log \"" + path + "\" has a damaged record at " + position + "; ignoring the rest of the segment.");
+                    break;
+                }
+
+                final WorkflowEvent event = WorkflowEvent.decode(payload);
+                buffer.position(position + RECORD_HEADER_SIZE + size);
+                result.endPosition = buffer.position();
+                result.lastSequence = event.getSequence();
+
+                if (event.getSequence() > afterSequence) {
+                    apply(event);
+                    replayedEventCount++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    //Must hold the lock
+    private void rollSegment(final long firstSequence) {
+        segment.force();
+
+        try {
+            segmentChannel.close();
+            openSegment(firstSequence, 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to start a new workflow event log segment.", e);
+        }
+    }
+
+    //Must hold the lock
+    private void openSegment(final long firstSequence, final int position) throws IOException {
+        final Path path = directory.resolve(fileName(SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+
+        segmentChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentChannel.size(), config.getSegmentSizeBytes()));
+        segment.position(position);
+
+        //Clear what is left of a record cut short so it cannot be mistaken for the next one
+        if (segment.remaining() >= RECORD_HEADER_SIZE) {
+            segment.putLong(position, 0L);
+        }
+    }
+
+    //Must hold the lock
+    private long loadSnapshot() throws IOException {
+        final List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        Collections.reverse(snapshots);
+
+        for (final Path path : snapshots) {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+
+            if (buffer.remaining() < 4 + 8 + 4 + 8) {
+                log.warn("Ignoring truncated workflow snapshot \"" + path + "\".");
+                continue;
+            }
+
+            final ByteBuffer content = buffer.duplicate();
+            content.limit(buffer.limit() - 8);
+            crc.reset();
+            crc.update(content.duplicate());
+
+            if (buffer.getInt() != SNAPSHOT_MAGIC || crc.getValue() != buffer.getLong(buffer.limit() - 8)) {
+                log.warn("Ignoring damaged workflow snapshot \"" + path + "\".");
+                continue;
+            }
+
+            final long sequence = buffer.getLong();
+            final int channelCount = buffer.getInt();
+
+            for (int i = 0; i < channelCount; i++) {
+                final String channelId = WorkflowEvent.getString(buffer);
+                statesByChannel.put(channelId, ChannelState.decode(buffer));
+            }
+
+            return sequence;
+        }
+
+        return 0L;
+    }
+
+    private void writeSnapshot(final Map<String, ChannelState> states, final long sequence) throws IOException {
+        int size = 4 + 8 + 4 + 8;
+
+        for (final Map.Entry<String, ChannelState> entry : states.entrySet()) {
+            size += WorkflowEvent.sizeOf(entry.getKey()) + entry.getValue().getEncodedSize();
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putLong(sequence);
+        buffer.putInt(states.size());
+
+        for (final Map.Entry<String, ChannelState> entry : states.entrySet()) {
+            WorkflowEvent.putString(buffer, entry.getKey());
+            entry.getValue().encode(buffer);
+        }
+
+        final CRC32 snapshotCrc = new CRC32();
+        snapshotCrc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(snapshotCrc.getValue());
+        buffer.flip();
+
+        final Path path = directory.resolve(fileName(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+        final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(
+                temporaryPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteOldSnapshots() throws IOException {
+        final List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+
+        for (int i = 0; i < snapshots.size() - Math.max(config.getRetainedSnapshots(), 1); i++) {
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+
+    //The segment being appended to is never old: a later one would have to exist
+    private void deleteOldSegments() throws IOException {
+        final List<Path> snapshots = list(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        final long oldestSnapshotSequence = sequenceOf(snapshots.get(0), SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        final List<Path> segments = list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        int oldSegmentCount = 0;
+
+        while (oldSegmentCount + 1 < segments.size()
+                && sequenceOf(segments.get(oldSegmentCount + 1), SEGMENT_PREFIX, SEGMENT_SUFFIX) <= oldestSnapshotSequence + 1) {
+            oldSegmentCount++;
+        }
+
+        for (int i = 0; i < oldSegmentCount - Math.max(config.getRetainedSegments(), 0); i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    /**
+     * The files with the prefix and suffix, oldest first
+     */
+    private List<Path> list(final String prefix, final String suffix) throws IOException {
+        final List<Path> paths = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            stream.forEach(paths::add);
+        }
+
+        paths.sort((first, second) -> Long.compare(sequenceOf(first, prefix, suffix), sequenceOf(second, prefix, suffix)));
+
+        return paths;
+    }
+
+    private static long sequenceOf(final Path path, final String prefix, final String suffix) {
+        final String fileName = path.getFileName().toString();
+        return Long.parseLong(fileName.substring(prefix.length(), fileName.length() - suffix.length()));
+    }
+
+    private static String fileName(final String prefix, final long sequence, final String suffix) {
+        return String.format("%s%020d%s", prefix, sequence, suffix);
+    }
+
+    private static final class ReplayResult {
+        private long lastSequence;
+        private int endPosition;
+    }
+
+    /**
+     * A channel's game as of some event; immutable, so it can be read
+     * without holding the log's lock
+     */
+    static final class ChannelState {
+        private final String controllingUserId;
+        private final String topic;
+        private final String question;
+        private final List<GameState.Answer> answers;
+        private final WorkflowStage stage;
+
+        private ChannelState(
+                final String controllingUserId,
+                final String topic,
+                final String question,
+                final List<GameState.Answer> answers,
+                final WorkflowStage stage
+        ) {
+            this.controllingUserId = controllingUserId;
+            this.topic = topic;
+            this.question = question;
+            this.answers = answers;
+            this.stage = stage;
+        }
+
+        String getControllingUserId() {
+            return controllingUserId;
+        }
+
+        String getTopic() {
+            return topic;
+        }
+
+        String getQuestion() {
+            return question;
+        }
+
+        List<GameState.Answer> getAnswers() {
+            return answers;
+        }
+
+        WorkflowStage getStage() {
+            return stage;
+        }
+
+        /**
+         * @return the state after the event, or null if it ended the game
+         */
+        static ChannelState apply(final ChannelState state, final WorkflowEvent event) {
+            if (event.getType() == WorkflowEvent.Type.GAME_STARTED) {
+                return new ChannelState(event.getUserId(), event.getText(), null, ImmutableList.of(), WorkflowStage.STARTED);
+            } else if (state == null) {
+                //Only possible if the events before it were lost
+                return null;
+            }
+
+            switch (event.getType()) {
+                case QUESTION_SUBMITTED:
+                    return new ChannelState(state.controllingUserId, state.topic, event.getText(), ImmutableList.of(), WorkflowStage.QUESTION_ASKED);
+                case ANSWER_SUBMITTED:
+                    final GameState.Answer answer = new GameState.Answer(event.getUserId(), event.getUsername(), event.getText(), event.getCreatedDate());
+                    return new ChannelState(
+                            state.controllingUserId,
+                            state.topic,
+                            state.question,
+                            ImmutableList.<GameState.Answer>builder().addAll(state.answers).add(answer).build(),
+                            state.stage
+                    );
+                case TURN_CHANGED:
+                    return new ChannelState(event.getText(), state.topic, null, ImmutableList.of(), WorkflowStage.STARTED);
+                case GAME_STOPPED:
+                default:
+                    return null;
+            }
+        }
+
+        private int getEncodedSize() {
+            int size = WorkflowEvent.sizeOf(controllingUserId) + WorkflowEvent.sizeOf(topic) + WorkflowEvent.sizeOf(question) + 1 + 4;
+
+            for (final GameState.Answer answer : answers) {
+                size += WorkflowEvent.sizeOf(answer.getUserId()) + WorkflowEvent.sizeOf(answer.getUsername())
+                        + WorkflowEvent.sizeOf(answer.getText()) + WorkflowEvent.DATE_SIZE;
+            }
+
+            return size;
+        }
+
+        private void encode(final ByteBuffer buffer) {
+            WorkflowEvent.putString(buffer, controllingUserId);
+            WorkflowEvent.putString(buffer, topic);
+            WorkflowEvent.putString(buffer, question);
+            buffer.put((byte)stage.ordinal());
+            buffer.putInt(answers.size());
+
+            for (final GameState.Answer answer : answers) {
+                WorkflowEvent.putString(buffer, answer.getUserId());
+                WorkflowEvent.putString(buffer, answer.getUsername());
+                WorkflowEvent.putString(buffer, answer.getText());
+                WorkflowEvent.putDate(buffer, answer.getCreatedDate());
+            }
+        }
+
+        private static ChannelState decode(final ByteBuffer buffer) {
+            final String controllingUserId = WorkflowEvent.getString(buffer);
+            final String topic = WorkflowEvent.getString(buffer);
+            final String question = WorkflowEvent.getString(buffer);
+            final WorkflowStage stage = STAGES[buffer.get()];
+            final int answerCount = buffer.getInt();
+            final ImmutableList.Builder<GameState.Answer> answers = ImmutableList.builder();
+
+            for (int i = 0; i < answerCount; i++) {
+                answers.add(new GameState.Answer(
+                        WorkflowEvent.getString(buffer),
+                        WorkflowEvent.getString(buffer),
+                        WorkflowEvent.getString(buffer),
+                        WorkflowEvent.getDate(buffer)
+                ));
+            }
+
+            return new ChannelState(controllingUserId, topic, question, answers.build(), stage);
+        }
+    }
+}
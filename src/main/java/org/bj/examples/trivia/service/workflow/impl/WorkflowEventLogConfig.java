@@ -0,0 +1,81 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("workflow-event-log")
+public class WorkflowEventLogConfig {
+    private boolean enabled = false;
+    private String directory;
+    private int segmentSizeBytes = 64 * 1024 * 1024;
+    private long syncIntervalMillis = 100L;
+    private long snapshotIntervalMillis = 60000L;
+    private long snapshotEveryEvents = 100000L;
+    private int retainedSnapshots = 2;
+    private int retainedSegments = 0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    public void setSegmentSizeBytes(int segmentSizeBytes) {
+        this.segmentSizeBytes = segmentSizeBytes;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public long getSnapshotIntervalMillis() {
+        return snapshotIntervalMillis;
+    }
+
+    public void setSnapshotIntervalMillis(long snapshotIntervalMillis) {
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    public long getSnapshotEveryEvents() {
+        return snapshotEveryEvents;
+    }
+
+    public void setSnapshotEveryEvents(long snapshotEveryEvents) {
+        this.snapshotEveryEvents = snapshotEveryEvents;
+    }
+
+    public int getRetainedSnapshots() {
+        return retainedSnapshots;
+    }
+
+    public void setRetainedSnapshots(int retainedSnapshots) {
+        this.retainedSnapshots = retainedSnapshots;
+    }
+
+    public int getRetainedSegments() {
+        return retainedSegments;
+    }
+
+    public void setRetainedSegments(int retainedSegments) {
+        this.retainedSegments = retainedSegments;
+    }
+}
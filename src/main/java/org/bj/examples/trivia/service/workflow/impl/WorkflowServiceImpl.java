@@ -2,29 +2,81 @@ package org.bj.examples.trivia.service.workflow.impl;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bj.examples.trivia.data.score.ScoreInfo;
 import org.bj.examples.trivia.data.workflow.Answer;
 import org.bj.examples.trivia.data.workflow.Workflow;
 import org.bj.examples.trivia.data.workflow.WorkflowDao;
 import org.bj.examples.trivia.data.workflow.WorkflowStage;
 import org.bj.examples.trivia.dto.GameState;
+import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.exception.WorkflowException;
+import org.bj.examples.trivia.service.score.ScoreService;
 import org.bj.examples.trivia.service.workflow.WorkflowService;
+import org.bj.examples.trivia.util.OptimisticRetry;
+import org.bj.examples.trivia.util.OptimisticRetryConfig;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Workflows are read on every command, so when the cache is enabled they
+ * are kept by channel and written through on save and delete; a channel
+ * without a game is cached as absent. Entries expire after a fixed time so
+ * changes made by other instances are picked up eventually, and
+ * {@link #invalidate(String)} drops a channel immediately when its
+ * workflow is changed outside this service. Callers always get a copy, so
+ * a workflow modified by a command that then fails never reaches the cache.
+ * <p>
+ * Saves only succeed if the workflow has not been changed since it was
+ * read, e.g. by another instance; a command whose save loses is re-run from
+ * a fresh read a bounded number of times.
+ */
 @Profile("production")
 @Service
 public class WorkflowServiceImpl implements WorkflowService {
+    private static final Log log = LogFactory.getLog(WorkflowServiceImpl.class);
+
     private final WorkflowDao workflowDao;
+    private final ScoreService scoreService;
+    private final ChannelSequencer sequencer = new ChannelSequencer();
+    private final OptimisticRetry retry;
+    private final Cache<String, Optional<Workflow>> workflowsByChannel;
 
     @Autowired
-    public WorkflowServiceImpl(final WorkflowDao workflowDao) {
+    public WorkflowServiceImpl(
+            final WorkflowDao workflowDao,
+            final ScoreService scoreService,
+            final WorkflowCacheConfig config,
+            final OptimisticRetryConfig retryConfig
+    ) {
         this.workflowDao = workflowDao;
+        this.scoreService = scoreService;
+        this.retry = new OptimisticRetry(retryConfig.getMaxAttempts(), retryConfig.getBaseBackoffMillis());
+        this.workflowsByChannel = config.isEnabled() ?
+                CacheBuilder.newBuilder()
+                        .maximumSize(config.getMaximumSize())
+                        .expireAfterWrite(config.getExpireAfterWriteMillis(), TimeUnit.MILLISECONDS)
+                        .recordStats()
+                        .build() :
+                null;
     }
 
     @Override
@@ -33,23 +85,28 @@ public class WorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        Workflow workflow = workflowDao.findByChannelId(channelId);
+        mutate(channelId, () -> {
+            Workflow workflow = findWorkflow(channelId);
 
-        if (workflow != null) {
-            final String message = userId.equals(workflow.getControllingUserId()) ?
-                    "You are already hosting!" :
-                    "<@" + workflow.getControllingUserId() + "> is currently hosting.";
+            if (workflow != null) {
+                throw new WorkflowException(getHostingMessage(userId, workflow));
+            }
 
-            throw new WorkflowException(message);
-        }
+            workflow = new Workflow();
+            workflow.setChannelId(channelId);
+            workflow.setControllingUserId(userId);
+            workflow.setTopic(topic);
+            workflow.setQuestion(null);
+            workflow.setStage(WorkflowStage.STARTED);
+            workflow.setLastActivityDate(LocalDateTime.now());
 
-        workflow = new Workflow();
-        workflow.setChannelId(channelId);
-        workflow.setControllingUserId(userId);
-        workflow.setTopic(topic);
-        workflow.setQuestion(null);
-        workflow.setStage(WorkflowStage.STARTED);
-        workflowDao.save(workflow);
+            final Workflow otherWorkflow = insertWorkflow(workflow);
+
+            //Another instance started a game first
+            if (otherWorkflow != null) {
+                throw new WorkflowException(getHostingMessage(userId, otherWorkflow));
+            }
+        });
     }
 
     @Override
@@ -58,15 +115,17 @@ public class WorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        final Workflow workflow = workflowDao.findByChannelId(channelId);
+        mutate(channelId, () -> {
+            final Workflow workflow = findWorkflow(channelId);
 
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else if (!userId.equals(workflow.getControllingUserId())) {
-            throw new WorkflowException("<@" + workflow.getControllingUserId() + "> is currently hosting.");
-        }
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else if (!userId.equals(workflow.getControllingUserId())) {
+                throw new WorkflowException("<@" + workflow.getControllingUserId() + "> is currently hosting.");
+            }
 
-        workflowDao.delete(workflow.getId().toHexString());
+            deleteWorkflow(workflow);
+        });
     }
 
     @Override
@@ -75,23 +134,38 @@ public class WorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        final Workflow workflow = workflowDao.findByChannelId(channelId);
+        final AtomicReference<Long> replacedQuestionNumber = new AtomicReference<>();
 
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else {
-            boolean isControllingUser = userId.equals(workflow.getControllingUserId());
+        mutate(channelId, () -> {
+            final Workflow workflow = findWorkflow(channelId);
 
-            if (workflow.getStage() == WorkflowStage.QUESTION_ASKED) {
-                throw new WorkflowException((isControllingUser ? "You have" : "<@" + workflow.getControllingUserId() + "> has") + " already asked a question.");
-            } else if (!isControllingUser) {
-                throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn to ask a question.");
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else {
+                boolean isControllingUser = userId.equals(workflow.getControllingUserId());
+
+                if (workflow.getStage() == WorkflowStage.QUESTION_ASKED) {
+                    throw new WorkflowException((isControllingUser ? "You have" : "<@" + workflow.getControllingUserId() + "> has") + " already asked a question.");
+                } else if (!isControllingUser) {
+                    throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn to ask a question.");
+                }
             }
-        }
 
-        workflow.setQuestion(question);
-        workflow.setStage(WorkflowStage.QUESTION_ASKED);
-        workflowDao.save(workflow);
+            replacedQuestionNumber.set(workflow.getQuestionNumber());
+
+            workflow.setQuestion(question);
+            workflow.setQuestionNumber(workflow.getQuestionNumber() + 1);
+            workflow.setStage(WorkflowStage.QUESTION_ASKED);
+            workflow.setLastActivityDate(LocalDateTime.now());
+            saveWorkflow(workflow);
+        });
+
+        //No longer read once the next question is asked, so a failure only leaves them for the sweeper
+        try {
+            workflowDao.deleteAnswers(channelId, replacedQuestionNumber.get());
+        } catch (RuntimeException e) {
+            log.warn("Unable to delete the answers to question " + replacedQuestionNumber.get() + " in channel \"" + channelId + "\".", e);
+        }
     }
 
     @Override
@@ -106,23 +180,24 @@ public class WorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        final Workflow workflow = workflowDao.findByChannelId(channelId);
+        mutate(channelId, () -> {
+            final Workflow workflow = findWorkflow(channelId);
 
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else if (userId.equals(workflow.getControllingUserId())) {
-            throw new WorkflowException("You can't answer your own question!");
-        } else if (workflow.getStage() != WorkflowStage.QUESTION_ASKED) {
-            throw new WorkflowException("A question has not yet been submitted. Please wait for <@" + workflow.getControllingUserId() + "> to ask a question.");
-        }
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else if (userId.equals(workflow.getControllingUserId())) {
+                throw new WorkflowException("You can't answer your own question!");
+            } else if (workflow.getStage() != WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException("A question has not yet been submitted. Please wait for <@" + workflow.getControllingUserId() + "> to ask a question.");
+            }
 
-        final Answer answer = new Answer();
-        answer.setUserId(userId);
-        answer.setUsername(username);
-        answer.setText(answerText);
-        answer.setCreatedDate(createdDate);
-        workflow.getAnswers().add(answer);
-        workflowDao.save(workflow);
+            final Answer answer = new Answer();
+            answer.setUserId(userId);
+            answer.setUsername(username);
+            answer.setText(answerText);
+            answer.setCreatedDate(createdDate);
+            appendAnswer(workflow, answer);
+        });
     }
 
     @Override
@@ -131,7 +206,7 @@ public class WorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        final Workflow workflow = workflowDao.findByChannelId(channelId);
+        final Workflow workflow = findWorkflow(channelId);
 
         if (workflow == null) {
             throw new GameNotStartedException();
@@ -149,19 +224,61 @@ public class WorkflowServiceImpl implements WorkflowService {
             return;
         }
 
-        Workflow workflow = workflowDao.findByChannelId(channelId);
+        mutate(channelId, () -> {
+            Workflow workflow = findWorkflow(channelId);
 
-        if (workflow == null) {
-            throw new GameNotStartedException();
-        } else if (!userId.equals(workflow.getControllingUserId())) {
-            throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn; only he/she can cede his/her turn.");
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else if (!userId.equals(workflow.getControllingUserId())) {
+                throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn; only he/she can cede his/her turn.");
+            }
+
+            workflow.setControllingUserId(newControllingUserId);
+            workflow.setQuestion(null);
+            workflow.setAnswers(new ArrayList<>());
+            workflow.setStage(WorkflowStage.STARTED);
+            workflow.setLastActivityDate(LocalDateTime.now());
+            saveWorkflow(workflow);
+        });
+    }
+
+    /**
+     * Hands the turn on through the score service, which decides whether
+     * the winner's point is saved in the same transaction as the workflow
+     * or given once it has been saved
+     */
+    @Override
+    public Map<SlackUser, Long> resolveQuestion(final String channelId, final String userId, final String winnerUserId)
+            throws GameNotStartedException, WorkflowException, ScoreException {
+        if (channelId == null || userId == null) {
+            return Collections.emptyMap();
         }
 
-        workflow.setControllingUserId(newControllingUserId);
-        workflow.setQuestion(null);
-        workflow.setAnswers(new ArrayList<>());
-        workflow.setStage(WorkflowStage.STARTED);
-        workflowDao.save(workflow);
+        //Left unset if the winner has no score
+        final AtomicReference<Map<SlackUser, Long>> scoresByUser = new AtomicReference<>();
+
+        mutate(channelId, () -> {
+            final Workflow workflow = findWorkflow(channelId);
+
+            if (workflow == null) {
+                throw new GameNotStartedException();
+            } else if (!userId.equals(workflow.getControllingUserId())) {
+                throw new WorkflowException("It's <@" + workflow.getControllingUserId() + ">'s turn; only he/she can mark an answer correct.");
+            } else if (workflow.getStage() != WorkflowStage.QUESTION_ASKED) {
+                throw new WorkflowException("A question has not yet been submitted. Please ask a question before marking an answer correct.");
+            }
+
+            scoresByUser.set(scoreService.scoreQuestion(channelId, winnerUserId, pointUserId -> {
+                handTurn(workflow, winnerUserId == null ? userId : winnerUserId);
+                return saveWorkflowWithPoint(workflow, pointUserId);
+            }));
+        });
+
+        if (scoresByUser.get() == null) {
+            throw new ScoreException();
+        }
+
+        return scoresByUser.get();
     }
 
     @Override
@@ -171,7 +288,7 @@ public class WorkflowServiceImpl implements WorkflowService {
         }
 
         final GameState gameState = new GameState();
-        final Workflow workflow = workflowDao.findByChannelId(channelId);
+        final Workflow workflow = findWorkflow(channelId);
 
         if (workflow == null) {
             return gameState;
@@ -191,4 +308,190 @@ public class WorkflowServiceImpl implements WorkflowService {
 
         return gameState;
     }
+
+    /**
+     * Drops the cached workflow for the channel so the next command reads
+     * it from the datastore
+     */
+    public void invalidate(final String channelId) {
+        if (workflowsByChannel != null && channelId != null) {
+            workflowsByChannel.invalidate(channelId);
+        }
+    }
+
+    public void invalidateAll() {
+        if (workflowsByChannel != null) {
+            workflowsByChannel.invalidateAll();
+        }
+    }
+
+    /**
+     * Hits, misses and evictions of the workflow cache; all zero when it is
+     * disabled
+     */
+    public CacheStats getCacheStats() {
+        return workflowsByChannel == null ? new CacheStats(0, 0, 0, 0, 0, 0) : workflowsByChannel.stats();
+    }
+
+    public long getCachedWorkflowCount() {
+        return workflowsByChannel == null ? 0L : workflowsByChannel.size();
+    }
+
+    /**
+     * The number of commands that had to wait for another command in the
+     * same channel
+     */
+    public long getContendedCount() {
+        return sequencer.getContendedCount();
+    }
+
+    /**
+     * The number of saves per channel that lost to a concurrent change
+     */
+    public Map<String, Long> getConflictCounts() {
+        return retry.getConflictCounts();
+    }
+
+    /**
+     * The number of commands per channel that were re-run after a conflict
+     */
+    public Map<String, Long> getRetryCounts() {
+        return retry.getRetryCounts();
+    }
+
+    private void mutate(final String channelId, final ChannelSequencer.Mutation mutation) throws WorkflowException {
+        try {
+            sequencer.run(channelId, () -> retry.run(channelId, mutation::apply));
+        } catch (OptimisticLockingFailureException e) {
+            throw new WorkflowException("The game changed while your command was being handled. Please try again.");
+        }
+    }
+
+    private Workflow findWorkflow(final String channelId) {
+        if (workflowsByChannel == null) {
+            return workflowDao.findByChannelId(channelId);
+        }
+
+        try {
+            return workflowsByChannel.get(channelId, () -> Optional.ofNullable(workflowDao.findByChannelId(channelId)))
+                    .map(WorkflowServiceImpl::copy)
+                    .orElse(null);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Workflow insertWorkflow(final Workflow workflow) {
+        final Workflow existingWorkflow;
+
+        try {
+            existingWorkflow = workflowDao.putIfAbsent(workflow);
+        } catch (RuntimeException e) {
+            invalidate(workflow.getChannelId());
+            throw e;
+        }
+
+        if (workflowsByChannel != null) {
+            workflowsByChannel.put(workflow.getChannelId(), Optional.of(copy(existingWorkflow == null ? workflow : existingWorkflow)));
+        }
+
+        return existingWorkflow;
+    }
+
+    private void saveWorkflow(final Workflow workflow) {
+        final Workflow savedWorkflow;
+
+        try {
+            savedWorkflow = workflowDao.save(workflow);
+        } catch (RuntimeException e) {
+            //The write may or may not have happened
+            invalidate(workflow.getChannelId());
+            throw e;
+        }
+
+        if (workflowsByChannel == null) {
+            return;
+        }
+
+        if (savedWorkflow == null) {
+            invalidate(workflow.getChannelId());
+        } else {
+            workflowsByChannel.put(workflow.getChannelId(), Optional.of(copy(savedWorkflow)));
+        }
+    }
+
+    private Long saveWorkflowWithPoint(final Workflow workflow, final String winnerUserId) {
+        final ScoreInfo savedWinnerScore;
+
+        try {
+            savedWinnerScore = workflowDao.saveWithPoint(workflow, winnerUserId);
+        } catch (RuntimeException e) {
+            invalidate(workflow.getChannelId());
+            throw e;
+        }
+
+        if (workflowsByChannel != null) {
+            workflowsByChannel.put(workflow.getChannelId(), Optional.of(copy(workflow)));
+        }
+
+        return savedWinnerScore == null ? null : savedWinnerScore.getScore();
+    }
+
+    private void appendAnswer(final Workflow workflow, final Answer answer) {
+        try {
+            workflowDao.addAnswer(workflow, answer);
+        } catch (RuntimeException e) {
+            invalidate(workflow.getChannelId());
+            throw e;
+        }
+
+        workflow.getAnswers().add(answer);
+
+        if (workflowsByChannel != null) {
+            workflowsByChannel.put(workflow.getChannelId(), Optional.of(copy(workflow)));
+        }
+    }
+
+    private void deleteWorkflow(final Workflow workflow) {
+        try {
+            workflowDao.delete(workflow.getChannelId());
+        } catch (RuntimeException e) {
+            invalidate(workflow.getChannelId());
+            throw e;
+        }
+
+        if (workflowsByChannel != null) {
+            workflowsByChannel.put(workflow.getChannelId(), Optional.empty());
+        }
+    }
+
+    private static String getHostingMessage(final String userId, final Workflow workflow) {
+        return userId.equals(workflow.getControllingUserId()) ?
+                "You are already hosting!" :
+                "<@" + workflow.getControllingUserId() + "> is currently hosting.";
+    }
+
+    private static Workflow copy(final Workflow workflow) {
+        final Workflow copy = new Workflow();
+        copy.setId(workflow.getId());
+        copy.setChannelId(workflow.getChannelId());
+        copy.setControllingUserId(workflow.getControllingUserId());
+        copy.setTopic(workflow.getTopic());
+        copy.setQuestion(workflow.getQuestion());
+        copy.setAnswers(new ArrayList<>(workflow.getAnswers()));
+        copy.setStage(workflow.getStage());
+        copy.setQuestionNumber(workflow.getQuestionNumber());
+        copy.setVersion(workflow.getVersion());
+        copy.setLastActivityDate(workflow.getLastActivityDate());
+
+        return copy;
+    }
+
+    private static void handTurn(final Workflow workflow, final String newControllingUserId) {
+        workflow.setControllingUserId(newControllingUserId);
+        workflow.setQuestion(null);
+        workflow.setAnswers(new ArrayList<>());
+        workflow.setStage(WorkflowStage.STARTED);
+        workflow.setLastActivityDate(LocalDateTime.now());
+    }
 }
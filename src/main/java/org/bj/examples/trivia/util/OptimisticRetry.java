@@ -0,0 +1,84 @@
+package org.bj.examples.trivia.util;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import com.google.common.util.concurrent.AtomicLongMap;
+
+/**
+ * Re-runs a read-modify-write when its write loses to a concurrent one,
+ * a bounded number of times. Before each retry it sleeps for a random time
+ * of up to {@code baseBackoffMillis} doubled per attempt, so competing
+ * writers spread out rather than colliding again. Conflicts and retries
+ * are counted per channel.
+ */
+public class OptimisticRetry {
+    @FunctionalInterface
+    public interface Attempt<E extends Exception> {
+        void run() throws E;
+    }
+
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+
+    private final AtomicLongMap<String> conflictCounts = AtomicLongMap.create();
+    private final AtomicLongMap<String> retryCounts = AtomicLongMap.create();
+
+    public OptimisticRetry(final int maxAttempts, final long baseBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+
+    /**
+     * @throws OptimisticLockingFailureException if the last attempt also
+     * lost to a concurrent write
+     */
+    public <E extends Exception> void run(final String channelId, final Attempt<E> attempt) throws E {
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            try {
+                attempt.run();
+                return;
+            } catch (OptimisticLockingFailureException e) {
+                conflictCounts.incrementAndGet(channelId);
+
+                if (attemptNumber >= maxAttempts) {
+                    throw e;
+                }
+            }
+
+            retryCounts.incrementAndGet(channelId);
+            backOff(attemptNumber);
+        }
+    }
+
+    /**
+     * The number of writes per channel that lost to a concurrent write
+     */
+    public Map<String, Long> getConflictCounts() {
+        return conflictCounts.asMap();
+    }
+
+    /**
+     * The number of times per channel a read-modify-write was re-run
+     */
+    public Map<String, Long> getRetryCounts() {
+        return retryCounts.asMap();
+    }
+
+    private void backOff(final int attemptNumber) {
+        final long maxBackoffMillis = baseBackoffMillis << Math.min(attemptNumber - 1, 16);
+
+        if (maxBackoffMillis <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxBackoffMillis + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OptimisticLockingFailureException("Interrupted while waiting to retry a conflicting write.", e);
+        }
+    }
+}
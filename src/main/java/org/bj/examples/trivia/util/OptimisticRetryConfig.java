@@ -0,0 +1,27 @@
+package org.bj.examples.trivia.util;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("optimistic-retry")
+public class OptimisticRetryConfig {
+    private int maxAttempts = 1;
+    private long baseBackoffMillis = 0L;
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseBackoffMillis() {
+        return baseBackoffMillis;
+    }
+
+    public void setBaseBackoffMillis(long baseBackoffMillis) {
+        this.baseBackoffMillis = baseBackoffMillis;
+    }
+}
@@ -1,23 +1,107 @@
 package org.bj.examples.trivia.util;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
-public class SlackUtils {
-    private static final Pattern SLACK_ID_PATTERN = Pattern.compile("^<@(.+?)(\\|.*)?>$");
+import org.apache.commons.collections.CollectionUtils;
+import org.bj.examples.trivia.dto.SlackAttachment;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
 
+public class SlackUtils {
+    /**
+     * Extracts the ID from a mention like {@code <@U12345|jsmith>}; anything
+     * else is returned as is. Equivalent to matching
+     * {@code ^<@(.+?)(\|.*)?>$}, without the regex.
+     */
     public static String normalizeId(final String slackId) {
-        if (slackId == null) {
-            return null;
+        if (slackId == null || !slackId.startsWith("<@")) {
+            return slackId;
+        }
+
+        //Like $, the closing > may be followed by one final line terminator
+        final int length = slackId.length();
+        final int closingIndex = length - 1 - getFinalLineTerminatorLength(slackId);
+
+        if (closingIndex < 3 || slackId.charAt(closingIndex) != '>') {
+            return slackId;
+        }
+
+        int idEnd = closingIndex;
+
+        for (int i = 2; i < closingIndex; i++) {
+            final char c = slackId.charAt(i);
+
+            //Like ., the ID and username cannot span lines
+            if (isLineTerminator(c)) {
+                return slackId;
+            }
+
+            if (c == '|' && i > 2 && idEnd == closingIndex) {
+                idEnd = i;
+            }
         }
 
-        String extractedId = slackId;
-        final Matcher userIdMatcher = SLACK_ID_PATTERN.matcher(extractedId);
+        return slackId.substring(2, idEnd);
+    }
 
-        if (userIdMatcher.find()) {
-            extractedId = userIdMatcher.group(1);
+    private static int getFinalLineTerminatorLength(final String text) {
+        final int length = text.length();
+        final char last = text.charAt(length - 1);
+
+        if (last == '\n' && length >= 2 && text.charAt(length - 2) == '\r') {
+            return 2;
         }
 
-        return extractedId;
+        return isLineTerminator(last) ? 1 : 0;
+    }
+
+    private static boolean isLineTerminator(final char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Combines several responses of the same type into a single message. The
+     * text of each response becomes the pretext of its first attachment, so
+     * the merged message reads the same as the individual ones did.
+     */
+    public static SlackResponseDoc mergeResponses(final List<SlackResponseDoc> responseDocs) {
+        if (responseDocs.size() == 1) {
+            return responseDocs.get(0);
+        }
+
+        final boolean inChannel = responseDocs.get(0).getResponseType() == SlackResponseType.IN_CHANNEL;
+
+        final SlackResponseDoc mergedResponseDoc = new SlackResponseDoc();
+        mergedResponseDoc.setResponseType(inChannel ? SlackResponseType.IN_CHANNEL : SlackResponseType.EPHEMERAL);
+
+        final List<SlackAttachment> attachments = new ArrayList<>();
+
+        for (final SlackResponseDoc responseDoc : responseDocs) {
+            //An ephemeral response merged into an in-channel one would be shown to everyone
+            if ((responseDoc.getResponseType() == SlackResponseType.IN_CHANNEL) != inChannel) {
+                throw new IllegalArgumentException("Only responses of the same type can be merged.");
+            }
+
+            if (CollectionUtils.isEmpty(responseDoc.getAttachments())) {
+                attachments.add(new SlackAttachment(responseDoc.getText()));
+                continue;
+            }
+
+            String pretext = responseDoc.getText();
+
+            for (final SlackAttachment attachment : responseDoc.getAttachments()) {
+                attachments.add(new SlackAttachment(
+                        pretext == null ? attachment.getPretext() : pretext,
+                        attachment.getText(),
+                        !attachment.getMrkdwn_in().isEmpty()
+                ));
+                pretext = null;
+            }
+        }
+
+        mergedResponseDoc.setAttachments(attachments);
+
+        return mergedResponseDoc;
     }
 }
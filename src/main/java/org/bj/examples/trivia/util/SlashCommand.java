@@ -0,0 +1,194 @@
+package org.bj.examples.trivia.util;
+
+/**
+ * A slash command's text split into an operator, the first argument and
+ * whatever follows, found in a single pass over the text. Only offsets are
+ * kept; the substrings are made on first use.
+ * <p>
+ * Words are separated by the same characters as {@code \s} and the text and
+ * its parts are trimmed like {@link String#trim()}, so the results match
+ * splitting the trimmed text on {@code \s+}.
+ */
+public final class SlashCommand {
+    public enum Operator {
+        START("start"),
+        STOP("stop"),
+        JOIN("join"),
+        PASS("pass"),
+        QUESTION("question"),
+        ANSWER("answer"),
+        CORRECT("correct"),
+        STATUS("status"),
+        SCORES("scores"),
+        RESET("reset");
+
+        private static final Operator[] OPERATORS = values();
+
+        private final String name;
+
+        private Operator(final String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private static Operator find(final String text, final int start, final int end) {
+            final int length = end - start;
+
+            for (final Operator operator : OPERATORS) {
+                if (operator.name.length() == length && text.startsWith(operator.name, start)) {
+                    return operator;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private final String text;
+    private final Operator operator;
+    private final int operatorStart;
+    private final int operatorEnd;
+    private final int argumentsStart;
+    private final int argumentStart;
+    private final int argumentEnd;
+    private final int remainderStart;
+    private final int end;
+
+    private String arguments;
+    private String argument;
+    private String remainder;
+
+    private SlashCommand(
+            final String text,
+            final int operatorStart,
+            final int operatorEnd,
+            final int argumentsStart,
+            final int argumentStart,
+            final int argumentEnd,
+            final int remainderStart,
+            final int end
+    ) {
+        this.text = text;
+        this.operator = Operator.find(text, operatorStart, operatorEnd);
+        this.operatorStart = operatorStart;
+        this.operatorEnd = operatorEnd;
+        this.argumentsStart = argumentsStart;
+        this.argumentStart = argumentStart;
+        this.argumentEnd = argumentEnd;
+        this.remainderStart = remainderStart;
+        this.end = end;
+    }
+
+    public static SlashCommand parse(final String commandText) {
+        final String text = commandText == null ? "" : commandText;
+
+        int start = 0;
+        int end = text.length();
+
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        final int operatorEnd = skipWord(text, start, end);
+        final int argumentsStart = skipBlanks(text, operatorEnd, end);
+        final int argumentStart = skipSeparators(text, operatorEnd, end);
+        final int argumentEnd = skipWord(text, argumentStart, end);
+        final int remainderStart = skipBlanks(text, argumentEnd, end);
+
+        return new SlashCommand(text, start, operatorEnd, argumentsStart, argumentStart, argumentEnd, remainderStart, end);
+    }
+
+    /**
+     * The operator, or null if the first word is not one
+     */
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public String getOperatorText() {
+        return text.substring(operatorStart, operatorEnd);
+    }
+
+    /**
+     * Whether anything follows the operator
+     */
+    public boolean hasArguments() {
+        return operatorEnd < end;
+    }
+
+    /**
+     * Everything after the operator, trimmed; empty if there is nothing
+     */
+    public String getArguments() {
+        if (arguments == null) {
+            arguments = text.substring(argumentsStart, end);
+        }
+
+        return arguments;
+    }
+
+    /**
+     * The word following the operator, or null if there is none
+     */
+    public String getArgument() {
+        if (argument == null && hasArguments()) {
+            argument = text.substring(argumentStart, argumentEnd);
+        }
+
+        return argument;
+    }
+
+    /**
+     * Everything after the first argument, trimmed, or null if nothing
+     * follows it
+     */
+    public String getRemainder() {
+        if (remainder == null && argumentEnd < end) {
+            remainder = text.substring(remainderStart, end);
+        }
+
+        return remainder;
+    }
+
+    private static int skipWord(final String text, final int from, final int end) {
+        int i = from;
+
+        while (i < end && !isSeparator(text.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int skipSeparators(final String text, final int from, final int end) {
+        int i = from;
+
+        while (i < end && isSeparator(text.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    private static int skipBlanks(final String text, final int from, final int end) {
+        int i = from;
+
+        while (i < end && text.charAt(i) <= ' ') {
+            i++;
+        }
+
+        return i;
+    }
+
+    //The characters matched by \s
+    private static boolean isSeparator(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,120 @@
+package org.bj.examples.trivia.data.score;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class ScoreInfoRepoCustomImplTest {
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private ScoreInfoRepoCustomImpl cut;
+
+    @Test
+    public void testIncrementScoreIsOneServerSideUpdate() {
+        final ScoreInfo updatedScore = new ScoreInfo();
+
+        given(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(ScoreInfo.class)))
+                .willReturn(updatedScore);
+
+        assertThat(cut.incrementScore("C12345", "U6789"), is(sameInstance(updatedScore)));
+
+        final ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+        final ArgumentCaptor<FindAndModifyOptions> optionsCaptor = ArgumentCaptor.forClass(FindAndModifyOptions.class);
+        verify(mongoTemplate).findAndModify(queryCaptor.capture(), updateCaptor.capture(), optionsCaptor.capture(), eq(ScoreInfo.class));
+
+        final Document queryObject = queryCaptor.getValue().getQueryObject();
+        assertThat(queryObject.get(ScoreInfo.CHANNEL_ID_KEY), is(equalTo("C12345")));
+        assertThat(queryObject.get(ScoreInfo.USER_ID_KEY), is(equalTo("U6789")));
+
+        final Document increments = (Document)updateCaptor.getValue().getUpdateObject().get("$inc");
+        assertThat(increments.get(ScoreInfo.SCORE_KEY), is(equalTo(1)));
+        assertThat(increments.get(ScoreInfo.VERSION_KEY), is(equalTo(1)));
+        assertThat(updateCaptor.getValue().getUpdateObject().size(), is(equalTo(1)));
+
+        assertThat(optionsCaptor.getValue().isReturnNew(), is(true));
+        assertThat(optionsCaptor.getValue().isUpsert(), is(false));
+    }
+
+    @Test
+    public void testIncrementScoreForUnknownUser() {
+        assertThat(cut.incrementScore("C12345", "U6789"), is(nullValue()));
+    }
+
+    @Test
+    public void testAddPointsIsOneBulkWrite() {
+        final BulkOperations operations = mock(BulkOperations.class);
+        final BulkWriteResult result = mock(BulkWriteResult.class);
+
+        given(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ScoreInfo.class)).willReturn(operations);
+        given(operations.execute()).willReturn(result);
+        given(result.getModifiedCount()).willReturn(2);
+
+        assertThat(cut.addPoints(Arrays.asList(new ScoreDelta("C12345", "U6789", 3L), new ScoreDelta("C12345", "U1532", 1L))), is(equalTo(2)));
+
+        final ArgumentCaptor<Query> queryCaptor = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(operations, times(2)).updateOne(queryCaptor.capture(), updateCaptor.capture());
+        verify(operations).execute();
+
+        assertThat(queryCaptor.getAllValues().get(0).getQueryObject().get(ScoreInfo.USER_ID_KEY), is(equalTo("U6789")));
+
+        final Document increments = (Document)updateCaptor.getAllValues().get(0).getUpdateObject().get("$inc");
+        assertThat(increments.get(ScoreInfo.SCORE_KEY), is(equalTo(3L)));
+        assertThat(increments.get(ScoreInfo.VERSION_KEY), is(equalTo(1)));
+    }
+
+    @Test
+    public void testInsertIfAbsentIsOneUpsert() {
+        given(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(ScoreInfo.class)))
+                .willReturn(UpdateResult.acknowledged(0L, 0L, new BsonObjectId()))
+                .willThrow(new DuplicateKeyException("inserted concurrently"));
+
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setChannelId("C12345");
+        scoreInfo.setUserId("U6789");
+        scoreInfo.setUsername("jsmith");
+
+        assertThat(cut.insertIfAbsent(scoreInfo), is(true));
+        assertThat(cut.insertIfAbsent(scoreInfo), is(false));
+
+        final ArgumentCaptor<Update> updateCaptor = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).upsert(any(Query.class), updateCaptor.capture(), eq(ScoreInfo.class));
+
+        final Document inserted = (Document)updateCaptor.getValue().getUpdateObject().get("$setOnInsert");
+        assertThat(inserted.get(ScoreInfo.USERNAME_KEY), is(equalTo("jsmith")));
+        assertThat(inserted.get(ScoreInfo.SCORE_KEY), is(equalTo(0L)));
+        assertThat(updateCaptor.getValue().getUpdateObject().size(), is(equalTo(1)));
+    }
+}
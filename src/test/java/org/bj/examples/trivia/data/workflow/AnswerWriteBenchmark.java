@@ -0,0 +1,109 @@
+package org.bj.examples.trivia.data.workflow;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.bj.examples.trivia.data.score.ScoreInfoDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.EntityValue;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.IncompleteKey;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.ListValue;
+
+/**
+ * Compares the entities written for the n-th answer to a question: the
+ * whole workflow with every answer embedded, as WorkflowDao used to save
+ * it, against the single answer entity it adds now. Only building the
+ * entities is measured; no Datastore is involved. Run the main method from
+ * the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-DGOOGLE_CLOUD_PROJECT=" + AnswerWriteBenchmark.PROJECT_ID)
+public class AnswerWriteBenchmark {
+    static final String PROJECT_ID = "trivia-benchmark";
+
+    @Param({ "1", "10", "100", "1000" })
+    private int answerNumber;
+
+    private AnswerDao answerDao;
+    private WorkflowDao workflowDao;
+    private Key workflowKey;
+    private Key questionKey;
+    private IncompleteKey embeddedAnswerKey;
+    private Workflow workflow;
+    private Answer answer;
+
+    @Setup
+    public void setUp() {
+        answerDao = new AnswerDao();
+        workflowDao = new WorkflowDao(answerDao, new ScoreInfoDao(), new WorkflowStoreConfig());
+        workflowKey = Key.newBuilder(PROJECT_ID, "Workflow", "C12345").build();
+        questionKey = Key.newBuilder(workflowKey, "Question", "1").build();
+        embeddedAnswerKey = IncompleteKey.newBuilder(PROJECT_ID, "Answer").build();
+
+        workflow = new Workflow();
+        workflow.setChannelId("C12345");
+        workflow.setControllingUserId("U12345");
+        workflow.setQuestion("In what year did WWII officially begin?");
+        workflow.setQuestionNumber(1L);
+        workflow.setStage(WorkflowStage.QUESTION_ASKED);
+
+        final List<Answer> answers = new ArrayList<>();
+
+        for (int i = 0; i < answerNumber; i++) {
+            final Answer previousAnswer = new Answer();
+            previousAnswer.setUserId("U" + i);
+            previousAnswer.setUsername("user" + i);
+            previousAnswer.setText("I think it was " + (1900 + i % 100));
+            previousAnswer.setCreatedDate(LocalDateTime.now());
+            answers.add(previousAnswer);
+        }
+
+        workflow.setAnswers(answers);
+        answer = answers.get(answers.size() - 1);
+    }
+
+    @Benchmark
+    public Entity rewriteWorkflow() {
+        final List<EntityValue> answerValues = workflow.getAnswers().stream()
+                .map(previousAnswer -> answerDao.answerToEntity(embeddedAnswerKey, previousAnswer))
+                .map(EntityValue::of)
+                .collect(Collectors.toList());
+
+        return Entity.newBuilder(workflowDao.workflowToEntity(workflowKey, workflow))
+                .set(Workflow.ANSWERS_KEY, ListValue.of(answerValues))
+                .build();
+    }
+
+    @Benchmark
+    public FullEntity<IncompleteKey> appendAnswer() {
+        return answerDao.answerToEntity(IncompleteKey.newBuilder(questionKey, "Answer").build(), answer);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AnswerWriteBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,61 @@
+package org.bj.examples.trivia.data.workflow;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.time.LocalDateTime;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.google.cloud.datastore.Cursor;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class WorkflowKeyMigrationTest {
+    @Mock
+    private WorkflowDao workflowDao;
+
+    private WorkflowKeyMigration cut;
+
+    @Before
+    public void setUp() {
+        final WorkflowStoreConfig config = new WorkflowStoreConfig();
+        config.setMigrationBatchSize(2);
+
+        cut = new WorkflowKeyMigration(workflowDao, config);
+    }
+
+    @Test
+    public void testUndatedWorkflowsAreStampedAfterRekeying() {
+        final Cursor cursor = Cursor.copyFrom(new byte[] {1});
+
+        given(workflowDao.migrateLegacyKeys()).willReturn(1);
+        given(workflowDao.stampUndated(any(), eq(2), any(LocalDateTime.class))).willReturn(cursor).willReturn(null);
+
+        cut.migrate();
+
+        final InOrder inOrder = inOrder(workflowDao);
+        inOrder.verify(workflowDao).migrateLegacyKeys();
+        inOrder.verify(workflowDao).stampUndated(isNull(), eq(2), any(LocalDateTime.class));
+        inOrder.verify(workflowDao).stampUndated(eq(cursor), eq(2), any(LocalDateTime.class));
+    }
+
+    @Test
+    public void testNothingIsStampedWhenRekeyingFails() {
+        given(workflowDao.migrateLegacyKeys()).willThrow(new IllegalStateException("boom"));
+
+        cut.migrate();
+
+        verify(workflowDao, never()).stampUndated(any(), anyInt(), any(LocalDateTime.class));
+    }
+}
@@ -0,0 +1,98 @@
+package org.bj.examples.trivia.data.workflow;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class WorkflowSweeperTest {
+    @Mock
+    private WorkflowDao workflowDao;
+
+    private WorkflowExpiryConfig config;
+    private WorkflowSweeper cut;
+
+    @Before
+    public void setUp() {
+        config = new WorkflowExpiryConfig();
+        config.setEnabled(true);
+        config.setIdleTtlMillis(60000L);
+        config.setSweepBatchSize(2);
+        config.setMaxDeletesPerSecond(1000.0);
+
+        cut = new WorkflowSweeper(workflowDao, config);
+    }
+
+    @Test
+    public void testSweepDeletesIdleWorkflowsInBatches() {
+        given(workflowDao.findIdleChannelIds(any(LocalDateTime.class), eq(2)))
+                .willReturn(Arrays.asList("C1", "C2"))
+                .willReturn(Collections.singletonList("C3"))
+                .willReturn(Collections.emptyList());
+        given(workflowDao.deleteIfIdle(anyString(), any(LocalDateTime.class))).willReturn(true);
+
+        final LocalDateTime before = LocalDateTime.now().minusMinutes(1);
+        final int deletedCount = cut.sweep();
+        final LocalDateTime after = LocalDateTime.now().minusMinutes(1);
+
+        assertThat(deletedCount, is(equalTo(3)));
+        assertThat(cut.getSweptCount(), is(equalTo(3L)));
+
+        final ArgumentCaptor<LocalDateTime> cutoffCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(workflowDao, times(3)).deleteIfIdle(anyString(), cutoffCaptor.capture());
+
+        assertThat(cutoffCaptor.getValue().isBefore(before), is(false));
+        assertThat(cutoffCaptor.getValue().isAfter(after), is(false));
+    }
+
+    @Test
+    public void testSweepStopsWhenNothingFoundCanBeDeleted() {
+        given(workflowDao.findIdleChannelIds(any(LocalDateTime.class), anyInt())).willReturn(Arrays.asList("C1", "C2"));
+        given(workflowDao.deleteIfIdle(anyString(), any(LocalDateTime.class))).willReturn(false);
+
+        assertThat(cut.sweep(), is(equalTo(0)));
+
+        verify(workflowDao).findIdleChannelIds(any(LocalDateTime.class), anyInt());
+    }
+
+    @Test
+    public void testDeletesAreRateLimited() {
+        config.setMaxDeletesPerSecond(20.0);
+        cut = new WorkflowSweeper(workflowDao, config);
+
+        given(workflowDao.findIdleChannelIds(any(LocalDateTime.class), anyInt()))
+                .willReturn(Arrays.asList("C1", "C2"))
+                .willReturn(Arrays.asList("C3", "C4"))
+                .willReturn(Arrays.asList("C5", "C6"))
+                .willReturn(Collections.emptyList());
+        given(workflowDao.deleteIfIdle(anyString(), any(LocalDateTime.class))).willReturn(true);
+
+        final long start = System.nanoTime();
+        cut.sweep();
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+
+        //Six deletes at twenty a second; only the first goes straight through
+        assertThat(elapsedMillis, is(greaterThan(200L)));
+        assertThat(elapsedMillis, is(lessThan(5000L)));
+    }
+}
@@ -4,8 +4,13 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -16,11 +21,17 @@ import org.bj.examples.trivia.dto.SlackRequestDoc;
 import org.bj.examples.trivia.dto.SlackResponseDoc;
 import org.bj.examples.trivia.dto.SlackResponseType;
 import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.exception.ScoreException;
+import org.bj.examples.trivia.message.MessageManager;
+import org.bj.examples.trivia.message.MessageType;
 import org.bj.examples.trivia.service.score.ScoreService;
+import org.bj.examples.trivia.service.score.impl.LeaderboardConfig;
+import org.bj.examples.trivia.service.score.impl.LeaderboardServiceImpl;
+import org.bj.examples.trivia.service.slack.DelayedSlackService;
 import org.bj.examples.trivia.service.workflow.WorkflowService;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
@@ -29,7 +40,6 @@ import com.google.common.collect.ImmutableMap;
 
 @RunWith(MockitoJUnitRunner.StrictStubs.class)
 public class TriviaGameServiceImplTest {
-    @InjectMocks
     public TriviaGameServiceImpl cut;
 
     @Mock
@@ -38,6 +48,28 @@ public class TriviaGameServiceImplTest {
     @Mock
     private ScoreService scoreService;
 
+    @Mock
+    private DelayedSlackService delayedSlackService;
+
+    @Mock
+    private MessageManager messageManager;
+
+    @Before
+    public void setUp() {
+        cut = createCut(new LeaderboardConfig());
+    }
+
+    private TriviaGameServiceImpl createCut(final LeaderboardConfig leaderboardConfig) {
+        return new TriviaGameServiceImpl(
+                scoreService,
+                workflowService,
+                delayedSlackService,
+                messageManager,
+                new LeaderboardServiceImpl(scoreService, leaderboardConfig),
+                leaderboardConfig
+        );
+    }
+
     //region getStatus
     @Test
     public void testGetStatusWithNullGameState() {
@@ -230,6 +262,63 @@ public class TriviaGameServiceImplTest {
     }
     //endregion
 
+    //region markAnswerCorrect
+    @Test
+    public void testMarkAnswerCorrectResolvesQuestionInOneCall() throws Exception {
+        final SlackRequestDoc requestDoc = createRequestDoc();
+
+        given(workflowService.resolveQuestion("channel", "U6789", "U1532")).willReturn(ImmutableMap.of(new SlackUser("U1532", "jsmith"), 5L));
+
+        final SlackResponseDoc responseDoc = cut.markAnswerCorrect(requestDoc, "<@U1532>", "Blue skies");
+
+        assertThat(responseDoc.getResponseType(), is(equalTo(SlackResponseType.EPHEMERAL)));
+        assertThat(responseDoc.getText(), is(equalTo("Score updated.")));
+
+        verify(messageManager).getAnswerMessage(MessageType.CORRECT_ANSWER, "Blue skies", "```Scores:\n\n@jsmith:   5```", "U1532");
+        verify(delayedSlackService).sendResponse(eq("channel"), eq("http://response"), any(SlackResponseDoc.class));
+
+        //Validating, scoring, passing the turn and listing the scores used to be four calls
+        verify(workflowService).resolveQuestion("channel", "U6789", "U1532");
+        verifyNoMoreInteractions(workflowService);
+        verifyZeroInteractions(scoreService);
+    }
+
+    @Test
+    public void testMarkAnswerCorrectWithNoWinner() throws Exception {
+        final SlackRequestDoc requestDoc = createRequestDoc();
+
+        given(workflowService.resolveQuestion("channel", "U6789", null)).willReturn(ImmutableMap.of());
+
+        cut.markAnswerCorrect(requestDoc, "none", "Blue skies");
+
+        verify(messageManager).getAnswerMessage(MessageType.NO_CORRECT_ANSWER, "Blue skies", "```Scores:\n\nNo scores yet...```", "U6789");
+        verifyZeroInteractions(scoreService);
+    }
+
+    @Test
+    public void testMarkAnswerCorrectWithUnknownWinner() throws Exception {
+        final SlackRequestDoc requestDoc = createRequestDoc();
+
+        given(workflowService.resolveQuestion("channel", "U6789", "U1532")).willThrow(new ScoreException());
+
+        final SlackResponseDoc responseDoc = cut.markAnswerCorrect(requestDoc, "<@U1532>", "Blue skies");
+
+        assertThat(responseDoc.getText(), is(equalTo("User <@U1532> does not exist. Please choose a valid user.")));
+
+        verifyZeroInteractions(delayedSlackService);
+    }
+
+    private static SlackRequestDoc createRequestDoc() {
+        final SlackRequestDoc requestDoc = new SlackRequestDoc();
+        requestDoc.setChannelId("channel");
+        requestDoc.setUserId("U6789");
+        requestDoc.setCommand("/command");
+        requestDoc.setResponseUrl("http://response");
+
+        return requestDoc;
+    }
+    //endregion
+
     @Test
     public void testGetScoresFormatsAndSortsCorrectly() {
         final Map<SlackUser, Long> scoresByUser = ImmutableMap.of(
@@ -274,4 +363,74 @@ public class TriviaGameServiceImplTest {
          */
         assertThat(responseDoc.getText(), is("```Scores:\n\nNo scores yet...```"));
     }
+
+    //region leaderboard
+    @Test
+    public void testGetScoresListsTopScoresAndRequesterRank() {
+        final LeaderboardConfig leaderboardConfig = new LeaderboardConfig();
+        leaderboardConfig.setDisplayedScores(2);
+        cut = createCut(leaderboardConfig);
+
+        final SlackRequestDoc requestDoc = createRequestDoc();
+        requestDoc.setUserId("1237");
+
+        given(scoreService.getAllScoresByUser("channel")).willReturn(ImmutableMap.of(
+                new SlackUser("1234", "test4"), 1L,
+                new SlackUser("1235", "longertest2"), 103L,
+                new SlackUser("1236", "test3"), 12L,
+                new SlackUser("1237", "test1"), 1L
+        ));
+
+        final SlackResponseDoc responseDoc = cut.getScores(requestDoc);
+
+        //test1 ties with test4 for third
+        assertThat(responseDoc.getText(), is("```Scores:\n\n@longertest2: 103\n@test3:        12\n...\n#3 @test1:         1```"));
+    }
+
+    @Test
+    public void testCachedLeaderboardIsUpdatedWithoutRereadingScores() throws Exception {
+        final LeaderboardConfig leaderboardConfig = new LeaderboardConfig();
+        leaderboardConfig.setEnabled(true);
+        cut = createCut(leaderboardConfig);
+
+        final SlackRequestDoc requestDoc = createRequestDoc();
+
+        given(scoreService.getAllScoresByUser("channel")).willReturn(ImmutableMap.of(
+                new SlackUser("U1532", "jsmith"), 4L,
+                new SlackUser("U1346", "jdoe"), 5L
+        ));
+        given(workflowService.resolveQuestion("channel", "U6789", "U1532")).willReturn(ImmutableMap.of(
+                new SlackUser("U1532", "jsmith"), 6L,
+                new SlackUser("U1346", "jdoe"), 5L
+        ));
+
+        assertThat(cut.getScores(requestDoc).getText(), is("```Scores:\n\n@jdoe:     5\n@jsmith:   4```"));
+
+        cut.markAnswerCorrect(requestDoc, "<@U1532>", "Blue skies");
+
+        verify(messageManager).getAnswerMessage(MessageType.CORRECT_ANSWER, "Blue skies", "```Scores:\n\n@jsmith:   6\n@jdoe:     5```", "U1532");
+        assertThat(cut.getScores(requestDoc).getText(), is("```Scores:\n\n@jsmith:   6\n@jdoe:     5```"));
+
+        //Only the first scoreboard read the scores
+        verify(scoreService).getAllScoresByUser("channel");
+    }
+
+    @Test
+    public void testResetClearsCachedLeaderboard() {
+        final LeaderboardConfig leaderboardConfig = new LeaderboardConfig();
+        leaderboardConfig.setEnabled(true);
+        cut = createCut(leaderboardConfig);
+
+        final SlackRequestDoc requestDoc = createRequestDoc();
+
+        given(scoreService.getAllScoresByUser("channel")).willReturn(ImmutableMap.of(new SlackUser("U1532", "jsmith"), 4L));
+
+        cut.getScores(requestDoc);
+        final SlackResponseDoc responseDoc = cut.resetScores(requestDoc);
+
+        assertThat(responseDoc.getAttachments().get(0).getText(), is("```Scores:\n\nNo scores yet...```"));
+        verify(scoreService).resetScores("channel");
+        verify(scoreService).getAllScoresByUser("channel");
+    }
+    //endregion
 }
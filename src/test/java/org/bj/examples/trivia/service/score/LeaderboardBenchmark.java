@@ -0,0 +1,90 @@
+package org.bj.examples.trivia.service.score;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.bj.examples.trivia.dto.SlackUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares ordering a large channel's scores for a scoreboard by sorting
+ * all of them, as every scoreboard used to, with reading the top scores
+ * and one user's rank from a leaderboard, and measures giving a point on
+ * the leaderboard. Run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LeaderboardBenchmark {
+    private static final int DISPLAYED_SCORES = 25;
+
+    @Param({"5000"})
+    public int userCount;
+
+    private Map<SlackUser, Long> scoresByUser;
+    private Leaderboard leaderboard;
+    private int nextUser;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42L);
+        scoresByUser = new HashMap<>();
+
+        for (int i = 0; i < userCount; i++) {
+            scoresByUser.put(new SlackUser("U" + i, "user" + i), (long)random.nextInt(200));
+        }
+
+        leaderboard = Leaderboard.of(scoresByUser);
+    }
+
+    @Benchmark
+    public List<Map.Entry<SlackUser, Long>> sortAll() {
+        return scoresByUser.entrySet().stream()
+                .sorted(
+                        Map.Entry.<SlackUser, Long>comparingByValue()
+                                .reversed()
+                                .thenComparing(Map.Entry.<SlackUser, Long>comparingByKey(Comparator.comparing(SlackUser::getUsername)))
+                )
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public Leaderboard.Entry topAndRank() {
+        leaderboard.getTop(DISPLAYED_SCORES);
+
+        return leaderboard.find("U" + (nextUser++ % userCount));
+    }
+
+    @Benchmark
+    public Leaderboard point() {
+        final String userId = "U" + (nextUser++ % userCount);
+        leaderboard.update(new SlackUser(userId, null), leaderboard.find(userId).getScore() + 1);
+
+        return leaderboard;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LeaderboardBenchmark.class.getSimpleName()).build()).run();
+    }
+}
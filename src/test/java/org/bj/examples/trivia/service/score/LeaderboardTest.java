@@ -0,0 +1,108 @@
+package org.bj.examples.trivia.service.score;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.bj.examples.trivia.dto.SlackUser;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class LeaderboardTest {
+    @Test
+    public void testTopIsOrderedByScoreThenUsername() {
+        final Leaderboard cut = Leaderboard.of(ImmutableMap.of(
+                new SlackUser("U1", "carol"), 3L,
+                new SlackUser("U2", "alice"), 3L,
+                new SlackUser("U3", "bob"), 7L,
+                new SlackUser("U4", "dave"), 1L
+        ));
+
+        final List<Leaderboard.Entry> top = cut.getTop(0);
+
+        assertThat(usernames(top), is(equalTo("bob,alice,carol,dave")));
+        assertThat(ranks(top), is(equalTo("1,2,2,4")));
+        assertThat(usernames(cut.getTop(2)), is(equalTo("bob,alice")));
+        assertThat(cut.getTop(10).size(), is(equalTo(4)));
+    }
+
+    @Test
+    public void testUpdateMovesUserAndKeepsUsername() {
+        final Leaderboard cut = Leaderboard.of(ImmutableMap.of(
+                new SlackUser("U1", "carol"), 3L,
+                new SlackUser("U2", "alice"), 5L
+        ));
+
+        cut.update(new SlackUser("U1", null), 6L);
+
+        final Leaderboard.Entry entry = cut.find("U1");
+        assertThat(entry.getUser().getUsername(), is(equalTo("carol")));
+        assertThat(entry.getScore(), is(equalTo(6L)));
+        assertThat(entry.getRank(), is(equalTo(1)));
+        assertThat(cut.find("U2").getRank(), is(equalTo(2)));
+        assertThat(cut.size(), is(equalTo(2)));
+        assertThat(usernames(cut.getTop(0)), is(equalTo("carol,alice")));
+    }
+
+    @Test
+    public void testAddIfAbsentKeepsExistingScore() {
+        final Leaderboard cut = new Leaderboard();
+
+        assertThat(cut.addIfAbsent(new SlackUser("U1", "carol"), 0L), is(true));
+        cut.update(new SlackUser("U1", "carol"), 2L);
+
+        assertThat(cut.addIfAbsent(new SlackUser("U1", "carol"), 0L), is(false));
+        assertThat(cut.find("U1").getScore(), is(equalTo(2L)));
+        assertThat(cut.find("U2"), is(nullValue()));
+        assertThat(cut.contains("U2"), is(false));
+    }
+
+    @Test
+    public void testMatchesFullSortAfterRandomUpdates() {
+        final Random random = new Random(42L);
+        final Map<String, Long> scoresByUserId = new HashMap<>();
+        final Leaderboard cut = new Leaderboard();
+
+        for (int i = 0; i < 20000; i++) {
+            final String userId = "U" + random.nextInt(2000);
+            final long score = random.nextInt(50);
+
+            scoresByUserId.put(userId, score);
+            cut.update(new SlackUser(userId, "user" + userId), score);
+        }
+
+        final List<Map.Entry<String, Long>> expected = new ArrayList<>(scoresByUserId.entrySet());
+        expected.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(entry -> "user" + entry.getKey()));
+
+        final List<Leaderboard.Entry> top = cut.getTop(0);
+        assertThat(top.size(), is(equalTo(expected.size())));
+
+        for (int i = 0; i < expected.size(); i++) {
+            final String userId = expected.get(i).getKey();
+            final long score = expected.get(i).getValue();
+            final int expectedRank = 1 + (int)scoresByUserId.values().stream().filter(value -> value > score).count();
+
+            assertThat(top.get(i).getUser().getUserId(), is(equalTo(userId)));
+            assertThat(top.get(i).getRank(), is(equalTo(expectedRank)));
+            assertThat(cut.find(userId).getRank(), is(equalTo(expectedRank)));
+        }
+    }
+
+    private static String usernames(final List<Leaderboard.Entry> entries) {
+        return entries.stream().map(entry -> entry.getUser().getUsername()).collect(Collectors.joining(","));
+    }
+
+    private static String ranks(final List<Leaderboard.Entry> entries) {
+        return entries.stream().map(entry -> String.valueOf(entry.getRank())).collect(Collectors.joining(","));
+    }
+}
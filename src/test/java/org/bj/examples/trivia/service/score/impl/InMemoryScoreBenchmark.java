@@ -0,0 +1,81 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.exception.ScoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures score increments per second from eight threads against the
+ * in-memory score service, every thread scoring its own player in one
+ * shared channel or in a channel of its own, and the cost of reading the
+ * leaderboard. Run the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class InMemoryScoreBenchmark {
+    private static final int PLAYER_COUNT = 50;
+
+    @Param({"shared", "perThread"})
+    public String channels;
+
+    private final InMemoryScoreServiceImpl service = new InMemoryScoreServiceImpl();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Player {
+        private String channelId;
+        private String userId;
+
+        @Setup
+        public void setUp(final InMemoryScoreBenchmark benchmark) {
+            final int threadIndex = benchmark.threadCount.getAndIncrement();
+
+            channelId = "shared".equals(benchmark.channels) ? "C0" : "C" + threadIndex;
+            userId = "U" + threadIndex;
+
+            //A full leaderboard to read back
+            for (int i = 0; i < PLAYER_COUNT; i++) {
+                benchmark.service.createUserIfNotExists(channelId, new SlackUser("P" + i, "player" + i), "JOIN");
+            }
+
+            benchmark.service.createUserIfNotExists(channelId, new SlackUser(userId, "player"), "JOIN");
+        }
+    }
+
+    @Benchmark
+    public void incrementScore(final Player player) throws ScoreException {
+        service.incrementScore(player.channelId, player.userId);
+    }
+
+    @Benchmark
+    public Map<SlackUser, Long> getAllScoresByUser(final Player player) {
+        return service.getAllScoresByUser(player.channelId);
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(InMemoryScoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,139 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.exception.ScoreException;
+import org.junit.Test;
+
+public class InMemoryScoreServiceImplTest {
+    private final InMemoryScoreServiceImpl cut = new InMemoryScoreServiceImpl();
+
+    @Test
+    public void testScoresAreKeptPerChannel() throws Exception {
+        cut.createUserIfNotExists("C1", new SlackUser("U1", "bob"), "JOIN");
+        cut.createUserIfNotExists("C2", new SlackUser("U1", "bob"), "JOIN");
+
+        cut.incrementScore("C1", "U1");
+        cut.incrementScore("C1", "U1");
+        cut.incrementScore("C2", "U1");
+
+        assertThat(cut.getAllScoresByUser("C1").get(new SlackUser("U1", null)), is(equalTo(2L)));
+        assertThat(cut.getAllScoresByUser("C2").get(new SlackUser("U1", null)), is(equalTo(1L)));
+        assertThat(cut.doesUserExist("C3", "U1", "PASS"), is(false));
+        assertThat(cut.getAllScoresByUser("C3").isEmpty(), is(true));
+    }
+
+    @Test
+    public void testCreateUserIfNotExistsKeepsExistingScore() throws Exception {
+        assertThat(cut.createUserIfNotExists("C1", new SlackUser("U1", "bob"), "JOIN"), is(true));
+        cut.incrementScore("C1", "U1");
+
+        assertThat(cut.createUserIfNotExists("C1", new SlackUser("U1", "robert"), "JOIN"), is(false));
+
+        final Map<SlackUser, Long> scoresByUser = cut.getAllScoresByUser("C1");
+        assertThat(scoresByUser.get(new SlackUser("U1", null)), is(equalTo(1L)));
+        assertThat(scoresByUser.keySet().iterator().next().getUsername(), is(equalTo("bob")));
+    }
+
+    @Test
+    public void testIncrementScoreForUnknownUser() {
+        cut.createUserIfNotExists("C1", new SlackUser("U1", "bob"), "JOIN");
+
+        Exception exception = null;
+
+        try {
+            cut.incrementScore("C2", "U1");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(ScoreException.class)));
+    }
+
+    @Test
+    public void testResetScoresOnlyClearsChannel() throws Exception {
+        cut.createUserIfNotExists("C1", new SlackUser("U1", "bob"), "JOIN");
+        cut.createUserIfNotExists("C2", new SlackUser("U1", "bob"), "JOIN");
+
+        cut.resetScores("C1");
+
+        assertThat(cut.doesUserExist("C1", "U1", "PASS"), is(false));
+        assertThat(cut.doesUserExist("C2", "U1", "PASS"), is(true));
+    }
+
+    @Test
+    public void testUnchangedScoresShareSnapshot() throws Exception {
+        cut.createUserIfNotExists("C1", new SlackUser("U1", "bob"), "JOIN");
+
+        final Map<SlackUser, Long> scoresByUser = cut.getAllScoresByUser("C1");
+        assertThat(cut.getAllScoresByUser("C1"), is(sameInstance(scoresByUser)));
+
+        cut.incrementScore("C1", "U1");
+
+        assertThat(scoresByUser.get(new SlackUser("U1", null)), is(equalTo(0L)));
+        assertThat(cut.getAllScoresByUser("C1").get(new SlackUser("U1", null)), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testConcurrentIncrementsAreAllCounted() throws Exception {
+        final int threadCount = 8;
+        final int incrementCount = 10000;
+
+        for (int i = 0; i < 4; i++) {
+            cut.createUserIfNotExists("C1", new SlackUser("U" + i, "player" + i), "JOIN");
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threadCount; i++) {
+                final String userId = "U" + (i % 4);
+
+                futures.add(executor.submit(() -> {
+                    start.await();
+
+                    for (int j = 0; j < incrementCount; j++) {
+                        cut.incrementScore("C1", userId);
+
+                        //Snapshots are taken while scores change
+                        if (j % 1000 == 0) {
+                            cut.getAllScoresByUser("C1");
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Map<SlackUser, Long> scoresByUser = cut.getAllScoresByUser("C1");
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(scoresByUser.get(new SlackUser("U" + i, null)), is(equalTo(2L * incrementCount)));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.service.score.Leaderboard;
+import org.bj.examples.trivia.service.score.ScoreService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class LeaderboardServiceImplTest {
+    private static final String CHANNEL_ID = "C12345";
+
+    @Mock
+    private ScoreService scoreService;
+
+    private LeaderboardServiceImpl cut;
+
+    @Before
+    public void setUp() {
+        final LeaderboardConfig config = new LeaderboardConfig();
+        config.setEnabled(true);
+
+        cut = new LeaderboardServiceImpl(scoreService, config);
+    }
+
+    @Test
+    public void testQuestionResolvedAppliesEveryChangedScore() {
+        final Map<SlackUser, Long> scoresByUser = new HashMap<>();
+        scoresByUser.put(new SlackUser("U1", "alice"), 1L);
+        scoresByUser.put(new SlackUser("U2", "bob"), 0L);
+        given(scoreService.getAllScoresByUser(CHANNEL_ID)).willReturn(new HashMap<>(scoresByUser));
+
+        final Leaderboard cachedLeaderboard = cut.getLeaderboard(CHANNEL_ID);
+
+        //U1 wins here while U2 scored and U3 joined on another instance
+        scoresByUser.put(new SlackUser("U1", "alice"), 2L);
+        scoresByUser.put(new SlackUser("U2", "bob"), 3L);
+        scoresByUser.put(new SlackUser("U3", "carol"), 0L);
+
+        final Leaderboard leaderboard = cut.onQuestionResolved(CHANNEL_ID, scoresByUser);
+
+        assertThat(leaderboard, is(sameInstance(cachedLeaderboard)));
+        assertThat(leaderboard.find("U1").getScore(), is(equalTo(2L)));
+        assertThat(leaderboard.find("U2").getScore(), is(equalTo(3L)));
+        assertThat(leaderboard.find("U2").getRank(), is(equalTo(1)));
+        assertThat(leaderboard.find("U3").getScore(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testQuestionResolvedDropsUsersResetElsewhere() {
+        final Map<SlackUser, Long> scoresByUser = new HashMap<>();
+        scoresByUser.put(new SlackUser("U1", "alice"), 4L);
+        scoresByUser.put(new SlackUser("U2", "bob"), 5L);
+        given(scoreService.getAllScoresByUser(CHANNEL_ID)).willReturn(scoresByUser);
+
+        cut.getLeaderboard(CHANNEL_ID);
+
+        final Map<SlackUser, Long> scoresAfterReset = new HashMap<>();
+        scoresAfterReset.put(new SlackUser("U1", "alice"), 1L);
+
+        final Leaderboard leaderboard = cut.onQuestionResolved(CHANNEL_ID, scoresAfterReset);
+
+        assertThat(leaderboard.size(), is(equalTo(1)));
+        assertThat(leaderboard.find("U2"), is(nullValue()));
+        assertThat(cut.getLeaderboard(CHANNEL_ID), is(sameInstance(leaderboard)));
+    }
+}
@@ -0,0 +1,279 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.data.score.ScoreDelta;
+import org.bj.examples.trivia.data.score.ScoreInfo;
+import org.bj.examples.trivia.data.score.ScoreInfoRepo;
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.exception.ScoreException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class MongoScoreServiceImplTest {
+    @Mock
+    private ScoreInfoRepo scoreInfoRepo;
+
+    @Spy
+    private ScoreWriteBehindConfig writeBehindConfig = new ScoreWriteBehindConfig();
+
+    @Spy
+    private ScoreMembershipConfig membershipConfig = new ScoreMembershipConfig();
+
+    @InjectMocks
+    private MongoScoreServiceImpl cut;
+
+    //region incrementScore
+    @Test
+    public void testIncrementScore() throws Exception {
+        given(scoreInfoRepo.incrementScore(anyString(), anyString())).willReturn(new ScoreInfo());
+
+        cut.incrementScore("C12345", "U6789");
+
+        verify(scoreInfoRepo).incrementScore("C12345", "U6789");
+        verify(scoreInfoRepo, never()).findByChannelIdAndUserId(anyString(), anyString());
+        verify(scoreInfoRepo, never()).save(any(ScoreInfo.class));
+    }
+
+    @Test
+    public void testIncrementScoreForUnknownUser() {
+        Exception exception = null;
+
+        try {
+            cut.incrementScore("C12345", "U6789");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(ScoreException.class)));
+        verify(scoreInfoRepo, never()).save(any(ScoreInfo.class));
+    }
+    //endregion
+
+    //region write-behind
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriteBehindBuffersPointsAndMergesThemIntoReads() throws Exception {
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setChannelId("C12345");
+        scoreInfo.setUserId("U6789");
+        scoreInfo.setUsername("jsmith");
+        scoreInfo.setScore(3L);
+
+        given(scoreInfoRepo.findByChannelIdAndUserId(anyString(), anyString())).willReturn(scoreInfo);
+        given(scoreInfoRepo.findByChannelId(anyString())).willReturn(Collections.singletonList(scoreInfo));
+
+        final MongoScoreServiceImpl writeBehindCut = createWriteBehind();
+
+        try {
+            writeBehindCut.incrementScore("C12345", "U6789");
+            writeBehindCut.incrementScore("C12345", "U6789");
+
+            assertThat(writeBehindCut.getAllScoresByUser("C12345").get(new SlackUser("U6789", "jsmith")), is(equalTo(5L)));
+            assertThat(writeBehindCut.getPendingPoints(), is(equalTo(2L)));
+
+            //Looked up before each point without membership
+            verify(scoreInfoRepo, times(2)).findByChannelIdAndUserId("C12345", "U6789");
+            verify(scoreInfoRepo, never()).incrementScore(anyString(), anyString());
+        } finally {
+            writeBehindCut.shutdown();
+        }
+
+        //Written on shutdown
+        final ArgumentCaptor<List<ScoreDelta>> deltasCaptor = ArgumentCaptor.forClass(List.class);
+        verify(scoreInfoRepo).addPoints(deltasCaptor.capture());
+        assertThat(deltasCaptor.getValue().size(), is(equalTo(1)));
+        assertThat(deltasCaptor.getValue().get(0).getUserId(), is(equalTo("U6789")));
+        assertThat(deltasCaptor.getValue().get(0).getPoints(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testWriteBehindRefusesUnknownUser() {
+        final MongoScoreServiceImpl writeBehindCut = createWriteBehind();
+
+        Exception exception = null;
+
+        try {
+            writeBehindCut.incrementScore("C12345", "U6789");
+        } catch (Exception e) {
+            exception = e;
+        } finally {
+            writeBehindCut.shutdown();
+        }
+
+        assertThat(exception, is(instanceOf(ScoreException.class)));
+        assertThat(writeBehindCut.getPendingPoints(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testResetScoresDiscardsBufferedPoints() throws Exception {
+        given(scoreInfoRepo.findByChannelIdAndUserId(anyString(), anyString())).willReturn(new ScoreInfo());
+        given(scoreInfoRepo.findByChannelId(anyString())).willReturn(Collections.emptyList());
+
+        final MongoScoreServiceImpl writeBehindCut = createWriteBehind();
+
+        try {
+            writeBehindCut.incrementScore("C12345", "U6789");
+            writeBehindCut.resetScores("C12345");
+
+            assertThat(writeBehindCut.getPendingPoints(), is(equalTo(0L)));
+            assertThat(writeBehindCut.getAllScoresByUser("C12345").isEmpty(), is(true));
+        } finally {
+            writeBehindCut.shutdown();
+        }
+
+        verify(scoreInfoRepo).deleteByChannelId("C12345");
+        verify(scoreInfoRepo, never()).addPoints(any());
+    }
+
+    @Test
+    public void testFullBufferWritesPointsDirectly() throws Exception {
+        given(scoreInfoRepo.findByChannelIdAndUserId(anyString(), anyString())).willReturn(new ScoreInfo());
+        given(scoreInfoRepo.incrementScore(anyString(), anyString())).willReturn(new ScoreInfo());
+
+        final ScoreWriteBehindConfig config = new ScoreWriteBehindConfig();
+        config.setEnabled(true);
+        config.setFlushIntervalMillis(TimeUnit.HOURS.toMillis(1));
+        config.setMaxBufferedPoints(1);
+
+        final MongoScoreServiceImpl writeBehindCut = new MongoScoreServiceImpl(scoreInfoRepo, config, membershipConfig);
+
+        try {
+            writeBehindCut.incrementScore("C12345", "U6789");
+            writeBehindCut.incrementScore("C12345", "U6789");
+
+            assertThat(writeBehindCut.getPendingPoints(), is(equalTo(1L)));
+            assertThat(writeBehindCut.getRefusedPointCount(), is(equalTo(1L)));
+            verify(scoreInfoRepo).incrementScore("C12345", "U6789");
+        } finally {
+            writeBehindCut.shutdown();
+        }
+    }
+
+    private MongoScoreServiceImpl createWriteBehind() {
+        final ScoreWriteBehindConfig config = new ScoreWriteBehindConfig();
+        config.setEnabled(true);
+        config.setFlushIntervalMillis(TimeUnit.HOURS.toMillis(1));
+
+        return new MongoScoreServiceImpl(scoreInfoRepo, config, membershipConfig);
+    }
+    //endregion
+
+    //region membership
+    @Test
+    public void testKnownMemberSkipsStore() {
+        given(scoreInfoRepo.insertIfAbsent(any(ScoreInfo.class))).willReturn(true);
+
+        final MongoScoreServiceImpl membershipCut = createMembership();
+
+        assertThat(membershipCut.createUserIfNotExists("C12345", new SlackUser("U6789", "jsmith"), "JOIN"), is(true));
+        assertThat(membershipCut.createUserIfNotExists("C12345", new SlackUser("U6789", "jsmith"), "ANSWER"), is(false));
+        assertThat(membershipCut.doesUserExist("C12345", "U6789", "PASS"), is(true));
+
+        verify(scoreInfoRepo, times(1)).insertIfAbsent(any(ScoreInfo.class));
+        verify(scoreInfoRepo, never()).findByChannelIdAndUserId(anyString(), anyString());
+
+        //The join skipped the read, the answer and the pass skipped everything
+        assertThat(membershipCut.getAvoidedCallCounts().get("JOIN"), is(equalTo(1L)));
+        assertThat(membershipCut.getAvoidedCallCounts().get("ANSWER"), is(equalTo(1L)));
+        assertThat(membershipCut.getAvoidedCallCounts().get("PASS"), is(equalTo(1L)));
+        assertThat(membershipCut.getHotChannelCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testUnseenUserIsReadBeforeBeingReported() {
+        final MongoScoreServiceImpl membershipCut = createMembership();
+
+        assertThat(membershipCut.doesUserExist("C12345", "U6789", "PASS"), is(false));
+
+        verify(scoreInfoRepo).findByChannelIdAndUserId("C12345", "U6789");
+        assertThat(membershipCut.getAvoidedCallCounts().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testResetScoresForgetsMembers() {
+        given(scoreInfoRepo.insertIfAbsent(any(ScoreInfo.class))).willReturn(true);
+
+        final MongoScoreServiceImpl membershipCut = createMembership();
+
+        membershipCut.createUserIfNotExists("C12345", new SlackUser("U6789", "jsmith"), "JOIN");
+        membershipCut.resetScores("C12345");
+
+        //Seen before, so it is read rather than trusted
+        assertThat(membershipCut.createUserIfNotExists("C12345", new SlackUser("U6789", "jsmith"), "JOIN"), is(true));
+
+        verify(scoreInfoRepo).findByChannelIdAndUserId("C12345", "U6789");
+        verify(scoreInfoRepo, times(2)).insertIfAbsent(any(ScoreInfo.class));
+    }
+
+    @Test
+    public void testMemberResetElsewhereIsRestoredOnPoint() throws Exception {
+        given(scoreInfoRepo.insertIfAbsent(any(ScoreInfo.class))).willReturn(true);
+        given(scoreInfoRepo.incrementScore(anyString(), anyString())).willReturn(null).willReturn(new ScoreInfo());
+
+        final MongoScoreServiceImpl membershipCut = createMembership();
+
+        membershipCut.createUserIfNotExists("C12345", new SlackUser("U6789", "jsmith"), "JOIN");
+        membershipCut.incrementScore("C12345", "U6789");
+
+        final ArgumentCaptor<ScoreInfo> scoreInfoCaptor = ArgumentCaptor.forClass(ScoreInfo.class);
+        verify(scoreInfoRepo, times(2)).insertIfAbsent(scoreInfoCaptor.capture());
+        assertThat(scoreInfoCaptor.getValue().getUsername(), is(equalTo("jsmith")));
+        verify(scoreInfoRepo, times(2)).incrementScore("C12345", "U6789");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBufferedPointOfMemberResetElsewhereIsRestored() throws Exception {
+        given(scoreInfoRepo.insertIfAbsent(any(ScoreInfo.class))).willReturn(true);
+        given(scoreInfoRepo.addPoints(any())).willReturn(0).willReturn(1);
+
+        final ScoreWriteBehindConfig writeBehindConfig = new ScoreWriteBehindConfig();
+        writeBehindConfig.setEnabled(true);
+        writeBehindConfig.setFlushIntervalMillis(TimeUnit.HOURS.toMillis(1));
+
+        final ScoreMembershipConfig config = new ScoreMembershipConfig();
+        config.setEnabled(true);
+
+        final MongoScoreServiceImpl membershipCut = new MongoScoreServiceImpl(scoreInfoRepo, writeBehindConfig, config);
+
+        try {
+            membershipCut.createUserIfNotExists("C12345", new SlackUser("U6789", "jsmith"), "JOIN");
+            membershipCut.incrementScore("C12345", "U6789");
+        } finally {
+            membershipCut.shutdown();
+        }
+
+        //Found missing by the flush, then recreated and written again
+        verify(scoreInfoRepo, times(2)).insertIfAbsent(any(ScoreInfo.class));
+        verify(scoreInfoRepo, times(2)).addPoints(any(List.class));
+        assertThat(membershipCut.getPendingPoints(), is(equalTo(0L)));
+    }
+
+    private MongoScoreServiceImpl createMembership() {
+        final ScoreMembershipConfig config = new ScoreMembershipConfig();
+        config.setEnabled(true);
+
+        return new MongoScoreServiceImpl(scoreInfoRepo, writeBehindConfig, config);
+    }
+    //endregion
+}
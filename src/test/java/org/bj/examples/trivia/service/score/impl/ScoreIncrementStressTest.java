@@ -0,0 +1,104 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.data.score.ScoreInfoDao;
+import org.bj.examples.trivia.data.score.ScoreInfoRepo;
+import org.bj.examples.trivia.data.score.ScoreInfoRepoCustomImpl;
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.service.score.ScoreService;
+import org.bj.examples.trivia.util.OptimisticRetryConfig;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+
+/**
+ * Points a channel's score from many threads at once against a real store
+ * and checks that none were lost. Each test only runs when its store is
+ * reachable: the Datastore one with DATASTORE_EMULATOR_HOST set and the
+ * Mongo one with MONGODB_URI set.
+ */
+public class ScoreIncrementStressTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int INCREMENTS_PER_THREAD = 100;
+
+    @Test
+    public void testDatastoreIncrementsAreNotLost() throws Exception {
+        assumeTrue(System.getenv("DATASTORE_EMULATOR_HOST") != null);
+
+        //Every thread hits the same entity, so transactions abort often
+        final OptimisticRetryConfig retryConfig = new OptimisticRetryConfig();
+        retryConfig.setMaxAttempts(1000);
+        retryConfig.setBaseBackoffMillis(1L);
+
+        assertNoIncrementsLost(new ScoreServiceImpl(new ScoreInfoDao(), retryConfig, new ScoreWriteBehindConfig(), new ScoreMembershipConfig()));
+    }
+
+    @Test
+    public void testMongoIncrementsAreNotLost() throws Exception {
+        final String uri = System.getenv("MONGODB_URI");
+        assumeTrue(uri != null);
+
+        final MongoClient mongoClient = new MongoClient(new MongoClientURI(uri));
+
+        try {
+            final MongoTemplate mongoTemplate = new MongoTemplate(mongoClient, "trivia-stress");
+            final ScoreInfoRepo scoreInfoRepo = new MongoRepositoryFactory(mongoTemplate)
+                    .getRepository(ScoreInfoRepo.class, new ScoreInfoRepoCustomImpl(mongoTemplate));
+
+            assertNoIncrementsLost(new MongoScoreServiceImpl(scoreInfoRepo, new ScoreWriteBehindConfig(), new ScoreMembershipConfig()));
+        } finally {
+            mongoClient.close();
+        }
+    }
+
+    private static void assertNoIncrementsLost(final ScoreService scoreService) throws Exception {
+        final String channelId = "C" + UUID.randomUUID();
+        final SlackUser user = new SlackUser("U1", "bob");
+        scoreService.createUserIfNotExists(channelId, user, "JOIN");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < THREAD_COUNT; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+
+                    for (int j = 0; j < INCREMENTS_PER_THREAD; j++) {
+                        scoreService.incrementScore(channelId, user.getUserId());
+                    }
+
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (final Future<?> future : futures) {
+                future.get(5, TimeUnit.MINUTES);
+            }
+
+            assertThat(scoreService.getAllScoresByUser(channelId).get(user), is(equalTo((long)THREAD_COUNT * INCREMENTS_PER_THREAD)));
+        } finally {
+            executor.shutdownNow();
+            scoreService.resetScores(channelId);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class ScoreMembershipTest {
+    @Test
+    public void testExactMembersAreForgottenButStaySeen() {
+        final ScoreMembership cut = new ScoreMembership(new ScoreMembershipConfig());
+
+        assertThat(cut.isMember("C1", "U1"), is(false));
+        assertThat(cut.mightBeMember("C1", "U1"), is(false));
+
+        cut.add("C1", "U1", "bob");
+
+        assertThat(cut.isMember("C1", "U1"), is(true));
+        assertThat(cut.isMember("C2", "U1"), is(false));
+        assertThat(cut.getUsername("C1", "U1"), is(equalTo("bob")));
+
+        cut.forget("C1");
+
+        assertThat(cut.isMember("C1", "U1"), is(false));
+        assertThat(cut.mightBeMember("C1", "U1"), is(true));
+    }
+
+    @Test
+    public void testEvictedChannelsStaySeen() {
+        final ScoreMembershipConfig config = new ScoreMembershipConfig();
+        config.setMaximumHotChannels(10);
+        config.setExpectedMembers(10000L);
+
+        final ScoreMembership cut = new ScoreMembership(config);
+
+        for (int i = 0; i < 1000; i++) {
+            cut.add("C" + i, "U" + i, "player" + i);
+        }
+
+        int falsePositiveCount = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(cut.mightBeMember("C" + i, "U" + i), is(true));
+
+            if (cut.mightBeMember("C" + i, "X" + i)) {
+                falsePositiveCount++;
+            }
+        }
+
+        assertThat(cut.getHotChannelCount() <= 10L, is(true));
+        assertThat(falsePositiveCount, is(lessThan(50)));
+    }
+}
@@ -0,0 +1,168 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bj.examples.trivia.data.score.ScoreInfo;
+import org.bj.examples.trivia.data.score.ScoreInfoDao;
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.service.score.ScoreService;
+import org.bj.examples.trivia.util.OptimisticRetryConfig;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class ScoreServiceImplTest {
+    @Mock
+    private ScoreInfoDao scoreInfoDao;
+
+    private final List<String> closedFor = new ArrayList<>();
+
+    //region scoreQuestion
+    @Test
+    public void testScoreQuestionWithWinner() {
+        final String channelId = "C12345";
+        final String winnerUserId = "U1532";
+
+        given(scoreInfoDao.findAllByChannelId(anyString())).willReturn(Arrays.asList(
+                createScore(channelId, winnerUserId, "jsmith", 4L),
+                createScore(channelId, "U1346", "jdoe", 2L)
+        ));
+
+        final Map<SlackUser, Long> scoresByUser = create(false, false).scoreQuestion(channelId, winnerUserId, closer(5L));
+
+        assertThat(scoresByUser.size(), is(equalTo(2)));
+        assertThat(scoresByUser.get(new SlackUser(winnerUserId, "jsmith")), is(equalTo(5L)));
+        assertThat(scoresByUser.get(new SlackUser("U1346", "jdoe")), is(equalTo(2L)));
+
+        //The closer saved the point, and the one query found the winner's score
+        assertThat(closedFor, is(equalTo(Collections.singletonList(winnerUserId))));
+        verify(scoreInfoDao, times(1)).findAllByChannelId(channelId);
+        verify(scoreInfoDao, never()).findByChannelIdAndUserId(anyString(), anyString());
+    }
+
+    @Test
+    public void testScoreQuestionWithoutWinner() {
+        final String channelId = "C12345";
+
+        given(scoreInfoDao.findAllByChannelId(anyString())).willReturn(Arrays.asList(createScore(channelId, "U1346", "jdoe", 2L)));
+
+        final Map<SlackUser, Long> scoresByUser = create(false, false).scoreQuestion(channelId, null, closer(null));
+
+        assertThat(scoresByUser.get(new SlackUser("U1346", "jdoe")), is(equalTo(2L)));
+        assertThat(closedFor, is(equalTo(Collections.singletonList((String) null))));
+    }
+
+    @Test
+    public void testScoreQuestionWithUnknownWinner() {
+        final String channelId = "C12345";
+
+        given(scoreInfoDao.findAllByChannelId(anyString())).willReturn(Arrays.asList(createScore(channelId, "U1346", "jdoe", 2L)));
+
+        assertThat(create(false, false).scoreQuestion(channelId, "U1532", closer(5L)), is(nullValue()));
+        assertThat(closedFor.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testScoreQuestionRestoresWinnerResetElsewhere() {
+        final String channelId = "C12345";
+        final String winnerUserId = "U1532";
+
+        final ScoreServiceImpl cut = create(false, true);
+        cut.createUserIfNotExists(channelId, new SlackUser(winnerUserId, "jsmith"), "JOIN");
+
+        given(scoreInfoDao.findAllByChannelId(anyString()))
+                .willReturn(Collections.emptyList())
+                .willReturn(Arrays.asList(createScore(channelId, winnerUserId, "jsmith", 0L)));
+
+        final Map<SlackUser, Long> scoresByUser = cut.scoreQuestion(channelId, winnerUserId, closer(1L));
+
+        assertThat(scoresByUser.get(new SlackUser(winnerUserId, "jsmith")), is(equalTo(1L)));
+        assertThat(closedFor, is(equalTo(Collections.singletonList(winnerUserId))));
+        verify(scoreInfoDao, times(2)).putIfAbsent(any(ScoreInfo.class));
+    }
+
+    @Test
+    public void testScoreQuestionWithScoreWriteBehind() {
+        final String channelId = "C12345";
+        final String winnerUserId = "U1532";
+
+        final ScoreInfo winnerScore = createScore(channelId, winnerUserId, "jsmith", 4L);
+
+        given(scoreInfoDao.findByChannelIdAndUserId(anyString(), anyString())).willReturn(winnerScore);
+        given(scoreInfoDao.findAllByChannelId(anyString())).willReturn(Arrays.asList(winnerScore));
+
+        final ScoreServiceImpl cut = create(true, false);
+
+        try {
+            final Map<SlackUser, Long> scoresByUser = cut.scoreQuestion(channelId, winnerUserId, closer(null));
+
+            //The point is buffered once the question is closed, and read back with the stored score
+            assertThat(closedFor, is(equalTo(Collections.singletonList((String) null))));
+            assertThat(cut.getPendingPoints(), is(equalTo(1L)));
+            assertThat(scoresByUser.get(new SlackUser(winnerUserId, "jsmith")), is(equalTo(5L)));
+        } finally {
+            cut.shutdown();
+        }
+    }
+
+    @Test
+    public void testScoreQuestionWithScoreWriteBehindAndNoWinnerScore() {
+        final ScoreServiceImpl cut = create(true, false);
+
+        try {
+            assertThat(cut.scoreQuestion("C12345", "U1532", closer(5L)), is(nullValue()));
+            assertThat(closedFor.isEmpty(), is(true));
+            assertThat(cut.getPendingPoints(), is(equalTo(0L)));
+        } finally {
+            cut.shutdown();
+        }
+    }
+    //endregion
+
+    private ScoreServiceImpl create(final boolean writeBehind, final boolean membership) {
+        final ScoreWriteBehindConfig writeBehindConfig = new ScoreWriteBehindConfig();
+        writeBehindConfig.setEnabled(writeBehind);
+        writeBehindConfig.setFlushIntervalMillis(60_000L);
+
+        final ScoreMembershipConfig membershipConfig = new ScoreMembershipConfig();
+        membershipConfig.setEnabled(membership);
+
+        return new ScoreServiceImpl(scoreInfoDao, new OptimisticRetryConfig(), writeBehindConfig, membershipConfig);
+    }
+
+    private ScoreService.QuestionCloser closer(final Long savedScore) {
+        return pointUserId -> {
+            closedFor.add(pointUserId);
+            return savedScore;
+        };
+    }
+
+    private static ScoreInfo createScore(final String channelId, final String userId, final String username, final long score) {
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setId(new ObjectId());
+        scoreInfo.setChannelId(channelId);
+        scoreInfo.setUserId(userId);
+        scoreInfo.setUsername(username);
+        scoreInfo.setScore(score);
+
+        return scoreInfo;
+    }
+}
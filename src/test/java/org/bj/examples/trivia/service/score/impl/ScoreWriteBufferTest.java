@@ -0,0 +1,224 @@
+package org.bj.examples.trivia.service.score.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.data.score.ScoreDelta;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScoreWriteBufferTest {
+    private final List<List<ScoreDelta>> writtenBatches = new CopyOnWriteArrayList<>();
+
+    private ScoreWriteBehindConfig config;
+    private ScoreWriteBuffer cut;
+
+    @Before
+    public void setUp() {
+        config = new ScoreWriteBehindConfig();
+        config.setEnabled(true);
+        //Only flushed by the tests
+        config.setFlushIntervalMillis(TimeUnit.HOURS.toMillis(1));
+        config.setMaxPendingPoints(Integer.MAX_VALUE);
+        config.setBatchSize(2);
+    }
+
+    @After
+    public void tearDown() {
+        if (cut != null) {
+            cut.close();
+        }
+    }
+
+    @Test
+    public void testPointsAreMergedPerUserAndWrittenInBatches() {
+        cut = new ScoreWriteBuffer(config, this::record);
+
+        cut.add("C1", "U1");
+        cut.add("C1", "U1");
+        cut.add("C1", "U2");
+        cut.add("C2", "U1");
+
+        assertThat(cut.getPoints("C1").get("U1"), is(equalTo(2L)));
+        assertThat(cut.getPendingPoints(), is(equalTo(4L)));
+
+        assertThat(cut.flush(), is(equalTo(4L)));
+
+        assertThat(writtenBatches.size(), is(equalTo(2)));
+        assertThat(writtenBatches.stream().mapToLong(batch -> batch.stream().mapToLong(ScoreDelta::getPoints).sum()).sum(), is(equalTo(4L)));
+        assertThat(cut.getPendingPoints(), is(equalTo(0L)));
+        assertThat(cut.getPoints("C1").isEmpty(), is(true));
+        assertThat(cut.getFlushCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testFailedBatchStaysBufferedForNextFlush() {
+        final boolean[] failing = {true};
+
+        cut = new ScoreWriteBuffer(config, deltas -> {
+            if (failing[0]) {
+                throw new IllegalStateException("unavailable");
+            }
+
+            return record(deltas);
+        });
+
+        cut.add("C1", "U1");
+
+        assertThat(cut.flush(), is(equalTo(0L)));
+        assertThat(cut.getPendingPoints(), is(equalTo(1L)));
+        assertThat(cut.getFailedFlushCount(), is(equalTo(1L)));
+
+        failing[0] = false;
+
+        assertThat(cut.flush(), is(equalTo(1L)));
+        assertThat(cut.getPendingPoints(), is(equalTo(0L)));
+        assertThat(writtenBatches.get(0).get(0).getPoints(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testFullBufferRefusesPoints() {
+        config.setMaxBufferedPoints(2);
+
+        cut = new ScoreWriteBuffer(config, deltas -> {
+            throw new IllegalStateException("unavailable");
+        });
+
+        assertThat(cut.add("C1", "U1"), is(true));
+        assertThat(cut.add("C1", "U2"), is(true));
+
+        cut.flush();
+
+        assertThat(cut.add("C1", "U3"), is(false));
+        assertThat(cut.getPendingPoints(), is(equalTo(2L)));
+        assertThat(cut.getPoints("C1").containsKey("U3"), is(false));
+        assertThat(cut.getRefusedPointCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testPointsGivenDuringWriteStayBuffered() {
+        cut = new ScoreWriteBuffer(config, deltas -> {
+            //Scored again while the first point is being written
+            if (writtenBatches.isEmpty()) {
+                cut.add("C1", "U1");
+            }
+
+            return record(deltas);
+        });
+
+        cut.add("C1", "U1");
+        cut.flush();
+
+        assertThat(cut.getPoints("C1").get("U1"), is(equalTo(1L)));
+        assertThat(cut.getPendingPoints(), is(equalTo(1L)));
+
+        cut.flush();
+
+        assertThat(cut.getPendingPoints(), is(equalTo(0L)));
+        assertThat(writtenBatches.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testDiscardDropsChannel() {
+        cut = new ScoreWriteBuffer(config, this::record);
+
+        cut.add("C1", "U1");
+        cut.add("C2", "U1");
+
+        cut.discard("C1");
+
+        assertThat(cut.getPoints("C1").isEmpty(), is(true));
+        assertThat(cut.getPendingPoints(), is(equalTo(1L)));
+
+        cut.flush();
+
+        assertThat(writtenBatches.size(), is(equalTo(1)));
+        assertThat(writtenBatches.get(0).get(0).getChannelId(), is(equalTo("C2")));
+    }
+
+    @Test
+    public void testDiscardWaitsForFlushInProgress() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        cut = new ScoreWriteBuffer(config, deltas -> {
+            writing.countDown();
+
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return record(deltas);
+        });
+
+        cut.add("C1", "U1");
+
+        final CompletableFuture<Long> flushed = CompletableFuture.supplyAsync(cut::flush);
+        assertThat(writing.await(5, TimeUnit.SECONDS), is(true));
+
+        //The reset must not delete the scores before the taken point is written
+        final CompletableFuture<Void> discarded = CompletableFuture.runAsync(() -> cut.discard("C1"));
+        Thread.sleep(100L);
+        assertThat(discarded.isDone(), is(false));
+
+        release.countDown();
+
+        assertThat(flushed.get(5, TimeUnit.SECONDS), is(equalTo(1L)));
+        discarded.get(5, TimeUnit.SECONDS);
+
+        assertThat(cut.getPendingPoints(), is(equalTo(0L)));
+        assertThat(cut.flush(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testReachingMaxPendingPointsFlushes() throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        config.setMaxPendingPoints(3);
+
+        cut = new ScoreWriteBuffer(config, deltas -> {
+            record(deltas);
+            written.countDown();
+
+            return deltas.size();
+        });
+
+        cut.add("C1", "U1");
+        cut.add("C1", "U2");
+
+        assertThat(writtenBatches.isEmpty(), is(true));
+
+        cut.add("C1", "U3");
+
+        assertThat(written.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testCloseWritesEverything() {
+        cut = new ScoreWriteBuffer(config, this::record);
+
+        cut.add("C1", "U1");
+        cut.close();
+
+        assertThat(writtenBatches.size(), is(equalTo(1)));
+        assertThat(cut.getPendingPoints(), is(equalTo(0L)));
+
+        cut = null;
+    }
+
+    private int record(final List<ScoreDelta> deltas) {
+        writtenBatches.add(new ArrayList<>(deltas));
+
+        return deltas.size();
+    }
+}
@@ -0,0 +1,228 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Posts to a local stub of the response URL endpoint that takes a fixed
+ * time to reply, checking how replies map to results, the timeouts and
+ * the connection pool
+ */
+public class AsyncHttpSlackResponseClientTest {
+    private static final long SERVER_DELAY_MILLIS = 20L;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger receivedCount = new AtomicInteger();
+    private final AtomicInteger concurrentCount = new AtomicInteger();
+    private final AtomicInteger maxConcurrentCount = new AtomicInteger();
+    private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+    private volatile int responseStatus = 200;
+    private volatile long serverDelayMillis = SERVER_DELAY_MILLIS;
+
+    private DelayedSlackConfig config;
+    private AsyncHttpSlackResponseClient asyncClient;
+
+    @Before
+    public void setUp() throws IOException {
+        serverExecutor = Executors.newFixedThreadPool(64);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/commands", this::handle);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        config = new DelayedSlackConfig();
+
+        asyncClient = new AsyncHttpSlackResponseClient(new ObjectMapper(), config);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        asyncClient.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testPostReportsStatusAndLatency() {
+        final SlackDeliveryResult result = asyncClient.post(getUrl(), text("hello")).join();
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.getStatusCode(), is(equalTo(200)));
+        assertThat(result.getRetryAfterSeconds(), is(nullValue()));
+        assertThat(result.getLatencyMillis() >= SERVER_DELAY_MILLIS, is(true));
+        assertThat(receivedCount.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testPostReportsRetryAfter() {
+        responseStatus = 429;
+
+        final SlackDeliveryResult result = asyncClient.post(getUrl(), text("hello")).join();
+
+        assertThat(result.isSuccess(), is(false));
+        assertThat(result.getStatusCode(), is(equalTo(429)));
+        assertThat(result.getRetryAfterSeconds(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testPostReportsConnectionFailure() throws IOException {
+        final String url = getUrl();
+        server.stop(0);
+
+        final SlackDeliveryResult result = asyncClient.post(url, text("hello")).join();
+
+        assertThat(result.isSuccess(), is(false));
+        assertThat(result.getError() == null, is(false));
+    }
+
+    @Test
+    public void testPostReportsServerErrorAsFailure() {
+        responseStatus = 500;
+
+        final SlackDeliveryResult result = asyncClient.post(getUrl(), text("hello")).join();
+
+        assertThat(result.isSuccess(), is(false));
+        assertThat(result.getStatusCode(), is(equalTo(500)));
+        assertThat(result.getError(), is(nullValue()));
+    }
+
+    @Test
+    public void testPostReportsExpiredUrlAsFailure() {
+        responseStatus = 404;
+
+        final SlackDeliveryResult result = asyncClient.post(getUrl(), text("hello")).join();
+
+        assertThat(result.isSuccess(), is(false));
+        assertThat(result.getStatusCode(), is(equalTo(404)));
+        assertThat(result.getRetryAfterSeconds(), is(nullValue()));
+    }
+
+    @Test
+    public void testSlowReplyTimesOut() throws IOException {
+        //The client looks for timed out connections about once a second
+        serverDelayMillis = 5000L;
+        config.getHttp().setReadTimeoutMillis(100);
+
+        final AsyncHttpSlackResponseClient timingOutClient = new AsyncHttpSlackResponseClient(new ObjectMapper(), config);
+
+        try {
+            final SlackDeliveryResult result = timingOutClient.post(getUrl(), text("hello")).join();
+
+            assertThat(result.isSuccess(), is(false));
+            assertThat(result.getStatusCode(), is(equalTo(0)));
+            assertThat(result.getError(), is(instanceOf(SocketTimeoutException.class)));
+            assertThat(result.getLatencyMillis() < serverDelayMillis, is(true));
+        } finally {
+            timingOutClient.close();
+        }
+    }
+
+    @Test
+    public void testConnectionIsKeptAlive() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(asyncClient.post(getUrl(), text("message " + i)).join().isSuccess(), is(true));
+        }
+
+        assertThat(remotePorts.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testConnectionsAreCappedAtMaxConnections() throws IOException {
+        config.getHttp().setMaxConnections(2);
+
+        final AsyncHttpSlackResponseClient cappedClient = new AsyncHttpSlackResponseClient(new ObjectMapper(), config);
+
+        try {
+            final List<CompletableFuture<SlackDeliveryResult>> results = new ArrayList<>();
+
+            for (int i = 0; i < 10; i++) {
+                results.add(cappedClient.post(getUrl(), text("message " + i)));
+            }
+
+            for (final CompletableFuture<SlackDeliveryResult> result : results) {
+                assertThat(result.join().isSuccess(), is(true));
+            }
+
+            //The rest waited for a pooled connection rather than opening their own
+            assertThat(receivedCount.get(), is(equalTo(10)));
+            assertThat(maxConcurrentCount.get(), is(equalTo(2)));
+            assertThat(remotePorts.size(), is(equalTo(2)));
+        } finally {
+            cappedClient.close();
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            while (body.read() != -1) {
+                //Drain the request so the connection can be reused
+            }
+        }
+
+        remotePorts.add(exchange.getRemoteAddress().getPort());
+        maxConcurrentCount.accumulateAndGet(concurrentCount.incrementAndGet(), Math::max);
+
+        try {
+            TimeUnit.MILLISECONDS.sleep(serverDelayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            concurrentCount.decrementAndGet();
+        }
+
+        receivedCount.incrementAndGet();
+
+        final byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+
+        if (responseStatus == 429) {
+            exchange.getResponseHeaders().add("Retry-After", "3");
+        }
+
+        exchange.sendResponseHeaders(responseStatus, response.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/commands/T1/1/abc";
+    }
+
+    private static SlackResponseDoc text(final String text) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
+        responseDoc.setText(text);
+        return responseDoc;
+    }
+}
@@ -0,0 +1,98 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bj.examples.trivia.dto.SlackRequestDoc;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures commands per second from eight threads through the async slash
+ * command service, every command delivered once or also retried by Slack,
+ * with a backend that answers at once. Retries are replayed from the
+ * recent results, so the difference is the cost of a replay against a run.
+ * Run the main method from the test classpath; gc.alloc.rate.norm shows
+ * what each command allocates, recent results included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class AsyncSlashCommandBenchmark {
+    @Param({"1", "5"})
+    public int deliveriesPerCommand;
+
+    private final SlackResponseDoc responseDoc = new SlackResponseDoc();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private AsyncSlashCommandServiceImpl service;
+
+    @Setup
+    public void setUp() {
+        final SlashCommandConfig config = new SlashCommandConfig();
+        //Never reached by a backend that answers at once, so nothing is sent late
+        config.setTimeBudgetMillis(60000L);
+
+        service = new AsyncSlashCommandServiceImpl(doc -> responseDoc, null, config);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        service.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Submitter {
+        private String threadPrefix;
+        private long deliveryCount;
+
+        @Setup
+        public void setUp(final AsyncSlashCommandBenchmark benchmark) {
+            threadPrefix = "trigger-" + benchmark.threadCount.getAndIncrement() + "-";
+        }
+
+        private SlackRequestDoc next(final int deliveriesPerCommand) {
+            final long retryNum = deliveryCount % deliveriesPerCommand;
+
+            final SlackRequestDoc doc = new SlackRequestDoc();
+            doc.setTriggerId(threadPrefix + deliveryCount / deliveriesPerCommand);
+            doc.setRetryNum(retryNum == 0 ? null : (int) retryNum);
+            deliveryCount++;
+
+            return doc;
+        }
+    }
+
+    @Benchmark
+    public SlackResponseDoc processSlashCommand(final Submitter submitter) {
+        return service.processSlashCommand(submitter.next(deliveriesPerCommand)).join();
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AsyncSlashCommandBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()
+        ).run();
+    }
+}
@@ -0,0 +1,260 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.dto.SlackRequestDoc;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
+import org.bj.examples.trivia.service.slack.DelayedSlackService;
+import org.bj.examples.trivia.service.slack.SlackSlashCommandService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import com.google.common.util.concurrent.AtomicLongMap;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class AsyncSlashCommandServiceImplTest {
+    private static final String CHANNEL_ID = "C12345";
+    private static final String URL = "https://hooks.slack.com/commands/T1/1/abc";
+
+    @Mock
+    private SlackSlashCommandService slackSlashCommandService;
+
+    @Mock
+    private DelayedSlackService delayedSlackService;
+
+    private SlashCommandConfig config;
+    private AsyncSlashCommandServiceImpl cut;
+    private SlackRequestDoc requestDoc;
+
+    @Before
+    public void setUp() {
+        config = new SlashCommandConfig();
+        config.setTimeBudgetMillis(200L);
+
+        requestDoc = new SlackRequestDoc();
+        requestDoc.setChannelId(CHANNEL_ID);
+        requestDoc.setResponseUrl(URL);
+        requestDoc.setText("scores");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        cut.shutdown();
+    }
+
+    @Test
+    public void testFastCommandIsAnsweredInline() throws Exception {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        given(slackSlashCommandService.processSlashCommand(requestDoc)).willReturn(responseDoc);
+
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        assertThat(cut.processSlashCommand(requestDoc).get(1, TimeUnit.SECONDS), is(responseDoc));
+        verify(delayedSlackService, never()).sendLateResponse(any(), any(), any());
+    }
+
+    @Test
+    public void testDeadlineOfFastCommandIsCancelled() throws Exception {
+        config.setTimeBudgetMillis(5000L);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        willAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return responseDoc;
+        }).given(slackSlashCommandService).processSlashCommand(requestDoc);
+
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        final CompletableFuture<SlackResponseDoc> response = cut.processSlashCommand(requestDoc);
+        started.await(1, TimeUnit.SECONDS);
+
+        assertThat(cut.getPendingDeadlineCount(), is(equalTo(1L)));
+
+        release.countDown();
+        assertThat(response.get(1, TimeUnit.SECONDS), is(responseDoc));
+
+        //The deadline is cancelled by the thread that completed the response
+        final long waitUntil = System.currentTimeMillis() + 1000L;
+
+        while (cut.getPendingDeadlineCount() > 0 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10L);
+        }
+
+        assertThat(cut.getPendingDeadlineCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testSlowCommandIsAcknowledgedThenDelivered() throws Exception {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            release.await();
+            return responseDoc;
+        }).given(slackSlashCommandService).processSlashCommand(requestDoc);
+
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        final long start = System.currentTimeMillis();
+        final SlackResponseDoc acknowledgement = cut.processSlashCommand(requestDoc).get(1, TimeUnit.SECONDS);
+
+        assertThat(System.currentTimeMillis() - start, is(lessThan(1000L)));
+        assertThat(acknowledgement.getResponseType(), is(equalTo(SlackResponseType.EPHEMERAL)));
+        verify(delayedSlackService, never()).sendLateResponse(any(), any(), any());
+
+        release.countDown();
+
+        verify(delayedSlackService, timeout(1000)).sendLateResponse(CHANNEL_ID, URL, responseDoc);
+    }
+
+    @Test
+    public void testFailedCommandFailsTheRequest() throws Exception {
+        given(slackSlashCommandService.processSlashCommand(requestDoc)).willThrow(new IllegalStateException("boom"));
+
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        final CompletableFuture<SlackResponseDoc> response = cut.processSlashCommand(requestDoc);
+
+        try {
+            response.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof IllegalStateException, is(true));
+        }
+
+        assertThat(response.isCompletedExceptionally(), is(true));
+    }
+
+    @Test
+    public void testSynchronousModeRunsOnCaller() throws Exception {
+        final String callerThreadName = Thread.currentThread().getName();
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+
+        willAnswer(invocation -> {
+            assertThat(Thread.currentThread().getName(), is(equalTo(callerThreadName)));
+            return responseDoc;
+        }).given(slackSlashCommandService).processSlashCommand(requestDoc);
+
+        config.setAsync(false);
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        final CompletableFuture<SlackResponseDoc> response = cut.processSlashCommand(requestDoc);
+
+        assertThat(response.isDone(), is(true));
+        assertThat(response.get(), is(responseDoc));
+    }
+
+    @Test
+    public void testRetriedCommandIsNotProcessedAgain() throws Exception {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        given(slackSlashCommandService.processSlashCommand(requestDoc)).willReturn(responseDoc);
+
+        requestDoc.setTriggerId("13345224609.738474920.8088930838d88f008e0");
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        assertThat(cut.processSlashCommand(requestDoc).get(1, TimeUnit.SECONDS), is(responseDoc));
+
+        final SlackRequestDoc retryDoc = new SlackRequestDoc();
+        retryDoc.setTriggerId(requestDoc.getTriggerId());
+        retryDoc.setRetryNum(1);
+
+        assertThat(cut.processSlashCommand(retryDoc).get(1, TimeUnit.SECONDS), is(responseDoc));
+
+        verify(slackSlashCommandService, times(1)).processSlashCommand(any());
+        assertThat(cut.getDuplicateCount(), is(equalTo(1L)));
+        assertThat(cut.getRecentResultStats().hitCount(), is(equalTo(1L)));
+        assertThat(cut.getRecentResultStats().missCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRetryOfAcknowledgedCommandIsDeliveredOnce() throws Exception {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            release.await();
+            return responseDoc;
+        }).given(slackSlashCommandService).processSlashCommand(requestDoc);
+
+        requestDoc.setTriggerId("13345224609.738474920.8088930838d88f008e0");
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        final SlackResponseDoc acknowledgement = cut.processSlashCommand(requestDoc).get(1, TimeUnit.SECONDS);
+        final SlackResponseDoc retryAcknowledgement = cut.processSlashCommand(requestDoc).get(1, TimeUnit.SECONDS);
+
+        assertThat(acknowledgement.getResponseType(), is(equalTo(SlackResponseType.EPHEMERAL)));
+        assertThat(retryAcknowledgement.getResponseType(), is(equalTo(SlackResponseType.EPHEMERAL)));
+
+        release.countDown();
+
+        verify(delayedSlackService, timeout(1000)).sendLateResponse(CHANNEL_ID, URL, responseDoc);
+        Thread.sleep(100L);
+        verify(delayedSlackService, times(1)).sendLateResponse(any(), any(), any());
+        verify(slackSlashCommandService, times(1)).processSlashCommand(any());
+    }
+
+    @Test
+    public void testFailedCommandIsNotRemembered() throws Exception {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        given(slackSlashCommandService.processSlashCommand(requestDoc))
+                .willThrow(new IllegalStateException("boom"))
+                .willReturn(responseDoc);
+
+        requestDoc.setTriggerId("13345224609.738474920.8088930838d88f008e0");
+        config.setAsync(false);
+        cut = new AsyncSlashCommandServiceImpl(slackSlashCommandService, delayedSlackService, config);
+
+        assertThat(cut.processSlashCommand(requestDoc).isCompletedExceptionally(), is(true));
+        assertThat(cut.processSlashCommand(requestDoc).get(), is(responseDoc));
+    }
+
+    @Test
+    public void testEveryRedeliveryIsReplayed() throws Exception {
+        final AtomicLongMap<String> processedCounts = AtomicLongMap.create();
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+
+        config.setAsync(false);
+        cut = new AsyncSlashCommandServiceImpl(doc -> {
+            processedCounts.incrementAndGet(doc.getTriggerId());
+            return responseDoc;
+        }, delayedSlackService, config);
+
+        //Each command as delivered, then Slack's retries of it, interleaved with the others
+        for (int retryNum = 0; retryNum < 3; retryNum++) {
+            for (int i = 0; i < 3; i++) {
+                final SlackRequestDoc doc = new SlackRequestDoc();
+                doc.setTriggerId("trigger-" + i);
+                doc.setRetryNum(retryNum == 0 ? null : retryNum);
+
+                assertThat(cut.processSlashCommand(doc).get(1, TimeUnit.SECONDS), is(responseDoc));
+            }
+        }
+
+        assertThat(processedCounts.size(), is(equalTo(3)));
+        assertThat(processedCounts.sum(), is(equalTo(3L)));
+        assertThat(cut.getDuplicateCount(), is(equalTo(6L)));
+        verify(delayedSlackService, never()).sendLateResponse(any(), any(), any());
+    }
+}
@@ -0,0 +1,937 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bj.examples.trivia.dto.SlackAttachment;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@RunWith(MockitoJUnitRunner.StrictStubs.class)
+public class DelayedSlackServiceImplTest {
+    private static final String CHANNEL_ID = "C12345";
+    private static final String URL = "https://hooks.slack.com/commands/T1/1/abc";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private RestTemplate restTemplate;
+
+    private DelayedSlackServiceImpl cut;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (cut != null) {
+            cut.shutdown();
+        }
+    }
+
+    @Test
+    public void testThreadCountStaysFlatUnderConcurrentAnswers() throws Exception {
+        final int answerCount = 1000;
+        final int submitterCount = 50;
+        final int workerThreads = 4;
+
+        final AtomicInteger postCount = new AtomicInteger();
+        final CountDownLatch allPosted = new CountDownLatch(answerCount);
+
+        willAnswer(invocation -> {
+            Thread.sleep(2);
+            postCount.incrementAndGet();
+            allPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(config(workerThreads, 100, DelayedSlackConfig.OverflowPolicy.BLOCK));
+
+        final ExecutorService submitters = Executors.newFixedThreadPool(submitterCount);
+        final CountDownLatch startGate = new CountDownLatch(1);
+
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final int baselineThreadCount = threadBean.getThreadCount();
+        threadBean.resetPeakThreadCount();
+
+        for (int i = 0; i < answerCount; i++) {
+            final String channelId = "C" + (i % 20);
+
+            submitters.execute(() -> {
+                try {
+                    startGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                cut.sendResponse(channelId, URL, new SlackResponseDoc());
+            });
+        }
+
+        startGate.countDown();
+
+        assertThat(allPosted.await(30, TimeUnit.SECONDS), is(true));
+
+        final int peakThreadCount = threadBean.getPeakThreadCount();
+
+        submitters.shutdown();
+        submitters.awaitTermination(5, TimeUnit.SECONDS);
+        cut.shutdown();
+
+        assertThat(postCount.get(), is(equalTo(answerCount)));
+        assertThat(peakThreadCount - baselineThreadCount, is(lessThanOrEqualTo(submitterCount + workerThreads + 2)));
+        assertThat(cut.getInFlightCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testMessagesWithinChannelAreDeliveredInOrder() throws Exception {
+        final int channelCount = 10;
+        final int messagesPerChannel = 200;
+
+        final Map<String, List<String>> deliveredByChannel = new ConcurrentHashMap<>();
+        final CountDownLatch allPosted = new CountDownLatch(channelCount * messagesPerChannel);
+
+        willAnswer(invocation -> {
+            final SlackResponseDoc responseDoc = invocation.getArgument(1);
+            final String[] parts = responseDoc.getText().split(":");
+            deliveredByChannel.computeIfAbsent(parts[0], key -> Collections.synchronizedList(new ArrayList<>())).add(parts[1]);
+            allPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(config(4, 50, DelayedSlackConfig.OverflowPolicy.BLOCK));
+
+        final ExecutorService submitters = Executors.newFixedThreadPool(channelCount);
+
+        for (int c = 0; c < channelCount; c++) {
+            final String channelId = "C" + c;
+
+            submitters.execute(() -> {
+                for (int m = 0; m < messagesPerChannel; m++) {
+                    cut.sendResponse(channelId, URL, text(channelId + ":" + m));
+                }
+            });
+        }
+
+        assertThat(allPosted.await(30, TimeUnit.SECONDS), is(true));
+        submitters.shutdown();
+
+        final List<String> expected = IntStream.range(0, messagesPerChannel)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.toList());
+
+        assertThat(deliveredByChannel.size(), is(equalTo(channelCount)));
+        deliveredByChannel.values().forEach(delivered -> assertThat(delivered, is(equalTo(expected))));
+    }
+
+    @Test
+    public void testBlockedChannelDoesNotDelayOtherChannels() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherChannelPosted = new CountDownLatch(3);
+
+        willAnswer(invocation -> {
+            final SlackResponseDoc responseDoc = invocation.getArgument(1);
+
+            if (responseDoc.getText().startsWith("slow")) {
+                release.await();
+            } else {
+                otherChannelPosted.countDown();
+            }
+
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(config(2, 50, DelayedSlackConfig.OverflowPolicy.BLOCK));
+
+        cut.sendResponse("C1", URL, text("slow 1"));
+        cut.sendResponse("C1", URL, text("slow 2"));
+        cut.sendResponse("C2", URL, text("fast 1"));
+        cut.sendResponse("C2", URL, text("fast 2"));
+        cut.sendResponse("C3", URL, text("fast 3"));
+
+        assertThat(otherChannelPosted.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(cut.getQueueDepth(), is(equalTo(1)));
+
+        release.countDown();
+    }
+
+    @Test
+    public void testIdleChannelsAreReclaimed() throws Exception {
+        final CountDownLatch allPosted = new CountDownLatch(1000);
+
+        willAnswer(invocation -> {
+            allPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(config(4, 1000, DelayedSlackConfig.OverflowPolicy.BLOCK));
+
+        for (int i = 0; i < 1000; i++) {
+            cut.sendResponse("C" + i, URL, new SlackResponseDoc());
+        }
+
+        assertThat(allPosted.await(10, TimeUnit.SECONDS), is(true));
+        cut.shutdown();
+
+        assertThat(cut.getActiveChannelCount(), is(equalTo(0)));
+        assertThat(cut.getQueueDepth(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testDropOldestDiscardsQueuedMessages() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstPostStarted = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            firstPostStarted.countDown();
+            release.await();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(config(1, 2, DelayedSlackConfig.OverflowPolicy.DROP_OLDEST));
+
+        cut.sendResponse(CHANNEL_ID, URL, new SlackResponseDoc());
+        assertThat(firstPostStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        for (int i = 0; i < 5; i++) {
+            cut.sendResponse(CHANNEL_ID, URL, new SlackResponseDoc());
+        }
+
+        assertThat(cut.getInFlightCount(), is(equalTo(1)));
+        assertThat(cut.getQueueDepth(), is(equalTo(2)));
+        assertThat(cut.getRejectedCount(), is(equalTo(3L)));
+
+        release.countDown();
+        cut.shutdown();
+
+        //1 in flight + 2 still queued when the overflow stopped
+        verify(restTemplate, times(3)).postForObject(anyString(), any(), eq(String.class));
+    }
+
+    @Test
+    public void testSynchronousOverflowWaitsForItsTurnInLane() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstPostStarted = new CountDownLatch(1);
+        final String callerThreadName = Thread.currentThread().getName();
+        final List<String> postedTexts = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger callerPosts = new AtomicInteger();
+
+        willAnswer(invocation -> {
+            if (Thread.currentThread().getName().equals(callerThreadName)) {
+                callerPosts.incrementAndGet();
+            }
+
+            postedTexts.add(((SlackResponseDoc)invocation.getArgument(1)).getText());
+            firstPostStarted.countDown();
+            release.await();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(config(1, 1, DelayedSlackConfig.OverflowPolicy.SYNCHRONOUS));
+
+        cut.sendResponse(CHANNEL_ID, URL, text("1"));
+        assertThat(firstPostStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        cut.sendResponse(CHANNEL_ID, URL, text("2"));
+
+        final ExecutorService caller = Executors.newSingleThreadExecutor();
+        final Future<?> overflow = caller.submit(() -> cut.sendResponse(CHANNEL_ID, URL, text("3")));
+
+        //Waits behind the lane's queued message rather than posting ahead of it
+        Thread.sleep(200L);
+        assertThat(overflow.isDone(), is(false));
+
+        release.countDown();
+        overflow.get(5, TimeUnit.SECONDS);
+        caller.shutdown();
+        cut.shutdown();
+
+        assertThat(postedTexts, is(equalTo(Arrays.asList("1", "2", "3"))));
+        assertThat(callerPosts.get(), is(equalTo(0)));
+        assertThat(cut.getRejectedCount(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void testMessagesRejectedAfterShutdownFreeTheQueue() throws Exception {
+        cut = create(config(1, 1, DelayedSlackConfig.OverflowPolicy.BLOCK));
+        cut.shutdown();
+
+        cut.sendResponse(CHANNEL_ID, URL, new SlackResponseDoc());
+
+        assertThat(cut.getQueueDepth(), is(equalTo(0)));
+        assertThat(cut.getActiveChannelCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testBlockedMessagesAreDroppedAfterMaxWait() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstPostStarted = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            firstPostStarted.countDown();
+            release.await();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = journalConfig();
+        config.setWorkerThreads(1);
+        config.setQueueCapacity(1);
+        config.setOverflowPolicy(DelayedSlackConfig.OverflowPolicy.BLOCK);
+        config.setMaxOverflowWaitMillis(100L);
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, text("1"));
+        assertThat(firstPostStarted.await(5, TimeUnit.SECONDS), is(true));
+        cut.sendResponse(CHANNEL_ID, URL, text("2"));
+
+        final long start = System.currentTimeMillis();
+        cut.sendResponse(CHANNEL_ID, URL, text("3"));
+
+        assertThat(System.currentTimeMillis() - start, is(lessThanOrEqualTo(5000L)));
+        assertThat(cut.getQueueDepth(), is(equalTo(1)));
+        assertThat(cut.getPendingCount(), is(equalTo(2)));
+
+        release.countDown();
+        cut.shutdown();
+
+        verify(restTemplate, times(2)).postForObject(anyString(), any(), eq(String.class));
+    }
+
+    @Test
+    public void testSynchronousOverflowIsCappedAtQueueCapacity() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstPostStarted = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            firstPostStarted.countDown();
+            release.await();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = journalConfig();
+        config.setWorkerThreads(1);
+        config.setQueueCapacity(1);
+        config.setOverflowPolicy(DelayedSlackConfig.OverflowPolicy.SYNCHRONOUS);
+        config.setMaxOverflowWaitMillis(100L);
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, text("1"));
+        assertThat(firstPostStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        for (int i = 2; i <= 5; i++) {
+            cut.sendResponse(CHANNEL_ID, URL, text(String.valueOf(i)));
+        }
+
+        //1 in flight, 1 queued and 1 queued past capacity; the rest are dropped
+        assertThat(cut.getQueueDepth(), is(equalTo(2)));
+        assertThat(cut.getPendingCount(), is(equalTo(3)));
+
+        release.countDown();
+        cut.shutdown();
+
+        verify(restTemplate, times(3)).postForObject(anyString(), any(), eq(String.class));
+    }
+
+    @Test
+    public void testSynchronousOverflowDoesNotWaitThroughRetries() throws Exception {
+        final CountDownLatch firstAttempt = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            firstAttempt.countDown();
+            throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = journalConfig();
+        config.setWorkerThreads(1);
+        config.setQueueCapacity(1);
+        config.setOverflowPolicy(DelayedSlackConfig.OverflowPolicy.SYNCHRONOUS);
+        config.setMaxOverflowWaitMillis(100L);
+        config.setShutdownTimeoutMillis(100L);
+        config.getOutbox().setInitialBackoffMillis(60000L);
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, text("1"));
+        assertThat(firstAttempt.await(5, TimeUnit.SECONDS), is(true));
+        cut.sendResponse(CHANNEL_ID, URL, text("2"));
+
+        final long start = System.currentTimeMillis();
+        cut.sendResponse(CHANNEL_ID, URL, text("3"));
+
+        //"1" waits a minute for its retry; "3" is left queued behind it
+        assertThat(System.currentTimeMillis() - start, is(lessThanOrEqualTo(5000L)));
+        assertThat(cut.getPendingCount(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testMessagesDroppedByOverflowAreNotRedelivered() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstPostStarted = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            firstPostStarted.countDown();
+            release.await();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = journalConfig();
+        config.setWorkerThreads(1);
+        config.setQueueCapacity(2);
+        config.setOverflowPolicy(DelayedSlackConfig.OverflowPolicy.DROP_OLDEST);
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, new SlackResponseDoc());
+        assertThat(firstPostStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        for (int i = 0; i < 5; i++) {
+            cut.sendResponse(CHANNEL_ID, URL, new SlackResponseDoc());
+        }
+
+        //3 dropped, 1 in flight and 2 queued
+        assertThat(cut.getPendingCount(), is(equalTo(3)));
+
+        release.countDown();
+        cut.shutdown();
+
+        assertThat(cut.getPendingCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testOutboxRequiresJournalFile() {
+        final DelayedSlackConfig config = config(1, 1, DelayedSlackConfig.OverflowPolicy.BLOCK);
+        config.getOutbox().setEnabled(true);
+
+        Exception exception = null;
+
+        try {
+            create(config);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception instanceof IllegalArgumentException, is(true));
+    }
+
+    @Test
+    public void testCoalescibleResponsesAreMergedWithinWindow() throws Exception {
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch mergedPosted = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            mergedPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(coalescingConfig(200L, 10));
+
+        for (int i = 0; i < 5; i++) {
+            cut.sendCoalescibleResponse(CHANNEL_ID, URL + i, answer("U" + i, "answer " + i));
+        }
+
+        assertThat(mergedPosted.await(5, TimeUnit.SECONDS), is(true));
+        cut.shutdown();
+
+        assertThat(posted, hasSize(1));
+        assertThat(posted.get(0).getResponseType(), is(equalTo(SlackResponseType.IN_CHANNEL)));
+        assertThat(posted.get(0).getAttachments(), hasSize(5));
+        assertThat(posted.get(0).getAttachments().get(0).getPretext(), is(equalTo("<@U0> answers:")));
+        assertThat(posted.get(0).getAttachments().get(4).getText(), is(equalTo("answer 4")));
+        assertThat(cut.getCoalescedPostCount(), is(equalTo(4L)));
+
+        //Posted with the freshest response URL
+        verify(restTemplate).postForObject(eq(URL + 4), any(), eq(String.class));
+    }
+
+    @Test
+    public void testCoalescibleResponsesAreFlushedWhenBatchIsFull() throws Exception {
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+
+        willAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(coalescingConfig(60000L, 10));
+
+        for (int i = 0; i < 25; i++) {
+            cut.sendCoalescibleResponse(CHANNEL_ID, URL, answer("U" + i, "answer " + i));
+        }
+
+        //The partial batch is flushed on shutdown
+        cut.shutdown();
+
+        assertThat(posted, hasSize(3));
+        assertThat(posted.get(0).getAttachments(), hasSize(10));
+        assertThat(posted.get(1).getAttachments(), hasSize(10));
+        assertThat(posted.get(2).getAttachments(), hasSize(5));
+        assertThat(cut.getCoalescedPostCount(), is(equalTo(22L)));
+    }
+
+    @Test
+    public void testOtherResponseFlushesCoalescedResponsesFirst() throws Exception {
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch bothPosted = new CountDownLatch(2);
+
+        willAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            bothPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(coalescingConfig(60000L, 10));
+
+        cut.sendCoalescibleResponse(CHANNEL_ID, URL, answer("U1", "answer 1"));
+        cut.sendCoalescibleResponse(CHANNEL_ID, URL, answer("U2", "answer 2"));
+        cut.sendCoalescibleResponse("C6789", URL, answer("U3", "answer 3"));
+        cut.sendResponse(CHANNEL_ID, URL, text("<@U2> is correct!"));
+
+        //Long before the window closes
+        assertThat(bothPosted.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(posted, hasSize(2));
+        assertThat(posted.get(0).getAttachments(), hasSize(2));
+        assertThat(posted.get(1).getText(), is(equalTo("<@U2> is correct!")));
+    }
+
+    @Test
+    public void testFullQueueDoesNotHoldTheChannelLock() throws Exception {
+        final List<String> postedTexts = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstPostStarted = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            postedTexts.add(((SlackResponseDoc)invocation.getArgument(1)).getText());
+            firstPostStarted.countDown();
+            release.await();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = coalescingConfig(60000L, 10);
+        config.setWorkerThreads(1);
+        config.setQueueCapacity(1);
+        config.setMaxOverflowWaitMillis(5000L);
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, text("1"));
+        assertThat(firstPostStarted.await(5, TimeUnit.SECONDS), is(true));
+        cut.sendResponse(CHANNEL_ID, URL, text("2"));
+
+        final ExecutorService caller = Executors.newSingleThreadExecutor();
+        final Future<?> blocked = caller.submit(() -> cut.sendResponse(CHANNEL_ID, URL, text("3")));
+        Thread.sleep(200L);
+        assertThat(blocked.isDone(), is(false));
+
+        //Buffered behind "3" without waiting for room in the queue
+        final long start = System.currentTimeMillis();
+        cut.sendCoalescibleResponse(CHANNEL_ID, URL, answer("U1", "answer 1"));
+        assertThat(System.currentTimeMillis() - start, is(lessThanOrEqualTo(1000L)));
+
+        release.countDown();
+        blocked.get(5, TimeUnit.SECONDS);
+        caller.shutdown();
+        cut.shutdown();
+
+        assertThat(postedTexts, is(equalTo(Arrays.asList("1", "2", "3", "<@U1> answers:"))));
+    }
+
+    @Test
+    public void testRateLimitedPostIsRetriedAfterRetryAfter() throws Exception {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+
+        final List<Long> postTimes = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch delivered = new CountDownLatch(2);
+
+        willAnswer(invocation -> {
+            postTimes.add(System.currentTimeMillis());
+            delivered.countDown();
+
+            if (postTimes.size() == 1) {
+                throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, null, null);
+            }
+
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(config(4, 100, DelayedSlackConfig.OverflowPolicy.BLOCK));
+        cut.sendResponse(CHANNEL_ID, URL, text("<@U2> is correct!"));
+
+        assertThat(delivered.await(5, TimeUnit.SECONDS), is(true));
+        cut.shutdown();
+
+        assertThat(postTimes.get(1) - postTimes.get(0), is(greaterThanOrEqualTo(900L)));
+        assertThat(cut.getRetryCount(), is(equalTo(1L)));
+        assertThat(cut.getFailedCount(), is(equalTo(1L)));
+        assertThat(cut.getDeliveredCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRetryAfterIsCappedAtMaxBackoff() throws Exception {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "3600");
+
+        final AtomicInteger postCount = new AtomicInteger();
+        final CountDownLatch delivered = new CountDownLatch(2);
+
+        willAnswer(invocation -> {
+            delivered.countDown();
+
+            if (postCount.incrementAndGet() == 1) {
+                throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, null, null);
+            }
+
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = config(4, 100, DelayedSlackConfig.OverflowPolicy.BLOCK);
+        config.getOutbox().setMaxBackoffMillis(100L);
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, text("<@U2> is correct!"));
+
+        assertThat(delivered.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(cut.getRetryCount(), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRetriesDoNotHoldTheChannel() throws Exception {
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger failuresLeft = new AtomicInteger(2);
+        final CountDownLatch allDelivered = new CountDownLatch(2);
+
+        willAnswer(invocation -> {
+            final SlackResponseDoc responseDoc = invocation.getArgument(1);
+
+            if (responseDoc.getText().equals("first") && failuresLeft.getAndDecrement() > 0) {
+                throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+
+            delivered.add(responseDoc.getText());
+            allDelivered.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = config(4, 100, DelayedSlackConfig.OverflowPolicy.BLOCK);
+        config.getOutbox().setInitialBackoffMillis(200L);
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, text("first"));
+        cut.sendResponse(CHANNEL_ID, URL, text("second"));
+
+        //"second" goes out while "first" waits for its retries
+        assertThat(allDelivered.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(delivered, is(equalTo(Arrays.asList("second", "first"))));
+        assertThat(cut.getRetryCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() throws Exception {
+        willAnswer(invocation -> {
+            throw new HttpClientErrorException(HttpStatus.NOT_FOUND);
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = journalConfig();
+        cut = create(config);
+
+        cut.sendResponse(CHANNEL_ID, URL, text("expired"));
+        cut.shutdown();
+
+        verify(restTemplate, times(1)).postForObject(anyString(), any(), eq(String.class));
+        assertThat(cut.getRetryCount(), is(equalTo(0L)));
+        assertThat(cut.getPendingCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testUndeliveredResponsesAreRedeliveredAfterRestart() throws Exception {
+        final AtomicInteger slackAvailable = new AtomicInteger();
+        final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch firstAttempt = new CountDownLatch(1);
+
+        willAnswer(invocation -> {
+            firstAttempt.countDown();
+
+            if (slackAvailable.get() == 0) {
+                throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            }
+
+            delivered.add(((SlackResponseDoc) invocation.getArgument(1)).getText());
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = journalConfig();
+        config.getOutbox().setInitialBackoffMillis(60000L);
+        config.setShutdownTimeoutMillis(100L);
+
+        final DelayedSlackServiceImpl beforeRestart = create(config);
+        beforeRestart.sendResponse(CHANNEL_ID, URL, text("<@U2> is correct!"));
+        beforeRestart.sendResponse("C6789", URL, text("<@U3> is correct!"));
+        assertThat(firstAttempt.await(5, TimeUnit.SECONDS), is(true));
+        beforeRestart.shutdown();
+
+        assertThat(beforeRestart.getPendingCount(), is(equalTo(2)));
+        assertThat(delivered, hasSize(0));
+
+        slackAvailable.set(1);
+        config.setShutdownTimeoutMillis(5000L);
+        cut = create(config);
+        cut.shutdown();
+
+        assertThat(delivered, containsInAnyOrder("<@U2> is correct!", "<@U3> is correct!"));
+        assertThat(cut.getPendingCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testHeldResponsesAreJournaledWhenAccepted() throws Exception {
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+
+        willAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        final DelayedSlackConfig config = journalConfig();
+        config.getCoalescing().setEnabled(true);
+        config.getCoalescing().setWindowMillis(60000L);
+        cut = create(config);
+
+        for (int i = 0; i < 3; i++) {
+            cut.sendCoalescibleResponse(CHANNEL_ID, URL, answer("U" + i, "answer " + i));
+        }
+
+        //Still waiting for the window to close
+        assertThat(posted, hasSize(0));
+        assertThat(cut.getPendingCount(), is(equalTo(3)));
+
+        cut.shutdown();
+
+        //Delivering the merged response finishes all three
+        assertThat(posted, hasSize(1));
+        assertThat(cut.getPendingCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testThrottledResponsesAreMergedUntilChannelHasTokens() throws Exception {
+        final List<Long> postTimes = Collections.synchronizedList(new ArrayList<>());
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch bothPosted = new CountDownLatch(2);
+
+        willAnswer(invocation -> {
+            postTimes.add(System.currentTimeMillis());
+            posted.add(invocation.getArgument(1));
+            bothPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(rateLimitConfig(5.0, 1, 5));
+
+        cut.sendResponse(CHANNEL_ID, URL, announcement("first"));
+        cut.sendResponse(CHANNEL_ID, URL, announcement("second"));
+        cut.sendResponse(CHANNEL_ID, URL, announcement("third"));
+        cut.sendResponse(CHANNEL_ID, URL, announcement("fourth"));
+
+        assertThat(bothPosted.await(5, TimeUnit.SECONDS), is(true));
+        cut.shutdown();
+
+        assertThat(posted, hasSize(2));
+        assertThat(posted.get(0).getText(), is(equalTo("first")));
+        assertThat(posted.get(1).getAttachments(), hasSize(3));
+        assertThat(postTimes.get(1) - postTimes.get(0), is(greaterThanOrEqualTo(150L)));
+        assertThat(cut.getThrottledCounts().get(CHANNEL_ID), is(equalTo(3L)));
+        assertThat(cut.getThrottledCounts().get("C6789"), is(nullValue()));
+    }
+
+    @Test
+    public void testLastUseOfResponseUrlCarriesMergedSummary() throws Exception {
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch summaryPosted = new CountDownLatch(3);
+
+        willAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            summaryPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(eq(URL), any(), eq(String.class));
+
+        final DelayedSlackConfig config = rateLimitConfig(1000.0, 100, 3);
+        config.getRateLimit().setSummaryWindowMillis(100L);
+        cut = create(config);
+
+        for (int i = 0; i < 6; i++) {
+            cut.sendResponse(CHANNEL_ID, URL, announcement("message " + i));
+        }
+
+        assertThat(summaryPosted.await(5, TimeUnit.SECONDS), is(true));
+        cut.shutdown();
+
+        assertThat(posted, hasSize(3));
+        assertThat(posted.get(2).getAttachments(), hasSize(4));
+        assertThat(posted.get(2).getAttachments().get(3).getText(), is(equalTo("message 5")));
+        assertThat(cut.getDroppedCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testThrottledResponsesAreOnlyMergedForTheSameUrl() throws Exception {
+        final List<String> postedUrls = Collections.synchronizedList(new ArrayList<>());
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch allPosted = new CountDownLatch(3);
+
+        willAnswer(invocation -> {
+            postedUrls.add(invocation.getArgument(0));
+            posted.add(invocation.getArgument(1));
+            allPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(rateLimitConfig(10.0, 1, 5));
+
+        cut.sendResponse(CHANNEL_ID, URL, announcement("first"));
+        cut.sendResponse(CHANNEL_ID, URL + "2", announcement("second"));
+        cut.sendResponse(CHANNEL_ID, URL + "2", announcement("third"));
+        cut.sendResponse(CHANNEL_ID, URL + "3", announcement("fourth"));
+
+        assertThat(allPosted.await(5, TimeUnit.SECONDS), is(true));
+        cut.shutdown();
+
+        assertThat(postedUrls, is(equalTo(Arrays.asList(URL, URL + "2", URL + "3"))));
+        assertThat(posted.get(1).getAttachments(), hasSize(2));
+        assertThat(posted.get(2).getText(), is(equalTo("fourth")));
+    }
+
+    @Test
+    public void testEphemeralResponsesAreNotThrottled() throws Exception {
+        final List<SlackResponseDoc> posted = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch ephemeralPosted = new CountDownLatch(2);
+
+        willAnswer(invocation -> {
+            posted.add(invocation.getArgument(1));
+            ephemeralPosted.countDown();
+            return "ok";
+        }).given(restTemplate).postForObject(anyString(), any(), eq(String.class));
+
+        cut = create(rateLimitConfig(0.1, 1, 5));
+
+        cut.sendResponse(CHANNEL_ID, URL, announcement("first"));
+        cut.sendResponse(CHANNEL_ID, URL, announcement("second"));
+        cut.sendResponse(CHANNEL_ID, URL + "2", text("just for you"));
+
+        //"second" waits ten seconds for a token
+        assertThat(ephemeralPosted.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(posted.get(1).getText(), is(equalTo("just for you")));
+        assertThat(posted.get(1).getAttachments(), is(nullValue()));
+        assertThat(cut.getThrottledCounts().get(CHANNEL_ID), is(equalTo(1L)));
+    }
+
+    private DelayedSlackServiceImpl create(final DelayedSlackConfig config) {
+        return new DelayedSlackServiceImpl(new RestTemplateSlackResponseClient(restTemplate), config, new ObjectMapper());
+    }
+
+    private DelayedSlackConfig journalConfig() throws IOException {
+        final DelayedSlackConfig config = config(4, 100, DelayedSlackConfig.OverflowPolicy.BLOCK);
+        config.getOutbox().setEnabled(true);
+        config.getOutbox().setJournalFile(temporaryFolder.newFolder().toPath().resolve("outbox.journal").toString());
+
+        return config;
+    }
+
+    private static SlackResponseDoc answer(final String userId, final String answer) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
+        responseDoc.setText("<@" + userId + "> answers:");
+        responseDoc.setAttachments(Arrays.asList(new SlackAttachment(answer, false)));
+
+        return responseDoc;
+    }
+
+    private static SlackResponseDoc announcement(final String text) {
+        final SlackResponseDoc responseDoc = text(text);
+        responseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
+
+        return responseDoc;
+    }
+
+    private static DelayedSlackConfig coalescingConfig(final long windowMillis, final int maxBatchSize) {
+        final DelayedSlackConfig config = config(4, 100, DelayedSlackConfig.OverflowPolicy.BLOCK);
+        config.getCoalescing().setEnabled(true);
+        config.getCoalescing().setWindowMillis(windowMillis);
+        config.getCoalescing().setMaxBatchSize(maxBatchSize);
+
+        return config;
+    }
+
+    private static DelayedSlackConfig rateLimitConfig(
+            final double channelPostsPerSecond,
+            final int channelBurst,
+            final int responseUrlMaxUses
+    ) {
+        final DelayedSlackConfig config = config(4, 100, DelayedSlackConfig.OverflowPolicy.BLOCK);
+        config.getRateLimit().setEnabled(true);
+        config.getRateLimit().setChannelPostsPerSecond(channelPostsPerSecond);
+        config.getRateLimit().setChannelBurst(channelBurst);
+        config.getRateLimit().setResponseUrlMaxUses(responseUrlMaxUses);
+
+        return config;
+    }
+
+    private static SlackResponseDoc text(final String text) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setText(text);
+
+        return responseDoc;
+    }
+
+    private static DelayedSlackConfig config(
+            final int workerThreads,
+            final int queueCapacity,
+            final DelayedSlackConfig.OverflowPolicy overflowPolicy
+    ) {
+        final DelayedSlackConfig config = new DelayedSlackConfig();
+        config.setWorkerThreads(workerThreads);
+        config.setQueueCapacity(queueCapacity);
+        config.setOverflowPolicy(overflowPolicy);
+
+        return config;
+    }
+}
@@ -0,0 +1,148 @@
+package org.bj.examples.trivia.service.slack.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bj.examples.trivia.dto.SlackAttachment;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class OutboxJournalTest {
+    private static final String URL = "https://hooks.slack.com/commands/T1/1/abc";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DelayedSlackConfig.Outbox config;
+    private Path journalFile;
+    private OutboxJournal cut;
+
+    @Before
+    public void setUp() throws IOException {
+        journalFile = temporaryFolder.getRoot().toPath().resolve("outbox.journal");
+
+        config = new DelayedSlackConfig.Outbox();
+        config.setEnabled(true);
+        config.setJournalFile(journalFile.toString());
+    }
+
+    @After
+    public void tearDown() {
+        if (cut != null) {
+            cut.close();
+        }
+    }
+
+    @Test
+    public void testPendingEntriesAreReplayedInOrder() throws IOException {
+        cut = open();
+        final OutboxJournal.Entry first = cut.append("C1", URL, response("first"));
+        cut.append("C2", URL, response("second"));
+        cut.append("C1", URL, response("third"));
+        cut.markDone(first);
+        cut.close();
+
+        cut = create();
+        final List<OutboxJournal.Entry> pendingEntries = cut.open();
+
+        assertThat(pendingEntries, hasSize(2));
+        assertThat(pendingEntries.get(0).getLaneKey(), is(equalTo("C2")));
+        assertThat(pendingEntries.get(0).getResponseDoc().getText(), is(equalTo("second")));
+        assertThat(pendingEntries.get(1).getLaneKey(), is(equalTo("C1")));
+        assertThat(pendingEntries.get(1).getUrl(), is(equalTo(URL)));
+        assertThat(pendingEntries.get(1).getResponseDoc().getResponseType(), is(equalTo(SlackResponseType.IN_CHANNEL)));
+        assertThat(pendingEntries.get(1).getResponseDoc().getAttachments().get(0).getText(), is(equalTo("third")));
+    }
+
+    @Test
+    public void testReplayedEntriesCanBeMarkedDone() throws IOException {
+        cut = open();
+        cut.append("C1", URL, response("first"));
+        cut.close();
+
+        cut = create();
+        cut.markDone(cut.open().get(0));
+        cut.close();
+
+        cut = create();
+        assertThat(cut.open(), hasSize(0));
+    }
+
+    @Test
+    public void testCompactionDropsFinishedEntries() throws IOException {
+        cut = open();
+
+        for (int i = 0; i < 100; i++) {
+            cut.markDone(cut.append("C1", URL, response("message " + i)));
+        }
+
+        cut.append("C1", URL, response("still pending"));
+        cut.sync();
+        final long sizeBeforeCompaction = Files.size(journalFile);
+
+        cut.compact();
+
+        assertThat(Files.size(journalFile), is(lessThan(sizeBeforeCompaction / 50)));
+
+        cut.append("C1", URL, response("added after compaction"));
+        cut.close();
+
+        cut = create();
+        final List<OutboxJournal.Entry> pendingEntries = cut.open();
+
+        assertThat(pendingEntries, hasSize(2));
+        assertThat(pendingEntries.get(0).getResponseDoc().getText(), is(equalTo("still pending")));
+        assertThat(pendingEntries.get(1).getResponseDoc().getText(), is(equalTo("added after compaction")));
+    }
+
+    @Test
+    public void testTornRecordIsSkipped() throws IOException {
+        cut = open();
+        cut.append("C1", URL, response("first"));
+        cut.close();
+
+        Files.write(journalFile, "{\"op\":\"add\",\"id\":2,\"lane".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        cut = create();
+        final List<OutboxJournal.Entry> pendingEntries = cut.open();
+
+        assertThat(pendingEntries, hasSize(1));
+        assertThat(pendingEntries.get(0).getResponseDoc().getText(), is(equalTo("first")));
+    }
+
+    private OutboxJournal open() throws IOException {
+        final OutboxJournal journal = create();
+        journal.open();
+        return journal;
+    }
+
+    private OutboxJournal create() {
+        return new OutboxJournal(config, new ObjectMapper());
+    }
+
+    private static SlackResponseDoc response(final String text) {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+        responseDoc.setResponseType(SlackResponseType.IN_CHANNEL);
+        responseDoc.setText(text);
+        responseDoc.setAttachments(Arrays.asList(new SlackAttachment(text, false)));
+        return responseDoc;
+    }
+}
@@ -1,14 +1,21 @@
 package org.bj.examples.trivia.service.slack.impl;
 
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
+import java.nio.charset.StandardCharsets;
+
+import org.bj.examples.trivia.dto.PreSerializedSlackResponseDoc;
 import org.bj.examples.trivia.dto.SlackRequestDoc;
 import org.bj.examples.trivia.dto.SlackResponseDoc;
 import org.bj.examples.trivia.dto.SlackResponseType;
@@ -17,8 +24,11 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 @RunWith(MockitoJUnitRunner.StrictStubs.class)
 public class SlackSlashCommandServiceImplTest {
     @InjectMocks
@@ -27,6 +37,9 @@ public class SlackSlashCommandServiceImplTest {
     @Mock
     private TriviaGameService triviaGameService;
 
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @Test
     public void testStartCommandWithNoTopic() {
         final SlackRequestDoc requestDoc = new SlackRequestDoc();
@@ -220,4 +233,43 @@ public class SlackSlashCommandServiceImplTest {
 
         verify(triviaGameService).resetScores(requestDoc);
     }
+
+    @Test
+    public void testUsageIsBuiltOncePerCommandName() throws Exception {
+        final SlackRequestDoc requestDoc = new SlackRequestDoc();
+        requestDoc.setCommand("/trivia");
+        requestDoc.setText("help");
+
+        final SlackResponseDoc result = cut.processSlashCommand(requestDoc);
+
+        assertThat(result, is(instanceOf(PreSerializedSlackResponseDoc.class)));
+        assertThat(result.getText(), is("`/trivia` usage:"));
+        assertThat(result.getAttachments(), hasSize(10));
+        assertThat(cut.processSlashCommand(requestDoc), is(sameInstance(result)));
+
+        requestDoc.setCommand("/quiz");
+        final SlackResponseDoc otherResult = cut.processSlashCommand(requestDoc);
+
+        assertThat(otherResult, is(not(sameInstance(result))));
+        assertThat(otherResult.getText(), is("`/quiz` usage:"));
+    }
+
+    @Test
+    public void testPreSerializedResponseMatchesJackson() throws Exception {
+        final SlackRequestDoc requestDoc = new SlackRequestDoc();
+        requestDoc.setCommand("/trivia");
+        requestDoc.setText("correct");
+
+        final PreSerializedSlackResponseDoc result = (PreSerializedSlackResponseDoc) cut.processSlashCommand(requestDoc);
+
+        assertThat(
+                new String(result.getJson(), StandardCharsets.UTF_8),
+                is(new ObjectMapper().writeValueAsString(StaticResponses.buildMarkAnswerCorrectFormat("/trivia")))
+        );
+        //Serializing the shared instance itself gives the same JSON
+        assertThat(
+                new String(result.getJson(), StandardCharsets.UTF_8),
+                is(new ObjectMapper().writeValueAsString(result))
+        );
+    }
 }
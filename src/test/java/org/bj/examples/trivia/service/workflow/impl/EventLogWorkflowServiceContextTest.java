@@ -0,0 +1,34 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.bj.examples.trivia.service.workflow.WorkflowService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+        "workflow-event-log.enabled=true",
+        "workflow-event-log.directory=target/test-workflow-events",
+        //The memory profile needs no database
+        "spring.autoconfigure.exclude="
+                + "org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration,"
+                + "org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration,"
+                + "org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration"
+})
+@ActiveProfiles("memory")
+public class EventLogWorkflowServiceContextTest {
+    @Autowired
+    private WorkflowService workflowService;
+
+    @Test
+    public void testEventLogReplacesProfileWorkflowStore() {
+        assertThat(workflowService, is(instanceOf(EventLogWorkflowServiceImpl.class)));
+    }
+}
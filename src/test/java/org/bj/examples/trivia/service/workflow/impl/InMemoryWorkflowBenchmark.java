@@ -0,0 +1,101 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bj.examples.trivia.exception.WorkflowException;
+import org.bj.examples.trivia.service.score.impl.InMemoryScoreServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures workflow commands per second against the in-memory service from
+ * every core. Each thread plays its own channels through question, answers
+ * and turn change, so with a channel per thread there is no contention and
+ * with "shared" all threads fight over one channel. Run the main method from
+ * the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class InMemoryWorkflowBenchmark {
+    private static final int ANSWERS_PER_QUESTION = 5;
+    private static final String HOST_ID = "U0";
+
+    @Param({"perThread", "shared"})
+    public String channels;
+
+    private final InMemoryWorkflowServiceImpl service = new InMemoryWorkflowServiceImpl(new InMemoryScoreServiceImpl());
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Player {
+        private String channelId;
+        private String userId;
+        private int step;
+
+        @Setup
+        public void setUp(final InMemoryWorkflowBenchmark benchmark) throws WorkflowException {
+            final int threadIndex = benchmark.threadCount.getAndIncrement();
+
+            channelId = "shared".equals(benchmark.channels) ? "C0" : "C" + threadIndex;
+            userId = "P" + threadIndex;
+
+            try {
+                benchmark.service.onGameStarted(channelId, HOST_ID, null);
+            } catch (WorkflowException e) {
+                //Another thread started the shared channel
+            }
+        }
+    }
+
+    /**
+     * One command per call: a question, some answers, then the turn goes
+     * back to the same host. On a shared channel commands that arrive in the
+     * wrong stage are rejected, which is still a command handled.
+     */
+    @Benchmark
+    public void command(final Player player, final Blackhole blackhole) {
+        final int step = player.step++ % (ANSWERS_PER_QUESTION + 2);
+
+        try {
+            if (step == 0) {
+                service.onQuestionSubmitted(player.channelId, HOST_ID, "question");
+            } else if (step <= ANSWERS_PER_QUESTION) {
+                service.onAnswerSubmitted(player.channelId, player.userId, player.userId, "answer", LocalDateTime.MIN);
+            } else {
+                service.onTurnChanged(player.channelId, HOST_ID, HOST_ID);
+            }
+        } catch (WorkflowException e) {
+            blackhole.consume(e);
+        }
+    }
+
+    @Benchmark
+    public void gameState(final Player player, final Blackhole blackhole) {
+        blackhole.consume(service.getCurrentGameState(player.channelId));
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(InMemoryWorkflowBenchmark.class.getSimpleName()).build()).run();
+    }
+}
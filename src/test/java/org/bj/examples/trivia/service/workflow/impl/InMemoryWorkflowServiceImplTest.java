@@ -7,67 +7,70 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
-import java.lang.reflect.Field;
-
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.dto.GameState;
 import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.exception.WorkflowException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.bj.examples.trivia.service.score.impl.InMemoryScoreServiceImpl;
 import org.mockito.InjectMocks;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.springframework.util.ReflectionUtils;
 
 @RunWith(MockitoJUnitRunner.StrictStubs.class)
 public class InMemoryWorkflowServiceImplTest {
     @InjectMocks
     public InMemoryWorkflowServiceImpl cut;
 
+    @Spy
+    private InMemoryScoreServiceImpl scoreService;
+
     //region onGameStarted
     @Test
     public void testOnGameStartedWithNullChannelId() {
-        final String userId = "U12345";
-
-        setCurrentHost(null);
-        setQuestion(null);
-
         Exception exception = null;
 
         try {
-            cut.onGameStarted(null, userId, null);
+            cut.onGameStarted(null, "U12345", null);
         } catch (Exception e) {
             exception = e;
         }
 
         assertThat(exception, is(nullValue()));
-        assertThat(getCurrentHost(), is(equalTo(new SlackUser(userId, null))));
-        assertThat(getQuestion(), is(nullValue()));
     }
 
     @Test
     public void testOnGameStartedWithNullUserId() {
-        setCurrentHost(null);
-        setQuestion(null);
-
         Exception exception = null;
 
         try {
-            cut.onGameStarted("12345", null, null);
+            cut.onGameStarted("C12345", null, null);
         } catch (Exception e) {
             exception = e;
         }
 
         assertThat(exception, is(nullValue()));
-        assertThat(getCurrentHost(), is(nullValue()));
-        assertThat(getQuestion(), is(nullValue()));
+        assertThat(cut.getCurrentGameState("C12345").getControllingUserId(), is(nullValue()));
     }
 
     @Test
-    public void testOnGameStartedWithGameAlreadyStartedAndCurrentUserAsHost() {
+    public void testOnGameStartedWithGameAlreadyStartedAndCurrentUserAsHost() throws Exception {
         final String channelId = "C12345";
         final String userId = "U6789";
 
-        setCurrentHost(new SlackUser(userId, null));
-        setQuestion(null);
+        cut.onGameStarted(channelId, userId, null);
 
         Exception exception = null;
 
@@ -83,13 +86,12 @@ public class InMemoryWorkflowServiceImplTest {
     }
 
     @Test
-    public void testOnGameStartedWithGameAlreadyStartedAndDifferentHost() {
+    public void testOnGameStartedWithGameAlreadyStartedAndDifferentHost() throws Exception {
         final String channelId = "C12345";
         final String userId = "U6789";
         final String controllingUserId = "U1346";
 
-        setCurrentHost(new SlackUser(controllingUserId, null));
-        setQuestion(null);
+        cut.onGameStarted(channelId, controllingUserId, null);
 
         Exception exception = null;
 
@@ -108,49 +110,333 @@ public class InMemoryWorkflowServiceImplTest {
     public void testOnGameStartedWithGameNotStarted() {
         final String channelId = "C12345";
         final String userId = "U6789";
+        final String topic = "history";
+
+        Exception exception = null;
+
+        try {
+            cut.onGameStarted(channelId, userId, topic);
+        } catch (Exception e) {
+            exception = e;
+        }
 
-        setCurrentHost(null);
-        setQuestion(null);
+        assertThat(exception, is(nullValue()));
+
+        final GameState gameState = cut.getCurrentGameState(channelId);
+        assertThat(gameState.getControllingUserId(), is(equalTo(userId)));
+        assertThat(gameState.getTopic(), is(equalTo(topic)));
+        assertThat(gameState.getQuestion(), is(nullValue()));
+    }
+
+    @Test
+    public void testOnGameStartedInAnotherChannel() throws Exception {
+        cut.onGameStarted("C12345", "U6789", null);
 
         Exception exception = null;
 
         try {
-            cut.onGameStarted(channelId, userId, null);
+            cut.onGameStarted("C67890", "U1346", null);
         } catch (Exception e) {
             exception = e;
         }
 
         assertThat(exception, is(nullValue()));
-        assertThat(getCurrentHost(), is(equalTo(new SlackUser(userId, null))));
-        assertThat(getQuestion(), is(nullValue()));
+        assertThat(cut.getCurrentGameState("C12345").getControllingUserId(), is(equalTo("U6789")));
+        assertThat(cut.getCurrentGameState("C67890").getControllingUserId(), is(equalTo("U1346")));
     }
     //endregion
 
-    private SlackUser getCurrentHost() {
-        final Field currentHostField = ReflectionUtils.findField(InMemoryWorkflowServiceImpl.class, "currentHost");
-        ReflectionUtils.makeAccessible(currentHostField);
+    //region onGameStopped
+    @Test
+    public void testOnGameStoppedWithNoGame() {
+        Exception exception = null;
 
-        return (SlackUser)ReflectionUtils.getField(currentHostField, cut);
+        try {
+            cut.onGameStopped("C12345", "U6789");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(GameNotStartedException.class)));
     }
 
-    private void setCurrentHost(final SlackUser currentHost) {
-        final Field currentHostField = ReflectionUtils.findField(InMemoryWorkflowServiceImpl.class, "currentHost");
-        ReflectionUtils.makeAccessible(currentHostField);
+    @Test
+    public void testOnGameStoppedWithDifferentHost() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U1346", null);
+
+        Exception exception = null;
+
+        try {
+            cut.onGameStopped(channelId, "U6789");
+        } catch (Exception e) {
+            exception = e;
+        }
 
-        ReflectionUtils.setField(currentHostField, cut, currentHost);
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("<@U1346> is currently hosting.")));
     }
 
-    private String getQuestion() {
-        final Field questionField = ReflectionUtils.findField(InMemoryWorkflowServiceImpl.class, "question");
-        ReflectionUtils.makeAccessible(questionField);
+    @Test
+    public void testOnGameStoppedWithSameHost() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
 
-        return ((String)ReflectionUtils.getField(questionField, cut));
+        cut.onGameStarted(channelId, userId, null);
+        cut.onGameStopped(channelId, userId);
+
+        assertThat(cut.getCurrentGameState(channelId).getControllingUserId(), is(nullValue()));
     }
+    //endregion
 
-    private void setQuestion(final String question) {
-        final Field questionField = ReflectionUtils.findField(InMemoryWorkflowServiceImpl.class, "question");
-        ReflectionUtils.makeAccessible(questionField);
+    //region onQuestionSubmitted
+    @Test
+    public void testOnQuestionSubmittedWithDifferentHost() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U1346", null);
 
-        ReflectionUtils.setField(questionField, cut, question);
+        Exception exception = null;
+
+        try {
+            cut.onQuestionSubmitted(channelId, "U6789", "test question");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("It's <@U1346>'s turn to ask a question.")));
+    }
+
+    @Test
+    public void testOnQuestionSubmittedWithQuestionAsked() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        cut.onGameStarted(channelId, userId, null);
+        cut.onQuestionSubmitted(channelId, userId, "test question");
+
+        Exception exception = null;
+
+        try {
+            cut.onQuestionSubmitted(channelId, userId, "another question");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("You have already asked a question.")));
+        assertThat(cut.getCurrentGameState(channelId).getQuestion(), is(equalTo("test question")));
+    }
+    //endregion
+
+    //region onAnswerSubmitted
+    @Test
+    public void testOnAnswerSubmittedWithNoQuestion() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", null);
+
+        Exception exception = null;
+
+        try {
+            cut.onAnswerSubmitted(channelId, "U1346", "bob", "an answer", LocalDateTime.now());
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("A question has not yet been submitted. Please wait for <@U6789> to ask a question.")));
     }
+
+    @Test
+    public void testOnAnswerSubmittedByHost() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        cut.onGameStarted(channelId, userId, null);
+        cut.onQuestionSubmitted(channelId, userId, "test question");
+
+        Exception exception = null;
+
+        try {
+            cut.onAnswerSubmitted(channelId, userId, "alice", "an answer", LocalDateTime.now());
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("You can't answer your own question!")));
+    }
+
+    @Test
+    public void testOnAnswerSubmittedIsKept() throws Exception {
+        final String channelId = "C12345";
+        final LocalDateTime createdDate = LocalDateTime.now();
+
+        cut.onGameStarted(channelId, "U6789", null);
+        cut.onQuestionSubmitted(channelId, "U6789", "test question");
+        cut.onAnswerSubmitted(channelId, "U1346", "bob", "an answer", createdDate);
+
+        final List<GameState.Answer> answers = cut.getCurrentGameState(channelId).getAnswers();
+        assertThat(answers.size(), is(equalTo(1)));
+        assertThat(answers.get(0).getUserId(), is(equalTo("U1346")));
+        assertThat(answers.get(0).getUsername(), is(equalTo("bob")));
+        assertThat(answers.get(0).getText(), is(equalTo("an answer")));
+        assertThat(answers.get(0).getCreatedDate(), is(equalTo(createdDate)));
+    }
+    //endregion
+
+    //region onCorrectAnswerSelected
+    @Test
+    public void testOnCorrectAnswerSelectedWithDifferentHost() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", null);
+        cut.onQuestionSubmitted(channelId, "U6789", "test question");
+
+        Exception exception = null;
+
+        try {
+            cut.onCorrectAnswerSelected(channelId, "U1346");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("It's <@U6789>'s turn; only he/she can mark an answer correct.")));
+    }
+    //endregion
+
+    //region onTurnChanged
+    @Test
+    public void testOnTurnChangedClearsQuestionAndAnswers() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", "history");
+        cut.onQuestionSubmitted(channelId, "U6789", "test question");
+        cut.onAnswerSubmitted(channelId, "U1346", "bob", "an answer", LocalDateTime.now());
+        cut.onTurnChanged(channelId, "U6789", "U1346");
+
+        final GameState gameState = cut.getCurrentGameState(channelId);
+        assertThat(gameState.getControllingUserId(), is(equalTo("U1346")));
+        assertThat(gameState.getTopic(), is(equalTo("history")));
+        assertThat(gameState.getQuestion(), is(nullValue()));
+        assertThat(gameState.getAnswers(), is(nullValue()));
+    }
+
+    @Test
+    public void testOnTurnChangedWithDifferentHost() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", null);
+
+        Exception exception = null;
+
+        try {
+            cut.onTurnChanged(channelId, "U1346", "U1346");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("It's <@U6789>'s turn; only he/she can cede his/her turn.")));
+    }
+    //endregion
+
+    //region resolveQuestion
+    @Test
+    public void testResolveQuestionScoresWinnerAndPassesTurn() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", "history");
+        cut.onQuestionSubmitted(channelId, "U6789", "test question");
+        scoreService.createUserIfNotExists(channelId, new SlackUser("U1346", "bob"), "JOIN");
+        cut.onAnswerSubmitted(channelId, "U1346", "bob", "an answer", LocalDateTime.now());
+
+        final Map<SlackUser, Long> scoresByUser = cut.resolveQuestion(channelId, "U6789", "U1346");
+
+        assertThat(scoresByUser.get(new SlackUser("U1346", "bob")), is(equalTo(1L)));
+
+        final GameState gameState = cut.getCurrentGameState(channelId);
+        assertThat(gameState.getControllingUserId(), is(equalTo("U1346")));
+        assertThat(gameState.getTopic(), is(equalTo("history")));
+        assertThat(gameState.getQuestion(), is(nullValue()));
+    }
+
+    @Test
+    public void testResolveQuestionWithUnknownWinnerChangesNothing() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", null);
+        cut.onQuestionSubmitted(channelId, "U6789", "test question");
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion(channelId, "U6789", "U1346");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(ScoreException.class)));
+        assertThat(cut.getCurrentGameState(channelId).getQuestion(), is(equalTo("test question")));
+    }
+
+    @Test
+    public void testResolveQuestionWithoutQuestion() throws Exception {
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", null);
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion(channelId, "U6789", null);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("A question has not yet been submitted. Please ask a question before marking an answer correct.")));
+    }
+    //endregion
+
+    //region concurrency
+    @Test
+    public void testConcurrentAnswersInOneChannelAreAllKept() throws Exception {
+        final int answerCount = 2000;
+        final String channelId = "C12345";
+
+        cut.onGameStarted(channelId, "U6789", null);
+        cut.onQuestionSubmitted(channelId, "U6789", "test question");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < answerCount; i++) {
+                final String userId = "P" + i;
+
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    cut.onAnswerSubmitted(channelId, userId, userId, "answer", LocalDateTime.now());
+                    return null;
+                }));
+            }
+
+            start.countDown();
+
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(cut.getCurrentGameState(channelId).getAnswers().size(), is(equalTo(answerCount)));
+    }
+    //endregion
 }
@@ -8,28 +8,49 @@ import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mockingDetails;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.bj.examples.trivia.data.workflow.Answer;
 import org.bj.examples.trivia.data.workflow.Workflow;
 import org.bj.examples.trivia.data.workflow.WorkflowRepo;
 import org.bj.examples.trivia.data.workflow.WorkflowStage;
+import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.exception.WorkflowException;
+import org.bj.examples.trivia.service.score.ScoreService;
 import org.bson.types.ObjectId;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import com.google.common.collect.ImmutableMap;
+
 @RunWith(MockitoJUnitRunner.StrictStubs.class)
 public class MongoWorkflowServiceImplTest {
     @InjectMocks
@@ -38,6 +59,9 @@ public class MongoWorkflowServiceImplTest {
     @Mock
     private WorkflowRepo workflowRepo;
 
+    @Mock
+    private ScoreService scoreService;
+
     //region onGameStarted
     @Test
     public void testOnGameStartedWithNullChannelId() {
@@ -244,17 +268,10 @@ public class MongoWorkflowServiceImplTest {
 
     @Test
     public void testOnGameStoppedWithExistingWorkflowAndSameHost() {
-        final ObjectId id = new ObjectId();
         final String channelId = "C12345";
         final String userId = "U6789";
 
-        final Workflow workflow = new Workflow();
-        workflow.setId(id);
-        workflow.setChannelId(channelId);
-        workflow.setControllingUserId(userId);
-        workflow.setStage(WorkflowStage.QUESTION_ASKED);
-
-        given(workflowRepo.findByChannelId(anyString())).willReturn(workflow);
+        given(workflowRepo.removeGame(anyString(), anyString())).willReturn(true);
 
         Exception exception = null;
 
@@ -266,8 +283,8 @@ public class MongoWorkflowServiceImplTest {
 
         assertThat(exception, is(nullValue()));
 
-        verify(workflowRepo).findByChannelId(channelId);
-        verify(workflowRepo).deleteById(id);
+        verify(workflowRepo).removeGame(channelId, userId);
+        verify(workflowRepo, never()).findByChannelId(any());
     }
     //endregion
 
@@ -419,17 +436,40 @@ public class MongoWorkflowServiceImplTest {
 
     @Test
     public void testOnQuestionSubmittedWithSameHostAndNoQuestionAsked() {
-        final ObjectId id = new ObjectId();
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String question = "test question";
+
+        given(workflowRepo.submitQuestion(anyString(), anyString(), anyString())).willReturn(true);
+
+        Exception exception = null;
+
+        try {
+            cut.onQuestionSubmitted(channelId, userId, question);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(nullValue()));
+
+        verify(workflowRepo).submitQuestion(channelId, userId, question);
+        verify(workflowRepo, never()).findByChannelId(any());
+        verify(workflowRepo, never()).save(any());
+    }
+
+    @Test
+    public void testOnQuestionSubmittedRetriesWhenWorkflowChangedConcurrently() {
         final String channelId = "C12345";
         final String userId = "U6789";
         final String question = "test question";
 
         final Workflow workflow = new Workflow();
-        workflow.setId(id);
+        workflow.setId(new ObjectId());
         workflow.setChannelId(channelId);
         workflow.setControllingUserId(userId);
         workflow.setStage(WorkflowStage.STARTED);
 
+        given(workflowRepo.submitQuestion(anyString(), anyString(), anyString())).willReturn(false, true);
         given(workflowRepo.findByChannelId(anyString())).willReturn(workflow);
 
         Exception exception = null;
@@ -442,17 +482,33 @@ public class MongoWorkflowServiceImplTest {
 
         assertThat(exception, is(nullValue()));
 
-        verify(workflowRepo).findByChannelId(channelId);
+        verify(workflowRepo, times(2)).submitQuestion(channelId, userId, question);
+    }
 
-        ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
-        verify(workflowRepo).save(workflowCaptor.capture());
+    @Test
+    public void testOnQuestionSubmittedGivesUpWhenWorkflowKeepsChanging() {
+        final String channelId = "C12345";
+        final String userId = "U6789";
 
-        assertThat(workflowCaptor.getValue(), is(notNullValue()));
-        assertThat(workflowCaptor.getValue().getId(), is(equalTo(id)));
-        assertThat(workflowCaptor.getValue().getChannelId(), is(equalTo(channelId)));
-        assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(userId)));
-        assertThat(workflowCaptor.getValue().getQuestion(), is(equalTo(question)));
-        assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.QUESTION_ASKED)));
+        final Workflow workflow = new Workflow();
+        workflow.setId(new ObjectId());
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(userId);
+        workflow.setStage(WorkflowStage.STARTED);
+
+        given(workflowRepo.submitQuestion(anyString(), anyString(), anyString())).willReturn(false);
+        given(workflowRepo.findByChannelId(anyString())).willReturn(workflow);
+
+        Exception exception = null;
+
+        try {
+            cut.onQuestionSubmitted(channelId, userId, "test question");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("The game changed while your command was being handled. Please try again.")));
     }
     //endregion
 
@@ -599,21 +655,13 @@ public class MongoWorkflowServiceImplTest {
 
     @Test
     public void testOnAnswerSubmittedWithDifferentHostAndQuestionAsked() {
-        final ObjectId id = new ObjectId();
         final String channelId = "C12345";
         final String userId = "U6789";
         final String username = "myusername";
         final String answerText = "answer test";
         final LocalDateTime answerTime = LocalDateTime.now();
-        final String controllingUserId = "U1346";
-
-        final Workflow workflow = new Workflow();
-        workflow.setId(id);
-        workflow.setChannelId(channelId);
-        workflow.setControllingUserId(controllingUserId);
-        workflow.setStage(WorkflowStage.QUESTION_ASKED);
 
-        given(workflowRepo.findByChannelId(anyString())).willReturn(workflow);
+        given(workflowRepo.pushAnswer(anyString(), any())).willReturn(true);
 
         Exception exception = null;
 
@@ -625,24 +673,18 @@ public class MongoWorkflowServiceImplTest {
 
         assertThat(exception, is(nullValue()));
 
-        verify(workflowRepo).findByChannelId(channelId);
-
-        ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
-        verify(workflowRepo).save(workflowCaptor.capture());
+        verify(workflowRepo, never()).findByChannelId(any());
 
-        assertThat(workflowCaptor.getValue(), is(notNullValue()));
-        assertThat(workflowCaptor.getValue().getId(), is(equalTo(id)));
-        assertThat(workflowCaptor.getValue().getChannelId(), is(equalTo(channelId)));
-        assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(controllingUserId)));
-        assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.QUESTION_ASKED)));
+        ArgumentCaptor<Answer> answerCaptor = ArgumentCaptor.forClass(Answer.class);
+        verify(workflowRepo).pushAnswer(eq(channelId), answerCaptor.capture());
+        verify(workflowRepo, never()).save(any());
 
-        final List<Answer> answers = workflowCaptor.getValue().getAnswers();
-        assertThat(answers, is(notNullValue()));
-        assertThat(answers.size(), is(equalTo(1)));
-        assertThat(answers.get(0).getUserId(), is(equalTo(userId)));
-        assertThat(answers.get(0).getUsername(), is(equalTo(username)));
-        assertThat(answers.get(0).getText(), is(equalTo(answerText)));
-        assertThat(answers.get(0).getCreatedDate(), is(equalTo(answerTime)));
+        final Answer answer = answerCaptor.getValue();
+        assertThat(answer, is(notNullValue()));
+        assertThat(answer.getUserId(), is(equalTo(userId)));
+        assertThat(answer.getUsername(), is(equalTo(username)));
+        assertThat(answer.getText(), is(equalTo(answerText)));
+        assertThat(answer.getCreatedDate(), is(equalTo(answerTime)));
     }
     //endregion
 
@@ -913,39 +955,279 @@ public class MongoWorkflowServiceImplTest {
 
     @Test
     public void testOnTurnChangedWithSameHost() {
-        final ObjectId id = new ObjectId();
         final String channelId = "C12345";
         final String userId = "U6789";
         final String newControllingUserId = "U1532";
 
+        given(workflowRepo.changeTurn(anyString(), anyString(), anyString())).willReturn(true);
+
+        Exception exception = null;
+
+        try {
+            cut.onTurnChanged(channelId, userId, newControllingUserId);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(nullValue()));
+
+        verify(workflowRepo).changeTurn(channelId, userId, newControllingUserId);
+        verify(workflowRepo, never()).findByChannelId(any());
+        verify(workflowRepo, never()).save(any());
+    }
+    //endregion
+
+    //region resolveQuestion
+    @Test
+    public void testResolveQuestionWithWinner() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String winnerUserId = "U1532";
+
+        given(scoreService.doesUserExist(anyString(), anyString(), any())).willReturn(true);
+        given(workflowRepo.closeQuestion(anyString(), anyString(), anyString())).willReturn(createQuestionAsked(channelId, userId));
+        given(scoreService.getAllScoresByUser(anyString())).willReturn(ImmutableMap.of(
+                new SlackUser(winnerUserId, "jsmith"), 5L,
+                new SlackUser("U1346", "jdoe"), 2L
+        ));
+
+        final Map<SlackUser, Long> scoresByUser = cut.resolveQuestion(channelId, userId, winnerUserId);
+
+        assertThat(scoresByUser.get(new SlackUser(winnerUserId, "jsmith")), is(equalTo(5L)));
+        assertThat(scoresByUser.get(new SlackUser("U1346", "jdoe")), is(equalTo(2L)));
+
+        //The point goes through the score service, and the scores are read after it
+        final InOrder inOrder = inOrder(workflowRepo, scoreService);
+        inOrder.verify(workflowRepo).closeQuestion(channelId, userId, winnerUserId);
+        inOrder.verify(scoreService).incrementScore(channelId, winnerUserId);
+        inOrder.verify(scoreService).getAllScoresByUser(channelId);
+
+        //The resolving update alone; the workflow is never read
+        assertThat(mockingDetails(workflowRepo).getInvocations().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testResolveQuestionWithoutWinner() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        given(workflowRepo.closeQuestion(anyString(), anyString(), anyString())).willReturn(createQuestionAsked(channelId, userId));
+        given(scoreService.getAllScoresByUser(anyString())).willReturn(ImmutableMap.of());
+
+        cut.resolveQuestion(channelId, userId, null);
+
+        verify(workflowRepo).closeQuestion(channelId, userId, userId);
+        verify(scoreService, never()).incrementScore(anyString(), anyString());
+    }
+
+    @Test
+    public void testResolveQuestionReopensQuestionWhenPointCannotBeGiven() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String winnerUserId = "U1532";
+
+        final Workflow closedWorkflow = createQuestionAsked(channelId, userId);
+
+        given(scoreService.doesUserExist(anyString(), anyString(), any())).willReturn(true);
+        given(workflowRepo.closeQuestion(anyString(), anyString(), anyString())).willReturn(closedWorkflow);
+        willThrow(new ScoreException()).given(scoreService).incrementScore(anyString(), anyString());
+        given(workflowRepo.reopenQuestion(any(Workflow.class))).willReturn(true);
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion(channelId, userId, winnerUserId);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        //The turn is not handed on without the point
+        assertThat(exception, is(instanceOf(ScoreException.class)));
+        verify(workflowRepo).reopenQuestion(closedWorkflow);
+        verify(scoreService, never()).getAllScoresByUser(anyString());
+    }
+
+    @Test
+    public void testResolveQuestionWithUnknownWinner() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
         final Workflow workflow = new Workflow();
-        workflow.setId(id);
         workflow.setChannelId(channelId);
         workflow.setControllingUserId(userId);
         workflow.setStage(WorkflowStage.QUESTION_ASKED);
 
+        given(scoreService.doesUserExist(anyString(), anyString(), any())).willReturn(false);
         given(workflowRepo.findByChannelId(anyString())).willReturn(workflow);
 
         Exception exception = null;
 
         try {
-            cut.onTurnChanged(channelId, userId, newControllingUserId);
+            cut.resolveQuestion(channelId, userId, "U1532");
         } catch (Exception e) {
             exception = e;
         }
 
-        assertThat(exception, is(nullValue()));
+        assertThat(exception, is(instanceOf(ScoreException.class)));
 
-        verify(workflowRepo).findByChannelId(channelId);
+        verify(workflowRepo, never()).closeQuestion(anyString(), anyString(), any());
+        verify(scoreService, never()).incrementScore(anyString(), anyString());
+    }
 
-        ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
-        verify(workflowRepo).save(workflowCaptor.capture());
+    @Test
+    public void testResolveQuestionWithDifferentHost() throws Exception {
+        final String channelId = "C12345";
+        final String controllingUserId = "U1346";
 
-        assertThat(workflowCaptor.getValue(), is(notNullValue()));
-        assertThat(workflowCaptor.getValue().getId(), is(equalTo(id)));
-        assertThat(workflowCaptor.getValue().getChannelId(), is(equalTo(channelId)));
-        assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(newControllingUserId)));
-        assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.STARTED)));
+        final Workflow workflow = new Workflow();
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(controllingUserId);
+        workflow.setStage(WorkflowStage.QUESTION_ASKED);
+
+        given(workflowRepo.closeQuestion(anyString(), anyString(), any())).willReturn(null);
+        given(workflowRepo.findByChannelId(anyString())).willReturn(workflow);
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion(channelId, "U6789", null);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("It's <@" + controllingUserId + ">'s turn; only he/she can mark an answer correct.")));
+
+        verify(scoreService, never()).incrementScore(anyString(), anyString());
+    }
+
+    private static Workflow createQuestionAsked(final String channelId, final String controllingUserId) {
+        final Workflow workflow = new Workflow();
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(controllingUserId);
+        workflow.setQuestion("test question");
+        workflow.setStage(WorkflowStage.QUESTION_ASKED);
+        workflow.setVersion(3L);
+
+        return workflow;
+    }
+    //endregion
+
+    //region concurrency
+    @Test
+    public void testConcurrentAnswersInOneChannelAreAllKept() throws Exception {
+        final int answerCount = 500;
+        final String channelId = "C12345";
+        final String hostId = "U6789";
+        final Map<String, Workflow> store = createStore();
+
+        cut.onGameStarted(channelId, hostId, null);
+        cut.onQuestionSubmitted(channelId, hostId, "test question");
+
+        submitConcurrently(answerCount, 16, i -> cut.onAnswerSubmitted(channelId, "P" + i, "user" + i, "answer " + i, LocalDateTime.now()));
+
+        final List<Answer> answers = store.get(channelId).getAnswers();
+        assertThat(answers.size(), is(equalTo(answerCount)));
+        assertThat(answers.stream().map(Answer::getUserId).distinct().count(), is(equalTo((long) answerCount)));
+    }
+
+    private Map<String, Workflow> createStore() {
+        final Map<String, Workflow> store = new ConcurrentHashMap<>();
+
+        willAnswer(invocation -> {
+            final Workflow workflow = store.get(invocation.<String>getArgument(0));
+            //Widen the window between the read and the write
+            Thread.yield();
+            return workflow == null ? null : copyOf(workflow);
+        }).given(workflowRepo).findByChannelId(anyString());
+
+        willAnswer(invocation -> {
+            final Workflow workflow = invocation.getArgument(0);
+
+            if (workflow.getId() == null) {
+                workflow.setId(new ObjectId());
+            }
+
+            store.put(workflow.getChannelId(), copyOf(workflow));
+            return workflow;
+        }).given(workflowRepo).save(any());
+
+        //Conditional updates are atomic per document
+        willAnswer(invocation -> {
+            final AtomicBoolean submitted = new AtomicBoolean();
+
+            store.computeIfPresent(invocation.getArgument(0), (channelId, workflow) -> {
+                if (workflow.getStage() == WorkflowStage.STARTED && workflow.getControllingUserId().equals(invocation.getArgument(1))) {
+                    workflow.setQuestion(invocation.getArgument(2));
+                    workflow.setStage(WorkflowStage.QUESTION_ASKED);
+                    submitted.set(true);
+                }
+
+                return workflow;
+            });
+
+            return submitted.get();
+        }).given(workflowRepo).submitQuestion(anyString(), anyString(), anyString());
+
+        willAnswer(invocation -> {
+            final Answer answer = invocation.getArgument(1);
+            final AtomicBoolean pushed = new AtomicBoolean();
+
+            store.computeIfPresent(invocation.getArgument(0), (channelId, workflow) -> {
+                if (workflow.getStage() == WorkflowStage.QUESTION_ASKED && !workflow.getControllingUserId().equals(answer.getUserId())) {
+                    workflow.getAnswers().add(answer);
+                    pushed.set(true);
+                }
+
+                return workflow;
+            });
+
+            return pushed.get();
+        }).given(workflowRepo).pushAnswer(anyString(), any());
+
+        return store;
+    }
+
+    private static void submitConcurrently(final int count, final int threadCount, final IndexedCommand command) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> submissions = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+
+            submissions.add(executor.submit(() -> {
+                start.await();
+                command.run(index);
+                return null;
+            }));
+        }
+
+        start.countDown();
+
+        for (final Future<?> submission : submissions) {
+            submission.get(30, TimeUnit.SECONDS);
+        }
+
+        executor.shutdown();
+    }
+
+    private static Workflow copyOf(final Workflow workflow) {
+        final Workflow copy = new Workflow();
+        copy.setId(workflow.getId());
+        copy.setChannelId(workflow.getChannelId());
+        copy.setControllingUserId(workflow.getControllingUserId());
+        copy.setTopic(workflow.getTopic());
+        copy.setQuestion(workflow.getQuestion());
+        copy.setAnswers(new ArrayList<>(workflow.getAnswers()));
+        copy.setStage(workflow.getStage());
+
+        return copy;
+    }
+
+    @FunctionalInterface
+    private interface IndexedCommand {
+        void run(int index) throws Exception;
     }
     //endregion
 }
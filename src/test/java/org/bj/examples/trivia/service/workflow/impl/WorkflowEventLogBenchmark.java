@@ -0,0 +1,158 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures how long opening a workflow event log takes after millions of
+ * events, with snapshots taken as configured, and the cost of one append.
+ * The log is left as after a crash, so opening it loads the newest snapshot
+ * and replays the events after it. Run the main method from the test
+ * classpath.
+ */
+@Fork(1)
+public class WorkflowEventLogBenchmark {
+    private static final int CHANNEL_COUNT = 1000;
+
+    @State(Scope.Benchmark)
+    public static class RecordedLog {
+        @Param({"2000000"})
+        public int eventCount;
+
+        private Path directory;
+        private WorkflowEventLogConfig config;
+        private WorkflowEventLog log;
+
+        @Setup(Level.Trial)
+        public void record() throws IOException {
+            directory = Files.createTempDirectory("workflow-events");
+
+            config = new WorkflowEventLogConfig();
+            config.setDirectory(directory.toString());
+            //Only snapshot on the event count, so every open replays the same tail
+            config.setSnapshotIntervalMillis(TimeUnit.HOURS.toMillis(1));
+
+            final WorkflowEventLog recordingLog = new WorkflowEventLog(config);
+            recordingLog.open();
+
+            for (int i = 0; i < eventCount; i++) {
+                recordingLog.append(nextEvent(i));
+            }
+
+            //Waits for any background snapshot, then leaves half a snapshot's worth of events to replay
+            recordingLog.snapshot();
+
+            for (int i = 0; i < config.getSnapshotEveryEvents() / 2; i++) {
+                recordingLog.append(nextEvent(eventCount + i));
+            }
+
+            //Dropped without closing, as if the process had died
+            recordingLog.sync();
+        }
+
+        //Not closed either, since closing would snapshot the replayed events
+        @TearDown(Level.Invocation)
+        public void dropOpened() {
+            if (log != null) {
+                log.sync();
+                log = null;
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class OpenLog {
+        private Path directory;
+        private WorkflowEventLog log;
+        private int eventIndex;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("workflow-events");
+
+            final WorkflowEventLogConfig config = new WorkflowEventLogConfig();
+            config.setDirectory(directory.toString());
+
+            log = new WorkflowEventLog(config);
+            log.open();
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            log.close();
+
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public long open(final RecordedLog recordedLog) throws IOException {
+        recordedLog.log = new WorkflowEventLog(recordedLog.config);
+        recordedLog.log.open();
+
+        return recordedLog.log.getReplayedEventCount();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public WorkflowEvent append(final OpenLog openLog) {
+        return openLog.log.append(nextEvent(openLog.eventIndex++));
+    }
+
+    //Each channel cycles through a question, three answers and a turn change
+    private static WorkflowEvent nextEvent(final int index) {
+        final String channelId = "C" + (index % CHANNEL_COUNT);
+        final int step = (index / CHANNEL_COUNT) % 5;
+
+        if (index < CHANNEL_COUNT) {
+            return WorkflowEvent.gameStarted(channelId, "U0", "general");
+        } else if (step == 0) {
+            return WorkflowEvent.questionSubmitted(channelId, "U0", "What is the capital of France?");
+        } else if (step == 4) {
+            return WorkflowEvent.turnChanged(channelId, "U0", "U0");
+        } else {
+            return WorkflowEvent.answerSubmitted(channelId, "P" + step, "player" + step, "Paris", null);
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WorkflowEventLogBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,347 @@
+package org.bj.examples.trivia.service.workflow.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bj.examples.trivia.data.workflow.WorkflowStage;
+import org.bj.examples.trivia.dto.GameState;
+import org.bj.examples.trivia.dto.SlackUser;
+import org.bj.examples.trivia.service.score.impl.InMemoryScoreServiceImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WorkflowEventLogTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private WorkflowEventLogConfig config;
+    private WorkflowEventLog cut;
+
+    @Before
+    public void setUp() {
+        config = new WorkflowEventLogConfig();
+        config.setDirectory(temporaryFolder.getRoot().toString());
+        config.setSegmentSizeBytes(64 * 1024);
+        config.setSnapshotIntervalMillis(60000L);
+        config.setSnapshotEveryEvents(Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() {
+        if (cut != null) {
+            cut.close();
+        }
+    }
+
+    @Test
+    public void testEventsAreReplayedAfterRestart() throws IOException {
+        final LocalDateTime createdDate = LocalDateTime.of(2018, 10, 1, 12, 30, 15, 123456789);
+
+        cut = open();
+        cut.append(WorkflowEvent.gameStarted("C1", "U1", "history"));
+        cut.append(WorkflowEvent.questionSubmitted("C1", "U1", "Who was first?"));
+        cut.append(WorkflowEvent.answerSubmitted("C1", "U2", "bob", "Washington ✓", createdDate));
+        cut.append(WorkflowEvent.gameStarted("C2", "U3", null));
+        cut.append(WorkflowEvent.gameStopped("C2", "U3"));
+        crash();
+
+        cut = open();
+
+        assertThat(cut.getLastSequence(), is(equalTo(5L)));
+        assertThat(cut.getReplayedEventCount(), is(equalTo(5L)));
+        assertThat(cut.getState("C2"), is(nullValue()));
+
+        final WorkflowEventLog.ChannelState state = cut.getState("C1");
+        assertThat(state.getControllingUserId(), is(equalTo("U1")));
+        assertThat(state.getTopic(), is(equalTo("history")));
+        assertThat(state.getQuestion(), is(equalTo("Who was first?")));
+        assertThat(state.getStage(), is(equalTo(WorkflowStage.QUESTION_ASKED)));
+        assertThat(state.getAnswers().size(), is(equalTo(1)));
+
+        final GameState.Answer answer = state.getAnswers().get(0);
+        assertThat(answer.getUserId(), is(equalTo("U2")));
+        assertThat(answer.getUsername(), is(equalTo("bob")));
+        assertThat(answer.getText(), is(equalTo("Washington ✓")));
+        assertThat(answer.getCreatedDate(), is(equalTo(createdDate)));
+    }
+
+    @Test
+    public void testOnlyEventsAfterSnapshotAreReplayed() throws IOException {
+        cut = open();
+        cut.append(WorkflowEvent.gameStarted("C1", "U1", null));
+        cut.append(WorkflowEvent.questionSubmitted("C1", "U1", "first question"));
+        cut.append(WorkflowEvent.answerSubmitted("C1", "U2", "bob", "first answer", LocalDateTime.now()));
+        cut.snapshot();
+        cut.append(WorkflowEvent.turnChanged("C1", "U1", "U2"));
+        cut.append(WorkflowEvent.questionSubmitted("C1", "U2", "second question"));
+        crash();
+
+        cut = open();
+
+        assertThat(cut.getReplayedEventCount(), is(equalTo(2L)));
+        assertThat(cut.getLastSequence(), is(equalTo(5L)));
+        assertThat(cut.getState("C1").getControllingUserId(), is(equalTo("U2")));
+        assertThat(cut.getState("C1").getQuestion(), is(equalTo("second question")));
+        assertThat(cut.getState("C1").getAnswers().size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testCloseSnapshotsSoNothingIsReplayed() throws IOException {
+        cut = open();
+        cut.append(WorkflowEvent.gameStarted("C1", "U1", null));
+        cut.append(WorkflowEvent.questionSubmitted("C1", "U1", "a question"));
+        cut.close();
+
+        cut = open();
+
+        assertThat(cut.getReplayedEventCount(), is(equalTo(0L)));
+        assertThat(cut.getState("C1").getQuestion(), is(equalTo("a question")));
+
+        cut.append(WorkflowEvent.gameStopped("C1", "U1"));
+
+        assertThat(cut.getLastSequence(), is(equalTo(3L)));
+        assertThat(cut.getState("C1"), is(nullValue()));
+    }
+
+    @Test
+    public void testSegmentsRollAndOlderOnesAreSkippedAfterSnapshot() throws IOException {
+        final int eventCount = 5000;
+        config.setRetainedSegments(Integer.MAX_VALUE);
+
+        cut = open();
+        cut.append(WorkflowEvent.gameStarted("C1", "U1", null));
+        cut.append(WorkflowEvent.questionSubmitted("C1", "U1", "a question"));
+
+        for (int i = 0; i < eventCount; i++) {
+            cut.append(WorkflowEvent.answerSubmitted("C" + (i % 50 + 2), "P" + i, "player", "answer " + i, null));
+        }
+
+        cut.snapshot();
+
+        for (int i = 0; i < 10; i++) {
+            cut.append(WorkflowEvent.answerSubmitted("C1", "P" + i, "player", "answer " + i, null));
+        }
+
+        crash();
+
+        assertThat(listFiles("events-").size(), is(greaterThan(2)));
+
+        cut = open();
+
+        assertThat(cut.getReplayedEventCount(), is(equalTo(10L)));
+        assertThat(cut.getLastSequence(), is(equalTo(eventCount + 12L)));
+        assertThat(cut.getState("C1").getAnswers().size(), is(equalTo(10)));
+    }
+
+    @Test
+    public void testSegmentsOlderThanEverySnapshotAreDeleted() throws IOException {
+        config.setRetainedSnapshots(1);
+        config.setRetainedSegments(1);
+
+        cut = open();
+
+        for (int i = 0; i < 5000; i++) {
+            cut.append(WorkflowEvent.answerSubmitted("C" + (i % 50), "P" + i, "player", "answer " + i, null));
+        }
+
+        final int segmentCount = listFiles("events-").size();
+        assertThat(segmentCount, is(greaterThan(3)));
+
+        cut.snapshot();
+
+        //The segment being appended to, plus one kept for auditing
+        assertThat(listFiles("events-").size(), is(equalTo(2)));
+
+        cut.append(WorkflowEvent.gameStarted("C1", "U1", null));
+        crash();
+
+        cut = open();
+
+        assertThat(cut.getReplayedEventCount(), is(equalTo(1L)));
+        assertThat(cut.getState("C1").getControllingUserId(), is(equalTo("U1")));
+    }
+
+    @Test
+    public void testDirectoryIsRequired() {
+        config.setDirectory(" ");
+
+        Exception exception = null;
+
+        try {
+            new WorkflowEventLog(config);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(IllegalArgumentException.class)));
+    }
+
+    @Test
+    public void testDamagedTailIsIgnoredAndOverwritten() throws IOException {
+        cut = open();
+        cut.append(WorkflowEvent.gameStarted("C1", "U1", null));
+        cut.append(WorkflowEvent.questionSubmitted("C1", "U1", "a question"));
+        crash();
+
+        //A record whose header made it to disk but whose contents did not
+        final Path segment = listFiles("events-").get(0);
+        final long end = endOfRecords(segment);
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            final ByteBuffer header = ByteBuffer.allocate(8);
+            header.putInt(40).putInt(12345).flip();
+            channel.write(header, end);
+        }
+
+        cut = open();
+
+        assertThat(cut.getLastSequence(), is(equalTo(2L)));
+
+        cut.append(WorkflowEvent.answerSubmitted("C1", "U2", "bob", "an answer", null));
+        crash();
+
+        cut = open();
+
+        assertThat(cut.getLastSequence(), is(equalTo(3L)));
+        assertThat(cut.getState("C1").getAnswers().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testDamagedSnapshotFallsBackToOlderOne() throws IOException {
+        config.setRetainedSnapshots(2);
+
+        cut = open();
+        cut.append(WorkflowEvent.gameStarted("C1", "U1", null));
+        cut.snapshot();
+        cut.append(WorkflowEvent.questionSubmitted("C1", "U1", "a question"));
+        cut.snapshot();
+        crash();
+
+        final List<Path> snapshots = listFiles("snapshot-");
+        assertThat(snapshots.size(), is(equalTo(2)));
+
+        final Path newest = snapshots.get(snapshots.size() - 1);
+        final byte[] bytes = Files.readAllBytes(newest);
+        bytes[bytes.length / 2] ^= 0x7f;
+        Files.write(newest, bytes);
+
+        cut = open();
+
+        assertThat(cut.getReplayedEventCount(), is(equalTo(1L)));
+        assertThat(cut.getState("C1").getQuestion(), is(equalTo("a question")));
+    }
+
+    @Test
+    public void testServiceStateSurvivesRestart() throws Exception {
+        final InMemoryScoreServiceImpl scoreService = new InMemoryScoreServiceImpl();
+        EventLogWorkflowServiceImpl service = new EventLogWorkflowServiceImpl(config, scoreService);
+
+        service.onGameStarted("C1", "U1", "science");
+        service.onQuestionSubmitted("C1", "U1", "What is H2O?");
+        service.onAnswerSubmitted("C1", "U2", "bob", "water", LocalDateTime.now());
+        service.shutdown();
+
+        service = new EventLogWorkflowServiceImpl(config, scoreService);
+
+        try {
+            final GameState gameState = service.getCurrentGameState("C1");
+            assertThat(gameState.getControllingUserId(), is(equalTo("U1")));
+            assertThat(gameState.getTopic(), is(equalTo("science")));
+            assertThat(gameState.getQuestion(), is(equalTo("What is H2O?")));
+            assertThat(gameState.getAnswers(), is(notNullValue()));
+            assertThat(gameState.getAnswers().size(), is(equalTo(1)));
+            assertThat(service.getLastEventSequence(), is(equalTo(3L)));
+            assertThat(service.getActiveGameCount(), is(equalTo(1)));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testResolvedQuestionIsRecordedAsTurnChange() throws Exception {
+        final InMemoryScoreServiceImpl scoreService = new InMemoryScoreServiceImpl();
+        scoreService.createUserIfNotExists("C1", new SlackUser("U2", "bob"), "JOIN");
+
+        EventLogWorkflowServiceImpl service = new EventLogWorkflowServiceImpl(config, scoreService);
+
+        service.onGameStarted("C1", "U1", null);
+        service.onQuestionSubmitted("C1", "U1", "What is H2O?");
+        service.onAnswerSubmitted("C1", "U2", "bob", "water", LocalDateTime.now());
+
+        final Map<SlackUser, Long> scoresByUser = service.resolveQuestion("C1", "U1", "U2");
+        service.shutdown();
+
+        assertThat(scoresByUser.get(new SlackUser("U2", "bob")), is(equalTo(1L)));
+
+        service = new EventLogWorkflowServiceImpl(config, scoreService);
+
+        try {
+            final GameState gameState = service.getCurrentGameState("C1");
+            assertThat(gameState.getControllingUserId(), is(equalTo("U2")));
+            assertThat(gameState.getQuestion(), is(nullValue()));
+            assertThat(service.getLastEventSequence(), is(equalTo(4L)));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private WorkflowEventLog open() throws IOException {
+        final WorkflowEventLog log = new WorkflowEventLog(config);
+        log.open();
+
+        return log;
+    }
+
+    /**
+     * Stops the log without the snapshot a clean close writes
+     */
+    private void crash() {
+        cut.sync();
+        cut = null;
+    }
+
+    private List<Path> listFiles(final String prefix) throws IOException {
+        try (Stream<Path> paths = Files.list(temporaryFolder.getRoot().toPath())) {
+            return paths
+                    .filter(path -> path.getFileName().toString().startsWith(prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long endOfRecords(final Path segment) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+
+        while (buffer.remaining() >= 8) {
+            final int size = buffer.getInt(buffer.position());
+
+            if (size == 0) {
+                break;
+            }
+
+            buffer.position(buffer.position() + 8 + size);
+        }
+
+        return buffer.position();
+    }
+}
@@ -7,28 +7,52 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bj.examples.trivia.data.score.ScoreInfo;
 import org.bj.examples.trivia.data.workflow.Answer;
 import org.bj.examples.trivia.data.workflow.Workflow;
 import org.bj.examples.trivia.data.workflow.WorkflowDao;
 import org.bj.examples.trivia.data.workflow.WorkflowStage;
+import org.bj.examples.trivia.dto.GameState;
+import org.bj.examples.trivia.dto.SlackUser;
 import org.bj.examples.trivia.exception.GameNotStartedException;
+import org.bj.examples.trivia.exception.ScoreException;
 import org.bj.examples.trivia.exception.WorkflowException;
+import org.bj.examples.trivia.service.score.ScoreService;
+import org.bj.examples.trivia.util.OptimisticRetryConfig;
 import org.bson.types.ObjectId;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.OptimisticLockingFailureException;
 
 @RunWith(MockitoJUnitRunner.StrictStubs.class)
 public class WorkflowServiceImplTest {
@@ -38,6 +62,15 @@ public class WorkflowServiceImplTest {
     @Mock
     private WorkflowDao workflowDao;
 
+    @Mock
+    private ScoreService scoreService;
+
+    @Spy
+    private WorkflowCacheConfig config = new WorkflowCacheConfig();
+
+    @Spy
+    private OptimisticRetryConfig retryConfig = new OptimisticRetryConfig();
+
     //region onGameStarted
     @Test
     public void testOnGameStartedWithNullChannelId() {
@@ -149,13 +182,41 @@ public class WorkflowServiceImplTest {
         verify(workflowDao).findByChannelId(channelId);
 
         ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
-        verify(workflowDao).save(workflowCaptor.capture());
+        verify(workflowDao).putIfAbsent(workflowCaptor.capture());
 
         assertThat(workflowCaptor.getValue(), is(notNullValue()));
         assertThat(workflowCaptor.getValue().getChannelId(), is(equalTo(channelId)));
         assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(userId)));
         assertThat(workflowCaptor.getValue().getTopic(), is(equalTo(topic)));
         assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.STARTED)));
+    }
+        @Test
+    public void testOnGameStartedWithGameStartedElsewhere() {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String controllingUserId = "U1346";
+
+        final Workflow otherWorkflow = new Workflow();
+        otherWorkflow.setChannelId(channelId);
+        otherWorkflow.setControllingUserId(controllingUserId);
+        otherWorkflow.setStage(WorkflowStage.STARTED);
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(null);
+        given(workflowDao.putIfAbsent(any())).willReturn(otherWorkflow);
+
+        Exception exception = null;
+
+        try {
+            cut.onGameStarted(channelId, userId, null);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(notNullValue()));
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("<@" + controllingUserId + "> is currently hosting.")));
+
+        verify(workflowDao, never()).save(any());
     }
     //endregion
 
@@ -267,7 +328,7 @@ public class WorkflowServiceImplTest {
         assertThat(exception, is(nullValue()));
 
         verify(workflowDao).findByChannelId(channelId);
-        verify(workflowDao).delete(id.toHexString());
+        verify(workflowDao).delete(channelId);
     }
     //endregion
 
@@ -453,6 +514,38 @@ public class WorkflowServiceImplTest {
         assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(userId)));
         assertThat(workflowCaptor.getValue().getQuestion(), is(equalTo(question)));
         assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.QUESTION_ASKED)));
+        assertThat(workflowCaptor.getValue().getQuestionNumber(), is(equalTo(1L)));
+
+        //The answers to the question it replaced are no longer read
+        verify(workflowDao).deleteAnswers(channelId, 0L);
+    }
+
+    @Test
+    public void testOnQuestionSubmittedWhenReplacedAnswersCannotBeDeleted() {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        final Workflow workflow = new Workflow();
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(userId);
+        workflow.setQuestionNumber(4L);
+        workflow.setStage(WorkflowStage.STARTED);
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(workflow);
+        willThrow(new IllegalStateException("unavailable")).given(workflowDao).deleteAnswers(anyString(), anyLong());
+
+        Exception exception = null;
+
+        try {
+            cut.onQuestionSubmitted(channelId, userId, "test question");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(nullValue()));
+
+        verify(workflowDao).save(any(Workflow.class));
+        verify(workflowDao).deleteAnswers(channelId, 4L);
     }
     //endregion
 
@@ -627,22 +720,16 @@ public class WorkflowServiceImplTest {
 
         verify(workflowDao).findByChannelId(channelId);
 
-        ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
-        verify(workflowDao).save(workflowCaptor.capture());
-
-        assertThat(workflowCaptor.getValue(), is(notNullValue()));
-        assertThat(workflowCaptor.getValue().getId(), is(equalTo(id)));
-        assertThat(workflowCaptor.getValue().getChannelId(), is(equalTo(channelId)));
-        assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(controllingUserId)));
-        assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.QUESTION_ASKED)));
+        ArgumentCaptor<Answer> answerCaptor = ArgumentCaptor.forClass(Answer.class);
+        verify(workflowDao).addAnswer(any(), answerCaptor.capture());
+        verify(workflowDao, never()).save(any());
 
-        final List<Answer> answers = workflowCaptor.getValue().getAnswers();
-        assertThat(answers, is(notNullValue()));
-        assertThat(answers.size(), is(equalTo(1)));
-        assertThat(answers.get(0).getUserId(), is(equalTo(userId)));
-        assertThat(answers.get(0).getUsername(), is(equalTo(username)));
-        assertThat(answers.get(0).getText(), is(equalTo(answerText)));
-        assertThat(answers.get(0).getCreatedDate(), is(equalTo(answerTime)));
+        final Answer answer = answerCaptor.getValue();
+        assertThat(answer, is(notNullValue()));
+        assertThat(answer.getUserId(), is(equalTo(userId)));
+        assertThat(answer.getUsername(), is(equalTo(username)));
+        assertThat(answer.getText(), is(equalTo(answerText)));
+        assertThat(answer.getCreatedDate(), is(equalTo(answerTime)));
     }
     //endregion
 
@@ -948,4 +1035,576 @@ public class WorkflowServiceImplTest {
         assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.STARTED)));
     }
     //endregion
+
+    //region resolveQuestion
+    @Test
+    public void testResolveQuestionWithNullChannelId() throws Exception {
+        assertThat(cut.resolveQuestion(null, "U6789", "U1532").isEmpty(), is(true));
+
+        verifyZeroInteractions(workflowDao, scoreService);
+    }
+
+    @Test
+    public void testResolveQuestionWithNoExistingWorkflow() {
+        given(workflowDao.findByChannelId(anyString())).willReturn(null);
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion("C12345", "U6789", "U1532");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(GameNotStartedException.class)));
+
+        verifyZeroInteractions(scoreService);
+    }
+
+    @Test
+    public void testResolveQuestionWithDifferentHost() {
+        final String channelId = "C12345";
+        final String controllingUserId = "U1346";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(createQuestionAsked(channelId, controllingUserId));
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion(channelId, "U6789", "U1532");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("It's <@" + controllingUserId + ">'s turn; only he/she can mark an answer correct.")));
+
+        verifyZeroInteractions(scoreService);
+        verify(workflowDao, never()).saveWithPoint(any(), any());
+    }
+
+    @Test
+    public void testResolveQuestionWithNoQuestionAsked() {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        final Workflow workflow = createQuestionAsked(channelId, userId);
+        workflow.setStage(WorkflowStage.STARTED);
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(workflow);
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion(channelId, userId, "U1532");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("A question has not yet been submitted. Please ask a question before marking an answer correct.")));
+
+        verifyZeroInteractions(scoreService);
+    }
+
+    @Test
+    public void testResolveQuestionWithUnknownWinner() {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(createQuestionAsked(channelId, userId));
+        given(scoreService.scoreQuestion(anyString(), anyString(), any())).willReturn(null);
+
+        Exception exception = null;
+
+        try {
+            cut.resolveQuestion(channelId, userId, "U1532");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(ScoreException.class)));
+
+        verify(workflowDao, never()).saveWithPoint(any(), any());
+        verify(workflowDao, never()).save(any());
+    }
+
+    @Test
+    public void testResolveQuestionWithWinner() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String winnerUserId = "U1532";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(createQuestionAsked(channelId, userId));
+        given(workflowDao.saveWithPoint(any(Workflow.class), eq(winnerUserId))).willReturn(createScore(channelId, winnerUserId, "jsmith", 5L));
+        givenScoreQuestionCloses(winnerUserId);
+
+        final Map<SlackUser, Long> scoresByUser = cut.resolveQuestion(channelId, userId, winnerUserId);
+
+        assertThat(scoresByUser.get(new SlackUser(winnerUserId, "jsmith")), is(equalTo(5L)));
+
+        final ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
+        verify(workflowDao).saveWithPoint(workflowCaptor.capture(), eq(winnerUserId));
+        verify(workflowDao, never()).save(any());
+
+        assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(winnerUserId)));
+        assertThat(workflowCaptor.getValue().getQuestion(), is(nullValue()));
+        assertThat(workflowCaptor.getValue().getAnswers().isEmpty(), is(true));
+        assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.STARTED)));
+    }
+
+    @Test
+    public void testResolveQuestionWithoutWinnerGivesTurnBackToHost() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(createQuestionAsked(channelId, userId));
+        givenScoreQuestionCloses(null);
+
+        cut.resolveQuestion(channelId, userId, null);
+
+        final ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
+        verify(workflowDao).saveWithPoint(workflowCaptor.capture(), isNull());
+
+        assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(userId)));
+        assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.STARTED)));
+    }
+
+    @Test
+    public void testResolveQuestionWithPointGivenAfterClose() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String winnerUserId = "U1532";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(createQuestionAsked(channelId, userId));
+        givenScoreQuestionCloses(null);
+
+        cut.resolveQuestion(channelId, userId, winnerUserId);
+
+        //The score service gives the point itself, so only the turn is saved
+        final ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
+        verify(workflowDao).saveWithPoint(workflowCaptor.capture(), isNull());
+
+        assertThat(workflowCaptor.getValue().getControllingUserId(), is(equalTo(winnerUserId)));
+        assertThat(workflowCaptor.getValue().getStage(), is(equalTo(WorkflowStage.STARTED)));
+    }
+
+    @Test
+    public void testResolveQuestionTakesOneTransaction() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String winnerUserId = "U1532";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(createQuestionAsked(channelId, userId));
+        given(workflowDao.saveWithPoint(any(Workflow.class), anyString())).willReturn(createScore(channelId, winnerUserId, "jsmith", 5L));
+        givenScoreQuestionCloses(winnerUserId);
+
+        final WorkflowServiceImpl cachingCut = createCaching();
+        cachingCut.getCurrentGameState(channelId);
+        clearInvocations(workflowDao);
+
+        cachingCut.resolveQuestion(channelId, userId, winnerUserId);
+
+        //Separately, scoring and changing the turn took two saves
+        assertThat(mockingDetails(workflowDao).getInvocations().size(), is(equalTo(1)));
+
+        //The resolved workflow was cached, so the next command does not read it either
+        cachingCut.getCurrentGameState(channelId);
+        verify(workflowDao, never()).findByChannelId(channelId);
+    }
+
+    @Test
+    public void testResolveQuestionRetriesConflict() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String winnerUserId = "U1532";
+
+        willAnswer(invocation -> createQuestionAsked(channelId, userId)).given(workflowDao).findByChannelId(anyString());
+        given(workflowDao.saveWithPoint(any(Workflow.class), anyString()))
+                .willThrow(new OptimisticLockingFailureException("conflict"))
+                .willReturn(createScore(channelId, winnerUserId, "jsmith", 5L));
+        givenScoreQuestionCloses(winnerUserId);
+
+        final Map<SlackUser, Long> scoresByUser = createRetrying(2).resolveQuestion(channelId, userId, winnerUserId);
+
+        assertThat(scoresByUser.get(new SlackUser(winnerUserId, "jsmith")), is(equalTo(5L)));
+
+        verify(workflowDao, times(2)).findByChannelId(channelId);
+        verify(scoreService, times(2)).scoreQuestion(eq(channelId), eq(winnerUserId), any());
+    }
+
+    //Runs the closer as the score service would, giving it the point to save if any
+    private void givenScoreQuestionCloses(final String pointUserId) {
+        given(scoreService.scoreQuestion(anyString(), any(), any())).willAnswer(invocation -> {
+            final ScoreService.QuestionCloser closer = invocation.getArgument(2);
+            final Long savedScore = closer.close(pointUserId);
+
+            final Map<SlackUser, Long> scoresByUser = new ConcurrentHashMap<>();
+            scoresByUser.put(new SlackUser("U1346", "jdoe"), 2L);
+
+            if (pointUserId != null) {
+                scoresByUser.put(new SlackUser(pointUserId, "jsmith"), savedScore);
+            }
+
+            return scoresByUser;
+        });
+    }
+
+    private static Workflow createQuestionAsked(final String channelId, final String controllingUserId) {
+        final Workflow workflow = new Workflow();
+        workflow.setId(new ObjectId());
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(controllingUserId);
+        workflow.setQuestion("test question");
+        workflow.setStage(WorkflowStage.QUESTION_ASKED);
+        workflow.setVersion(3L);
+
+        return workflow;
+    }
+
+    private static ScoreInfo createScore(final String channelId, final String userId, final String username, final long score) {
+        final ScoreInfo scoreInfo = new ScoreInfo();
+        scoreInfo.setId(new ObjectId());
+        scoreInfo.setChannelId(channelId);
+        scoreInfo.setUserId(userId);
+        scoreInfo.setUsername(username);
+        scoreInfo.setScore(score);
+
+        return scoreInfo;
+    }
+    //endregion
+
+    //region cache
+    @Test
+    public void testCachedWorkflowIsReadOnce() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        final Workflow workflow = new Workflow();
+        workflow.setId(new ObjectId());
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(userId);
+        workflow.setQuestion("test question");
+        workflow.setStage(WorkflowStage.QUESTION_ASKED);
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(workflow);
+
+        final WorkflowServiceImpl cachingCut = createCaching();
+
+        cachingCut.onCorrectAnswerSelected(channelId, userId);
+        assertThat(cachingCut.getCurrentGameState(channelId).getQuestion(), is(equalTo("test question")));
+        assertThat(cachingCut.getCurrentGameState(channelId).getControllingUserId(), is(equalTo(userId)));
+
+        verify(workflowDao, times(1)).findByChannelId(channelId);
+        assertThat(cachingCut.getCacheStats().missCount(), is(equalTo(1L)));
+        assertThat(cachingCut.getCacheStats().hitCount(), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testCacheIsWrittenThrough() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(null);
+        willAnswer(invocation -> invocation.getArgument(0)).given(workflowDao).save(any());
+
+        final WorkflowServiceImpl cachingCut = createCaching();
+
+        cachingCut.onGameStarted(channelId, userId, null);
+        cachingCut.onQuestionSubmitted(channelId, userId, "test question");
+        cachingCut.onAnswerSubmitted(channelId, "U1532", "jsmith", "test answer", LocalDateTime.now());
+
+        final GameState gameState = cachingCut.getCurrentGameState(channelId);
+        assertThat(gameState.getQuestion(), is(equalTo("test question")));
+        assertThat(gameState.getAnswers().size(), is(equalTo(1)));
+
+        cachingCut.onGameStopped(channelId, userId);
+
+        verify(workflowDao).delete(channelId);
+        assertThat(cachingCut.getCurrentGameState(channelId).getControllingUserId(), is(nullValue()));
+        verify(workflowDao, times(1)).findByChannelId(channelId);
+    }
+
+    @Test
+    public void testFailedSaveIsNotCached() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        final Workflow workflow = new Workflow();
+        workflow.setId(new ObjectId());
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(userId);
+        workflow.setStage(WorkflowStage.STARTED);
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(workflow);
+        given(workflowDao.save(any())).willThrow(new IllegalStateException("boom"));
+
+        final WorkflowServiceImpl cachingCut = createCaching();
+
+        try {
+            cachingCut.onQuestionSubmitted(channelId, userId, "test question");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is(equalTo("boom")));
+        }
+
+        assertThat(cachingCut.getCurrentGameState(channelId).getQuestion(), is(nullValue()));
+        verify(workflowDao, times(2)).findByChannelId(channelId);
+    }
+
+    @Test
+    public void testInvalidate() {
+        final String channelId = "C12345";
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(null);
+
+        final WorkflowServiceImpl cachingCut = createCaching();
+
+        cachingCut.getCurrentGameState(channelId);
+        cachingCut.getCurrentGameState(channelId);
+        cachingCut.invalidate(channelId);
+        cachingCut.getCurrentGameState(channelId);
+
+        verify(workflowDao, times(2)).findByChannelId(channelId);
+        assertThat(cachingCut.getCachedWorkflowCount(), is(equalTo(1L)));
+    }
+
+    private WorkflowServiceImpl createCaching() {
+        final WorkflowCacheConfig cachingConfig = new WorkflowCacheConfig();
+        cachingConfig.setEnabled(true);
+
+        return new WorkflowServiceImpl(workflowDao, scoreService, cachingConfig, retryConfig);
+    }
+    //endregion
+
+    //region concurrency
+    @Test
+    public void testConcurrentAnswersInOneChannelAreAllKept() throws Exception {
+        final int answerCount = 500;
+        final String channelId = "C12345";
+        final String hostId = "U6789";
+        final Map<String, Workflow> store = createStore();
+
+        cut.onGameStarted(channelId, hostId, null);
+        cut.onQuestionSubmitted(channelId, hostId, "test question");
+
+        submitConcurrently(answerCount, 16, i -> cut.onAnswerSubmitted(channelId, "P" + i, "user" + i, "answer " + i, LocalDateTime.now()));
+
+        final List<Answer> answers = store.get(channelId).getAnswers();
+        assertThat(answers.size(), is(equalTo(answerCount)));
+        assertThat(answers.stream().map(Answer::getUserId).distinct().count(), is(equalTo((long) answerCount)));
+    }
+
+    @Test
+    public void testAnswersAcrossChannelsAreAllKept() throws Exception {
+        final int channelCount = 1000;
+        final int answersPerChannel = 20;
+        final String hostId = "U6789";
+        final Map<String, Workflow> store = createStore();
+
+        for (int c = 0; c < channelCount; c++) {
+            cut.onGameStarted("C" + c, hostId, null);
+            cut.onQuestionSubmitted("C" + c, hostId, "test question");
+        }
+
+        submitConcurrently(channelCount * answersPerChannel, 16, i ->
+                cut.onAnswerSubmitted("C" + (i % channelCount), "P" + i, "user" + i, "answer " + i, LocalDateTime.now())
+        );
+
+        for (int c = 0; c < channelCount; c++) {
+            assertThat(store.get("C" + c).getAnswers().size(), is(equalTo(answersPerChannel)));
+        }
+    }
+
+    private Map<String, Workflow> createStore() {
+        final Map<String, Workflow> store = new ConcurrentHashMap<>();
+
+        willAnswer(invocation -> {
+            final Workflow workflow = store.get(invocation.<String>getArgument(0));
+            //Widen the window between the read and the write
+            Thread.yield();
+            return workflow == null ? null : copyOf(workflow);
+        }).given(workflowDao).findByChannelId(anyString());
+
+        willAnswer(invocation -> {
+            final Workflow workflow = invocation.getArgument(0);
+            final Workflow existingWorkflow = store.putIfAbsent(workflow.getChannelId(), copyOf(workflow));
+            return existingWorkflow == null ? null : copyOf(existingWorkflow);
+        }).given(workflowDao).putIfAbsent(any());
+
+        willAnswer(invocation -> {
+            final Workflow workflow = invocation.getArgument(0);
+            store.put(workflow.getChannelId(), copyOf(workflow));
+            return workflow;
+        }).given(workflowDao).save(any());
+
+        willAnswer(invocation -> {
+            store.get(invocation.<Workflow>getArgument(0).getChannelId()).getAnswers().add(invocation.getArgument(1));
+            return null;
+        }).given(workflowDao).addAnswer(any(), any());
+
+        return store;
+    }
+
+    private static void submitConcurrently(final int count, final int threadCount, final IndexedCommand command) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> submissions = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+
+            submissions.add(executor.submit(() -> {
+                start.await();
+                command.run(index);
+                return null;
+            }));
+        }
+
+        start.countDown();
+
+        for (final Future<?> submission : submissions) {
+            submission.get(30, TimeUnit.SECONDS);
+        }
+
+        executor.shutdown();
+    }
+
+    private static Workflow copyOf(final Workflow workflow) {
+        final Workflow copy = new Workflow();
+        copy.setId(workflow.getId());
+        copy.setChannelId(workflow.getChannelId());
+        copy.setControllingUserId(workflow.getControllingUserId());
+        copy.setTopic(workflow.getTopic());
+        copy.setQuestion(workflow.getQuestion());
+        copy.setAnswers(new ArrayList<>(workflow.getAnswers()));
+        copy.setStage(workflow.getStage());
+
+        return copy;
+    }
+
+    @FunctionalInterface
+    private interface IndexedCommand {
+        void run(int index) throws Exception;
+    }
+    //endregion
+
+    //region conflicts
+    @Test
+    public void testOnQuestionSubmittedRetriesAfterConflict() {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+        final String question = "test question";
+
+        given(workflowDao.findByChannelId(anyString())).willAnswer(invocation -> {
+            final Workflow workflow = new Workflow();
+            workflow.setChannelId(channelId);
+            workflow.setControllingUserId(userId);
+            workflow.setStage(WorkflowStage.STARTED);
+            workflow.setVersion(0L);
+
+            return workflow;
+        });
+        given(workflowDao.save(any(Workflow.class)))
+                .willThrow(new OptimisticLockingFailureException("conflict"))
+                .willAnswer(invocation -> invocation.getArgument(0));
+
+        final WorkflowServiceImpl retryingCut = createRetrying(3);
+
+        Exception exception = null;
+
+        try {
+            retryingCut.onQuestionSubmitted(channelId, userId, question);
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(nullValue()));
+
+        verify(workflowDao, times(2)).findByChannelId(channelId);
+
+        ArgumentCaptor<Workflow> workflowCaptor = ArgumentCaptor.forClass(Workflow.class);
+        verify(workflowDao, times(2)).save(workflowCaptor.capture());
+
+        assertThat(workflowCaptor.getValue().getQuestion(), is(equalTo(question)));
+        assertThat(workflowCaptor.getValue().getQuestionNumber(), is(equalTo(1L)));
+        assertThat(retryingCut.getConflictCounts().get(channelId), is(equalTo(1L)));
+        assertThat(retryingCut.getRetryCounts().get(channelId), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testOnTurnChangedGivesUpAfterRepeatedConflicts() {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        given(workflowDao.findByChannelId(anyString())).willAnswer(invocation -> {
+            final Workflow workflow = new Workflow();
+            workflow.setChannelId(channelId);
+            workflow.setControllingUserId(userId);
+            workflow.setStage(WorkflowStage.QUESTION_ASKED);
+            workflow.setVersion(0L);
+
+            return workflow;
+        });
+        willThrow(new OptimisticLockingFailureException("conflict")).given(workflowDao).save(any(Workflow.class));
+
+        final WorkflowServiceImpl retryingCut = createRetrying(3);
+
+        Exception exception = null;
+
+        try {
+            retryingCut.onTurnChanged(channelId, userId, "U1111");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(notNullValue()));
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+        assertThat(exception.getMessage(), is(equalTo("The game changed while your command was being handled. Please try again.")));
+
+        verify(workflowDao, times(3)).save(any(Workflow.class));
+
+        assertThat(retryingCut.getConflictCounts().get(channelId), is(equalTo(3L)));
+        assertThat(retryingCut.getRetryCounts().get(channelId), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testConflictDropsCachedWorkflow() throws Exception {
+        final String channelId = "C12345";
+        final String userId = "U6789";
+
+        final Workflow workflow = new Workflow();
+        workflow.setChannelId(channelId);
+        workflow.setControllingUserId(userId);
+        workflow.setStage(WorkflowStage.STARTED);
+        workflow.setVersion(0L);
+
+        given(workflowDao.findByChannelId(anyString())).willReturn(workflow);
+        willThrow(new OptimisticLockingFailureException("conflict")).given(workflowDao).save(any(Workflow.class));
+
+        final WorkflowCacheConfig cachingConfig = new WorkflowCacheConfig();
+        cachingConfig.setEnabled(true);
+        retryConfig.setMaxAttempts(2);
+
+        final WorkflowServiceImpl cachingCut = new WorkflowServiceImpl(workflowDao, scoreService, cachingConfig, retryConfig);
+
+        Exception exception = null;
+
+        try {
+            cachingCut.onQuestionSubmitted(channelId, userId, "test question");
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(WorkflowException.class)));
+
+        //Each attempt read the workflow again rather than reusing the cached one
+        verify(workflowDao, times(2)).findByChannelId(channelId);
+    }
+
+    private WorkflowServiceImpl createRetrying(final int maxAttempts) {
+        retryConfig.setMaxAttempts(maxAttempts);
+
+        return new WorkflowServiceImpl(workflowDao, scoreService, config, retryConfig);
+    }
+    //endregion
 }
@@ -0,0 +1,86 @@
+package org.bj.examples.trivia.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bj.examples.trivia.exception.ScoreException;
+import org.junit.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+public class OptimisticRetryTest {
+    @Test
+    public void testRunWithoutConflict() throws Exception {
+        final OptimisticRetry retry = new OptimisticRetry(3, 0L);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        retry.run("C12345", attempts::incrementAndGet);
+
+        assertThat(attempts.get(), is(equalTo(1)));
+        assertThat(retry.getConflictCounts().get("C12345"), is(nullValue()));
+        assertThat(retry.getRetryCounts().get("C12345"), is(nullValue()));
+    }
+
+    @Test
+    public void testRunRetriesUntilNoConflict() throws Exception {
+        final OptimisticRetry retry = new OptimisticRetry(3, 1L);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        retry.run("C12345", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new OptimisticLockingFailureException("conflict");
+            }
+        });
+
+        assertThat(attempts.get(), is(equalTo(3)));
+        assertThat(retry.getConflictCounts().get("C12345"), is(equalTo(2L)));
+        assertThat(retry.getRetryCounts().get("C12345"), is(equalTo(2L)));
+    }
+
+    @Test
+    public void testRunGivesUpAfterMaxAttempts() {
+        final OptimisticRetry retry = new OptimisticRetry(2, 0L);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Exception exception = null;
+
+        try {
+            retry.run("C12345", () -> {
+                attempts.incrementAndGet();
+                throw new OptimisticLockingFailureException("conflict");
+            });
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(OptimisticLockingFailureException.class)));
+        assertThat(attempts.get(), is(equalTo(2)));
+        assertThat(retry.getConflictCounts().get("C12345"), is(equalTo(2L)));
+        assertThat(retry.getRetryCounts().get("C12345"), is(equalTo(1L)));
+    }
+
+    @Test
+    public void testRunDoesNotRetryOtherExceptions() {
+        final OptimisticRetry retry = new OptimisticRetry(3, 0L);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        Exception exception = null;
+
+        try {
+            retry.run("C12345", () -> {
+                attempts.incrementAndGet();
+                throw new ScoreException();
+            });
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(ScoreException.class)));
+        assertThat(attempts.get(), is(equalTo(1)));
+        assertThat(retry.getConflictCounts().get("C12345"), is(nullValue()));
+    }
+}
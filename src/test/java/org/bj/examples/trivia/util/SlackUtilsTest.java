@@ -1,10 +1,20 @@
 package org.bj.examples.trivia.util;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.util.Arrays;
+
+import org.bj.examples.trivia.dto.SlackAttachment;
+import org.bj.examples.trivia.dto.SlackResponseDoc;
+import org.bj.examples.trivia.dto.SlackResponseType;
 import org.junit.Test;
 
 public class SlackUtilsTest {
@@ -32,4 +42,58 @@ public class SlackUtilsTest {
     public void testNormalizeIdWithValidSlackIdAndEmptyUsername() {
         assertThat(SlackUtils.normalizeId("<@U12345|>"), is(equalTo("U12345")));
     }
+
+    @Test
+    public void testMergeResponsesWithSingleResponse() {
+        final SlackResponseDoc responseDoc = new SlackResponseDoc();
+
+        assertThat(SlackUtils.mergeResponses(Arrays.asList(responseDoc)), is(sameInstance(responseDoc)));
+    }
+
+    @Test
+    public void testMergeResponsesWithMultipleResponses() {
+        final SlackResponseDoc answer = new SlackResponseDoc();
+        answer.setResponseType(SlackResponseType.IN_CHANNEL);
+        answer.setText("<@U1> answers:");
+        answer.setAttachments(Arrays.asList(new SlackAttachment("Blue skies", false)));
+
+        final SlackResponseDoc status = new SlackResponseDoc();
+        status.setResponseType(SlackResponseType.IN_CHANNEL);
+        status.setText("*Turn:* Yours");
+
+        final SlackResponseDoc mergedResponseDoc = SlackUtils.mergeResponses(Arrays.asList(answer, status));
+
+        assertThat(mergedResponseDoc.getResponseType(), is(equalTo(SlackResponseType.IN_CHANNEL)));
+        assertThat(mergedResponseDoc.getText(), is(nullValue()));
+        assertThat(mergedResponseDoc.getAttachments(), hasSize(2));
+
+        assertThat(mergedResponseDoc.getAttachments().get(0).getPretext(), is(equalTo("<@U1> answers:")));
+        assertThat(mergedResponseDoc.getAttachments().get(0).getText(), is(equalTo("Blue skies")));
+        assertThat(mergedResponseDoc.getAttachments().get(0).getMrkdwn_in(), is(empty()));
+
+        assertThat(mergedResponseDoc.getAttachments().get(1).getPretext(), is(nullValue()));
+        assertThat(mergedResponseDoc.getAttachments().get(1).getText(), is(equalTo("*Turn:* Yours")));
+        assertThat(mergedResponseDoc.getAttachments().get(1).getMrkdwn_in(), contains("text"));
+    }
+
+    @Test
+    public void testMergeResponsesWithMixedTypes() {
+        final SlackResponseDoc answer = new SlackResponseDoc();
+        answer.setResponseType(SlackResponseType.IN_CHANNEL);
+        answer.setText("<@U1> answers:");
+
+        final SlackResponseDoc status = new SlackResponseDoc();
+        status.setResponseType(SlackResponseType.EPHEMERAL);
+        status.setText("*Turn:* Yours");
+
+        Exception exception = null;
+
+        try {
+            SlackUtils.mergeResponses(Arrays.asList(answer, status));
+        } catch (Exception e) {
+            exception = e;
+        }
+
+        assertThat(exception, is(instanceOf(IllegalArgumentException.class)));
+    }
 }
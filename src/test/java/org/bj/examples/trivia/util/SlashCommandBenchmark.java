@@ -0,0 +1,62 @@
+package org.bj.examples.trivia.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the single-pass parser with the split/regex parsing it replaced
+ * over the commands in {@link SlashCommandTest#CORPUS}. Run the main method
+ * from the test classpath; add -prof gc to the options to see allocations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlashCommandBenchmark {
+    private final String[] commands = SlashCommandTest.CORPUS.toArray(new String[0]);
+
+    @Benchmark
+    public void splitAndRegex(final Blackhole blackhole) {
+        for (final String text : commands) {
+            final SlashCommandTest.SplitCommand command = new SlashCommandTest.SplitCommand(text);
+            blackhole.consume(command.operator);
+            blackhole.consume(command.arguments);
+
+            if (command.parts.length >= 2) {
+                blackhole.consume(SlashCommandTest.normalizeIdWithRegex(command.parts[1]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void singlePass(final Blackhole blackhole) {
+        for (final String text : commands) {
+            final SlashCommand command = SlashCommand.parse(text);
+            blackhole.consume(command.getOperator());
+            blackhole.consume(command.getArguments());
+
+            if (command.hasArguments()) {
+                blackhole.consume(SlackUtils.normalizeId(command.getArgument()));
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SlashCommandBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,188 @@
+package org.bj.examples.trivia.util;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class SlashCommandTest {
+    //Commands as typed in real games
+    static final List<String> CORPUS = Arrays.asList(
+            "",
+            "start",
+            "start movie quotes",
+            "  start   80s   music  ",
+            "stop",
+            "join",
+            "pass",
+            "pass <@U0G9QF9C6|jsmith>",
+            "pass @jsmith",
+            "question",
+            "question In what year did WWII officially begin?",
+            "question What does ATM stand for?\nHint: it's not the machine",
+            "  question   What    does ATM stand for?   ",
+            "answer",
+            "answer 1939",
+            "answer   I    do not    know   ",
+            "answer Automated Teller Machine",
+            "answer <@U024BE7LH> knows this one",
+            "correct",
+            "correct <@U12345>",
+            "correct <@U12345|jsmith> Chris Farley",
+            "correct <@12345>   I    do not    know",
+            "correct none 1939",
+            "correct none",
+            "status",
+            "scores",
+            "reset",
+            "help",
+            "Start",
+            "startx",
+            "answer\t\ttabs\tand spaces",
+            "correct\n<@U1>\nmultiline answer",
+            "question ¿Dónde está la biblioteca? 📚",
+            "answer ",
+            " ",
+            "\t\n"
+    );
+
+    private static final Pattern SLACK_ID_PATTERN = Pattern.compile("^<@(.+?)(\\|.*)?>$");
+
+    @Test
+    public void testOperatorAndArguments() {
+        final SlashCommand command = SlashCommand.parse("  correct   <@U12345|jsmith>   Chris   Farley  ");
+
+        assertThat(command.getOperator(), is(equalTo(SlashCommand.Operator.CORRECT)));
+        assertThat(command.hasArguments(), is(true));
+        assertThat(command.getArguments(), is(equalTo("<@U12345|jsmith>   Chris   Farley")));
+        assertThat(command.getArgument(), is(equalTo("<@U12345|jsmith>")));
+        assertThat(command.getRemainder(), is(equalTo("Chris   Farley")));
+    }
+
+    @Test
+    public void testOperatorOnly() {
+        final SlashCommand command = SlashCommand.parse("scores  ");
+
+        assertThat(command.getOperator(), is(equalTo(SlashCommand.Operator.SCORES)));
+        assertThat(command.hasArguments(), is(false));
+        assertThat(command.getArguments(), is(equalTo("")));
+        assertThat(command.getArgument(), is(nullValue()));
+        assertThat(command.getRemainder(), is(nullValue()));
+    }
+
+    @Test
+    public void testUnknownOperator() {
+        assertThat(SlashCommand.parse("startx").getOperator(), is(nullValue()));
+        assertThat(SlashCommand.parse("Start").getOperator(), is(nullValue()));
+        assertThat(SlashCommand.parse(null).getOperator(), is(nullValue()));
+        assertThat(SlashCommand.parse(null).getOperatorText(), is(equalTo("")));
+    }
+
+    @Test
+    public void testCorpusMatchesSplitParsing() {
+        for (final String text : CORPUS) {
+            assertSameAsSplit(text);
+        }
+    }
+
+    @Test
+    public void testFuzzedCorpusMatchesSplitParsing() {
+        final Random random = new Random(20181018L);
+        final String[] separators = { " ", "  ", "\t", "\n", "\r\n", "\f", "\u000B" };
+        final String[] fragments = { "<@U12345>", "<@U1|bob>", "none", "correct", "answer", "é", "📚", "|", ">", "<@" };
+
+        for (int i = 0; i < 20000; i++) {
+            final String base = CORPUS.get(random.nextInt(CORPUS.size()));
+            final StringBuilder text = new StringBuilder();
+
+            for (final String word : base.split(" ", -1)) {
+                if (random.nextInt(5) == 0) {
+                    text.append(fragments[random.nextInt(fragments.length)]);
+                }
+
+                text.append(word).append(separators[random.nextInt(separators.length)]);
+            }
+
+            if (random.nextBoolean()) {
+                text.insert(0, separators[random.nextInt(separators.length)]);
+            }
+
+            assertSameAsSplit(text.toString());
+        }
+    }
+
+    @Test
+    public void testNormalizeIdMatchesRegex() {
+        final Random random = new Random(20181018L);
+        final String alphabet = "<@>|U12ab \n\r\u0085 é";
+
+        final List<String> ids = new ArrayList<>(Arrays.asList(
+                "<@U12345>", "<@U12345|jsmith>", "<@U12345|>", "<@|>", "<@>", "<@", "<@>>", "<@a>b>",
+                "<@||x>", "<@U1>\n", "<@U1>\r\n", "<@U1>\n\n", "<@U1\n>", "<@U1|a\nb>", "<@U1> ", "U12345", ""
+        ));
+
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder id = new StringBuilder(random.nextInt(4) == 0 ? "" : "<@");
+            final int length = random.nextInt(8);
+
+            for (int j = 0; j < length; j++) {
+                id.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            ids.add(id.toString());
+        }
+
+        for (final String id : ids) {
+            assertThat("normalizeId(\"" + id + "\")", SlackUtils.normalizeId(id), is(equalTo(normalizeIdWithRegex(id))));
+        }
+    }
+
+    private static void assertSameAsSplit(final String text) {
+        final SplitCommand expected = new SplitCommand(text);
+        final SlashCommand actual = SlashCommand.parse(text);
+        final String reason = "\"" + text + "\"";
+
+        assertThat(reason, actual.getOperatorText(), is(equalTo(expected.operator)));
+        assertThat(reason, actual.hasArguments(), is(expected.parts.length >= 2));
+        assertThat(reason, actual.getArguments(), is(equalTo(expected.arguments)));
+
+        if (expected.parts.length >= 2) {
+            assertThat(reason, actual.getArgument(), is(equalTo(expected.parts[1])));
+            assertThat(reason, actual.getRemainder(), is(equalTo(
+                    expected.parts.length > 2 ? expected.arguments.substring(expected.parts[1].length()).trim() : null
+            )));
+        }
+    }
+
+    static String normalizeIdWithRegex(final String slackId) {
+        if (slackId == null) {
+            return null;
+        }
+
+        final Matcher matcher = SLACK_ID_PATTERN.matcher(slackId);
+        return matcher.find() ? matcher.group(1) : slackId;
+    }
+
+    //The parsing SlackSlashCommandServiceImpl used to do
+    static final class SplitCommand {
+        final String[] parts;
+        final String operator;
+        final String arguments;
+
+        SplitCommand(final String text) {
+            final String commandText = text == null ? "" : text.trim();
+            parts = commandText.split("\\s+");
+            operator = parts[0];
+            arguments = commandText.substring(operator.length()).trim();
+        }
+    }
+}